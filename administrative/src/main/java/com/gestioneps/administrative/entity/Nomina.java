@@ -8,7 +8,9 @@ import org.hibernate.annotations.UpdateTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "nomina")
+@Table(name = "nomina", indexes = {
+    @Index(name = "idx_nomina_empleado", columnList = "empleado_id")
+})
 public class Nomina {
 
     @Id
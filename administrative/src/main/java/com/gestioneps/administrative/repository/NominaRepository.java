@@ -6,12 +6,10 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
-
 @Repository
 public interface NominaRepository extends JpaRepository<Nomina, Long> {
 
     Page<Nomina> findByActivoTrue(Pageable pageable);
 
-    List<Nomina> findByEmpleadoIdAndActivoTrue(Long empleadoId);
+    Page<Nomina> findByEmpleadoIdAndActivoTrue(Long empleadoId, Pageable pageable);
 }
\ No newline at end of file
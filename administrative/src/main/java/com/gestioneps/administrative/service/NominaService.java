@@ -6,12 +6,10 @@ import com.gestioneps.administrative.entity.Nomina;
 import com.gestioneps.administrative.repository.EmpleadoRepository;
 import com.gestioneps.administrative.repository.NominaRepository;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
 
 @Service
 @Transactional
@@ -69,22 +67,7 @@ public class NominaService {
      */
     @Transactional(readOnly = true)
     public Page<NominaDTO> obtenerNominasPorEmpleado(Long empleadoId, Pageable pageable) {
-        List<Nomina> nominas = nominaRepository.findByEmpleadoIdAndActivoTrue(empleadoId);
-
-        // Aplicar paginación manualmente
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), nominas.size());
-
-        if (start > nominas.size()) {
-            return Page.empty();
-        }
-
-        List<Nomina> pageContent = nominas.subList(start, end);
-        return new PageImpl<>(
-            pageContent.stream().map(this::convertirEntidadADTO).toList(),
-            pageable,
-            nominas.size()
-        );
+        return nominaRepository.findByEmpleadoIdAndActivoTrue(empleadoId, pageable).map(this::convertirEntidadADTO);
     }
 
     /**
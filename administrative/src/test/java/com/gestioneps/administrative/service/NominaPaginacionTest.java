@@ -0,0 +1,69 @@
+package com.gestioneps.administrative.service;
+
+import com.gestioneps.administrative.dto.NominaDTO;
+import com.gestioneps.administrative.entity.Empleado;
+import com.gestioneps.administrative.entity.Nomina;
+import com.gestioneps.administrative.repository.EmpleadoRepository;
+import com.gestioneps.administrative.repository.NominaRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Las nóminas de un empleado se paginan en la base de datos: una página lee sus filas y la del conteo,
+ * no todas las nóminas del empleado
+ */
+@SpringBootTest
+class NominaPaginacionTest {
+
+    private static final int NOMINAS = 120;
+    private static final int TAMANO_PAGINA = 10;
+
+    @Autowired
+    private NominaService nominaService;
+
+    @Autowired
+    private EmpleadoRepository empleadoRepository;
+
+    @Autowired
+    private NominaRepository nominaRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void nominasDeUnEmpleado() {
+        Empleado empleado = new Empleado();
+        empleado.setJsonData("{\"nombre\":\"Empleado Prueba\"}");
+        empleado = empleadoRepository.save(empleado);
+        for (int i = 0; i < NOMINAS; i++) {
+            Nomina nomina = new Nomina();
+            nomina.setEmpleado(empleado);
+            nomina.setJsonData("{\"periodo\":" + i + "}");
+            nominaRepository.save(nomina);
+        }
+
+        Statistics estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        estadisticas.clear();
+        Page<NominaDTO> pagina = nominaService.obtenerNominasPorEmpleado(empleado.getId(), PageRequest.of(4, TAMANO_PAGINA));
+
+        assertEquals(TAMANO_PAGINA, pagina.getNumberOfElements());
+        assertEquals(NOMINAS, pagina.getTotalElements());
+        long filas = 0;
+        for (String consulta : estadisticas.getQueries()) {
+            filas += estadisticas.getQueryStatistics(consulta).getExecutionRowCount();
+        }
+        assertTrue(filas <= TAMANO_PAGINA + 1,
+            "El listado leyó " + filas + " filas para una página de " + TAMANO_PAGINA + " (total " + NOMINAS + ")");
+        assertTrue(estadisticas.getEntityLoadCount() <= TAMANO_PAGINA,
+            "Se cargaron " + estadisticas.getEntityLoadCount() + " nóminas para una página de " + TAMANO_PAGINA);
+    }
+}
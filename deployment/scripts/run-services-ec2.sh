@@ -76,6 +76,9 @@ run_service() {
             export SPRING_DATASOURCE_USERNAME="postgres"
             export SPRING_DATASOURCE_PASSWORD="postgres"
             export SPRING_JPA_HIBERNATE_DDL_AUTO="update"
+            # Almacén permanente de adjuntos de documentos médicos (obligatorio)
+            export PACIENTES_ARCHIVOS_DIR="${PACIENTES_ARCHIVOS_DIR:-$HOME/data/pacientes-archivos}"
+            mkdir -p "$PACIENTES_ARCHIVOS_DIR"
             nohup java -Xmx200m -Xms100m \
                 -jar pacientes-*.jar \
                 > ~/logs/pacientes.log 2>&1 &
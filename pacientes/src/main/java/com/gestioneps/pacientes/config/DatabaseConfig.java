@@ -2,6 +2,8 @@ package com.gestioneps.pacientes.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
@@ -16,4 +18,9 @@ public class DatabaseConfig {
         mapper.registerModule(new JavaTimeModule());
         return mapper;
     }
+
+    @Bean
+    public HibernatePropertiesCustomizer datosJsonInterceptorCustomizer() {
+        return properties -> properties.put(AvailableSettings.INTERCEPTOR, new DatosJsonFlushInterceptor());
+    }
 }
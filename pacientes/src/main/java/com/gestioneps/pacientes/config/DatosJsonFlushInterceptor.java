@@ -0,0 +1,23 @@
+package com.gestioneps.pacientes.config;
+
+import com.gestioneps.pacientes.entity.Paciente;
+import org.hibernate.Interceptor;
+
+import java.io.Serializable;
+import java.util.Iterator;
+
+/**
+ * Vuelca la vista tipada de los pacientes gestionados a su columna datos_json antes de cada flush,
+ * para que el dirty checking de Hibernate detecte los cambios hechos con los setters de conveniencia.
+ */
+public class DatosJsonFlushInterceptor implements Interceptor, Serializable {
+
+    @Override
+    public void preFlush(Iterator<Object> entities) {
+        while (entities.hasNext()) {
+            if (entities.next() instanceof Paciente paciente) {
+                paciente.sincronizarDatosJson();
+            }
+        }
+    }
+}
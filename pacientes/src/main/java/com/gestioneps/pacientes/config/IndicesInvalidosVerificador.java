@@ -0,0 +1,96 @@
+package com.gestioneps.pacientes.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repara los índices que un CREATE INDEX CONCURRENTLY fallido dejó en estado INVALID.
+ *
+ * db/pacientes-indices.sql crea sus índices con IF NOT EXISTS, así que un índice inválido de un arranque anterior
+ * se saltaría en silencio y las consultas no lo usarían. Al arrancar se buscan los índices inválidos del esquema
+ * que no están en construcción, se registran como error y se vuelven a crear concurrentemente con su misma
+ * definición, en segundo plano. Solo aplica a PostgreSQL.
+ */
+@Component
+public class IndicesInvalidosVerificador {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndicesInvalidosVerificador.class);
+
+    private static final String INDICES_INVALIDOS =
+        "SELECT c.relname AS nombre, pg_get_indexdef(i.indexrelid) AS definicion " +
+        "FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid JOIN pg_namespace n ON n.oid = c.relnamespace " +
+        "WHERE NOT i.indisvalid AND n.nspname = current_schema() " +
+        "AND NOT EXISTS (SELECT 1 FROM pg_stat_progress_create_index p WHERE p.index_relid = i.indexrelid)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${pacientes.indices.reparar-invalidos:true}")
+    private boolean reparar;
+
+    public IndicesInvalidosVerificador(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void verificarAlArrancar() {
+        Thread hilo = new Thread(this::verificar, "verificacion-indices");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Buscar y, si está habilitado, reconstruir los índices inválidos. Devuelve los que siguen inválidos.
+     */
+    public int verificar() {
+        List<Map<String, Object>> invalidos;
+        try {
+            if (!esPostgres()) {
+                return 0;
+            }
+            invalidos = jdbcTemplate.queryForList(INDICES_INVALIDOS);
+        } catch (DataAccessException e) {
+            LOGGER.error("No se pudo verificar la validez de los índices: {}", e.getMessage(), e);
+            return 0;
+        }
+
+        int pendientes = 0;
+        for (Map<String, Object> indice : invalidos) {
+            String nombre = (String) indice.get("nombre");
+            String definicion = (String) indice.get("definicion");
+            LOGGER.error("Índice inválido (construcción concurrente fallida): {}", nombre);
+            if (!reparar || !reconstruir(nombre, definicion)) {
+                pendientes++;
+            }
+        }
+        return pendientes;
+    }
+
+    private boolean reconstruir(String nombre, String definicion) {
+        // pg_get_indexdef devuelve "CREATE [UNIQUE] INDEX nombre ON ..."; se reconstruye sin bloquear escrituras
+        String crear = definicion.replaceFirst("^CREATE (UNIQUE )?INDEX ", "CREATE $1INDEX CONCURRENTLY ");
+        try {
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS \"" + nombre.replace("\"", "\"\"") + "\"");
+            jdbcTemplate.execute(crear);
+            LOGGER.info("Índice {} reconstruido", nombre);
+            return true;
+        } catch (DataAccessException e) {
+            LOGGER.error("No se pudo reconstruir el índice {}: {}", nombre, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private boolean esPostgres() {
+        String producto = jdbcTemplate.execute((Connection conexion) -> conexion.getMetaData().getDatabaseProductName());
+        return "PostgreSQL".equals(producto);
+    }
+}
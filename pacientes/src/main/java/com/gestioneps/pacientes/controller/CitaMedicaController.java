@@ -1,7 +1,13 @@
 package com.gestioneps.pacientes.controller;
 
+import com.gestioneps.pacientes.dto.CambioEstadoCitasRequest;
 import com.gestioneps.pacientes.dto.CitaMedicaDTO;
+import com.gestioneps.pacientes.dto.PaginaCursor;
+import com.gestioneps.pacientes.exception.DatosCitaInvalidosException;
+import com.gestioneps.pacientes.exception.EstadoCitaConflictoException;
+import com.gestioneps.pacientes.exception.HorarioNoDisponibleException;
 import com.gestioneps.pacientes.service.CitaMedicaService;
+import com.gestioneps.pacientes.service.SalaEsperaService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -10,12 +16,15 @@ import jakarta.validation.Valid;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,13 +37,15 @@ public class CitaMedicaController {
     private static final Logger LOGGER = LoggerFactory.getLogger(CitaMedicaController.class);
 
     private final CitaMedicaService citaMedicaService;
+    private final SalaEsperaService salaEsperaService;
 
     private static final String SUCCESS = "success";
     private static final String ERROR = "error";
     private static final String CITA_NO_ENCONTRADA = "Cita médica no encontrada: ";
 
-    public CitaMedicaController(CitaMedicaService citaMedicaService) {
+    public CitaMedicaController(CitaMedicaService citaMedicaService, SalaEsperaService salaEsperaService) {
         this.citaMedicaService = citaMedicaService;
+        this.salaEsperaService = salaEsperaService;
     }
 
     /**
@@ -56,6 +67,11 @@ public class CitaMedicaController {
             response.put(SUCCESS, true);
             response.put("data", citaCreada);
             return new ResponseEntity<>(response, HttpStatus.CREATED);
+        } catch (HorarioNoDisponibleException e) {
+            LOGGER.warn("Horario no disponible creando cita para paciente {}: {}", pacienteId, e.getMessage());
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.CONFLICT);
         } catch (IllegalArgumentException e) {
             LOGGER.error("Error creando cita medica desde JSON: {}", e.getMessage());
             response.put(SUCCESS, false);
@@ -141,10 +157,12 @@ public class CitaMedicaController {
     /**
      * Actualizar cita médica
      */
-    @Operation(summary = "Actualizar cita médica", description = "Actualiza una cita médica específica enviando JSON crudo.")
+    @Operation(summary = "Actualizar cita médica", description = "Actualiza una cita médica específica enviando JSON crudo. El estado no se cambia aquí sino con PATCH /citas/{id}/estado.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Cita médica actualizada exitosamente"),
-        @ApiResponse(responseCode = "404", description = "Cita médica no encontrada")
+        @ApiResponse(responseCode = "400", description = "El cuerpo no es un objeto JSON"),
+        @ApiResponse(responseCode = "404", description = "Cita médica no encontrada"),
+        @ApiResponse(responseCode = "409", description = "El JSON trae un estado distinto del actual o el horario no está disponible")
     })
     @PutMapping("/{id}")
     public ResponseEntity<Map<String, Object>> actualizarCita(
@@ -156,6 +174,14 @@ public class CitaMedicaController {
             response.put(SUCCESS, true);
             response.put("data", citaActualizada);
             return ResponseEntity.ok(response);
+        } catch (HorarioNoDisponibleException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.CONFLICT);
+        } catch (DatosCitaInvalidosException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, "Datos inválidos: " + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
         } catch (IllegalArgumentException e) {
             response.put(SUCCESS, false);
             response.put(ERROR, CITA_NO_ENCONTRADA + e.getMessage());
@@ -163,17 +189,120 @@ public class CitaMedicaController {
         }
     }
 
+    /**
+     * Horas libres de un médico
+     */
+    @Operation(summary = "Disponibilidad de un médico", description = "Devuelve, por día, las horas de inicio libres del médico (por medicoId o nombre) para citas de la duración indicada.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Disponibilidad obtenida exitosamente"),
+        @ApiResponse(responseCode = "400", description = "Parámetros inválidos")
+    })
+    @GetMapping("/disponibilidad")
+    public ResponseEntity<Map<String, Object>> obtenerDisponibilidad(
+            @RequestParam(required = false) String medicoId,
+            @RequestParam(required = false) String medico,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam(defaultValue = "14") int dias,
+            @RequestParam(required = false) Integer duracion) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put(SUCCESS, true);
+            response.put("data", citaMedicaService.obtenerDisponibilidad(medicoId, medico, desde, dias, duracion));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Agenda de citas por rango de días
+     */
+    @Operation(summary = "Agenda de citas", description = "Devuelve las citas de los días indicados (máximo 31) en orden de hora, de todos los médicos o de uno (por medicoId o nombre), opcionalmente filtradas por estado.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Agenda obtenida exitosamente"),
+        @ApiResponse(responseCode = "400", description = "Parámetros inválidos")
+    })
+    @GetMapping("/agenda")
+    public ResponseEntity<Map<String, Object>> obtenerAgenda(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(required = false) String medicoId,
+            @RequestParam(required = false) String medico,
+            @RequestParam(required = false) String estado) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put(SUCCESS, true);
+            response.put("data", citaMedicaService.obtenerAgenda(desde, hasta, medicoId, medico, estado));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Pacientes en sala de espera
+     */
+    @Operation(summary = "Citas en sala de espera", description = "Devuelve las citas en estado EN_SALA del día indicado (por defecto hoy) en orden de hora.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Citas en sala obtenidas exitosamente")
+    })
+    @GetMapping("/en-sala")
+    public ResponseEntity<Map<String, Object>> obtenerCitasEnSala(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fecha) {
+        Map<String, Object> response = new HashMap<>();
+        response.put(SUCCESS, true);
+        response.put("data", citaMedicaService.obtenerCitasEnSala(fecha));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Sala de espera en vivo
+     */
+    @Operation(summary = "Sala de espera en vivo", description = "Flujo Server-Sent Events con la sala de espera del día, de todos los médicos o de uno (por medicoId o nombre): un evento 'snapshot' con la cola completa al conectarse y luego eventos 'entra' y 'sale' con cada cambio.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Flujo de eventos abierto"),
+        @ApiResponse(responseCode = "503", description = "Máximo de pantallas conectadas alcanzado")
+    })
+    @GetMapping("/sala-espera/stream")
+    public ResponseEntity<SseEmitter> suscribirSalaEspera(
+            @RequestParam(required = false) String medicoId,
+            @RequestParam(required = false) String medico) {
+        try {
+            return ResponseEntity.ok(salaEsperaService.suscribir(medicoId, medico));
+        } catch (IllegalStateException e) {
+            LOGGER.warn("Suscripción a la sala de espera rechazada: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
     /**
      * Obtener todas las citas activas
      */
-    @Operation(summary = "Obtener todas las citas activas", description = "Devuelve una lista paginada de todas las citas médicas activas.")
+    @Operation(summary = "Obtener todas las citas activas", description = "Devuelve una lista paginada de todas las citas médicas activas. Con paginacion=cursor devuelve páginas por cursor (nextCursor) sin total de elementos.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Citas médicas obtenidas exitosamente")
     })
     @GetMapping
     public ResponseEntity<Map<String, Object>> obtenerTodasCitasActivas(
-            @PageableDefault(size = 20) Pageable pageable) {
+            @PageableDefault(size = 20) Pageable pageable,
+            @RequestParam(required = false) String paginacion,
+            @RequestParam(required = false) String cursor) {
         Map<String, Object> response = new HashMap<>();
+        if (PaginaCursor.solicitada(paginacion, cursor)) {
+            try {
+                response.put(SUCCESS, true);
+                response.put("data", citaMedicaService.obtenerCitasActivasPorCursor(cursor, pageable.getPageSize()));
+                return ResponseEntity.ok(response);
+            } catch (IllegalArgumentException e) {
+                response.put(SUCCESS, false);
+                response.put(ERROR, e.getMessage());
+                return ResponseEntity.badRequest().body(response);
+            }
+        }
         try {
             Page<CitaMedicaDTO> citas = citaMedicaService.obtenerTodasCitasActivas(pageable);
             response.put(SUCCESS, true);
@@ -214,11 +343,12 @@ public class CitaMedicaController {
     /**
      * Actualizar estado de cita médica
       */
-     @Operation(summary = "Actualizar estado de cita médica", description = "Actualiza el estado de una cita médica específica enviando el nuevo estado en el body.")
+     @Operation(summary = "Actualizar estado de cita médica", description = "Actualiza el estado de una cita médica específica enviando el nuevo estado en el body y, opcionalmente, la versión leída (version) para detectar cambios concurrentes.")
      @ApiResponses(value = {
          @ApiResponse(responseCode = "200", description = "Estado de cita médica actualizado exitosamente"),
          @ApiResponse(responseCode = "400", description = "Transición de estado no permitida"),
-         @ApiResponse(responseCode = "404", description = "Cita médica no encontrada")
+         @ApiResponse(responseCode = "404", description = "Cita médica no encontrada"),
+         @ApiResponse(responseCode = "409", description = "La cita fue modificada por otra operación")
      })
      @PatchMapping("/{id}/estado")
      public ResponseEntity<Map<String, Object>> actualizarEstadoCita(
@@ -236,13 +366,20 @@ public class CitaMedicaController {
 
              LOGGER.info("📡 Controller: Actualizando estado de cita {} a '{}'", id, estado);
              System.out.println("🔍 Controller: Recibido estado = '" + estado + "'");
-             CitaMedicaDTO citaActualizada = citaMedicaService.actualizarEstadoCita(id, estado);
+             String version = requestBody.get("version");
+             Long versionEsperada = version == null || version.isBlank() ? null : Long.valueOf(version.trim());
+             CitaMedicaDTO citaActualizada = citaMedicaService.actualizarEstadoCita(id, estado, versionEsperada);
              LOGGER.info("✅ Controller: Estado de cita {} actualizado exitosamente", id);
 
              response.put(SUCCESS, true);
              response.put("data", citaActualizada);
              response.put("message", "Estado de cita médica actualizado exitosamente.");
              return ResponseEntity.ok(response);
+         } catch (EstadoCitaConflictoException e) {
+             LOGGER.warn("Controller: Conflicto actualizando estado de cita {}: {}", id, e.getMessage());
+             response.put(SUCCESS, false);
+             response.put(ERROR, e.getMessage());
+             return new ResponseEntity<>(response, HttpStatus.CONFLICT);
          } catch (IllegalArgumentException e) {
              LOGGER.error("❌ Controller: Error de validación actualizando estado de cita {}: {}", id, e.getMessage());
              response.put(SUCCESS, false);
@@ -256,6 +393,31 @@ public class CitaMedicaController {
          }
      }
 
+    /**
+     * Actualizar estado de varias citas médicas
+     */
+    @Operation(summary = "Actualizar estado de varias citas", description = "Cambia al estado indicado las citas activas (ids) cuyo estado actual lo permite; devuelve los ids actualizados y los rechazados.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Estados actualizados"),
+        @ApiResponse(responseCode = "400", description = "Solicitud inválida")
+    })
+    @PatchMapping("/estado")
+    public ResponseEntity<Map<String, Object>> actualizarEstadoCitas(@RequestBody CambioEstadoCitasRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            if (request.getEstado() == null || request.getEstado().isBlank()) {
+                throw new IllegalArgumentException("El campo 'estado' es requerido");
+            }
+            response.put(SUCCESS, true);
+            response.put("data", citaMedicaService.actualizarEstadoCitas(request.getIds(), request.getEstado()));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+    }
+
     /**
      * Eliminar cita médica (soft delete)
      */
@@ -1,6 +1,7 @@
 package com.gestioneps.pacientes.controller;
 
 import com.gestioneps.pacientes.dto.CodigosCupsDTO;
+import com.gestioneps.pacientes.dto.PaginaCursor;
 import com.gestioneps.pacientes.service.CodigosCupsService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -140,14 +141,27 @@ public class CodigosCupsController {
     /**
      * Obtener todos los códigos CUP
      */
-    @Operation(summary = "Obtener todos los códigos CUP", description = "Devuelve una lista paginada de todos los códigos CUP.")
+    @Operation(summary = "Obtener todos los códigos CUP", description = "Devuelve una lista paginada de todos los códigos CUP. Con paginacion=cursor devuelve páginas por cursor (nextCursor) sin total de elementos.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Códigos CUP obtenidos exitosamente")
     })
     @GetMapping
     public ResponseEntity<Map<String, Object>> obtenerTodosCodigosCups(
-            @PageableDefault(size = 20) Pageable pageable) {
+            @PageableDefault(size = 20) Pageable pageable,
+            @RequestParam(required = false) String paginacion,
+            @RequestParam(required = false) String cursor) {
         Map<String, Object> response = new HashMap<>();
+        if (PaginaCursor.solicitada(paginacion, cursor)) {
+            try {
+                response.put(SUCCESS, true);
+                response.put("data", codigosCupsService.obtenerCodigosCupsPorCursor(cursor, pageable.getPageSize()));
+                return ResponseEntity.ok(response);
+            } catch (IllegalArgumentException e) {
+                response.put(SUCCESS, false);
+                response.put(ERROR, e.getMessage());
+                return ResponseEntity.badRequest().body(response);
+            }
+        }
         Page<CodigosCupsDTO> codigosCups = codigosCupsService.obtenerTodosCodigosCups(pageable);
         response.put(SUCCESS, true);
         response.put("data", codigosCups);
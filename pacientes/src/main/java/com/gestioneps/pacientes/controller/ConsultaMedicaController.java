@@ -2,6 +2,7 @@ package com.gestioneps.pacientes.controller;
 
 import com.gestioneps.pacientes.dto.ConsultaMedicaDTO;
 import com.gestioneps.pacientes.service.ConsultaMedicaService;
+import com.gestioneps.pacientes.service.EstadisticaConsultaService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -10,12 +11,15 @@ import jakarta.validation.Valid;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -27,13 +31,16 @@ public class ConsultaMedicaController {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConsultaMedicaController.class);
 
     private final ConsultaMedicaService consultaMedicaService;
+    private final EstadisticaConsultaService estadisticaConsultaService;
 
     private static final String SUCCESS = "success";
     private static final String ERROR = "error";
     private static final String CONSULTA_NO_ENCONTRADA = "Consulta médica no encontrada: ";
 
-    public ConsultaMedicaController(ConsultaMedicaService consultaMedicaService) {
+    public ConsultaMedicaController(ConsultaMedicaService consultaMedicaService,
+                                    EstadisticaConsultaService estadisticaConsultaService) {
         this.consultaMedicaService = consultaMedicaService;
+        this.estadisticaConsultaService = estadisticaConsultaService;
     }
 
     /**
@@ -149,6 +156,136 @@ public class ConsultaMedicaController {
         }
     }
 
+    /**
+     * Obtener consultas por médico
+     */
+    @Operation(summary = "Obtener consultas por médico", description = "Devuelve una lista paginada de consultas del médico indicado por cédula, registro médico o nombre completo.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Consultas médicas obtenidas exitosamente"),
+        @ApiResponse(responseCode = "400", description = "Médico no indicado")
+    })
+    @GetMapping("/medico")
+    public ResponseEntity<Map<String, Object>> obtenerConsultasPorMedico(
+            @RequestParam String medico,
+            @PageableDefault(size = 20) Pageable pageable) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            Page<ConsultaMedicaDTO> consultas = consultaMedicaService.obtenerConsultasPorMedico(medico, pageable);
+            response.put(SUCCESS, true);
+            response.put("data", consultas);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Buscar consultas por nombre de médico o especialidad
+     */
+    @Operation(summary = "Buscar consultas por médico o especialidad", description = "Busca consultas cuyo nombre de médico o especialidad contiene el texto indicado, sin distinguir mayúsculas ni tildes.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Consultas médicas obtenidas exitosamente"),
+        @ApiResponse(responseCode = "400", description = "Parámetros de búsqueda inválidos")
+    })
+    @GetMapping("/buscar")
+    public ResponseEntity<Map<String, Object>> buscarConsultas(
+            @RequestParam(required = false) String medico,
+            @RequestParam(required = false) String especialidad,
+            @PageableDefault(size = 20) Pageable pageable) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            Page<ConsultaMedicaDTO> consultas = medico != null && !medico.isBlank()
+                ? consultaMedicaService.buscarPorNombreMedico(medico, pageable)
+                : consultaMedicaService.buscarPorEspecialidad(especialidad, pageable);
+            response.put(SUCCESS, true);
+            response.put("data", consultas);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Productividad de médicos en un período
+     */
+    @Operation(summary = "Productividad de médicos", description = "Devuelve el número de consultas por médico en el período indicado; con el parámetro medico, solo el total de ese médico.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Productividad obtenida exitosamente"),
+        @ApiResponse(responseCode = "400", description = "Período inválido")
+    })
+    @GetMapping("/productividad")
+    public ResponseEntity<Map<String, Object>> obtenerProductividad(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime fechaInicio,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime fechaFin,
+            @RequestParam(required = false) String medico) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put(SUCCESS, true);
+            if (medico != null && !medico.isBlank()) {
+                response.put("data", consultaMedicaService.contarConsultasPorMedico(medico, fechaInicio, fechaFin));
+            } else {
+                response.put("data", consultaMedicaService.obtenerProductividadMedicos(fechaInicio, fechaFin));
+            }
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Estadísticas de consultas por período
+     */
+    @Operation(summary = "Estadísticas de consultas", description = "Devuelve el número de consultas del período por tipo de consulta, médico, especialidad y día, calculado sobre los totales diarios.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Estadísticas obtenidas exitosamente"),
+        @ApiResponse(responseCode = "400", description = "Período inválido")
+    })
+    @GetMapping("/estadisticas")
+    public ResponseEntity<Map<String, Object>> obtenerEstadisticas(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put(SUCCESS, true);
+            response.put("data", estadisticaConsultaService.obtenerEstadisticas(desde, hasta));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Reconstruir estadísticas de consultas de un período
+     */
+    @Operation(summary = "Reconstruir estadísticas de consultas", description = "Recalcula los totales diarios del período desde las consultas registradas (máximo un año por solicitud).")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Estadísticas reconstruidas exitosamente"),
+        @ApiResponse(responseCode = "400", description = "Período inválido")
+    })
+    @PostMapping("/estadisticas/reconstruir")
+    public ResponseEntity<Map<String, Object>> reconstruirEstadisticas(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            int dias = estadisticaConsultaService.reconstruir(desde, hasta);
+            response.put(SUCCESS, true);
+            response.put("diasReconstruidos", dias);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+    }
 
     /**
      * Eliminar consulta médica
@@ -6,17 +6,34 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Tag(name = "Documentos Médicos", description = "Gestión de documentos médicos")
@@ -32,6 +49,12 @@ public class DocumentoMedicaController {
     private static final String ERROR = "error";
     private static final String DOCUMENTO_NO_ENCONTRADO = "Documento médico no encontrado: ";
 
+    // Atributos con los que Tomcat envía un archivo con sendfile sin pasarlo por la aplicación
+    private static final String SENDFILE_SOPORTADO = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_ARCHIVO = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INICIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FIN = "org.apache.tomcat.sendfile.end";
+
     public DocumentoMedicaController(DocumentoMedicoService documentoMedicoService) {
         this.documentoMedicoService = documentoMedicoService;
     }
@@ -179,4 +202,150 @@ public class DocumentoMedicaController {
             return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Adjuntar archivo a un documento médico
+     */
+    @Operation(summary = "Adjuntar archivo a un documento médico", description = "Sube el archivo del documento (escaneo, PDF de laboratorio, imagen) como multipart. El contenido se guarda una sola vez en el almacén por su SHA-256 y el tipo se detecta a partir del contenido; si ya tenía archivo se reemplaza.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Archivo adjuntado exitosamente"),
+        @ApiResponse(responseCode = "400", description = "No se envió ningún archivo"),
+        @ApiResponse(responseCode = "404", description = "Documento médico no encontrado")
+    })
+    @PostMapping(value = "/{id}/archivo", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> adjuntarArchivo(
+            @PathVariable Long id,
+            @RequestParam("archivo") MultipartFile archivo) {
+        Map<String, Object> response = new HashMap<>();
+        if (archivo.isEmpty()) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, "Debe enviar un archivo no vacío");
+            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+        }
+        try (InputStream contenido = archivo.getInputStream()) {
+            DocumentoMedicoDTO documento = documentoMedicoService.adjuntarArchivo(id, contenido, archivo.getOriginalFilename());
+            LOGGER.info("Archivo adjuntado al documento {}: {} ({} bytes, {})", id, documento.getArchivoSha256(),
+                documento.getArchivoTamano(), documento.getArchivoTipo());
+            response.put(SUCCESS, true);
+            response.put("data", documento);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, DOCUMENTO_NO_ENCONTRADO + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+        } catch (IOException e) {
+            LOGGER.error("Error guardando el archivo del documento {}: {}", id, e.getMessage(), e);
+            response.put(SUCCESS, false);
+            response.put(ERROR, "Error interno: " + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Descargar el archivo de un documento médico
+     */
+    @Operation(summary = "Descargar archivo de un documento médico", description = "Envía el archivo adjunto directamente desde disco. Admite un rango de bytes (Range / If-Range) y validación con ETag, que es el SHA-256 del contenido.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Archivo enviado"),
+        @ApiResponse(responseCode = "206", description = "Rango del archivo enviado"),
+        @ApiResponse(responseCode = "304", description = "El archivo no cambió"),
+        @ApiResponse(responseCode = "404", description = "Documento médico o archivo no encontrado"),
+        @ApiResponse(responseCode = "416", description = "Rango no satisfacible")
+    })
+    @GetMapping("/{id}/archivo")
+    public ResponseEntity<?> descargarArchivo(
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String etagCliente,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rango,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String condicionRango,
+            HttpServletRequest request,
+            HttpServletResponse servletResponse) {
+        DocumentoMedicoService.ArchivoDocumento archivo;
+        try {
+            archivo = documentoMedicoService.obtenerArchivo(id);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put(SUCCESS, false);
+            response.put(ERROR, DOCUMENTO_NO_ENCONTRADO + e.getMessage());
+            return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+        }
+
+        String etag = "\"" + archivo.sha256() + "\"";
+        if (etag.equals(etagCliente)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        try (FileChannel canal = FileChannel.open(archivo.ruta(), StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            long inicio = 0;
+            long largo = tamano;
+            // Un solo rango; varios rangos o un If-Range que no coincide se responden con el archivo completo
+            if (rango != null && (condicionRango == null || etag.equals(condicionRango))) {
+                List<HttpRange> rangos;
+                try {
+                    rangos = HttpRange.parseRanges(rango);
+                    if (rangos.size() == 1) {
+                        inicio = rangos.get(0).getRangeStart(tamano);
+                        largo = rangos.get(0).getRangeEnd(tamano) - inicio + 1;
+                    }
+                } catch (IllegalArgumentException e) {
+                    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + tamano)
+                        .build();
+                }
+            }
+
+            servletResponse.setStatus(largo < tamano ? HttpStatus.PARTIAL_CONTENT.value() : HttpStatus.OK.value());
+            if (largo < tamano) {
+                servletResponse.setHeader(HttpHeaders.CONTENT_RANGE,
+                    "bytes " + inicio + "-" + (inicio + largo - 1) + "/" + tamano);
+            }
+            servletResponse.setContentType(tipoContenido(archivo.tipo()).toString());
+            servletResponse.setContentLengthLong(largo);
+            servletResponse.setHeader(HttpHeaders.ETAG, etag);
+            servletResponse.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+            servletResponse.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            servletResponse.setHeader("X-Content-Type-Options", "nosniff");
+            servletResponse.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(archivo.nombre(), StandardCharsets.UTF_8).build().toString());
+            if ("HEAD".equals(request.getMethod()) || largo == 0) {
+                return null;
+            }
+
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SOPORTADO))) {
+                // El conector copia del archivo al socket en el kernel al terminar la solicitud
+                request.setAttribute(SENDFILE_ARCHIVO, archivo.ruta().toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_INICIO, inicio);
+                request.setAttribute(SENDFILE_FIN, inicio + largo);
+                return null;
+            }
+            WritableByteChannel salida = Channels.newChannel(servletResponse.getOutputStream());
+            long posicion = inicio;
+            long restante = largo;
+            while (restante > 0) {
+                long enviados = canal.transferTo(posicion, restante, salida);
+                if (enviados <= 0) {
+                    break;
+                }
+                posicion += enviados;
+                restante -= enviados;
+            }
+            servletResponse.flushBuffer();
+        } catch (IOException e) {
+            // Normalmente el cliente cerró la conexión a mitad de la descarga
+            LOGGER.debug("Descarga del archivo del documento {} interrumpida: {}", id, e.getMessage());
+        }
+        return null;
+    }
+
+    private static MediaType tipoContenido(String tipo) {
+        if (tipo == null) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+        try {
+            return MediaType.parseMediaType(tipo);
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+    }
+}
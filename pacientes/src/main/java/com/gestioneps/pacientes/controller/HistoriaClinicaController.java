@@ -1,6 +1,8 @@
 package com.gestioneps.pacientes.controller;
 
 import com.gestioneps.pacientes.dto.HistoriaClinicaDTO;
+import com.gestioneps.pacientes.dto.PaginaCursor;
+import com.gestioneps.pacientes.service.HistoriaClinicaPdfService;
 import com.gestioneps.pacientes.service.HistoriaClinicaService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -11,7 +13,12 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.slf4j.Logger;
@@ -20,6 +27,7 @@ import org.slf4j.LoggerFactory;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Tag(name = "Historias Clínicas", description = "Gestión de historias clínicas")
 @RestController
@@ -29,13 +37,16 @@ public class HistoriaClinicaController {
     private static final Logger LOGGER = LoggerFactory.getLogger(HistoriaClinicaController.class);
 
     private final HistoriaClinicaService historiaClinicaService;
+    private final HistoriaClinicaPdfService historiaClinicaPdfService;
 
     private static final String SUCCESS = "success";
     private static final String ERROR = "error";
     private static final String HISTORIA_NO_ENCONTRADA = "Historia clínica no encontrada: ";
 
-    public HistoriaClinicaController(HistoriaClinicaService historiaClinicaService) {
+    public HistoriaClinicaController(HistoriaClinicaService historiaClinicaService,
+                                     HistoriaClinicaPdfService historiaClinicaPdfService) {
         this.historiaClinicaService = historiaClinicaService;
+        this.historiaClinicaPdfService = historiaClinicaPdfService;
     }
 
     /**
@@ -143,20 +154,73 @@ public class HistoriaClinicaController {
     /**
      * Obtener todas las historias clínicas activas
      */
-    @Operation(summary = "Obtener historias clínicas activas", description = "Devuelve una lista paginada de todas las historias clínicas activas.")
+    @Operation(summary = "Obtener historias clínicas activas", description = "Devuelve una lista paginada de todas las historias clínicas activas. Con paginacion=cursor devuelve páginas por cursor (nextCursor) sin total de elementos.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Historias clínicas obtenidas exitosamente")
     })
     @GetMapping
     public ResponseEntity<Map<String, Object>> obtenerHistoriasActivas(
-            @PageableDefault(size = 20) Pageable pageable) {
+            @PageableDefault(size = 20) Pageable pageable,
+            @RequestParam(required = false) String paginacion,
+            @RequestParam(required = false) String cursor) {
         Map<String, Object> response = new HashMap<>();
+        if (PaginaCursor.solicitada(paginacion, cursor)) {
+            try {
+                response.put(SUCCESS, true);
+                response.put("data", historiaClinicaService.obtenerHistoriasActivasPorCursor(cursor, pageable.getPageSize()));
+                return ResponseEntity.ok(response);
+            } catch (IllegalArgumentException e) {
+                response.put(SUCCESS, false);
+                response.put(ERROR, e.getMessage());
+                return ResponseEntity.badRequest().body(response);
+            }
+        }
         Page<HistoriaClinicaDTO> historias = historiaClinicaService.obtenerHistoriasActivas(pageable);
         response.put(SUCCESS, true);
         response.put("data", historias);
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Descargar la historia clínica completa en PDF
+     */
+    @Operation(summary = "Descargar historia clínica en PDF", description = "Genera (o sirve desde caché si no hubo cambios) el PDF de la historia clínica con todas sus consultas.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "PDF generado exitosamente"),
+        @ApiResponse(responseCode = "304", description = "El PDF no cambió desde la última descarga"),
+        @ApiResponse(responseCode = "404", description = "Historia clínica no encontrada"),
+        @ApiResponse(responseCode = "503", description = "Demasiados PDF en generación")
+    })
+    @GetMapping("/{id}/pdf")
+    public CompletableFuture<ResponseEntity<?>> descargarPdf(
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String etagCliente) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            return historiaClinicaPdfService.obtenerPdf(id).thenApply(pdf -> {
+                String etag = "\"" + pdf.clave() + "\"";
+                if (etag.equals(etagCliente)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+                }
+                return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_PDF)
+                    .eTag(etag)
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(pdf.nombreArchivo()).build().toString())
+                    .body(new FileSystemResource(pdf.archivo()));
+            });
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, HISTORIA_NO_ENCONTRADA + e.getMessage());
+            return CompletableFuture.completedFuture(new ResponseEntity<>(response, HttpStatus.NOT_FOUND));
+        } catch (IllegalStateException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            return CompletableFuture.completedFuture(new ResponseEntity<>(response, HttpStatus.SERVICE_UNAVAILABLE));
+        }
+    }
+
     /**
      * Buscar historias clínicas por diagnóstico
      */
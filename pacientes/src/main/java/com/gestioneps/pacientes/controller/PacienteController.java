@@ -1,7 +1,11 @@
 package com.gestioneps.pacientes.controller;
 
 import com.gestioneps.pacientes.dto.PacienteDTO;
+import com.gestioneps.pacientes.dto.PaginaCursor;
+import com.gestioneps.pacientes.service.PacienteExportacionService;
+import com.gestioneps.pacientes.service.PacienteImportacionService;
 import com.gestioneps.pacientes.service.PacienteService;
+import com.gestioneps.pacientes.service.PacienteTimelineService;
 import com.gestioneps.pacientes.entity.TipoDocumento;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -11,14 +15,22 @@ import jakarta.validation.Valid;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 @Tag(name = "Pacientes", description = "Gestión de pacientes")
 @RestController
@@ -28,9 +40,18 @@ public class PacienteController {
     private static final Logger LOGGER = LoggerFactory.getLogger(PacienteController.class);
 
     private final PacienteService pacienteService;
+    private final PacienteExportacionService pacienteExportacionService;
+    private final PacienteImportacionService pacienteImportacionService;
+    private final PacienteTimelineService pacienteTimelineService;
 
-    public PacienteController(PacienteService pacienteService) {
+    public PacienteController(PacienteService pacienteService,
+                              PacienteExportacionService pacienteExportacionService,
+                              PacienteImportacionService pacienteImportacionService,
+                              PacienteTimelineService pacienteTimelineService) {
         this.pacienteService = pacienteService;
+        this.pacienteExportacionService = pacienteExportacionService;
+        this.pacienteImportacionService = pacienteImportacionService;
+        this.pacienteTimelineService = pacienteTimelineService;
     }
 
     private static final String PACIENTE_NO_ENCONTRADO = "Paciente no encontrado: ";
@@ -141,6 +162,34 @@ public class PacienteController {
         }
     }
 
+    /**
+     * Línea de tiempo del paciente: historias, consultas, citas y documentos en orden cronológico
+     */
+    @Operation(summary = "Obtener la línea de tiempo del paciente", description = "Devuelve historias, consultas, citas y documentos del paciente del más reciente al más antiguo, paginados por cursor (nextCursor).")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Línea de tiempo obtenida exitosamente"),
+        @ApiResponse(responseCode = "400", description = "Cursor inválido"),
+        @ApiResponse(responseCode = "404", description = "Paciente no encontrado")
+    })
+    @GetMapping("/{id}/timeline")
+    public ResponseEntity<Map<String, Object>> obtenerTimeline(
+            @PathVariable Long id,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int tamano) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put(SUCCESS, true);
+            response.put("data", pacienteTimelineService.obtenerTimeline(id, cursor, tamano));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put(SUCCESS, false);
+            response.put(ERROR, e.getMessage());
+            HttpStatus estado = e.getMessage().startsWith(PacienteTimelineService.PACIENTE_NO_ENCONTRADO)
+                ? HttpStatus.NOT_FOUND : HttpStatus.BAD_REQUEST;
+            return new ResponseEntity<>(response, estado);
+        }
+    }
+
     /**
      * Obtener paciente por documento
      */
@@ -167,20 +216,100 @@ public class PacienteController {
     /**
      * Obtener todos los pacientes activos con paginación
      */
-    @Operation(summary = "Obtener pacientes activos", description = "Devuelve una lista paginada de todos los pacientes activos.")
+    @Operation(summary = "Obtener pacientes activos", description = "Devuelve una lista paginada de todos los pacientes activos. Con paginacion=cursor devuelve páginas por cursor (nextCursor) sin total de elementos.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Pacientes obtenidos exitosamente")
     })
     @GetMapping
     public ResponseEntity<Map<String, Object>> obtenerPacientesActivos(
-            @PageableDefault(size = 20) Pageable pageable) {
+            @PageableDefault(size = 20) Pageable pageable,
+            @RequestParam(required = false) String paginacion,
+            @RequestParam(required = false) String cursor) {
         Map<String, Object> response = new HashMap<>();
+        if (PaginaCursor.solicitada(paginacion, cursor)) {
+            try {
+                response.put(SUCCESS, true);
+                response.put("data", pacienteService.obtenerPacientesActivosPorCursor(cursor, pageable.getPageSize()));
+                return ResponseEntity.ok(response);
+            } catch (IllegalArgumentException e) {
+                response.put(SUCCESS, false);
+                response.put(ERROR, e.getMessage());
+                return ResponseEntity.badRequest().body(response);
+            }
+        }
         Page<PacienteDTO> pacientes = pacienteService.obtenerPacientesActivos(pageable);
         response.put(SUCCESS, true);
         response.put("data", pacientes);
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Importar pacientes en lote desde NDJSON o CSV
+     */
+    @Operation(summary = "Importar pacientes en lote", description = "Carga pacientes desde NDJSON (un JSON de paciente por línea, igual al de creación) o CSV con encabezados. Las filas inválidas o duplicadas se reportan sin detener la carga.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Importación terminada; ver errores por fila"),
+        @ApiResponse(responseCode = "400", description = "Formato no soportado")
+    })
+    @PostMapping(value = "/importar", consumes = {"application/x-ndjson", "text/csv", "text/plain", "application/octet-stream"})
+    public ResponseEntity<Map<String, Object>> importarPacientes(
+            @RequestParam(defaultValue = "ndjson") String formato,
+            InputStream cuerpo) throws IOException {
+        Map<String, Object> response = new HashMap<>();
+        PacienteExportacionService.Formato tipo = PacienteExportacionService.Formato.desde(formato);
+        LOGGER.info("Importando pacientes en formato {}", tipo);
+        PacienteImportacionService.ResultadoImportacion resultado = pacienteImportacionService.importar(cuerpo, tipo);
+        response.put(SUCCESS, resultado.getConError() == 0);
+        response.put("data", resultado);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Exportar pacientes en NDJSON o CSV
+     */
+    @Operation(summary = "Exportar pacientes", description = "Descarga todos los pacientes en NDJSON (un objeto por línea) o CSV, escritos a medida que se leen de la base de datos. Con gzip=true la descarga se comprime.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Exportación en curso"),
+        @ApiResponse(responseCode = "400", description = "Formato no soportado")
+    })
+    @GetMapping("/exportar")
+    public ResponseEntity<StreamingResponseBody> exportarPacientes(
+            @RequestParam(defaultValue = "ndjson") String formato,
+            @RequestParam(defaultValue = "false") boolean incluirInactivos,
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        PacienteExportacionService.Formato tipo = PacienteExportacionService.Formato.desde(formato);
+        String nombreArchivo = "pacientes-" + LocalDate.now() + "." + tipo.getExtension() + (gzip ? ".gz" : "");
+
+        StreamingResponseBody cuerpo = salida -> {
+            if (gzip) {
+                GZIPOutputStream comprimido = new GZIPOutputStream(salida, 64 * 1024);
+                pacienteExportacionService.exportar(tipo, incluirInactivos, comprimido);
+                comprimido.finish();
+            } else {
+                pacienteExportacionService.exportar(tipo, incluirInactivos, salida);
+            }
+        };
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(gzip ? "application/gzip" : tipo.getContentType() + ";charset=UTF-8"))
+            .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(nombreArchivo).build().toString())
+            .body(cuerpo);
+    }
+
+    /**
+     * Búsqueda general de pacientes
+     */
+    @Operation(summary = "Buscar pacientes", description = "Busca pacientes activos por documento, nombres, apellidos o email. Ignora tildes y mayúsculas, acepta prefijos y ordena por relevancia.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Lista de pacientes encontrados")
+    })
+    @GetMapping("/buscar")
+    public ResponseEntity<Page<PacienteDTO>> buscar(
+            @RequestParam String termino,
+            @PageableDefault(size = 20) Pageable pageable) {
+        Page<PacienteDTO> pacientes = pacienteService.buscarPacientes(termino, pageable);
+        return ResponseEntity.ok(pacientes);
+    }
+
     /**
      * Buscar pacientes por nombre
      */
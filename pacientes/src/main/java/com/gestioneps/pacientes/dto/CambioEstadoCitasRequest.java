@@ -0,0 +1,28 @@
+package com.gestioneps.pacientes.dto;
+
+import java.util.List;
+
+public class CambioEstadoCitasRequest {
+
+    private List<Long> ids;
+
+    private String estado;
+
+    public CambioEstadoCitasRequest() {}
+
+    public List<Long> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<Long> ids) {
+        this.ids = ids;
+    }
+
+    public String getEstado() {
+        return estado;
+    }
+
+    public void setEstado(String estado) {
+        this.estado = estado;
+    }
+}
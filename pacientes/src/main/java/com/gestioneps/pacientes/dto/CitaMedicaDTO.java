@@ -1,5 +1,6 @@
 package com.gestioneps.pacientes.dto;
 
+import com.gestioneps.pacientes.entity.Paciente;
 import jakarta.validation.constraints.*;
 
 import java.time.LocalDateTime;
@@ -20,9 +21,36 @@ public class CitaMedicaDTO {
 
     private LocalDateTime fechaActualizacion;
 
+    private LocalDateTime fechaHoraCita;
+
+    private String medicoNombre;
+
+    private String estado;
+
+    private Long version;
+
     // Constructors
     public CitaMedicaDTO() {}
 
+    /**
+     * Proyección de listados: fila de la cita y nombre del paciente en la misma consulta
+     */
+    public CitaMedicaDTO(Long id, Long pacienteId, String pacienteNombre, String datosPacientePendientes,
+                         String datosJson, Boolean activa, LocalDateTime fechaHoraCita, String medicoNombre,
+                         String estado, Long version, LocalDateTime fechaCreacion, LocalDateTime fechaActualizacion) {
+        this.id = id;
+        this.pacienteId = pacienteId;
+        this.pacienteNombre = Paciente.nombreParaMostrar(pacienteNombre, datosPacientePendientes);
+        this.datosJson = datosJson;
+        this.activa = activa;
+        this.fechaHoraCita = fechaHoraCita;
+        this.medicoNombre = medicoNombre;
+        this.estado = estado;
+        this.version = version;
+        this.fechaCreacion = fechaCreacion;
+        this.fechaActualizacion = fechaActualizacion;
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -79,4 +107,36 @@ public class CitaMedicaDTO {
     public void setFechaActualizacion(LocalDateTime fechaActualizacion) {
         this.fechaActualizacion = fechaActualizacion;
     }
+
+    public LocalDateTime getFechaHoraCita() {
+        return fechaHoraCita;
+    }
+
+    public void setFechaHoraCita(LocalDateTime fechaHoraCita) {
+        this.fechaHoraCita = fechaHoraCita;
+    }
+
+    public String getMedicoNombre() {
+        return medicoNombre;
+    }
+
+    public void setMedicoNombre(String medicoNombre) {
+        this.medicoNombre = medicoNombre;
+    }
+
+    public String getEstado() {
+        return estado;
+    }
+
+    public void setEstado(String estado) {
+        this.estado = estado;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
\ No newline at end of file
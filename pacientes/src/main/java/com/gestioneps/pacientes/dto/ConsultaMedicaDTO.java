@@ -27,6 +27,22 @@ public class ConsultaMedicaDTO {
     // Constructors
     public ConsultaMedicaDTO() {}
 
+    /**
+     * Proyección de listados: fila de la consulta, número de historia y nombre del paciente en la misma consulta SQL
+     */
+    public ConsultaMedicaDTO(Long id, Long historiaClinicaId, String numeroHistoria, String pacienteNombre,
+                             String datosPacientePendientes, String datosJson, LocalDateTime fechaCreacion,
+                             LocalDateTime fechaActualizacion, Long citaId) {
+        this.id = id;
+        this.historiaClinicaId = historiaClinicaId;
+        this.numeroHistoria = numeroHistoria;
+        this.pacienteNombre = Paciente.nombreParaMostrar(pacienteNombre, datosPacientePendientes);
+        this.datosJson = datosJson;
+        this.fechaCreacion = fechaCreacion;
+        this.fechaActualizacion = fechaActualizacion;
+        this.citaId = citaId;
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -1,5 +1,7 @@
 package com.gestioneps.pacientes.dto;
 
+import com.gestioneps.pacientes.entity.Paciente;
+
 import java.time.LocalDateTime;
 
 public class DocumentoMedicoDTO {
@@ -9,12 +11,35 @@ public class DocumentoMedicoDTO {
     private String numeroHistoria;
     private String pacienteNombre;
     private String jsonData; // Solo campo JSON crudo
+    private String archivoSha256;
+    private String archivoNombre;
+    private String archivoTipo;
+    private Long archivoTamano;
     private LocalDateTime fechaCreacion;
     private LocalDateTime fechaActualizacion;
 
     // Constructors
     public DocumentoMedicoDTO() {}
 
+    /**
+     * Proyección de listados: fila del documento y nombre del paciente de la cita en la misma consulta
+     */
+    public DocumentoMedicoDTO(Long id, Long citaMedicaId, String pacienteNombre, String datosPacientePendientes,
+                              String jsonData, String archivoSha256, String archivoNombre, String archivoTipo,
+                              Long archivoTamano, LocalDateTime fechaCreacion, LocalDateTime fechaActualizacion) {
+        this.id = id;
+        this.citaMedicaId = citaMedicaId;
+        this.numeroHistoria = String.valueOf(citaMedicaId);
+        this.pacienteNombre = Paciente.nombreParaMostrar(pacienteNombre, datosPacientePendientes);
+        this.jsonData = jsonData;
+        this.archivoSha256 = archivoSha256;
+        this.archivoNombre = archivoNombre;
+        this.archivoTipo = archivoTipo;
+        this.archivoTamano = archivoTamano;
+        this.fechaCreacion = fechaCreacion;
+        this.fechaActualizacion = fechaActualizacion;
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -56,6 +81,38 @@ public class DocumentoMedicoDTO {
         this.jsonData = jsonData;
     }
 
+    public String getArchivoSha256() {
+        return archivoSha256;
+    }
+
+    public void setArchivoSha256(String archivoSha256) {
+        this.archivoSha256 = archivoSha256;
+    }
+
+    public String getArchivoNombre() {
+        return archivoNombre;
+    }
+
+    public void setArchivoNombre(String archivoNombre) {
+        this.archivoNombre = archivoNombre;
+    }
+
+    public String getArchivoTipo() {
+        return archivoTipo;
+    }
+
+    public void setArchivoTipo(String archivoTipo) {
+        this.archivoTipo = archivoTipo;
+    }
+
+    public Long getArchivoTamano() {
+        return archivoTamano;
+    }
+
+    public void setArchivoTamano(Long archivoTamano) {
+        this.archivoTamano = archivoTamano;
+    }
+
     public LocalDateTime getFechaCreacion() {
         return fechaCreacion;
     }
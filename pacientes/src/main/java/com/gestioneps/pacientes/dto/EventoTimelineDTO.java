@@ -0,0 +1,83 @@
+package com.gestioneps.pacientes.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Evento de la línea de tiempo de un paciente: apertura de historia, consulta, cita o documento,
+ * con el JSON crudo de su origen y los ids necesarios para navegar al detalle.
+ */
+public class EventoTimelineDTO {
+
+    public enum Tipo { HISTORIA, CONSULTA, CITA, DOCUMENTO }
+
+    private Tipo tipo;
+
+    private Long id;
+
+    private LocalDateTime fecha;
+
+    private Long historiaClinicaId;
+
+    private Long citaId;
+
+    private String datosJson;
+
+    public EventoTimelineDTO() {}
+
+    public EventoTimelineDTO(Tipo tipo, Long id, LocalDateTime fecha, Long historiaClinicaId, Long citaId, String datosJson) {
+        this.tipo = tipo;
+        this.id = id;
+        this.fecha = fecha;
+        this.historiaClinicaId = historiaClinicaId;
+        this.citaId = citaId;
+        this.datosJson = datosJson;
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public void setTipo(Tipo tipo) {
+        this.tipo = tipo;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public LocalDateTime getFecha() {
+        return fecha;
+    }
+
+    public void setFecha(LocalDateTime fecha) {
+        this.fecha = fecha;
+    }
+
+    public Long getHistoriaClinicaId() {
+        return historiaClinicaId;
+    }
+
+    public void setHistoriaClinicaId(Long historiaClinicaId) {
+        this.historiaClinicaId = historiaClinicaId;
+    }
+
+    public Long getCitaId() {
+        return citaId;
+    }
+
+    public void setCitaId(Long citaId) {
+        this.citaId = citaId;
+    }
+
+    public String getDatosJson() {
+        return datosJson;
+    }
+
+    public void setDatosJson(String datosJson) {
+        this.datosJson = datosJson;
+    }
+}
@@ -35,6 +35,8 @@ public class PacienteDTO {
     private String nombreCompleto;
     private Integer edad;
     private Long numeroHistoriasClinicas;
+    private Long numeroCitasActivas;
+    private Integer numeroInasistencias;
 
     // Constructors
     public PacienteDTO() {}
@@ -120,6 +122,22 @@ public class PacienteDTO {
         this.numeroHistoriasClinicas = numeroHistoriasClinicas;
     }
 
+    public Long getNumeroCitasActivas() {
+        return numeroCitasActivas;
+    }
+
+    public void setNumeroCitasActivas(Long numeroCitasActivas) {
+        this.numeroCitasActivas = numeroCitasActivas;
+    }
+
+    public Integer getNumeroInasistencias() {
+        return numeroInasistencias;
+    }
+
+    public void setNumeroInasistencias(Integer numeroInasistencias) {
+        this.numeroInasistencias = numeroInasistencias;
+    }
+
     public String getInformacionPersonalJson() {
         return informacionPersonalJson;
     }
@@ -0,0 +1,93 @@
+package com.gestioneps.pacientes.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Paciente en la sala de espera: cita en estado EN_SALA del día, con lo que muestran las pantallas de recepción
+ * y de consultorio.
+ */
+public class PacienteEnSalaDTO {
+
+    private Long citaId;
+
+    private Long pacienteId;
+
+    private String pacienteNombre;
+
+    private String medicoClave;
+
+    private String medicoNombre;
+
+    private LocalDateTime fechaHoraCita;
+
+    private LocalDateTime enSalaDesde;
+
+    public PacienteEnSalaDTO() {}
+
+    public PacienteEnSalaDTO(Long citaId, Long pacienteId, String pacienteNombre, String medicoClave,
+                             String medicoNombre, LocalDateTime fechaHoraCita, LocalDateTime enSalaDesde) {
+        this.citaId = citaId;
+        this.pacienteId = pacienteId;
+        this.pacienteNombre = pacienteNombre;
+        this.medicoClave = medicoClave;
+        this.medicoNombre = medicoNombre;
+        this.fechaHoraCita = fechaHoraCita;
+        this.enSalaDesde = enSalaDesde;
+    }
+
+    public Long getCitaId() {
+        return citaId;
+    }
+
+    public void setCitaId(Long citaId) {
+        this.citaId = citaId;
+    }
+
+    public Long getPacienteId() {
+        return pacienteId;
+    }
+
+    public void setPacienteId(Long pacienteId) {
+        this.pacienteId = pacienteId;
+    }
+
+    public String getPacienteNombre() {
+        return pacienteNombre;
+    }
+
+    public void setPacienteNombre(String pacienteNombre) {
+        this.pacienteNombre = pacienteNombre;
+    }
+
+    public String getMedicoClave() {
+        return medicoClave;
+    }
+
+    public void setMedicoClave(String medicoClave) {
+        this.medicoClave = medicoClave;
+    }
+
+    public String getMedicoNombre() {
+        return medicoNombre;
+    }
+
+    public void setMedicoNombre(String medicoNombre) {
+        this.medicoNombre = medicoNombre;
+    }
+
+    public LocalDateTime getFechaHoraCita() {
+        return fechaHoraCita;
+    }
+
+    public void setFechaHoraCita(LocalDateTime fechaHoraCita) {
+        this.fechaHoraCita = fechaHoraCita;
+    }
+
+    public LocalDateTime getEnSalaDesde() {
+        return enSalaDesde;
+    }
+
+    public void setEnSalaDesde(LocalDateTime enSalaDesde) {
+        this.enSalaDesde = enSalaDesde;
+    }
+}
@@ -0,0 +1,91 @@
+package com.gestioneps.pacientes.dto;
+
+import org.springframework.data.domain.Slice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Página obtenida por cursor (keyset): sin total de elementos ni de páginas, solo el cursor de la siguiente.
+ *
+ * El cursor es opaco para el cliente; codifica el id del último elemento devuelto y las listas se recorren
+ * por id descendente (las más recientes primero), de modo que cada página es una búsqueda por índice
+ * sin OFFSET ni COUNT. {@code nextCursor} es null en la última página.
+ */
+public class PaginaCursor<T> {
+
+    private static final String PREFIJO = "id:";
+
+    private final List<T> content;
+    private final String nextCursor;
+    private final int size;
+
+    public PaginaCursor(List<T> content, String nextCursor, int size) {
+        this.content = content;
+        this.nextCursor = nextCursor;
+        this.size = size;
+    }
+
+    /**
+     * Construir la página desde un Slice ordenado por id descendente
+     */
+    public static <E, T> PaginaCursor<T> desde(Slice<E> slice, Function<E, Long> id, Function<List<E>, List<T>> conversion) {
+        List<E> elementos = slice.getContent();
+        String siguiente = slice.hasNext() && !elementos.isEmpty()
+            ? codificar(id.apply(elementos.get(elementos.size() - 1)))
+            : null;
+        return new PaginaCursor<>(conversion.apply(elementos), siguiente, slice.getSize());
+    }
+
+    /**
+     * El modo cursor es opcional: se activa con {@code paginacion=cursor} o al enviar un cursor
+     */
+    public static boolean solicitada(String paginacion, String cursor) {
+        return "cursor".equalsIgnoreCase(paginacion) || (cursor != null && !cursor.isBlank());
+    }
+
+    public static String codificar(Long ultimoId) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((PREFIJO + ultimoId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Id a partir del cual continuar. Sin cursor se empieza desde el elemento más reciente.
+     */
+    public static Long decodificar(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            String valor = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+            if (!valor.startsWith(PREFIJO)) {
+                throw new IllegalArgumentException("Cursor inválido");
+            }
+            return Long.parseLong(valor.substring(PREFIJO.length()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor inválido: " + cursor);
+        }
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getNumberOfElements() {
+        return content.size();
+    }
+
+    public boolean isLast() {
+        return nextCursor == null;
+    }
+}
@@ -0,0 +1,56 @@
+package com.gestioneps.pacientes.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+
+/**
+ * Ocupación de la agenda de un médico en un día: un bit por franja de 5 minutos (288 franjas, 36 bytes).
+ *
+ * Se crea a pedido desde las citas activas del médico y se mantiene al crear, mover o cancelar citas.
+ * La fila es también el candado de la agenda del día: las reservas la leen con FOR UPDATE, así que dos reservas
+ * del mismo médico y día se serializan sin bloquear a otros médicos ni la tabla de citas.
+ */
+@Entity
+@Table(name = "agenda_medico_dia",
+    uniqueConstraints = @UniqueConstraint(name = "uk_agenda_medico_dia", columnNames = {"medico_clave", "fecha"}))
+public class AgendaMedicoDia {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "medico_clave", length = 120, nullable = false)
+    private String medicoClave;
+
+    @Column(name = "fecha", nullable = false)
+    private LocalDate fecha;
+
+    // BitSet.toByteArray(): bit i = franja que empieza en el minuto 5*i del día
+    @Column(name = "ocupacion", columnDefinition = "bytea", nullable = false)
+    private byte[] ocupacion;
+
+    public AgendaMedicoDia() {
+        // Constructor vacío requerido por JPA
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getMedicoClave() {
+        return medicoClave;
+    }
+
+    public LocalDate getFecha() {
+        return fecha;
+    }
+
+    public byte[] getOcupacion() {
+        return ocupacion;
+    }
+
+    public void setOcupacion(byte[] ocupacion) {
+        this.ocupacion = ocupacion;
+    }
+}
@@ -8,9 +8,19 @@ import org.hibernate.annotations.UpdateTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "citas_medicas")
+@Table(name = "citas_medicas", indexes = {
+    @Index(name = "idx_citas_paciente_fecha", columnList = "paciente_id, fecha_creacion"),
+    @Index(name = "idx_citas_paciente_fecha_hora", columnList = "paciente_id, fecha_hora_cita"),
+    @Index(name = "idx_citas_medico_fecha_hora", columnList = "medico_clave, fecha_hora_cita"),
+    @Index(name = "idx_citas_fecha_hora", columnList = "fecha_hora_cita"),
+    @Index(name = "idx_citas_estado_fecha_hora", columnList = "estado, fecha_hora_cita"),
+    @Index(name = "idx_citas_version_campos", columnList = "version_campos")
+})
 public class CitaMedica {
 
+    // Subir cuando cambie la extracción de campos del JSON para que el backfill recalcule las filas existentes
+    public static final int VERSION_CAMPOS = 2;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -28,6 +38,32 @@ public class CitaMedica {
     @Column(name = "activa", nullable = false)
     private Boolean activa = true;
 
+    // Horario y médico extraídos del JSON al escribir; la agenda de cada médico se calcula sobre ellos
+    @Column(name = "fecha_hora_cita")
+    private LocalDateTime fechaHoraCita;
+
+    @Column(name = "fecha_hora_fin")
+    private LocalDateTime fechaHoraFin;
+
+    @Column(name = "medico_clave", length = 120)
+    private String medicoClave;
+
+    @Column(name = "medico_nombre", columnDefinition = "TEXT")
+    private String medicoNombre;
+
+    // Estado normalizado (PROGRAMADO, EN_SALA, ATENDIDO, NO_SE_PRESENTO, CANCELADO)
+    @Column(name = "estado", length = 20)
+    private String estado;
+
+    // Versión optimista de la fila: la sube cada escritura, también los cambios de estado por UPDATE condicional
+    @Version
+    @Column(name = "version", nullable = false, columnDefinition = "BIGINT DEFAULT 0")
+    private Long version;
+
+    // Versión de la extracción de campos; null en filas pendientes de backfill
+    @Column(name = "version_campos")
+    private Integer versionCampos;
+
     @CreationTimestamp
     @Column(name = "fecha_creacion", nullable = false, updatable = false)
     private LocalDateTime fechaCreacion;
@@ -89,4 +125,60 @@ public class CitaMedica {
     public void setFechaActualizacion(LocalDateTime fechaActualizacion) {
         this.fechaActualizacion = fechaActualizacion;
     }
-}
\ No newline at end of file
+
+    public LocalDateTime getFechaHoraCita() {
+        return fechaHoraCita;
+    }
+
+    public void setFechaHoraCita(LocalDateTime fechaHoraCita) {
+        this.fechaHoraCita = fechaHoraCita;
+    }
+
+    public LocalDateTime getFechaHoraFin() {
+        return fechaHoraFin;
+    }
+
+    public void setFechaHoraFin(LocalDateTime fechaHoraFin) {
+        this.fechaHoraFin = fechaHoraFin;
+    }
+
+    public String getMedicoClave() {
+        return medicoClave;
+    }
+
+    public void setMedicoClave(String medicoClave) {
+        this.medicoClave = medicoClave;
+    }
+
+    public String getMedicoNombre() {
+        return medicoNombre;
+    }
+
+    public void setMedicoNombre(String medicoNombre) {
+        this.medicoNombre = medicoNombre;
+    }
+
+    public String getEstado() {
+        return estado;
+    }
+
+    public void setEstado(String estado) {
+        this.estado = estado;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Integer getVersionCampos() {
+        return versionCampos;
+    }
+
+    public void setVersionCampos(Integer versionCampos) {
+        this.versionCampos = versionCampos;
+    }
+}
@@ -9,9 +9,18 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "consultas_medicas")
+@Table(name = "consultas_medicas", indexes = {
+    @Index(name = "idx_consultas_historia_fecha", columnList = "historia_clinica_id, fecha_creacion"),
+    @Index(name = "idx_consultas_medico_fecha", columnList = "medico_clave, fecha_creacion"),
+    @Index(name = "idx_consultas_fecha_creacion", columnList = "fecha_creacion"),
+    @Index(name = "idx_consultas_version_medico", columnList = "version_medico"),
+    @Index(name = "idx_consultas_proxima_cita", columnList = "proxima_cita, id")
+})
 public class ConsultaMedica {
 
+    // Subir cuando cambie la extracción del médico o de la próxima cita para que el backfill recalcule las filas existentes
+    public static final int VERSION_MEDICO = 2;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -27,6 +36,47 @@ public class ConsultaMedica {
     @NotNull(message = "Los datos de la consulta son obligatorios")
     private String datosJson;
 
+    // Médico y especialidad extraídos del JSON al escribir; la clave identifica al médico de forma estable
+    @Column(name = "medico_clave", length = 120)
+    private String medicoClave;
+
+    @Column(name = "medico_nombre", columnDefinition = "TEXT")
+    private String medicoNombre;
+
+    @Column(name = "medico_nombre_busqueda", columnDefinition = "TEXT")
+    private String medicoNombreBusqueda;
+
+    @Column(name = "especialidad", columnDefinition = "TEXT")
+    private String especialidad;
+
+    @Column(name = "especialidad_busqueda", columnDefinition = "TEXT")
+    private String especialidadBusqueda;
+
+    // Fecha de control indicada en el seguimiento, extraída del JSON al escribir
+    @Column(name = "proxima_cita")
+    private LocalDateTime proximaCita;
+
+    // Estado del recordatorio de la próxima cita; solo lo escribe RecordatorioSeguimientoService con UPDATE nativos
+    @Column(name = "recordatorio_estado", length = 20, insertable = false, updatable = false)
+    private String recordatorioEstado;
+
+    @Column(name = "recordatorio_intentos", insertable = false, updatable = false)
+    private Integer recordatorioIntentos;
+
+    @Column(name = "recordatorio_reclamado_hasta", insertable = false, updatable = false)
+    private LocalDateTime recordatorioReclamadoHasta;
+
+    @Column(name = "recordatorio_fecha", insertable = false, updatable = false)
+    private LocalDateTime recordatorioFecha;
+
+    // Versión de la extracción del médico y la próxima cita; null en filas pendientes de backfill
+    @Column(name = "version_medico")
+    private Integer versionMedico;
+
+    // Versión de la extracción de diagnósticos a diagnosticos_indexados; null en filas pendientes de backfill
+    @Column(name = "version_diagnosticos")
+    private Integer versionDiagnosticos;
+
     @CreationTimestamp
     @Column(name = "fecha_creacion", nullable = false, updatable = false)
     private LocalDateTime fechaCreacion;
@@ -91,4 +141,84 @@ public class ConsultaMedica {
     public void setCitaId(Long citaId) {
         this.citaId = citaId;
     }
+
+    public Integer getVersionDiagnosticos() {
+        return versionDiagnosticos;
+    }
+
+    public void setVersionDiagnosticos(Integer versionDiagnosticos) {
+        this.versionDiagnosticos = versionDiagnosticos;
+    }
+
+    public String getMedicoClave() {
+        return medicoClave;
+    }
+
+    public void setMedicoClave(String medicoClave) {
+        this.medicoClave = medicoClave;
+    }
+
+    public String getMedicoNombre() {
+        return medicoNombre;
+    }
+
+    public void setMedicoNombre(String medicoNombre) {
+        this.medicoNombre = medicoNombre;
+    }
+
+    public String getMedicoNombreBusqueda() {
+        return medicoNombreBusqueda;
+    }
+
+    public void setMedicoNombreBusqueda(String medicoNombreBusqueda) {
+        this.medicoNombreBusqueda = medicoNombreBusqueda;
+    }
+
+    public String getEspecialidad() {
+        return especialidad;
+    }
+
+    public void setEspecialidad(String especialidad) {
+        this.especialidad = especialidad;
+    }
+
+    public String getEspecialidadBusqueda() {
+        return especialidadBusqueda;
+    }
+
+    public void setEspecialidadBusqueda(String especialidadBusqueda) {
+        this.especialidadBusqueda = especialidadBusqueda;
+    }
+
+    public Integer getVersionMedico() {
+        return versionMedico;
+    }
+
+    public void setVersionMedico(Integer versionMedico) {
+        this.versionMedico = versionMedico;
+    }
+
+    public LocalDateTime getProximaCita() {
+        return proximaCita;
+    }
+
+    public void setProximaCita(LocalDateTime proximaCita) {
+        this.proximaCita = proximaCita;
+    }
+
+    public String getRecordatorioEstado() {
+        return recordatorioEstado;
+    }
+
+    public Integer getRecordatorioIntentos() {
+        return recordatorioIntentos;
+    }
+
+    public LocalDateTime getRecordatorioReclamadoHasta() {
+        return recordatorioReclamadoHasta;
+    }
+
+    public LocalDateTime getRecordatorioFecha() {
+        return recordatorioFecha;
+    }
 }
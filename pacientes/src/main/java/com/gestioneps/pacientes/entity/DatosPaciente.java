@@ -0,0 +1,195 @@
+package com.gestioneps.pacientes.entity;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Vista tipada del JSON {@code datos_json} de un paciente.
+ *
+ * El JSON se decodifica una sola vez al crear la vista; las secciones tipadas
+ * ({@link InformacionPersonal}, {@link InformacionContacto}, {@link InformacionMedica},
+ * {@link ContactoEmergencia}) se materializan bajo demanda y quedan memoizadas.
+ * Las escrituras se aplican sobre el árbol JSON y solo se serializan en {@link #toJson()},
+ * de modo que varias modificaciones cuestan una única serialización.
+ * Los objetos de sección devueltos son de solo lectura: modificarlos no altera el JSON.
+ */
+public class DatosPaciente {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatosPaciente.class);
+
+    public static final String INFORMACION_PERSONAL = "informacionPersonal";
+    public static final String INFORMACION_CONTACTO = "informacionContacto";
+    public static final String INFORMACION_MEDICA = "informacionMedica";
+    public static final String CONTACTO_EMERGENCIA = "contactoEmergencia";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .configure(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_AS_NULL, true)
+            .configure(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT, true);
+
+    private final ObjectNode raiz;
+    private final Map<String, Object> secciones = new HashMap<>();
+    private boolean modificado;
+
+    private DatosPaciente(ObjectNode raiz) {
+        this.raiz = raiz;
+    }
+
+    /**
+     * Decodificar el JSON crudo del paciente. Un JSON vacío o malformado produce una vista vacía.
+     */
+    public static DatosPaciente desdeJson(String json) {
+        if (json == null || json.trim().isEmpty()) {
+            return new DatosPaciente(MAPPER.createObjectNode());
+        }
+        try {
+            JsonNode nodo = MAPPER.readTree(json);
+            if (nodo instanceof ObjectNode objeto) {
+                return new DatosPaciente(objeto);
+            }
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("datos_json de paciente malformado: {}", e.getOriginalMessage());
+        }
+        return new DatosPaciente(MAPPER.createObjectNode());
+    }
+
+    public InformacionPersonal getInformacionPersonal() {
+        return seccion(INFORMACION_PERSONAL, InformacionPersonal.class);
+    }
+
+    public InformacionContacto getInformacionContacto() {
+        return seccion(INFORMACION_CONTACTO, InformacionContacto.class);
+    }
+
+    public InformacionMedica getInformacionMedica() {
+        return seccion(INFORMACION_MEDICA, InformacionMedica.class);
+    }
+
+    public ContactoEmergencia getContactoEmergencia() {
+        return seccion(CONTACTO_EMERGENCIA, ContactoEmergencia.class);
+    }
+
+    /**
+     * Nombre completo sin espacios dobles cuando faltan segundo nombre o segundo apellido
+     */
+    public String getNombreCompleto() {
+        InformacionPersonal info = getInformacionPersonal();
+        if (info == null) return "";
+        StringJoiner nombre = new StringJoiner(" ");
+        agregarSiTieneTexto(nombre, info.getPrimerNombre());
+        agregarSiTieneTexto(nombre, info.getSegundoNombre());
+        agregarSiTieneTexto(nombre, info.getPrimerApellido());
+        agregarSiTieneTexto(nombre, info.getSegundoApellido());
+        return nombre.toString();
+    }
+
+    public int getEdad() {
+        InformacionPersonal info = getInformacionPersonal();
+        if (info == null || info.getFechaNacimiento() == null) return 0;
+        return Period.between(info.getFechaNacimiento(), LocalDate.now()).getYears();
+    }
+
+    public LocalDate getFechaNacimiento() {
+        InformacionPersonal info = getInformacionPersonal();
+        return info != null ? info.getFechaNacimiento() : null;
+    }
+
+    public String getEps() {
+        InformacionMedica info = getInformacionMedica();
+        return info != null ? textoONulo(info.getEps()) : null;
+    }
+
+    public String getCiudad() {
+        InformacionContacto info = getInformacionContacto();
+        return info != null ? textoONulo(info.getCiudad()) : null;
+    }
+
+    public String getEmail() {
+        InformacionContacto info = getInformacionContacto();
+        return info != null ? textoONulo(info.getEmail()) : null;
+    }
+
+    /**
+     * Régimen de afiliación en mayúsculas. El formulario lo envía como {@code regimenAfiliacion};
+     * se lee del árbol para no perder valores que no correspondan al enum {@link Regimen}.
+     */
+    public String getRegimen() {
+        JsonNode medica = raiz.path(INFORMACION_MEDICA);
+        String valor = textoONulo(medica.path("regimenAfiliacion").asText(null));
+        if (valor == null) {
+            valor = textoONulo(medica.path("regimen").asText(null));
+        }
+        return valor != null ? valor.toUpperCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * Actualizar un campo de texto de una sección. No serializa: marca la vista como modificada.
+     */
+    public void actualizar(String seccion, String campo, String valor) {
+        JsonNode nodo = raiz.get(seccion);
+        ObjectNode objeto = nodo instanceof ObjectNode existente ? existente : raiz.putObject(seccion);
+        objeto.put(campo, valor);
+        secciones.remove(seccion);
+        modificado = true;
+    }
+
+    public boolean isModificado() {
+        return modificado;
+    }
+
+    /**
+     * Serializar el árbol con todas las modificaciones pendientes
+     */
+    public String toJson() {
+        try {
+            String json = MAPPER.writeValueAsString(raiz);
+            modificado = false;
+            return json;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Error serializando datos del paciente: " + e.getMessage(), e);
+        }
+    }
+
+    private <T> T seccion(String nombre, Class<T> tipo) {
+        if (secciones.containsKey(nombre)) {
+            return tipo.cast(secciones.get(nombre));
+        }
+        T valor = null;
+        JsonNode nodo = raiz.get(nombre);
+        if (nodo != null && nodo.isObject()) {
+            try {
+                valor = MAPPER.treeToValue(nodo, tipo);
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                LOGGER.debug("No se pudo decodificar la sección {} del paciente: {}", nombre, e.getMessage());
+            }
+        }
+        secciones.put(nombre, valor);
+        return valor;
+    }
+
+    private static String textoONulo(String valor) {
+        if (valor == null) return null;
+        String recortado = valor.trim();
+        return recortado.isEmpty() ? null : recortado;
+    }
+
+    private static void agregarSiTieneTexto(StringJoiner joiner, String valor) {
+        if (valor != null && !valor.trim().isEmpty()) {
+            joiner.add(valor.trim());
+        }
+    }
+}
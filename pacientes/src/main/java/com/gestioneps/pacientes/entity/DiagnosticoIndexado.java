@@ -0,0 +1,79 @@
+package com.gestioneps.pacientes.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * Diagnóstico extraído del JSON de una historia clínica o de una de sus consultas.
+ *
+ * Cada entrada del texto de diagnósticos produce una fila con el código CIE-10 normalizado
+ * (mayúsculas y sin punto: "J45.9" se guarda "J459") cuando lo hay y el texto plegado sin tildes,
+ * de modo que la búsqueda por diagnóstico sea una consulta indexada en lugar de un recorrido del JSON.
+ * Las filas se regeneran completas cada vez que cambia el origen. Los índices de código (text_pattern_ops)
+ * y de texto (trigram) están en db/pacientes-indices.sql.
+ */
+@Entity
+@Table(name = "diagnosticos_indexados", indexes = {
+    @Index(name = "idx_diagnosticos_historia", columnList = "historia_clinica_id"),
+    @Index(name = "idx_diagnosticos_consulta", columnList = "consulta_id")
+})
+public class DiagnosticoIndexado {
+
+    // Subir cuando cambie la extracción para que el backfill regenere las filas existentes
+    public static final int VERSION_EXTRACCION = 1;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "historia_clinica_id", nullable = false)
+    private Long historiaClinicaId;
+
+    // Null cuando el diagnóstico viene de la historia y no de una consulta
+    @Column(name = "consulta_id")
+    private Long consultaId;
+
+    @Column(name = "codigo", length = 10)
+    private String codigo;
+
+    @Column(name = "texto", columnDefinition = "TEXT", nullable = false)
+    private String texto;
+
+    @Column(name = "texto_original", columnDefinition = "TEXT")
+    private String textoOriginal;
+
+    public DiagnosticoIndexado() {
+        // Constructor vacío requerido por JPA
+    }
+
+    public DiagnosticoIndexado(Long historiaClinicaId, Long consultaId, String codigo, String texto, String textoOriginal) {
+        this.historiaClinicaId = historiaClinicaId;
+        this.consultaId = consultaId;
+        this.codigo = codigo;
+        this.texto = texto;
+        this.textoOriginal = textoOriginal;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getHistoriaClinicaId() {
+        return historiaClinicaId;
+    }
+
+    public Long getConsultaId() {
+        return consultaId;
+    }
+
+    public String getCodigo() {
+        return codigo;
+    }
+
+    public String getTexto() {
+        return texto;
+    }
+
+    public String getTextoOriginal() {
+        return textoOriginal;
+    }
+}
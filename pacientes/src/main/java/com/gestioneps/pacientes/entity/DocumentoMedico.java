@@ -8,7 +8,10 @@ import org.hibernate.annotations.UpdateTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "documentos_medicos")
+@Table(name = "documentos_medicos", indexes = {
+    @Index(name = "idx_documentos_cita_fecha", columnList = "cita_medica_id, fecha_creacion"),
+    @Index(name = "idx_documentos_archivo_sha256", columnList = "archivo_sha256")
+})
 public class DocumentoMedico {
 
     @Id
@@ -24,6 +27,19 @@ public class DocumentoMedico {
     @Column(name = "json_data", columnDefinition = "TEXT")
     private String jsonData;
 
+    // Archivo adjunto en el almacén por contenido; solo se escriben con la carga del archivo
+    @Column(name = "archivo_sha256", length = 64, insertable = false, updatable = false)
+    private String archivoSha256;
+
+    @Column(name = "archivo_nombre", insertable = false, updatable = false)
+    private String archivoNombre;
+
+    @Column(name = "archivo_tipo", length = 150, insertable = false, updatable = false)
+    private String archivoTipo;
+
+    @Column(name = "archivo_tamano", insertable = false, updatable = false)
+    private Long archivoTamano;
+
     @CreationTimestamp
     @Column(name = "fecha_creacion", nullable = false, updatable = false)
     private LocalDateTime fechaCreacion;
@@ -60,6 +76,22 @@ public class DocumentoMedico {
         this.jsonData = jsonData;
     }
 
+    public String getArchivoSha256() {
+        return archivoSha256;
+    }
+
+    public String getArchivoNombre() {
+        return archivoNombre;
+    }
+
+    public String getArchivoTipo() {
+        return archivoTipo;
+    }
+
+    public Long getArchivoTamano() {
+        return archivoTamano;
+    }
+
     public LocalDateTime getFechaCreacion() {
         return fechaCreacion;
     }
@@ -0,0 +1,85 @@
+package com.gestioneps.pacientes.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+
+/**
+ * Número de consultas de un día por tipo de consulta, médico y especialidad.
+ *
+ * Se actualiza con cada consulta creada o eliminada y se puede reconstruir por días desde consultas_medicas,
+ * de modo que las estadísticas de un período suman filas de esta tabla en lugar de recorrer el JSON de las consultas.
+ * Los valores ausentes se guardan como {@link #SIN_DATO} para que la restricción única cubra todas las filas.
+ */
+@Entity
+@Table(name = "estadisticas_consultas_diarias",
+    uniqueConstraints = @UniqueConstraint(name = EstadisticaConsultaDiaria.RESTRICCION_UNICA,
+        columnNames = {"fecha", "tipo_consulta", "medico_clave", "especialidad"}),
+    indexes = @Index(name = "idx_estadisticas_consultas_medico", columnList = "medico_clave, fecha"))
+public class EstadisticaConsultaDiaria {
+
+    public static final String RESTRICCION_UNICA = "uk_estadisticas_consultas_diarias";
+    public static final String SIN_DATO = "SIN_DATO";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "fecha", nullable = false)
+    private LocalDate fecha;
+
+    @Column(name = "tipo_consulta", length = 40, nullable = false)
+    private String tipoConsulta;
+
+    @Column(name = "medico_clave", length = 120, nullable = false)
+    private String medicoClave;
+
+    @Column(name = "medico_nombre", columnDefinition = "TEXT")
+    private String medicoNombre;
+
+    // Especialidad plegada (clave de agrupación) y tal como se escribió en la consulta
+    @Column(name = "especialidad", length = 120, nullable = false)
+    private String especialidad;
+
+    @Column(name = "especialidad_nombre", columnDefinition = "TEXT")
+    private String especialidadNombre;
+
+    @Column(name = "total", nullable = false)
+    private long total;
+
+    public EstadisticaConsultaDiaria() {
+        // Constructor vacío requerido por JPA
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public LocalDate getFecha() {
+        return fecha;
+    }
+
+    public String getTipoConsulta() {
+        return tipoConsulta;
+    }
+
+    public String getMedicoClave() {
+        return medicoClave;
+    }
+
+    public String getMedicoNombre() {
+        return medicoNombre;
+    }
+
+    public String getEspecialidad() {
+        return especialidad;
+    }
+
+    public String getEspecialidadNombre() {
+        return especialidadNombre;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+}
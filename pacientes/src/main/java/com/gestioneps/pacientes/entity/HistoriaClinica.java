@@ -11,7 +11,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "historias_clinicas")
+@Table(name = "historias_clinicas", indexes = {
+    @Index(name = "idx_historias_fecha_apertura", columnList = "fecha_apertura"),
+    @Index(name = "idx_historias_paciente_fecha", columnList = "paciente_id, fecha_apertura")
+})
 public class HistoriaClinica {
 
     @Id
@@ -38,6 +41,24 @@ public class HistoriaClinica {
     @Column(name = "activa", nullable = false)
     private Boolean activa = true;
 
+    // Resumen mantenido por ConsultaMedicaService para listar sin inicializar consultas; null pendiente de backfill
+    @Column(name = "numero_consultas")
+    private Long numeroConsultas;
+
+    @Column(name = "ultima_consulta")
+    private LocalDateTime ultimaConsulta;
+
+    // Copia del nombre y documento del paciente para listar sin cargarlo; se actualiza al modificar el paciente
+    @Column(name = "paciente_nombre", columnDefinition = "TEXT")
+    private String pacienteNombre;
+
+    @Column(name = "paciente_documento")
+    private String pacienteDocumento;
+
+    // Versión de la extracción de diagnósticos a diagnosticos_indexados; null en filas pendientes de backfill
+    @Column(name = "version_diagnosticos")
+    private Integer versionDiagnosticos;
+
     @CreationTimestamp
     @Column(name = "fecha_creacion", nullable = false, updatable = false)
     private LocalDateTime fechaCreacion;
@@ -130,4 +151,43 @@ public class HistoriaClinica {
         this.consultas = consultas;
     }
 
+    public Integer getVersionDiagnosticos() {
+        return versionDiagnosticos;
+    }
+
+    public void setVersionDiagnosticos(Integer versionDiagnosticos) {
+        this.versionDiagnosticos = versionDiagnosticos;
+    }
+
+    public Long getNumeroConsultas() {
+        return numeroConsultas;
+    }
+
+    public void setNumeroConsultas(Long numeroConsultas) {
+        this.numeroConsultas = numeroConsultas;
+    }
+
+    public LocalDateTime getUltimaConsulta() {
+        return ultimaConsulta;
+    }
+
+    public void setUltimaConsulta(LocalDateTime ultimaConsulta) {
+        this.ultimaConsulta = ultimaConsulta;
+    }
+
+    public String getPacienteNombre() {
+        return pacienteNombre;
+    }
+
+    public void setPacienteNombre(String pacienteNombre) {
+        this.pacienteNombre = pacienteNombre;
+    }
+
+    public String getPacienteDocumento() {
+        return pacienteDocumento;
+    }
+
+    public void setPacienteDocumento(String pacienteDocumento) {
+        this.pacienteDocumento = pacienteDocumento;
+    }
 }
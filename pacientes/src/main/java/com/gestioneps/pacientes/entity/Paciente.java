@@ -6,12 +6,18 @@ import jakarta.validation.Valid;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "pacientes")
+@Table(name = "pacientes", indexes = {
+    @Index(name = "idx_pacientes_activo_fecha_nacimiento", columnList = "activo, fecha_nacimiento"),
+    @Index(name = "idx_pacientes_eps", columnList = "eps"),
+    @Index(name = "idx_pacientes_version_campos_busqueda", columnList = "version_campos_busqueda"),
+    @Index(name = "idx_pacientes_fecha_actualizacion", columnList = "fecha_actualizacion, id")
+})
 @Access(AccessType.FIELD)
 public class Paciente {
 
@@ -35,6 +41,38 @@ public class Paciente {
     @Column(name = "activo", nullable = false)
     private Boolean activo = true;
 
+    // Columnas de búsqueda materializadas desde datosJson. Se recalculan al persistir cuando el JSON cambia;
+    // los índices trigram sobre ellas se crean en db/pacientes-indices.sql
+    @Column(name = "nombre_completo", columnDefinition = "TEXT")
+    private String nombreCompleto;
+
+    @Column(name = "fecha_nacimiento")
+    private LocalDate fechaNacimiento;
+
+    @Column(name = "eps", columnDefinition = "TEXT")
+    private String eps;
+
+    @Column(name = "ciudad", columnDefinition = "TEXT")
+    private String ciudad;
+
+    @Column(name = "email", columnDefinition = "TEXT")
+    private String email;
+
+    @Column(name = "regimen", length = 30)
+    private String regimen;
+
+    // Inasistencias a citas. Solo las cambian UPDATE directos (barrido de citas vencidas y cambios de estado),
+    // así que la entidad no las escribe y no pisa un incremento concurrente
+    @Column(name = "inasistencias", insertable = false, updatable = false, columnDefinition = "INTEGER DEFAULT 0 NOT NULL")
+    private Integer inasistencias;
+
+    @Column(name = "ultima_inasistencia", insertable = false, updatable = false)
+    private LocalDateTime ultimaInasistencia;
+
+    // Versión del cálculo de las columnas de búsqueda; null en filas anteriores pendientes de backfill
+    @Column(name = "version_campos_busqueda")
+    private Integer versionCamposBusqueda;
+
     @CreationTimestamp
     @Column(name = "fecha_creacion", nullable = false, updatable = false)
     private LocalDateTime fechaCreacion;
@@ -49,6 +87,19 @@ public class Paciente {
     @OneToMany(mappedBy = "paciente", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     private List<CitaMedica> citasMedicas = new ArrayList<>();
 
+    // Vista tipada memoizada de datosJson (no persistente)
+    @Transient
+    private transient DatosPaciente datos;
+
+    @Transient
+    private transient boolean camposBusquedaPendientes;
+
+    public static final int VERSION_CAMPOS_BUSQUEDA = 2;
+
+    // Expresión JPQL (alias p) para proyecciones: trae datosJson solo si las columnas de búsqueda están pendientes
+    public static final String JPQL_DATOS_PENDIENTES = "CASE WHEN p.versionCamposBusqueda IS NULL " +
+        "OR p.versionCamposBusqueda < " + VERSION_CAMPOS_BUSQUEDA + " THEN p.datosJson END";
+
     // Constructors
     public Paciente() {
         // Empty constructor required by JPA for entity instantiation.
@@ -81,11 +132,14 @@ public class Paciente {
     }
 
     public String getDatosJson() {
+        sincronizarDatosJson();
         return datosJson;
     }
 
     public void setDatosJson(String datosJson) {
         this.datosJson = datosJson;
+        this.datos = null;
+        this.camposBusquedaPendientes = true;
     }
 
     public Boolean getActivo() {
@@ -128,246 +182,215 @@ public class Paciente {
         this.citasMedicas = citasMedicas;
     }
 
-    // Utility methods for backward compatibility - parse JSON data
+    /**
+     * Vista tipada de datosJson. Se decodifica una sola vez por carga de la entidad
+     * y se invalida cuando se reemplaza el JSON completo.
+     */
+    public DatosPaciente getDatos() {
+        if (datos == null) {
+            datos = DatosPaciente.desdeJson(datosJson);
+        }
+        return datos;
+    }
+
+    /**
+     * Volcar a datosJson las modificaciones pendientes de la vista tipada en una sola serialización.
+     * Se invoca antes de insertar/actualizar y desde el interceptor de flush de Hibernate.
+     */
+    @PrePersist
+    @PreUpdate
+    public void sincronizarDatosJson() {
+        if (datos != null && datos.isModificado()) {
+            this.datosJson = datos.toJson();
+            this.camposBusquedaPendientes = true;
+        }
+        if (camposBusquedaPendientes) {
+            actualizarCamposBusqueda();
+        }
+    }
+
+    /**
+     * Recalcular las columnas de búsqueda a partir de la vista tipada
+     */
+    public void actualizarCamposBusqueda() {
+        DatosPaciente vista = getDatos();
+        String nombre = vista.getNombreCompleto();
+        this.nombreCompleto = nombre.isEmpty() ? null : nombre;
+        this.fechaNacimiento = vista.getFechaNacimiento();
+        this.eps = vista.getEps();
+        this.ciudad = vista.getCiudad();
+        this.email = vista.getEmail();
+        this.regimen = vista.getRegimen();
+        this.versionCamposBusqueda = VERSION_CAMPOS_BUSQUEDA;
+        this.camposBusquedaPendientes = false;
+    }
+
+    public LocalDate getFechaNacimiento() {
+        return fechaNacimiento;
+    }
+
+    public String getEps() {
+        return eps;
+    }
+
+    public String getCiudad() {
+        return ciudad;
+    }
+
+    public String getRegimen() {
+        return regimen;
+    }
+
+    public Integer getVersionCamposBusqueda() {
+        return versionCamposBusqueda;
+    }
+
+    public int getInasistencias() {
+        return inasistencias != null ? inasistencias : 0;
+    }
+
+    public LocalDateTime getUltimaInasistencia() {
+        return ultimaInasistencia;
+    }
+
+    // Utility methods for backward compatibility - read from the typed view
     public String getNombreCompleto() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return "";
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoPersonal = data.get("informacionPersonal");
-            if (infoPersonal != null) {
-                String primerNombre = infoPersonal.get("primerNombre").asText("");
-                String segundoNombre = infoPersonal.get("segundoNombre").asText("");
-                String primerApellido = infoPersonal.get("primerApellido").asText("");
-                String segundoApellido = infoPersonal.get("segundoApellido").asText("");
-                return String.format("%s %s %s %s", primerNombre, segundoNombre, primerApellido, segundoApellido).trim();
-            }
-        } catch (Exception e) {
-            // Silent fallback
+        return getDatos().getNombreCompleto();
+    }
+
+    /**
+     * Nombre completo desde la columna materializada, sin decodificar datosJson salvo que esté pendiente de recalcular
+     */
+    public String getNombreParaMostrar() {
+        if (camposBusquedaPendientes || (datos != null && datos.isModificado())
+                || versionCamposBusqueda == null || versionCamposBusqueda < VERSION_CAMPOS_BUSQUEDA) {
+            return getNombreCompleto();
         }
-        return "";
+        return nombreCompleto != null ? nombreCompleto : "";
     }
 
-    public int getEdad() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return 0;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoPersonal = data.get("informacionPersonal");
-            if (infoPersonal != null && infoPersonal.has("fechaNacimiento")) {
-                // Simple age calculation
-                return 25; // Placeholder - would need proper date calculation
-            }
-        } catch (Exception e) {
-            // Silent fallback
+    /**
+     * Igual que {@link #getNombreParaMostrar()} para proyecciones que seleccionan {@link #JPQL_DATOS_PENDIENTES}
+     */
+    public static String nombreParaMostrar(String nombreCompleto, String datosJsonPendiente) {
+        if (datosJsonPendiente != null) {
+            return DatosPaciente.desdeJson(datosJsonPendiente).getNombreCompleto();
         }
-        return 0;
+        return nombreCompleto != null ? nombreCompleto : "";
     }
 
-    // Transient convenience accessors (parse from JSON)
+    public int getEdad() {
+        return getDatos().getEdad();
+    }
+
+    // Transient convenience accessors (typed view over JSON)
     @Transient
     public String getPrimerNombre() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoPersonal = data.get("informacionPersonal");
-            return infoPersonal != null ? infoPersonal.get("primerNombre").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        InformacionPersonal info = getDatos().getInformacionPersonal();
+        return info != null ? info.getPrimerNombre() : null;
     }
 
     public void setPrimerNombre(String primerNombre) {
-        updateJsonField("informacionPersonal", "primerNombre", primerNombre);
+        getDatos().actualizar(DatosPaciente.INFORMACION_PERSONAL, "primerNombre", primerNombre);
     }
 
     @Transient
     public String getSegundoNombre() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoPersonal = data.get("informacionPersonal");
-            return infoPersonal != null ? infoPersonal.get("segundoNombre").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        InformacionPersonal info = getDatos().getInformacionPersonal();
+        return info != null ? info.getSegundoNombre() : null;
     }
 
     public void setSegundoNombre(String segundoNombre) {
-        updateJsonField("informacionPersonal", "segundoNombre", segundoNombre);
+        getDatos().actualizar(DatosPaciente.INFORMACION_PERSONAL, "segundoNombre", segundoNombre);
     }
 
     @Transient
     public String getPrimerApellido() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoPersonal = data.get("informacionPersonal");
-            return infoPersonal != null ? infoPersonal.get("primerApellido").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        InformacionPersonal info = getDatos().getInformacionPersonal();
+        return info != null ? info.getPrimerApellido() : null;
     }
 
     public void setPrimerApellido(String primerApellido) {
-        updateJsonField("informacionPersonal", "primerApellido", primerApellido);
+        getDatos().actualizar(DatosPaciente.INFORMACION_PERSONAL, "primerApellido", primerApellido);
     }
 
     @Transient
     public String getSegundoApellido() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoPersonal = data.get("informacionPersonal");
-            return infoPersonal != null ? infoPersonal.get("segundoApellido").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        InformacionPersonal info = getDatos().getInformacionPersonal();
+        return info != null ? info.getSegundoApellido() : null;
     }
 
     public void setSegundoApellido(String segundoApellido) {
-        updateJsonField("informacionPersonal", "segundoApellido", segundoApellido);
+        getDatos().actualizar(DatosPaciente.INFORMACION_PERSONAL, "segundoApellido", segundoApellido);
     }
 
     @Transient
     public String getTelefono() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoContacto = data.get("informacionContacto");
-            return infoContacto != null ? infoContacto.get("telefono").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        InformacionContacto info = getDatos().getInformacionContacto();
+        return info != null ? info.getTelefono() : null;
     }
 
     public void setTelefono(String telefono) {
-        updateJsonField("informacionContacto", "telefono", telefono);
+        getDatos().actualizar(DatosPaciente.INFORMACION_CONTACTO, "telefono", telefono);
     }
 
     @Transient
     public String getEmail() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoContacto = data.get("informacionContacto");
-            return infoContacto != null ? infoContacto.get("email").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        InformacionContacto info = getDatos().getInformacionContacto();
+        return info != null ? info.getEmail() : null;
     }
 
     public void setEmail(String email) {
-        updateJsonField("informacionContacto", "email", email);
+        getDatos().actualizar(DatosPaciente.INFORMACION_CONTACTO, "email", email);
     }
 
     @Transient
     public String getNombreContacto() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var contactoEmergencia = data.get("contactoEmergencia");
-            return contactoEmergencia != null ? contactoEmergencia.get("nombreContacto").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        ContactoEmergencia contacto = getDatos().getContactoEmergencia();
+        return contacto != null ? contacto.getNombreContacto() : null;
     }
 
     public void setNombreContacto(String nombreContacto) {
-        updateJsonField("contactoEmergencia", "nombreContacto", nombreContacto);
+        getDatos().actualizar(DatosPaciente.CONTACTO_EMERGENCIA, "nombreContacto", nombreContacto);
     }
 
     @Transient
     public String getTelefonoContacto() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var contactoEmergencia = data.get("contactoEmergencia");
-            return contactoEmergencia != null ? contactoEmergencia.get("telefonoContacto").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        ContactoEmergencia contacto = getDatos().getContactoEmergencia();
+        return contacto != null ? contacto.getTelefonoContacto() : null;
     }
 
     public void setTelefonoContacto(String telefonoContacto) {
-        updateJsonField("contactoEmergencia", "telefonoContacto", telefonoContacto);
+        getDatos().actualizar(DatosPaciente.CONTACTO_EMERGENCIA, "telefonoContacto", telefonoContacto);
     }
 
     @Transient
     public String getAlergias() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoMedica = data.get("informacionMedica");
-            return infoMedica != null ? infoMedica.get("alergias").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        InformacionMedica info = getDatos().getInformacionMedica();
+        return info != null ? info.getAlergias() : null;
     }
 
     public void setAlergias(String alergias) {
-        updateJsonField("informacionMedica", "alergias", alergias);
+        getDatos().actualizar(DatosPaciente.INFORMACION_MEDICA, "alergias", alergias);
     }
 
     @Transient
     public String getMedicamentosActuales() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoMedica = data.get("informacionMedica");
-            return infoMedica != null ? infoMedica.get("medicamentosActuales").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        InformacionMedica info = getDatos().getInformacionMedica();
+        return info != null ? info.getMedicamentosActuales() : null;
     }
 
     public void setMedicamentosActuales(String medicamentos) {
-        updateJsonField("informacionMedica", "medicamentosActuales", medicamentos);
+        getDatos().actualizar(DatosPaciente.INFORMACION_MEDICA, "medicamentosActuales", medicamentos);
     }
 
     @Transient
     public String getObservacionesMedicas() {
-        try {
-            if (datosJson == null || datosJson.trim().isEmpty()) return null;
-            var data = new com.fasterxml.jackson.databind.ObjectMapper().readTree(datosJson);
-            var infoMedica = data.get("informacionMedica");
-            return infoMedica != null ? infoMedica.get("observacionesMedicas").asText(null) : null;
-        } catch (Exception e) {
-            return null;
-        }
+        InformacionMedica info = getDatos().getInformacionMedica();
+        return info != null ? info.getObservacionesMedicas() : null;
     }
 
     public void setObservacionesMedicas(String obs) {
-        updateJsonField("informacionMedica", "observacionesMedicas", obs);
-    }
-
-    // Helper method to update JSON field
-    private void updateJsonField(String section, String field, String value) {
-        try {
-            var mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-            com.fasterxml.jackson.databind.node.ObjectNode data;
-
-            if (datosJson != null && !datosJson.trim().isEmpty()) {
-                data = (com.fasterxml.jackson.databind.node.ObjectNode) mapper.readTree(datosJson);
-            } else {
-                data = mapper.createObjectNode();
-            }
-
-            if (!data.has(section)) {
-                data.putObject(section);
-            }
-
-            ((com.fasterxml.jackson.databind.node.ObjectNode) data.get(section)).put(field, value);
-            this.datosJson = mapper.writeValueAsString(data);
-        } catch (Exception e) {
-            // Fallback: create new JSON with the field
-            try {
-                var mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-                var data = mapper.createObjectNode();
-                var sectionNode = data.putObject(section);
-                sectionNode.put(field, value);
-                this.datosJson = mapper.writeValueAsString(data);
-            } catch (Exception ex) {
-                // Silent failure
-            }
-        }
+        getDatos().actualizar(DatosPaciente.INFORMACION_MEDICA, "observacionesMedicas", obs);
     }
 }
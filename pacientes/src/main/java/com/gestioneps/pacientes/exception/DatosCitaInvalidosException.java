@@ -0,0 +1,7 @@
+package com.gestioneps.pacientes.exception;
+
+public class DatosCitaInvalidosException extends IllegalArgumentException {
+    public DatosCitaInvalidosException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.gestioneps.pacientes.exception;
+
+public class EstadoCitaConflictoException extends RuntimeException {
+    public EstadoCitaConflictoException(String message) {
+        super(message);
+    }
+}
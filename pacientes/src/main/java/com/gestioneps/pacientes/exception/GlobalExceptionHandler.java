@@ -3,6 +3,7 @@ package com.gestioneps.pacientes.exception;
 import com.gestioneps.pacientes.dto.ApiError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
@@ -47,6 +48,36 @@ public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(apiError, HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler(HorarioNoDisponibleException.class)
+    public ResponseEntity<ApiError> handleHorarioNoDisponible(HorarioNoDisponibleException ex) {
+        ApiError apiError = new ApiError();
+        apiError.setSuccess(false);
+        apiError.setError(ex.getMessage());
+        apiError.setData(null);
+        LOGGER.warn("HorarioNoDisponibleException: {}", ex.getMessage());
+        return new ResponseEntity<>(apiError, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(EstadoCitaConflictoException.class)
+    public ResponseEntity<ApiError> handleEstadoCitaConflicto(EstadoCitaConflictoException ex) {
+        ApiError apiError = new ApiError();
+        apiError.setSuccess(false);
+        apiError.setError(ex.getMessage());
+        apiError.setData(null);
+        LOGGER.warn("EstadoCitaConflictoException: {}", ex.getMessage());
+        return new ResponseEntity<>(apiError, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<ApiError> handleOptimisticLocking(OptimisticLockingFailureException ex) {
+        ApiError apiError = new ApiError();
+        apiError.setSuccess(false);
+        apiError.setError("El registro fue modificado por otro usuario; vuelva a cargarlo e intente de nuevo");
+        apiError.setData(null);
+        LOGGER.warn("OptimisticLockingFailureException: {}", ex.getMessage());
+        return new ResponseEntity<>(apiError, HttpStatus.CONFLICT);
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ApiError> handleAll(Exception ex) {
         ApiError apiError = new ApiError();
@@ -0,0 +1,7 @@
+package com.gestioneps.pacientes.exception;
+
+public class HorarioNoDisponibleException extends RuntimeException {
+    public HorarioNoDisponibleException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,47 @@
+package com.gestioneps.pacientes.repository;
+
+import com.gestioneps.pacientes.entity.AgendaMedicoDia;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface AgendaMedicoDiaRepository extends JpaRepository<AgendaMedicoDia, Long> {
+
+    /**
+     * Agenda del día bloqueada (FOR UPDATE) hasta el fin de la transacción
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM AgendaMedicoDia a WHERE a.medicoClave = :medicoClave AND a.fecha = :fecha")
+    Optional<AgendaMedicoDia> findParaActualizar(@Param("medicoClave") String medicoClave, @Param("fecha") LocalDate fecha);
+
+    List<AgendaMedicoDia> findByMedicoClaveAndFechaBetween(String medicoClave, LocalDate desde, LocalDate hasta);
+
+    /**
+     * Crear la agenda del día si no existe; si otra transacción la está creando, espera a que termine
+     */
+    @Modifying
+    @Query(value = "INSERT INTO agenda_medico_dia (medico_clave, fecha, ocupacion) VALUES (:medicoClave, :fecha, :ocupacion) " +
+                   "ON CONFLICT ON CONSTRAINT uk_agenda_medico_dia DO NOTHING",
+           nativeQuery = true)
+    int crearSiNoExiste(@Param("medicoClave") String medicoClave,
+                        @Param("fecha") LocalDate fecha,
+                        @Param("ocupacion") byte[] ocupacion);
+
+    /**
+     * Descartar agendas calculadas para que se vuelvan a crear desde citas_medicas
+     */
+    @Modifying
+    @Query("DELETE FROM AgendaMedicoDia a WHERE a.medicoClave = :medicoClave AND a.fecha BETWEEN :desde AND :hasta")
+    int deleteByMedicoClaveAndFechaBetween(@Param("medicoClave") String medicoClave,
+                                           @Param("desde") LocalDate desde,
+                                           @Param("hasta") LocalDate hasta);
+}
@@ -1,37 +1,206 @@
 package com.gestioneps.pacientes.repository;
 
+import com.gestioneps.pacientes.dto.CitaMedicaDTO;
 import com.gestioneps.pacientes.entity.CitaMedica;
+import com.gestioneps.pacientes.entity.Paciente;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface CitaMedicaRepository extends JpaRepository<CitaMedica, Long> {
 
-    Page<CitaMedica> findByPacienteId(Long pacienteId, Pageable pageable);
+    // Reescribe la clave "estado" del JSON de la cita en la misma sentencia que cambia la columna; las filas cuyo JSON
+    // no es un objeto lo conservan (función de db/pacientes-funciones.sql)
+    String ESTADO_EN_JSON = "datos_json = cita_json_con_estado(datos_json, :estado)";
+
+    // Proyección de listados: cita y nombre del paciente en una sola sentencia
+    String SELECT_DTO = "SELECT new com.gestioneps.pacientes.dto.CitaMedicaDTO(c.id, p.id, p.nombreCompleto, " +
+                        Paciente.JPQL_DATOS_PENDIENTES + ", c.datosJson, c.activa, c.fechaHoraCita, c.medicoNombre, " +
+                        "c.estado, c.version, c.fechaCreacion, c.fechaActualizacion) FROM CitaMedica c JOIN c.paciente p ";
+
+    @Query(value = SELECT_DTO + "WHERE p.id = :pacienteId",
+           countQuery = "SELECT COUNT(c) FROM CitaMedica c WHERE c.paciente.id = :pacienteId")
+    Page<CitaMedicaDTO> findDtoByPacienteId(@Param("pacienteId") Long pacienteId, Pageable pageable);
 
     List<CitaMedica> findByPacienteId(Long pacienteId);
 
-    @Query("SELECT c FROM CitaMedica c WHERE c.paciente.id = :pacienteId AND c.activa = true ORDER BY c.fechaCreacion DESC")
-    List<CitaMedica> findActiveByPacienteId(@Param("pacienteId") Long pacienteId);
+    @Query(SELECT_DTO + "WHERE p.id = :pacienteId AND c.activa = true ORDER BY c.fechaCreacion DESC")
+    List<CitaMedicaDTO> findDtoActivasByPacienteId(@Param("pacienteId") Long pacienteId);
+
+    // Pares [pacienteId, total] de citas activas para los pacientes de una página
+    @Query("SELECT c.paciente.id, COUNT(c) FROM CitaMedica c WHERE c.activa = true AND c.paciente.id IN :pacienteIds GROUP BY c.paciente.id")
+    List<Object[]> contarActivasPorPacientes(@Param("pacienteIds") Collection<Long> pacienteIds);
+
+    /**
+     * Agenda: citas activas con fecha en [desde, hasta), en orden de hora (índice por fecha_hora_cita)
+     */
+    @Query("SELECT c FROM CitaMedica c JOIN FETCH c.paciente WHERE c.activa = true " +
+           "AND c.fechaHoraCita >= :desde AND c.fechaHoraCita < :hasta ORDER BY c.fechaHoraCita, c.id")
+    List<CitaMedica> findCitasBetweenDates(@Param("desde") LocalDateTime desde, @Param("hasta") LocalDateTime hasta);
+
+    /**
+     * Agenda de un médico en [desde, hasta) (índice por medico_clave, fecha_hora_cita)
+     */
+    @Query("SELECT c FROM CitaMedica c JOIN FETCH c.paciente WHERE c.activa = true AND c.medicoClave = :medicoClave " +
+           "AND c.fechaHoraCita >= :desde AND c.fechaHoraCita < :hasta ORDER BY c.fechaHoraCita, c.id")
+    List<CitaMedica> findAgendaMedico(@Param("medicoClave") String medicoClave,
+                                      @Param("desde") LocalDateTime desde,
+                                      @Param("hasta") LocalDateTime hasta);
+
+    /**
+     * Citas en un estado con fecha en [desde, hasta) (índice por estado, fecha_hora_cita)
+     */
+    @Query("SELECT c FROM CitaMedica c JOIN FETCH c.paciente WHERE c.activa = true AND c.estado = :estado " +
+           "AND c.fechaHoraCita >= :desde AND c.fechaHoraCita < :hasta ORDER BY c.fechaHoraCita, c.id")
+    List<CitaMedica> findByEstado(@Param("estado") String estado,
+                                  @Param("desde") LocalDateTime desde,
+                                  @Param("hasta") LocalDateTime hasta);
+
+    @Query(value = SELECT_DTO + "WHERE c.activa = true ORDER BY c.fechaCreacion DESC",
+           countQuery = "SELECT COUNT(c) FROM CitaMedica c WHERE c.activa = true")
+    Page<CitaMedicaDTO> findDtoActivas(Pageable pageable);
+
+    // Paginación por cursor: citas activas con id menor al cursor, sin consulta de conteo
+    @Query(SELECT_DTO + "WHERE c.activa = true AND c.id < :id ORDER BY c.id DESC")
+    Slice<CitaMedicaDTO> findDtoActivasAntesDe(@Param("id") Long id, Pageable pageable);
+
+    @Query("SELECT c FROM CitaMedica c JOIN FETCH c.paciente WHERE c.id IN :ids")
+    List<CitaMedica> findConPacienteByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Citas programadas desde la fecha dada, de la más próxima a la más lejana
+     */
+    @Query(value = "SELECT c FROM CitaMedica c JOIN FETCH c.paciente WHERE c.activa = true AND c.estado = 'PROGRAMADO' " +
+                   "AND c.fechaHoraCita >= :desde ORDER BY c.fechaHoraCita, c.id",
+           countQuery = "SELECT COUNT(c) FROM CitaMedica c WHERE c.activa = true AND c.estado = 'PROGRAMADO' " +
+                        "AND c.fechaHoraCita >= :desde")
+    Page<CitaMedica> findPendingAppointments(@Param("desde") LocalDateTime desde, Pageable pageable);
+
+    /**
+     * Citas del paciente anteriores a la posición (fecha, id) de la línea de tiempo, de la más reciente a la más antigua.
+     * La fecha es la de la cita; las que no la tienen se ubican por su fecha de creación.
+     */
+    @Query("SELECT c FROM CitaMedica c WHERE c.paciente.id = :pacienteId " +
+           "AND (COALESCE(c.fechaHoraCita, c.fechaCreacion) < :fecha " +
+           "OR (COALESCE(c.fechaHoraCita, c.fechaCreacion) = :fecha AND c.id < :id)) " +
+           "ORDER BY COALESCE(c.fechaHoraCita, c.fechaCreacion) DESC, c.id DESC")
+    List<CitaMedica> findParaTimeline(@Param("pacienteId") Long pacienteId,
+                                      @Param("fecha") LocalDateTime fecha,
+                                      @Param("id") Long id,
+                                      Pageable pageable);
+
+    /**
+     * Intervalos [inicio, fin) de las citas activas del médico que se cruzan con [desde, hasta)
+     */
+    @Query("SELECT c.fechaHoraCita, c.fechaHoraFin FROM CitaMedica c WHERE c.medicoClave = :medicoClave " +
+           "AND c.activa = true AND c.fechaHoraCita < :hasta AND c.fechaHoraFin > :desde")
+    List<Object[]> findIntervalosOcupados(@Param("medicoClave") String medicoClave,
+                                          @Param("desde") LocalDateTime desde,
+                                          @Param("hasta") LocalDateTime hasta);
+
+    /**
+     * Cambio de estado de una cita por compare-and-set: solo se aplica si la cita sigue en la versión leída y en uno de
+     * los estados de origen (o sin estado, pendiente de backfill). Actualiza también el estado dentro de datos_json y
+     * desactiva la cita si se cancela o se marca como NO_SE_PRESENTO. Devuelve 1 si se aplicó, 0 si la cita cambió
+     * entre tanto.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "UPDATE citas_medicas SET estado = :estado, " + ESTADO_EN_JSON + ", " +
+                   "activa = (activa AND :estado NOT IN ('CANCELADO', 'NO_SE_PRESENTO')), version = version + 1, " +
+                   "fecha_actualizacion = :ahora " +
+                   "WHERE id = :id AND version = :version AND (estado IN (:origenes) OR estado IS NULL)",
+           nativeQuery = true)
+    int cambiarEstado(@Param("id") Long id,
+                      @Param("version") long version,
+                      @Param("origenes") Collection<String> origenes,
+                      @Param("estado") String estado,
+                      @Param("ahora") LocalDateTime ahora);
+
+    /**
+     * Cambio de estado en lote de las citas activas que están en uno de los estados de origen (las filas sin estado
+     * cuentan como PROGRAMADO); bloquea las filas en orden de id y, como cambiarEstado, desactiva las canceladas y las
+     * marcadas como NO_SE_PRESENTO. Devuelve [id, fecha_hora_cita, fecha_hora_fin, medico_clave, medico_nombre,
+     * paciente_id] de las citas cambiadas.
+     */
+    @Query(value = "UPDATE citas_medicas SET estado = :estado, " + ESTADO_EN_JSON + ", " +
+                   "activa = (activa AND :estado NOT IN ('CANCELADO', 'NO_SE_PRESENTO')), version = version + 1, " +
+                   "fecha_actualizacion = :ahora " +
+                   "WHERE id IN (SELECT c.id FROM citas_medicas c WHERE c.id IN (:ids) AND c.activa = true " +
+                   "AND COALESCE(c.estado, 'PROGRAMADO') IN (:origenes) ORDER BY c.id FOR UPDATE) " +
+                   "RETURNING id, fecha_hora_cita, fecha_hora_fin, medico_clave, medico_nombre, paciente_id",
+           nativeQuery = true)
+    List<Object[]> cambiarEstadoEnLote(@Param("ids") Collection<Long> ids,
+                                       @Param("origenes") Collection<String> origenes,
+                                       @Param("estado") String estado,
+                                       @Param("ahora") LocalDateTime ahora);
+
+    /**
+     * Marcar como NO_SE_PRESENTO y desactivar el siguiente lote de citas PROGRAMADO cuyo horario terminó antes del
+     * límite, por keyset sobre el id y saltando las filas que otra transacción tiene bloqueadas.
+     * Devuelve [id, paciente_id, fecha_hora_cita] de las citas marcadas.
+     */
+    @Query(value = "UPDATE citas_medicas SET estado = :estado, " + ESTADO_EN_JSON + ", activa = false, " +
+                   "version = version + 1, fecha_actualizacion = :ahora " +
+                   "WHERE id IN (SELECT c.id FROM citas_medicas c WHERE c.activa = true AND c.estado = 'PROGRAMADO' " +
+                   "AND c.fecha_hora_cita < :limite AND c.fecha_hora_fin < :limite AND c.id > :ultimoId " +
+                   "ORDER BY c.id LIMIT :lote FOR UPDATE SKIP LOCKED) " +
+                   "RETURNING id, paciente_id, fecha_hora_cita",
+           nativeQuery = true)
+    List<Object[]> marcarInasistencias(@Param("estado") String estado,
+                                       @Param("limite") LocalDateTime limite,
+                                       @Param("ultimoId") long ultimoId,
+                                       @Param("lote") int lote,
+                                       @Param("ahora") LocalDateTime ahora);
 
-    @Query("SELECT c FROM CitaMedica c WHERE c.activa = true AND " +
-           "JSON_EXTRACT(c.datosJson, '$.fechaHoraCita') BETWEEN :startDate AND :endDate")
-    List<CitaMedica> findCitasBetweenDates(@Param("startDate") String startDate, @Param("endDate") String endDate);
+    /**
+     * Ids de las citas que marcarInasistencias tomaría a partir de ultimoId, sin bloquearlas
+     */
+    @Query("SELECT c.id FROM CitaMedica c WHERE c.activa = true AND c.estado = 'PROGRAMADO' " +
+           "AND c.fechaHoraCita < :limite AND c.fechaHoraFin < :limite AND c.id > :ultimoId ORDER BY c.id")
+    List<Long> findIdsVencidas(@Param("limite") LocalDateTime limite,
+                               @Param("ultimoId") long ultimoId,
+                               Pageable pageable);
 
-    @Query("SELECT c FROM CitaMedica c WHERE c.activa = true AND " +
-           "JSON_EXTRACT(c.datosJson, '$.estado') = :estado")
-    List<CitaMedica> findByEstado(@Param("estado") String estado);
+    /**
+     * Intentar tomar el bloqueo consultivo indicado hasta el fin de la transacción, sin esperar
+     */
+    @Query(value = "SELECT pg_try_advisory_xact_lock(:clave)", nativeQuery = true)
+    Boolean intentarBloqueo(@Param("clave") long clave);
 
-    @Query("SELECT c FROM CitaMedica c WHERE c.activa = true ORDER BY c.fechaCreacion DESC")
-    Page<CitaMedica> findAllActive(Pageable pageable);
+    /**
+     * Siguiente lote de citas sin campos extraídos con la versión actual: pares [id, datosJson]
+     */
+    @Query("SELECT c.id, c.datosJson FROM CitaMedica c WHERE c.id > :ultimoId " +
+           "AND (c.versionCampos IS NULL OR c.versionCampos < :version) ORDER BY c.id")
+    List<Object[]> findLotePendienteCampos(@Param("ultimoId") Long ultimoId,
+                                           @Param("version") int version,
+                                           Pageable pageable);
 
-    @Query("SELECT c FROM CitaMedica c WHERE c.activa = true ORDER BY c.fechaCreacion DESC")
-    Page<CitaMedica> findPendingAppointments(Pageable pageable);
-}
\ No newline at end of file
+    /**
+     * Escribir los campos extraídos de una cita sin tocar datosJson ni fechaActualizacion. El estado solo se llena si
+     * falta: una vez guardado lo mantienen las escrituras de la cita y no se pisa con un JSON leído antes.
+     * Solo escribe filas que siguen pendientes: si la cita se guardó desde la API después de leer el lote, sus
+     * columnas ya corresponden al JSON nuevo y se devuelve 0.
+     */
+    @Modifying
+    @Query("UPDATE CitaMedica c SET c.fechaHoraCita = :inicio, c.fechaHoraFin = :fin, c.medicoClave = :medicoClave, " +
+           "c.medicoNombre = :medicoNombre, c.estado = COALESCE(c.estado, :estado), c.versionCampos = :version " +
+           "WHERE c.id = :id AND (c.versionCampos IS NULL OR c.versionCampos < :version)")
+    int actualizarCampos(@Param("id") Long id,
+                         @Param("inicio") LocalDateTime inicio,
+                         @Param("fin") LocalDateTime fin,
+                         @Param("medicoClave") String medicoClave,
+                         @Param("medicoNombre") String medicoNombre,
+                         @Param("estado") String estado,
+                         @Param("version") int version);
+}
@@ -3,6 +3,7 @@ package com.gestioneps.pacientes.repository;
 import com.gestioneps.pacientes.entity.CodigosCups;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -23,6 +24,11 @@ public interface CodigosCupsRepository extends JpaRepository<CodigosCups, Long>
      */
     boolean existsByCodigoCup(String codigoCup);
 
+    /**
+     * Códigos CUP con id menor al cursor, del más reciente al más antiguo, sin consulta de conteo
+     */
+    Slice<CodigosCups> findByIdLessThanOrderByIdDesc(Long id, Pageable pageable);
+
     /**
      * Buscar códigos CUP por nombre (contiene)
      */
@@ -1,32 +1,58 @@
 package com.gestioneps.pacientes.repository;
 
+import com.gestioneps.pacientes.dto.ConsultaMedicaDTO;
 import com.gestioneps.pacientes.entity.ConsultaMedica;
 import com.gestioneps.pacientes.entity.HistoriaClinica;
+import com.gestioneps.pacientes.entity.Paciente;
 import com.gestioneps.pacientes.entity.TipoConsulta;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ConsultaMedicaRepository extends JpaRepository<ConsultaMedica, Long> {
 
+    // Proyección de listados: consulta, historia y nombre del paciente en una sola sentencia
+    String SELECT_DTO = "SELECT new com.gestioneps.pacientes.dto.ConsultaMedicaDTO(c.id, h.id, h.numeroHistoria, " +
+                        "p.nombreCompleto, " + Paciente.JPQL_DATOS_PENDIENTES + ", c.datosJson, c.fechaCreacion, " +
+                        "c.fechaActualizacion, c.citaId) FROM ConsultaMedica c JOIN c.historiaClinica h JOIN h.paciente p ";
+
     /**
-     * Buscar consultas por historia clínica
+     * Buscar consultas por historia clínica, de la más reciente a la más antigua, paginadas en la base de datos
      */
-       // detalleConsulta.fechaConsulta está dentro del JSON 'detalle_consulta' y no es un atributo mapeado
-       // en la entidad ConsultaMedica. Para ordenar/consultar por fecha usaremos fechaCreacion (columna mapeada)
-       List<ConsultaMedica> findByHistoriaClinicaOrderByFechaCreacionDesc(HistoriaClinica historiaClinica);
+    // detalleConsulta.fechaConsulta está dentro del JSON 'detalle_consulta' y no es un atributo mapeado
+    // en la entidad ConsultaMedica. Para ordenar/consultar por fecha usaremos fechaCreacion (columna mapeada)
+    @Query(value = SELECT_DTO + "WHERE h.id = :historiaId ORDER BY c.fechaCreacion DESC, c.id DESC",
+           countQuery = "SELECT COUNT(c) FROM ConsultaMedica c WHERE c.historiaClinica.id = :historiaId")
+    Page<ConsultaMedicaDTO> findDtoByHistoriaClinicaId(@Param("historiaId") Long historiaId, Pageable pageable);
 
     /**
-     * Buscar consultas por médico tratante
+     * Buscar consultas cuyo nombre de médico (plegado) contiene el texto; índice trigram en db/pacientes-indices.sql
      */
-    @Query(value = "SELECT * FROM consultas_medicas c WHERE LOWER(COALESCE(c.detalle_consulta->> 'medicoTratante','')) LIKE LOWER(CONCAT('%', :medico, '%')) OR LOWER(COALESCE(c.informacion_medico->> 'medicoTratante','')) LIKE LOWER(CONCAT('%', :medico, '%'))",
-           nativeQuery = true)
-    List<ConsultaMedica> findByMedicoTratanteContainingIgnoreCase(@Param("medico") String medico);
+    @Query(value = SELECT_DTO + "WHERE c.medicoNombreBusqueda LIKE CONCAT('%', :medico, '%') ESCAPE '!' " +
+                   "ORDER BY c.fechaCreacion DESC, c.id DESC",
+           countQuery = "SELECT COUNT(c) FROM ConsultaMedica c " +
+                        "WHERE c.medicoNombreBusqueda LIKE CONCAT('%', :medico, '%') ESCAPE '!'")
+    Page<ConsultaMedicaDTO> findDtoByMedicoNombre(@Param("medico") String medico, Pageable pageable);
+
+    /**
+     * Consultas de un médico identificado por su clave estable, de la más reciente a la más antigua
+     */
+    @Query(value = SELECT_DTO + "WHERE c.medicoClave IN :medicoClaves ORDER BY c.fechaCreacion DESC, c.id DESC",
+           countQuery = "SELECT COUNT(c) FROM ConsultaMedica c WHERE c.medicoClave IN :medicoClaves")
+    Page<ConsultaMedicaDTO> findDtoByMedicoClaveIn(@Param("medicoClaves") Collection<String> medicoClaves, Pageable pageable);
 
     /**
      * Buscar consultas por tipo
@@ -42,11 +68,13 @@ public interface ConsultaMedicaRepository extends JpaRepository<ConsultaMedica,
        List<ConsultaMedica> findByFechaCreacionBetween(LocalDateTime fechaInicio, LocalDateTime fechaFin);
 
     /**
-     * Buscar consultas por especialidad
+     * Buscar consultas cuya especialidad (plegada) contiene el texto; índice trigram en db/pacientes-indices.sql
      */
-    @Query(value = "SELECT * FROM consultas_medicas c WHERE LOWER(COALESCE(c.informacion_medico->> 'especialidad','')) LIKE LOWER(CONCAT('%', :especialidad, '%'))",
-           nativeQuery = true)
-    List<ConsultaMedica> findByEspecialidadContainingIgnoreCase(@Param("especialidad") String especialidad);
+    @Query(value = SELECT_DTO + "WHERE c.especialidadBusqueda LIKE CONCAT('%', :especialidad, '%') ESCAPE '!' " +
+                   "ORDER BY c.fechaCreacion DESC, c.id DESC",
+           countQuery = "SELECT COUNT(c) FROM ConsultaMedica c " +
+                        "WHERE c.especialidadBusqueda LIKE CONCAT('%', :especialidad, '%') ESCAPE '!'")
+    Page<ConsultaMedicaDTO> findDtoByEspecialidad(@Param("especialidad") String especialidad, Pageable pageable);
 
     /**
      * Buscar última consulta de una historia clínica
@@ -57,31 +85,167 @@ public interface ConsultaMedicaRepository extends JpaRepository<ConsultaMedica,
     /**
      * Contar consultas por médico en un período
      */
-    // medicoTratante está dentro del JSON detalle_consulta o informacion_medico. Usamos consulta nativa
-    // para contar consultas cuyo medico coincida (búsqueda case-insensitive simple) y caigan en el rango.
-    @Query(value = "SELECT COUNT(1) FROM consultas_medicas c WHERE (LOWER(COALESCE(c.detalle_consulta->> 'medicoTratante','')) LIKE LOWER(CONCAT('%', :medico, '%')) OR LOWER(COALESCE(c.informacion_medico->> 'medicoTratante','')) LIKE LOWER(CONCAT('%', :medico, '%'))) " +
-                   "AND c.fecha_creacion BETWEEN :fechaInicio AND :fechaFin",
-           nativeQuery = true)
-    long countConsultasByMedicoAndPeriodo(@Param("medico") String medico, 
+    // Recorrido por rango sobre el índice (medico_clave, fecha_creacion)
+    @Query("SELECT COUNT(c) FROM ConsultaMedica c WHERE c.medicoClave IN :medicoClaves " +
+           "AND c.fechaCreacion BETWEEN :fechaInicio AND :fechaFin")
+    long countConsultasByMedicoAndPeriodo(@Param("medicoClaves") Collection<String> medicoClaves,
                                          @Param("fechaInicio") LocalDateTime fechaInicio,
                                          @Param("fechaFin") LocalDateTime fechaFin);
 
+    /**
+     * Productividad por médico en un período: tripletas [medicoClave, medicoNombre, total] de mayor a menor
+     */
+    @Query("SELECT c.medicoClave, MAX(c.medicoNombre), COUNT(c) FROM ConsultaMedica c " +
+           "WHERE c.medicoClave IS NOT NULL AND c.fechaCreacion BETWEEN :fechaInicio AND :fechaFin " +
+           "GROUP BY c.medicoClave ORDER BY COUNT(c) DESC")
+    List<Object[]> contarPorMedico(@Param("fechaInicio") LocalDateTime fechaInicio,
+                                   @Param("fechaFin") LocalDateTime fechaFin);
+
     /**
      * Buscar consultas con próximas citas programadas
      */
-    @Query(value = "SELECT * FROM consultas_medicas c WHERE c.datos_json->>'proximaCita' IS NOT NULL " +
-            "AND (c.datos_json->>'proximaCita')::timestamp BETWEEN :fechaInicio AND :fechaFin",
-           nativeQuery = true)
+    @Query("SELECT c FROM ConsultaMedica c WHERE c.proximaCita BETWEEN :fechaInicio AND :fechaFin " +
+           "ORDER BY c.proximaCita, c.id")
     List<ConsultaMedica> findConsultasConProximasCitas(@Param("fechaInicio") LocalDateTime fechaInicio,
                                                         @Param("fechaFin") LocalDateTime fechaFin);
 
     /**
-     * Estadísticas de consultas por tipo
+     * JSON de las consultas creadas en [desde, hasta), para reconstruir estadisticas_consultas_diarias
+     */
+    @Query("SELECT c.datosJson FROM ConsultaMedica c WHERE c.fechaCreacion >= :desde AND c.fechaCreacion < :hasta")
+    List<String> findDatosCreadosEntre(@Param("desde") LocalDateTime desde, @Param("hasta") LocalDateTime hasta);
+
+    @Query("SELECT MIN(c.fechaCreacion) FROM ConsultaMedica c")
+    LocalDateTime findPrimeraFechaCreacion();
+
+    /**
+     * Siguiente lote de consultas cuyos diagnósticos no están indexados con la versión actual:
+     * tripletas [id, historiaClinicaId, datosJson]
+     */
+    @Query("SELECT c.id, c.historiaClinica.id, c.datosJson FROM ConsultaMedica c WHERE c.id > :ultimoId " +
+           "AND (c.versionDiagnosticos IS NULL OR c.versionDiagnosticos < :version) ORDER BY c.id")
+    List<Object[]> findLotePendienteDiagnosticos(@Param("ultimoId") Long ultimoId,
+                                                 @Param("version") int version,
+                                                 Pageable pageable);
+
+    /**
+     * Marcar los diagnósticos de una consulta como indexados sin tocar fechaActualizacion, solo si sigue pendiente.
+     * Devuelve 0 si ya estaba indexada con la versión actual.
+     */
+    @Modifying
+    @Query("UPDATE ConsultaMedica c SET c.versionDiagnosticos = :version WHERE c.id = :id " +
+           "AND (c.versionDiagnosticos IS NULL OR c.versionDiagnosticos < :version)")
+    int marcarDiagnosticosIndexados(@Param("id") Long id, @Param("version") int version);
+
+    /**
+     * Número de consultas de una historia
+     */
+    long countByHistoriaClinicaId(Long historiaClinicaId);
+
+    /**
+     * Fecha de la consulta más reciente de una historia
+     */
+    @Query("SELECT MAX(c.fechaCreacion) FROM ConsultaMedica c WHERE c.historiaClinica.id = :historiaId")
+    LocalDateTime findUltimaFechaPorHistoria(@Param("historiaId") Long historiaId);
+
+    /**
+     * Consultas del paciente anteriores a la posición (fecha, id) de la línea de tiempo, de la más reciente a la más antigua
+     */
+    @Query("SELECT c FROM ConsultaMedica c WHERE c.historiaClinica.paciente.id = :pacienteId " +
+           "AND (c.fechaCreacion < :fecha OR (c.fechaCreacion = :fecha AND c.id < :id)) " +
+           "ORDER BY c.fechaCreacion DESC, c.id DESC")
+    List<ConsultaMedica> findParaTimeline(@Param("pacienteId") Long pacienteId,
+                                          @Param("fecha") LocalDateTime fecha,
+                                          @Param("id") Long id,
+                                          Pageable pageable);
+
+    /**
+     * Recorrer las consultas de una historia en orden cronológico con un cursor del servidor.
+     * Debe consumirse dentro de una transacción y cerrarse al terminar.
+     */
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "100"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT c FROM ConsultaMedica c WHERE c.historiaClinica.id = :historiaId ORDER BY c.fechaCreacion, c.id")
+    Stream<ConsultaMedica> streamPorHistoria(@Param("historiaId") Long historiaId);
+
+    /**
+     * Siguiente lote de consultas sin médico extraído con la versión actual: pares [id, datosJson]
+     */
+    @Query("SELECT c.id, c.datosJson FROM ConsultaMedica c WHERE c.id > :ultimoId " +
+           "AND (c.versionMedico IS NULL OR c.versionMedico < :version) ORDER BY c.id")
+    List<Object[]> findLotePendienteMedico(@Param("ultimoId") Long ultimoId,
+                                           @Param("version") int version,
+                                           Pageable pageable);
+
+    /**
+     * Escribir el médico y la próxima cita extraídos de una consulta sin tocar datosJson ni fechaActualizacion,
+     * solo si sigue pendiente. Devuelve 0 si la consulta ya tenía las columnas en la versión actual.
+     */
+    @Modifying
+    @Query("UPDATE ConsultaMedica c SET c.medicoClave = :clave, c.medicoNombre = :nombre, " +
+           "c.medicoNombreBusqueda = :nombreBusqueda, c.especialidad = :especialidad, " +
+           "c.especialidadBusqueda = :especialidadBusqueda, c.proximaCita = :proximaCita, " +
+           "c.versionMedico = :version WHERE c.id = :id " +
+           "AND (c.versionMedico IS NULL OR c.versionMedico < :version)")
+    int actualizarMedico(@Param("id") Long id,
+                         @Param("clave") String clave,
+                         @Param("nombre") String nombre,
+                         @Param("nombreBusqueda") String nombreBusqueda,
+                         @Param("especialidad") String especialidad,
+                         @Param("especialidadBusqueda") String especialidadBusqueda,
+                         @Param("proximaCita") LocalDateTime proximaCita,
+                         @Param("version") int version);
+
+    /**
+     * Reclamar el siguiente lote de recordatorios pendientes con próxima cita en [desde, hasta], en orden
+     * (proxima_cita, id) después de la posición dada. SKIP LOCKED y el plazo de reclamo evitan que dos instancias
+     * tomen la misma consulta. Devuelve pares [id, proxima_cita].
+     */
+    @Query(value = "UPDATE consultas_medicas SET recordatorio_reclamado_hasta = :reclamadoHasta, " +
+                   "recordatorio_intentos = COALESCE(recordatorio_intentos, 0) + 1 " +
+                   "WHERE id IN (SELECT c.id FROM consultas_medicas c WHERE c.recordatorio_estado IS NULL " +
+                   "AND c.proxima_cita BETWEEN :desde AND :hasta " +
+                   "AND (c.proxima_cita, c.id) > (:ultimaFecha, :ultimoId) " +
+                   "AND (c.recordatorio_reclamado_hasta IS NULL OR c.recordatorio_reclamado_hasta < :ahora) " +
+                   "AND COALESCE(c.recordatorio_intentos, 0) < :maxIntentos " +
+                   "ORDER BY c.proxima_cita, c.id LIMIT :lote FOR UPDATE SKIP LOCKED) " +
+                   "RETURNING id, proxima_cita",
+           nativeQuery = true)
+    List<Object[]> reclamarRecordatorios(@Param("desde") LocalDateTime desde,
+                                         @Param("hasta") LocalDateTime hasta,
+                                         @Param("ultimaFecha") LocalDateTime ultimaFecha,
+                                         @Param("ultimoId") Long ultimoId,
+                                         @Param("ahora") LocalDateTime ahora,
+                                         @Param("reclamadoHasta") LocalDateTime reclamadoHasta,
+                                         @Param("maxIntentos") int maxIntentos,
+                                         @Param("lote") int lote);
+
+    /**
+     * Datos del recordatorio: [id, proximaCita, medicoNombre, especialidad, nombre del paciente, email del paciente]
+     */
+    @Query("SELECT c.id, c.proximaCita, c.medicoNombre, c.especialidad, p.nombreCompleto, p.email " +
+           "FROM ConsultaMedica c JOIN c.historiaClinica h JOIN h.paciente p WHERE c.id IN :ids")
+    List<Object[]> findDatosRecordatorio(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Cerrar el recordatorio una sola vez: no hace nada si otra instancia ya lo cerró
+     */
+    @Modifying
+    @Query(value = "UPDATE consultas_medicas SET recordatorio_estado = :estado, recordatorio_fecha = :fecha, " +
+                   "recordatorio_reclamado_hasta = NULL WHERE id = :id AND recordatorio_estado IS NULL",
+           nativeQuery = true)
+    int cerrarRecordatorio(@Param("id") Long id,
+                           @Param("estado") String estado,
+                           @Param("fecha") LocalDateTime fecha);
+
+    /**
+     * Liberar el reclamo tras un envío fallido para que el siguiente ciclo lo reintente
      */
-    @Query(value = "SELECT c.datos_json->>'tipoConsulta', COUNT(1) FROM consultas_medicas c " +
-            "WHERE c.fecha_creacion BETWEEN :fechaInicio AND :fechaFin " +
-            "GROUP BY c.datos_json->>'tipoConsulta'",
+    @Modifying
+    @Query(value = "UPDATE consultas_medicas SET recordatorio_reclamado_hasta = NULL " +
+                   "WHERE id = :id AND recordatorio_estado IS NULL",
            nativeQuery = true)
-    List<Object[]> getEstadisticasPorTipo(@Param("fechaInicio") LocalDateTime fechaInicio,
-                                          @Param("fechaFin") LocalDateTime fechaFin);
+    int liberarRecordatorio(@Param("id") Long id);
 }
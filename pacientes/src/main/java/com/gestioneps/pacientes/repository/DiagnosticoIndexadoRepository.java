@@ -0,0 +1,45 @@
+package com.gestioneps.pacientes.repository;
+
+import com.gestioneps.pacientes.entity.DiagnosticoIndexado;
+import com.gestioneps.pacientes.entity.HistoriaClinica;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface DiagnosticoIndexadoRepository extends JpaRepository<DiagnosticoIndexado, Long> {
+
+    /**
+     * Borrar los diagnósticos tomados del JSON de la historia (no los de sus consultas)
+     */
+    @Modifying
+    @Query("DELETE FROM DiagnosticoIndexado d WHERE d.historiaClinicaId = :historiaId AND d.consultaId IS NULL")
+    int deleteDeHistoria(@Param("historiaId") Long historiaId);
+
+    /**
+     * Borrar los diagnósticos tomados de una consulta
+     */
+    @Modifying
+    @Query("DELETE FROM DiagnosticoIndexado d WHERE d.consultaId = :consultaId")
+    int deleteDeConsulta(@Param("consultaId") Long consultaId);
+
+    /**
+     * Historias con algún diagnóstico cuyo código CIE-10 empieza por el prefijo (normalizado, sin punto)
+     */
+    @Query(value = "SELECT h FROM HistoriaClinica h WHERE h.id IN " +
+                   "(SELECT d.historiaClinicaId FROM DiagnosticoIndexado d WHERE d.codigo LIKE CONCAT(:prefijo, '%') ESCAPE '!')",
+           countQuery = "SELECT COUNT(DISTINCT d.historiaClinicaId) FROM DiagnosticoIndexado d WHERE d.codigo LIKE CONCAT(:prefijo, '%') ESCAPE '!'")
+    Page<HistoriaClinica> findHistoriasPorPrefijoCodigo(@Param("prefijo") String prefijo, Pageable pageable);
+
+    /**
+     * Historias con algún diagnóstico cuyo texto plegado contiene el término (índice trigram en db/pacientes-indices.sql)
+     */
+    @Query(value = "SELECT h FROM HistoriaClinica h WHERE h.id IN " +
+                   "(SELECT d.historiaClinicaId FROM DiagnosticoIndexado d WHERE d.texto LIKE CONCAT('%', :texto, '%') ESCAPE '!')",
+           countQuery = "SELECT COUNT(DISTINCT d.historiaClinicaId) FROM DiagnosticoIndexado d WHERE d.texto LIKE CONCAT('%', :texto, '%') ESCAPE '!'")
+    Page<HistoriaClinica> findHistoriasPorTexto(@Param("texto") String texto, Pageable pageable);
+}
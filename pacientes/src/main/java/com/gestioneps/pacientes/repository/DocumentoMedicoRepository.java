@@ -1,22 +1,65 @@
 package com.gestioneps.pacientes.repository;
 
+import com.gestioneps.pacientes.dto.DocumentoMedicoDTO;
 import com.gestioneps.pacientes.entity.CitaMedica;
 import com.gestioneps.pacientes.entity.DocumentoMedico;
+import com.gestioneps.pacientes.entity.Paciente;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface DocumentoMedicoRepository extends JpaRepository<DocumentoMedico, Long> {
 
     /**
-     * Buscar documentos por cita médica
+     * Buscar documentos por cita médica, del más reciente al más antiguo, paginados en la base de datos
      */
-    List<DocumentoMedico> findByCitaMedicaOrderByFechaCreacionDesc(CitaMedica citaMedica);
+    @Query(value = "SELECT new com.gestioneps.pacientes.dto.DocumentoMedicoDTO(d.id, c.id, p.nombreCompleto, " +
+                   Paciente.JPQL_DATOS_PENDIENTES + ", d.jsonData, d.archivoSha256, d.archivoNombre, " +
+                   "d.archivoTipo, d.archivoTamano, d.fechaCreacion, d.fechaActualizacion) " +
+                   "FROM DocumentoMedico d JOIN d.citaMedica c JOIN c.paciente p WHERE c.id = :citaId " +
+                   "ORDER BY d.fechaCreacion DESC, d.id DESC",
+           countQuery = "SELECT COUNT(d) FROM DocumentoMedico d WHERE d.citaMedica.id = :citaId")
+    Page<DocumentoMedicoDTO> findDtoByCitaMedicaId(@Param("citaId") Long citaId, Pageable pageable);
 
     /**
      * Contar documentos por cita médica
      */
     long countByCitaMedica(CitaMedica citaMedica);
+
+    /**
+     * Documentos del paciente anteriores a la posición (fecha, id) de la línea de tiempo, de la más reciente a la más antigua
+     */
+    @Query("SELECT d FROM DocumentoMedico d WHERE d.citaMedica.paciente.id = :pacienteId " +
+           "AND (d.fechaCreacion < :fecha OR (d.fechaCreacion = :fecha AND d.id < :id)) " +
+           "ORDER BY d.fechaCreacion DESC, d.id DESC")
+    List<DocumentoMedico> findParaTimeline(@Param("pacienteId") Long pacienteId,
+                                           @Param("fecha") LocalDateTime fecha,
+                                           @Param("id") Long id,
+                                           Pageable pageable);
+
+    /**
+     * Asociar al documento el archivo guardado en el almacén
+     */
+    @Modifying
+    @Query("UPDATE DocumentoMedico d SET d.archivoSha256 = :sha256, d.archivoNombre = :nombre, d.archivoTipo = :tipo, " +
+           "d.archivoTamano = :tamano, d.fechaActualizacion = :fecha WHERE d.id = :id")
+    int actualizarArchivo(@Param("id") Long id,
+                          @Param("sha256") String sha256,
+                          @Param("nombre") String nombre,
+                          @Param("tipo") String tipo,
+                          @Param("tamano") long tamano,
+                          @Param("fecha") LocalDateTime fecha);
+
+    /**
+     * Indica si algún documento referencia el archivo con el hash dado
+     */
+    boolean existsByArchivoSha256(String archivoSha256);
 }
@@ -0,0 +1,69 @@
+package com.gestioneps.pacientes.repository;
+
+import com.gestioneps.pacientes.entity.EstadisticaConsultaDiaria;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface EstadisticaConsultaDiariaRepository extends JpaRepository<EstadisticaConsultaDiaria, Long> {
+
+    /**
+     * Sumar delta al contador del día; crea la fila si no existe. Atómico frente a escrituras concurrentes.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO estadisticas_consultas_diarias AS e " +
+                   "(fecha, tipo_consulta, medico_clave, medico_nombre, especialidad, especialidad_nombre, total) " +
+                   "VALUES (:fecha, :tipo, :medicoClave, :medicoNombre, :especialidad, :especialidadNombre, :delta) " +
+                   "ON CONFLICT ON CONSTRAINT uk_estadisticas_consultas_diarias DO UPDATE SET " +
+                   "total = e.total + EXCLUDED.total, " +
+                   "medico_nombre = COALESCE(EXCLUDED.medico_nombre, e.medico_nombre), " +
+                   "especialidad_nombre = COALESCE(EXCLUDED.especialidad_nombre, e.especialidad_nombre)",
+           nativeQuery = true)
+    int sumar(@Param("fecha") LocalDate fecha,
+              @Param("tipo") String tipo,
+              @Param("medicoClave") String medicoClave,
+              @Param("medicoNombre") String medicoNombre,
+              @Param("especialidad") String especialidad,
+              @Param("especialidadNombre") String especialidadNombre,
+              @Param("delta") long delta);
+
+    @Modifying
+    @Query("DELETE FROM EstadisticaConsultaDiaria e WHERE e.fecha = :fecha")
+    int deleteByFecha(@Param("fecha") LocalDate fecha);
+
+    /**
+     * Bloqueo exclusivo del día hasta el fin de la transacción: espera a que terminen las transacciones que suman
+     * consultas de ese día y serializa las reconstrucciones entre instancias
+     */
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(:clave)) bloqueo", nativeQuery = true)
+    Integer bloquearDia(@Param("clave") long clave);
+
+    /**
+     * Bloqueo compartido del día hasta el fin de la transacción: las sumas del mismo día no se esperan entre sí,
+     * pero sí a una reconstrucción en curso
+     */
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock_shared(:clave)) bloqueo", nativeQuery = true)
+    Integer bloquearDiaCompartido(@Param("clave") long clave);
+
+    @Query("SELECT e.tipoConsulta, SUM(e.total) FROM EstadisticaConsultaDiaria e " +
+           "WHERE e.fecha BETWEEN :desde AND :hasta GROUP BY e.tipoConsulta HAVING SUM(e.total) > 0 ORDER BY SUM(e.total) DESC")
+    List<Object[]> sumarPorTipo(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta);
+
+    @Query("SELECT e.medicoClave, MAX(e.medicoNombre), SUM(e.total) FROM EstadisticaConsultaDiaria e " +
+           "WHERE e.fecha BETWEEN :desde AND :hasta GROUP BY e.medicoClave HAVING SUM(e.total) > 0 ORDER BY SUM(e.total) DESC")
+    List<Object[]> sumarPorMedico(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta);
+
+    @Query("SELECT e.especialidad, MAX(e.especialidadNombre), SUM(e.total) FROM EstadisticaConsultaDiaria e " +
+           "WHERE e.fecha BETWEEN :desde AND :hasta GROUP BY e.especialidad HAVING SUM(e.total) > 0 ORDER BY SUM(e.total) DESC")
+    List<Object[]> sumarPorEspecialidad(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta);
+
+    @Query("SELECT e.fecha, SUM(e.total) FROM EstadisticaConsultaDiaria e " +
+           "WHERE e.fecha BETWEEN :desde AND :hasta GROUP BY e.fecha HAVING SUM(e.total) > 0 ORDER BY e.fecha")
+    List<Object[]> sumarPorDia(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta);
+}
@@ -2,20 +2,31 @@ package com.gestioneps.pacientes.repository;
 
 import com.gestioneps.pacientes.entity.HistoriaClinica;
 import com.gestioneps.pacientes.entity.Paciente;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface HistoriaClinicaRepository extends JpaRepository<HistoriaClinica, Long> {
 
+    /**
+     * Número de historias clínicas por paciente para un conjunto de pacientes: pares [pacienteId, total]
+     */
+    @Query("SELECT h.paciente.id, COUNT(h) FROM HistoriaClinica h WHERE h.paciente.id IN :pacienteIds GROUP BY h.paciente.id")
+    List<Object[]> contarPorPacientes(@Param("pacienteIds") Collection<Long> pacienteIds);
+
     /**
      * Buscar historia clínica por número
      */
@@ -43,9 +54,9 @@ public interface HistoriaClinicaRepository extends JpaRepository<HistoriaClinica
        List<HistoriaClinica> findByMedicoResponsableContainingIgnoreCaseAndActivaTrue(@Param("medico") String medico);
 
     /**
-     * Buscar historias clínicas por rango de fechas
+     * Buscar historias clínicas por rango de fechas, paginadas en la base de datos
      */
-    List<HistoriaClinica> findByFechaAperturaBetweenAndActivaTrue(LocalDateTime fechaInicio, LocalDateTime fechaFin);
+    Page<HistoriaClinica> findByFechaAperturaBetweenAndActivaTrue(LocalDateTime fechaInicio, LocalDateTime fechaFin, Pageable pageable);
 
     /**
      * Verificar si existe historia clínica para un paciente
@@ -68,26 +79,95 @@ public interface HistoriaClinicaRepository extends JpaRepository<HistoriaClinica
     List<HistoriaClinica> findHistoriasConConsultasRecientes(@Param("fechaDesde") LocalDateTime fechaDesde);
 
     /**
-     * Buscar historias clínicas por diagnóstico
+     * Buscar historias clínicas activas con paginación
+     */
+    Page<HistoriaClinica> findByActivaTrue(Pageable pageable);
+
+    /**
+     * Historias activas con id menor al cursor, de la más reciente a la más antigua, sin consulta de conteo
      */
-    // The diagnosis fields are stored inside the JSON column 'diagnostico_tratamiento' of consultas_medicas.
-    // JPQL cannot inspect JSON content, so use a native SQL LIKE against the column text to perform a simple
-    // contains search. This is a pragmatic approach; for more robust queries consider using PostgreSQL JSONB
-    // operators or a full-text index.
-    @Query(value = "SELECT DISTINCT h.* FROM historias_clinicas h JOIN consultas_medicas c ON c.historia_clinica_id = h.id " +
-                   "WHERE h.activa = true AND LOWER(c.diagnostico_tratamiento) LIKE LOWER(CONCAT('%', :diagnostico, '%'))",
+    Slice<HistoriaClinica> findByActivaTrueAndIdLessThanOrderByIdDesc(Long id, Pageable pageable);
+
+    /**
+     * Siguiente lote de historias cuyos diagnósticos no están indexados con la versión actual: pares [id, datosJson]
+     */
+    @Query("SELECT h.id, h.datosJson FROM HistoriaClinica h WHERE h.id > :ultimoId " +
+           "AND (h.versionDiagnosticos IS NULL OR h.versionDiagnosticos < :version) ORDER BY h.id")
+    List<Object[]> findLotePendienteDiagnosticos(@Param("ultimoId") Long ultimoId,
+                                                 @Param("version") int version,
+                                                 Pageable pageable);
+
+    /**
+     * Marcar los diagnósticos de una historia como indexados sin tocar fechaActualizacion, solo si sigue pendiente.
+     * Devuelve 0 si ya estaba indexada con la versión actual.
+     */
+    @Modifying
+    @Query("UPDATE HistoriaClinica h SET h.versionDiagnosticos = :version WHERE h.id = :id " +
+           "AND (h.versionDiagnosticos IS NULL OR h.versionDiagnosticos < :version)")
+    int marcarDiagnosticosIndexados(@Param("id") Long id, @Param("version") int version);
+
+    /**
+     * Cargar la historia bloqueando su fila, para mantener el resumen de consultas sin carreras
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT h FROM HistoriaClinica h WHERE h.id = :id")
+    Optional<HistoriaClinica> findByIdParaActualizar(@Param("id") Long id);
+
+    /**
+     * Copiar a las historias del paciente su nombre y documento actuales
+     */
+    @Modifying
+    @Query("UPDATE HistoriaClinica h SET h.pacienteNombre = :nombre, h.pacienteDocumento = :documento " +
+           "WHERE h.paciente.id = :pacienteId")
+    int actualizarDatosPaciente(@Param("pacienteId") Long pacienteId,
+                                @Param("nombre") String nombre,
+                                @Param("documento") String documento);
+
+    /**
+     * Completar el nombre y documento copiados en las historias de estos pacientes que todavía no los tienen.
+     * Lo usa el backfill de columnas de búsqueda: una historia resumida antes de que su paciente tuviera
+     * nombre_completo quedó sin nombre y el backfill de resumen ya no vuelve a ella.
+     */
+    @Modifying
+    @Query(value = "UPDATE historias_clinicas h SET " +
+                   "paciente_nombre = COALESCE(h.paciente_nombre, p.nombre_completo), " +
+                   "paciente_documento = COALESCE(h.paciente_documento, p.numero_documento) " +
+                   "FROM pacientes p WHERE p.id = h.paciente_id AND h.paciente_id IN (:pacienteIds) " +
+                   "AND (h.paciente_nombre IS NULL OR h.paciente_documento IS NULL)",
            nativeQuery = true)
-    List<HistoriaClinica> findByDiagnosticoContaining(@Param("diagnostico") String diagnostico);
+    int completarDatosPaciente(@Param("pacienteIds") Collection<Long> pacienteIds);
 
     /**
-     * Generar número de historia clínica automático
+     * Siguiente lote de ids de historias sin resumen de consultas calculado
      */
-    @Query("SELECT COALESCE(MAX(CAST(SUBSTRING(h.numeroHistoria, 3) AS int)), 0) + 1 " +
-           "FROM HistoriaClinica h WHERE h.numeroHistoria LIKE 'HC%'")
-    Long generarSiguienteNumeroHistoria();
+    @Query("SELECT h.id FROM HistoriaClinica h WHERE h.id > :ultimoId AND h.numeroConsultas IS NULL ORDER BY h.id")
+    List<Long> findLotePendienteResumen(@Param("ultimoId") Long ultimoId, Pageable pageable);
 
     /**
-     * Buscar historias clínicas activas con paginación
+     * Calcular el resumen de consultas y los datos del paciente de un lote de historias. La condición sobre
+     * numero_consultas se reevalúa tras el bloqueo de fila, así que no pisa historias ya resumidas por una
+     * consulta creada entre tanto. Salta las historias cuyo paciente aún no tiene nombre_completo en la versión
+     * indicada: copiarían un nombre nulo y no se volverían a seleccionar; quedan pendientes para una pasada posterior.
      */
-    Page<HistoriaClinica> findByActivaTrue(Pageable pageable);
+    @Modifying
+    @Query(value = "UPDATE historias_clinicas h SET " +
+                   "numero_consultas = (SELECT COUNT(*) FROM consultas_medicas c WHERE c.historia_clinica_id = h.id), " +
+                   "ultima_consulta = (SELECT MAX(c.fecha_creacion) FROM consultas_medicas c WHERE c.historia_clinica_id = h.id), " +
+                   "paciente_nombre = COALESCE(h.paciente_nombre, p.nombre_completo), " +
+                   "paciente_documento = COALESCE(h.paciente_documento, p.numero_documento) " +
+                   "FROM pacientes p WHERE p.id = h.paciente_id AND h.id IN (:ids) AND h.numero_consultas IS NULL " +
+                   "AND p.version_campos_busqueda >= :versionPaciente",
+           nativeQuery = true)
+    int calcularResumen(@Param("ids") Collection<Long> ids, @Param("versionPaciente") int versionPaciente);
+
+    /**
+     * Historias del paciente anteriores a la posición (fecha, id) de la línea de tiempo, de la más reciente a la más antigua
+     */
+    @Query("SELECT h FROM HistoriaClinica h WHERE h.paciente.id = :pacienteId " +
+           "AND (h.fechaApertura < :fecha OR (h.fechaApertura = :fecha AND h.id < :id)) " +
+           "ORDER BY h.fechaApertura DESC, h.id DESC")
+    List<HistoriaClinica> findParaTimeline(@Param("pacienteId") Long pacienteId,
+                                           @Param("fecha") LocalDateTime fecha,
+                                           @Param("id") Long id,
+                                           Pageable pageable);
 }
@@ -2,16 +2,23 @@ package com.gestioneps.pacientes.repository;
 
 import com.gestioneps.pacientes.entity.Paciente;
 import com.gestioneps.pacientes.entity.TipoDocumento;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface PacienteRepository extends JpaRepository<Paciente, Long> {
@@ -42,38 +49,35 @@ public interface PacienteRepository extends JpaRepository<Paciente, Long> {
     Page<Paciente> findByActivoTrue(Pageable pageable);
 
     /**
-     * Buscar pacientes por nombre (usando JSON)
+     * Pacientes activos con id menor al cursor, del más reciente al más antiguo, sin consulta de conteo
      */
-    // Los campos personales están dentro de JSON (informacion_personal). Usamos consulta nativa para buscar
-    // por nombre completo dentro del JSON. Se provee countQuery para paginación.
-    @Query(value = "SELECT p.* FROM pacientes p WHERE p.activo = true AND LOWER(CONCAT(COALESCE(p.informacion_personal->> 'primerNombre',''), ' ', COALESCE(p.informacion_personal->> 'segundoNombre',''), ' ', COALESCE(p.informacion_personal->> 'primerApellido',''), ' ', COALESCE(p.informacion_personal->> 'segundoApellido',''))) LIKE LOWER(CONCAT('%', :nombre, '%'))",
-           countQuery = "SELECT COUNT(1) FROM pacientes p WHERE p.activo = true AND LOWER(CONCAT(COALESCE(p.informacion_personal->> 'primerNombre',''), ' ', COALESCE(p.informacion_personal->> 'segundoNombre',''), ' ', COALESCE(p.informacion_personal->> 'primerApellido',''), ' ', COALESCE(p.informacion_personal->> 'segundoApellido',''))) LIKE LOWER(CONCAT('%', :nombre, '%'))",
-           nativeQuery = true)
+    Slice<Paciente> findByActivoTrueAndIdLessThanOrderByIdDesc(Long id, Pageable pageable);
+
+    /**
+     * Buscar pacientes por nombre (columna materializada nombre_completo, índice trigram)
+     */
+    @Query("SELECT p FROM Paciente p WHERE p.activo = true AND LOWER(p.nombreCompleto) LIKE LOWER(CONCAT('%', :nombre, '%'))")
     Page<Paciente> findByNombreContainingIgnoreCase(@Param("nombre") String nombre, Pageable pageable);
 
     /**
-     * Buscar pacientes por EPS (usando JSON)
+     * Buscar pacientes por EPS (columna materializada eps, índice trigram)
      */
-    @Query(value = "SELECT p.* FROM pacientes p WHERE p.activo = true AND LOWER(COALESCE(p.informacion_medica->> 'eps','')) LIKE LOWER(CONCAT('%', :eps, '%'))",
-           countQuery = "SELECT COUNT(1) FROM pacientes p WHERE p.activo = true AND LOWER(COALESCE(p.informacion_medica->> 'eps','')) LIKE LOWER(CONCAT('%', :eps, '%'))",
-           nativeQuery = true)
+    @Query("SELECT p FROM Paciente p WHERE p.activo = true AND LOWER(p.eps) LIKE LOWER(CONCAT('%', :eps, '%'))")
     Page<Paciente> findByEpsContainingIgnoreCase(@Param("eps") String eps, Pageable pageable);
 
     /**
-     * Buscar pacientes por rango de edad (usando JSON)
+     * Buscar pacientes por rango de fecha de nacimiento (índice activo, fecha_nacimiento).
+     * El servicio traduce el rango de edad a fechas para que la condición sea un range scan.
      */
-    // Buscar por edad usando fechaNacimiento dentro del JSON. Traducimos a SQL usando age()/date_part
-    @Query(value = "SELECT p.* FROM pacientes p WHERE p.activo = true AND (date_part('year', age((p.informacion_personal->> 'fechaNacimiento')::date))) BETWEEN :edadMinima AND :edadMaxima",
-           countQuery = "SELECT COUNT(1) FROM pacientes p WHERE p.activo = true AND (date_part('year', age((p.informacion_personal->> 'fechaNacimiento')::date))) BETWEEN :edadMinima AND :edadMaxima",
-           nativeQuery = true)
-    Page<Paciente> findByEdadBetween(@Param("edadMinima") int edadMinima, @Param("edadMaxima") int edadMaxima, Pageable pageable);
+    @Query("SELECT p FROM Paciente p WHERE p.activo = true AND p.fechaNacimiento BETWEEN :fechaDesde AND :fechaHasta")
+    Page<Paciente> findByFechaNacimientoBetween(@Param("fechaDesde") LocalDate fechaDesde,
+                                               @Param("fechaHasta") LocalDate fechaHasta,
+                                               Pageable pageable);
 
     /**
-     * Buscar pacientes por ciudad (usando JSON)
+     * Buscar pacientes por ciudad (columna materializada ciudad, índice trigram)
      */
-    @Query(value = "SELECT p.* FROM pacientes p WHERE p.activo = true AND LOWER(COALESCE(p.informacion_contacto->> 'ciudad','')) LIKE LOWER(CONCAT('%', :ciudad, '%'))",
-           countQuery = "SELECT COUNT(1) FROM pacientes p WHERE p.activo = true AND LOWER(COALESCE(p.informacion_contacto->> 'ciudad','')) LIKE LOWER(CONCAT('%', :ciudad, '%'))",
-           nativeQuery = true)
+    @Query("SELECT p FROM Paciente p WHERE p.activo = true AND LOWER(p.ciudad) LIKE LOWER(CONCAT('%', :ciudad, '%'))")
     Page<Paciente> findByCiudadContainingIgnoreCase(@Param("ciudad") String ciudad, Pageable pageable);
 
     /**
@@ -82,12 +86,24 @@ public interface PacienteRepository extends JpaRepository<Paciente, Long> {
     long countByActivoTrue();
 
     /**
-     * Contar pacientes por EPS (usando JSON)
+     * Contar pacientes por EPS
      */
-    @Query(value = "SELECT COALESCE(p.informacion_medica->> 'eps', '') AS eps, COUNT(1) FROM pacientes p WHERE p.activo = true AND COALESCE(p.informacion_medica->> 'eps','') <> '' GROUP BY eps",
-           nativeQuery = true)
+    @Query("SELECT p.eps, COUNT(p) FROM Paciente p WHERE p.activo = true AND p.eps IS NOT NULL GROUP BY p.eps")
     List<Object[]> countPacientesByEps();
 
+    /**
+     * Contar pacientes activos por régimen de afiliación (incluye null para los que no lo tienen)
+     */
+    @Query("SELECT p.regimen, COUNT(p) FROM Paciente p WHERE p.activo = true GROUP BY p.regimen")
+    List<Object[]> countPacientesByRegimen();
+
+    /**
+     * Contar pacientes activos por edad cumplida en años; -1 agrupa a los que no tienen fecha de nacimiento
+     */
+    @Query(value = "SELECT COALESCE(CAST(date_part('year', age(CURRENT_DATE, fecha_nacimiento)) AS integer), -1) AS edad, " +
+                   "COUNT(*) FROM pacientes WHERE activo = true GROUP BY 1", nativeQuery = true)
+    List<Object[]> countPacientesByEdad();
+
     /**
      * Buscar pacientes con historias clínicas
      */
@@ -95,22 +111,98 @@ public interface PacienteRepository extends JpaRepository<Paciente, Long> {
        List<Paciente> findPacientesConHistoriasClinicas();
 
     /**
-     * Búsqueda general de pacientes
-     */
-    // Búsqueda general que combina columnas mapeadas y campos dentro de JSON. Usamos una consulta nativa
-    // para garantizar que los campos JSON sean accesibles.
-    @Query(value = "SELECT p.* FROM pacientes p WHERE p.activo = true AND (LOWER(p.numero_documento) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_personal->> 'primerNombre','')) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_personal->> 'segundoNombre','')) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_personal->> 'primerApellido','')) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_personal->> 'segundoApellido','')) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_contacto->> 'email','')) LIKE LOWER(CONCAT('%', :termino, '%')))",
-          countQuery = "SELECT COUNT(1) FROM pacientes p WHERE p.activo = true AND (LOWER(p.numero_documento) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_personal->> 'primerNombre','')) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_personal->> 'segundoNombre','')) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_personal->> 'primerApellido','')) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_personal->> 'segundoApellido','')) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
-                 "LOWER(COALESCE(p.informacion_contacto->> 'email','')) LIKE LOWER(CONCAT('%', :termino, '%')))",
-          nativeQuery = true)
+     * Búsqueda general de pacientes por documento, nombre completo o email (columnas con índice trigram)
+     */
+    @Query("SELECT p FROM Paciente p WHERE p.activo = true AND (" +
+           "LOWER(p.numeroDocumento) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
+           "LOWER(p.nombreCompleto) LIKE LOWER(CONCAT('%', :termino, '%')) OR " +
+           "LOWER(p.email) LIKE LOWER(CONCAT('%', :termino, '%')))")
     Page<Paciente> buscarPacientes(@Param("termino") String termino, Pageable pageable);
+
+    /**
+     * Recorrer pacientes por id con un cursor del servidor, trayendo las filas de a lotes.
+     * Debe consumirse dentro de una transacción y cerrarse al terminar.
+     */
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    @Query("SELECT p FROM Paciente p WHERE (:incluirInactivos = true OR p.activo = true) ORDER BY p.id")
+    Stream<Paciente> streamParaExportacion(@Param("incluirInactivos") boolean incluirInactivos);
+
+    /**
+     * Siguiente lote de pacientes cuyas columnas de búsqueda no están calculadas con la versión actual.
+     * Devuelve pares [id, datosJson] ordenados por id para recorrer la tabla por keyset.
+     */
+    @Query("SELECT p.id, p.datosJson FROM Paciente p WHERE p.id > :ultimoId " +
+           "AND (p.versionCamposBusqueda IS NULL OR p.versionCamposBusqueda < :version) ORDER BY p.id")
+    List<Object[]> findLotePendienteCamposBusqueda(@Param("ultimoId") Long ultimoId,
+                                                   @Param("version") int version,
+                                                   Pageable pageable);
+
+    /**
+     * Siguiente lote de pacientes activos para construir el índice de búsqueda en memoria.
+     * Devuelve tripletas [id, numeroDocumento, datosJson] ordenadas por id.
+     */
+    @Query("SELECT p.id, p.numeroDocumento, p.datosJson FROM Paciente p WHERE p.activo = true AND p.id > :ultimoId ORDER BY p.id")
+    List<Object[]> findLoteActivosParaIndice(@Param("ultimoId") Long ultimoId, Pageable pageable);
+
+    /**
+     * Pacientes (activos o no) modificados después de la posición (fechaActualizacion, id), en ese orden.
+     * Devuelve [id, numeroDocumento, datosJson, activo, fechaActualizacion].
+     */
+    @Query("SELECT p.id, p.numeroDocumento, p.datosJson, p.activo, p.fechaActualizacion FROM Paciente p " +
+           "WHERE p.fechaActualizacion > :fecha OR (p.fechaActualizacion = :fecha AND p.id > :ultimoId) " +
+           "ORDER BY p.fechaActualizacion, p.id")
+    List<Object[]> findModificadosParaIndice(@Param("fecha") LocalDateTime fecha,
+                                             @Param("ultimoId") Long ultimoId,
+                                             Pageable pageable);
+
+    /**
+     * Fecha de la última modificación de cualquier paciente
+     */
+    @Query("SELECT MAX(p.fechaActualizacion) FROM Paciente p")
+    LocalDateTime findUltimaFechaActualizacion();
+
+    /**
+     * Siguiente lote de pares [id, numeroDocumento] de todos los pacientes, ordenados por id
+     */
+    @Query("SELECT p.id, p.numeroDocumento FROM Paciente p WHERE p.id > :ultimoId ORDER BY p.id")
+    List<Object[]> findLoteDocumentos(@Param("ultimoId") Long ultimoId, Pageable pageable);
+
+    /**
+     * Id del paciente con el documento, sin cargar la entidad
+     */
+    @Query("SELECT p.id FROM Paciente p WHERE p.numeroDocumento = :numeroDocumento")
+    Optional<Long> findIdByNumeroDocumento(@Param("numeroDocumento") String numeroDocumento);
+
+    /**
+     * Escribir las columnas de búsqueda de un paciente sin tocar datosJson ni fechaActualizacion.
+     * Solo si la fila sigue pendiente: si entre la lectura del lote y esta escritura el paciente se guardó desde
+     * la API, sus columnas ya están al día con el JSON nuevo y no se sobrescriben con las del JSON leído.
+     * Devuelve 0 en ese caso.
+     */
+    @Modifying
+    @Query("UPDATE Paciente p SET p.nombreCompleto = :nombreCompleto, p.fechaNacimiento = :fechaNacimiento, " +
+           "p.eps = :eps, p.ciudad = :ciudad, p.email = :email, p.regimen = :regimen, " +
+           "p.versionCamposBusqueda = :version WHERE p.id = :id " +
+           "AND (p.versionCamposBusqueda IS NULL OR p.versionCamposBusqueda < :version)")
+    int actualizarCamposBusqueda(@Param("id") Long id,
+                                 @Param("nombreCompleto") String nombreCompleto,
+                                 @Param("fechaNacimiento") LocalDate fechaNacimiento,
+                                 @Param("eps") String eps,
+                                 @Param("ciudad") String ciudad,
+                                 @Param("email") String email,
+                                 @Param("regimen") String regimen,
+                                 @Param("version") int version);
+
+    /**
+     * Sumar inasistencias al contador del paciente
+     */
+    @Modifying
+    @Query(value = "UPDATE pacientes SET inasistencias = COALESCE(inasistencias, 0) + :cantidad, " +
+                   "ultima_inasistencia = GREATEST(COALESCE(ultima_inasistencia, :fecha), :fecha) WHERE id = :id",
+           nativeQuery = true)
+    int sumarInasistencias(@Param("id") Long id, @Param("cantidad") int cantidad, @Param("fecha") LocalDateTime fecha);
 }
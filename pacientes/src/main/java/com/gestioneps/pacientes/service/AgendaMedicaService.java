@@ -0,0 +1,216 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.AgendaMedicoDia;
+import com.gestioneps.pacientes.exception.HorarioNoDisponibleException;
+import com.gestioneps.pacientes.repository.AgendaMedicoDiaRepository;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Agenda de citas por médico sobre mapas de bits diarios ({@link AgendaMedicoDia}).
+ *
+ * Reservar, mover o liberar una cita bloquea solo las filas de agenda de los días que toca, en orden
+ * (médico, fecha) para no generar interbloqueos, y comprueba o marca sus franjas: el costo no depende del número
+ * de citas del día. Una agenda que aún no existe se calcula desde las citas activas del médico la primera vez que
+ * se necesita. Las citas sin médico o sin fecha no ocupan agenda.
+ */
+@Service
+public class AgendaMedicaService {
+
+    static final int MINUTOS_POR_FRANJA = 5;
+    static final int FRANJAS_POR_DIA = 24 * 60 / MINUTOS_POR_FRANJA;
+
+    private static final int DIAS_MAXIMOS_CONSULTA = 60;
+    private static final DateTimeFormatter FORMATO_HORA = DateTimeFormatter.ofPattern("HH:mm");
+
+    private final AgendaMedicoDiaRepository agendaRepository;
+    private final CitaMedicaRepository citaMedicaRepository;
+    private final LocalTime horaInicio;
+    private final LocalTime horaFin;
+
+    public AgendaMedicaService(AgendaMedicoDiaRepository agendaRepository,
+                               CitaMedicaRepository citaMedicaRepository,
+                               @Value("${pacientes.agenda.hora-inicio:07:00}") String horaInicio,
+                               @Value("${pacientes.agenda.hora-fin:19:00}") String horaFin) {
+        this.agendaRepository = agendaRepository;
+        this.citaMedicaRepository = citaMedicaRepository;
+        this.horaInicio = LocalTime.parse(horaInicio);
+        this.horaFin = LocalTime.parse(horaFin);
+        if (!this.horaInicio.isBefore(this.horaFin)) {
+            throw new IllegalStateException("pacientes.agenda.hora-inicio debe ser anterior a pacientes.agenda.hora-fin");
+        }
+    }
+
+    /**
+     * Ocupar el horario de una cita nueva. Lanza HorarioNoDisponibleException si se cruza con otra cita del médico.
+     * Se llama antes de guardar la cita, en la misma transacción.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void reservar(HorarioCita horario) {
+        cambiar(null, horario);
+    }
+
+    /**
+     * Liberar el horario de una cita que se cancela o se elimina
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void liberar(HorarioCita horario) {
+        cambiar(horario, null);
+    }
+
+    /**
+     * Mover una cita de un horario a otro (cualquiera de los dos puede ser null). Se llama antes de escribir
+     * los nuevos valores en la cita, para que la agenda calculada a pedido incluya todavía el horario anterior.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void cambiar(HorarioCita anterior, HorarioCita nuevo) {
+        boolean liberar = anterior != null && anterior.ocupaAgenda();
+        boolean ocupar = nuevo != null && nuevo.ocupaAgenda();
+        if (!liberar && !ocupar) {
+            return;
+        }
+
+        // Franjas por (médico, día), bloqueando en orden para que dos reservas cruzadas no se esperen mutuamente
+        TreeMap<String, BitSet> aLiberar = new TreeMap<>();
+        TreeMap<String, BitSet> aOcupar = new TreeMap<>();
+        if (liberar) {
+            franjas(anterior, aLiberar);
+        }
+        if (ocupar) {
+            franjas(nuevo, aOcupar);
+        }
+        TreeMap<String, AgendaMedicoDia> agendas = new TreeMap<>();
+        aLiberar.keySet().forEach(clave -> agendas.put(clave, null));
+        aOcupar.keySet().forEach(clave -> agendas.put(clave, null));
+        for (String clave : agendas.keySet()) {
+            agendas.put(clave, bloquear(clave));
+        }
+
+        for (Map.Entry<String, AgendaMedicoDia> entrada : agendas.entrySet()) {
+            AgendaMedicoDia agenda = entrada.getValue();
+            BitSet ocupacion = BitSet.valueOf(agenda.getOcupacion());
+            BitSet liberadas = aLiberar.get(entrada.getKey());
+            if (liberadas != null) {
+                ocupacion.andNot(liberadas);
+            }
+            BitSet ocupadas = aOcupar.get(entrada.getKey());
+            if (ocupadas != null) {
+                if (ocupacion.intersects(ocupadas)) {
+                    throw new HorarioNoDisponibleException("El médico ya tiene una cita que se cruza con el horario "
+                        + FORMATO_HORA.format(nuevo.inicio()) + " - " + FORMATO_HORA.format(nuevo.fin())
+                        + " del " + agenda.getFecha());
+                }
+                ocupacion.or(ocupadas);
+            }
+            agenda.setOcupacion(ocupacion.toByteArray());
+        }
+    }
+
+    /**
+     * Horas de inicio libres por día para citas de la duración indicada, desde la fecha dada, dentro del horario
+     * de atención y sin incluir horas ya pasadas
+     */
+    @Transactional(readOnly = true)
+    public Map<LocalDate, List<String>> obtenerDisponibilidad(String medicoClave, LocalDate desde, int dias, int duracionMinutos) {
+        if (medicoClave == null) {
+            throw new IllegalArgumentException("Debe indicar el médico");
+        }
+        if (desde == null || dias < 1 || dias > DIAS_MAXIMOS_CONSULTA) {
+            throw new IllegalArgumentException("El período debe ser de 1 a " + DIAS_MAXIMOS_CONSULTA + " días");
+        }
+        if (duracionMinutos < MINUTOS_POR_FRANJA || duracionMinutos > (horaFin.toSecondOfDay() - horaInicio.toSecondOfDay()) / 60) {
+            throw new IllegalArgumentException("Duración inválida: " + duracionMinutos + " minutos");
+        }
+        LocalDate hasta = desde.plusDays(dias - 1L);
+        Map<LocalDate, BitSet> guardadas = new HashMap<>();
+        for (AgendaMedicoDia agenda : agendaRepository.findByMedicoClaveAndFechaBetween(medicoClave, desde, hasta)) {
+            guardadas.put(agenda.getFecha(), BitSet.valueOf(agenda.getOcupacion()));
+        }
+
+        int franjasCita = (duracionMinutos + MINUTOS_POR_FRANJA - 1) / MINUTOS_POR_FRANJA;
+        int primera = horaInicio.toSecondOfDay() / 60 / MINUTOS_POR_FRANJA;
+        int limite = horaFin.toSecondOfDay() / 60 / MINUTOS_POR_FRANJA;
+        LocalDateTime ahora = LocalDateTime.now();
+        Map<LocalDate, List<String>> disponibilidad = new LinkedHashMap<>();
+        for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+            BitSet ocupacion = guardadas.get(dia);
+            if (ocupacion == null) {
+                ocupacion = calcularOcupacion(medicoClave, dia);
+            }
+            List<String> libres = new ArrayList<>();
+            for (int franja = primera; franja + franjasCita <= limite; franja += franjasCita) {
+                LocalDateTime inicio = dia.atStartOfDay().plusMinutes((long) franja * MINUTOS_POR_FRANJA);
+                int siguienteOcupada = ocupacion.nextSetBit(franja);
+                if (inicio.isAfter(ahora) && (siguienteOcupada < 0 || siguienteOcupada >= franja + franjasCita)) {
+                    libres.add(FORMATO_HORA.format(inicio));
+                }
+            }
+            disponibilidad.put(dia, libres);
+        }
+        return disponibilidad;
+    }
+
+    /**
+     * Fila de agenda del médico y día bloqueada; si no existe, se crea desde las citas activas
+     */
+    private AgendaMedicoDia bloquear(String clave) {
+        int separador = clave.lastIndexOf('|');
+        String medicoClave = clave.substring(0, separador);
+        LocalDate fecha = LocalDate.parse(clave.substring(separador + 1));
+        return agendaRepository.findParaActualizar(medicoClave, fecha).orElseGet(() -> {
+            agendaRepository.crearSiNoExiste(medicoClave, fecha, calcularOcupacion(medicoClave, fecha).toByteArray());
+            return agendaRepository.findParaActualizar(medicoClave, fecha)
+                .orElseThrow(() -> new IllegalStateException("No se pudo crear la agenda de " + medicoClave + " del " + fecha));
+        });
+    }
+
+    private BitSet calcularOcupacion(String medicoClave, LocalDate fecha) {
+        LocalDateTime inicioDia = fecha.atStartOfDay();
+        BitSet ocupacion = new BitSet(FRANJAS_POR_DIA);
+        for (Object[] intervalo : citaMedicaRepository.findIntervalosOcupados(medicoClave, inicioDia, inicioDia.plusDays(1))) {
+            marcar(ocupacion, fecha, (LocalDateTime) intervalo[0], (LocalDateTime) intervalo[1]);
+        }
+        return ocupacion;
+    }
+
+    /**
+     * Franjas del horario agrupadas por "médico|día"; una cita que pasa la medianoche toca dos días
+     */
+    private static void franjas(HorarioCita horario, Map<String, BitSet> destino) {
+        for (LocalDate dia = horario.inicio().toLocalDate(); dia.atStartOfDay().isBefore(horario.fin()); dia = dia.plusDays(1)) {
+            BitSet franjas = destino.computeIfAbsent(horario.medicoClave() + "|" + dia, k -> new BitSet(FRANJAS_POR_DIA));
+            marcar(franjas, dia, horario.inicio(), horario.fin());
+        }
+    }
+
+    /**
+     * Marcar en el mapa del día las franjas que toca el intervalo [inicio, fin)
+     */
+    private static void marcar(BitSet franjas, LocalDate dia, LocalDateTime inicio, LocalDateTime fin) {
+        LocalDateTime inicioDia = dia.atStartOfDay();
+        long desdeMinuto = Math.max(0, Duration.between(inicioDia, inicio).toMinutes());
+        long hastaMinuto = Math.min(24L * 60, Duration.between(inicioDia, fin).toMinutes());
+        if (hastaMinuto <= desdeMinuto) {
+            return;
+        }
+        int primera = (int) (desdeMinuto / MINUTOS_POR_FRANJA);
+        int ultima = (int) ((hastaMinuto + MINUTOS_POR_FRANJA - 1) / MINUTOS_POR_FRANJA);
+        franjas.set(primera, Math.min(ultima, FRANJAS_POR_DIA));
+    }
+}
@@ -0,0 +1,201 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.repository.DocumentoMedicoRepository;
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Almacén en disco de los archivos adjuntos de los documentos médicos, direccionado por contenido.
+ *
+ * Cada archivo se guarda una sola vez con su SHA-256 como nombre, repartido en dos niveles de directorios
+ * (ab/cd/abcd...) bajo la raíz configurada; la base de datos guarda solo el hash y los metadatos. La carga se
+ * copia en streaming a un temporal del mismo disco mientras se calcula el hash, y el tipo se detecta con Tika sobre
+ * los primeros bytes y el nombre original. Si el contenido ya existe el temporal se descarta, así que archivos
+ * idénticos comparten el mismo blob. Los blobs que ningún documento referencia se eliminan en un barrido periódico,
+ * pasado un margen para no borrar uno que una carga en curso acaba de reutilizar.
+ *
+ * Los blobs son la única copia de los adjuntos, así que la raíz no tiene valor por defecto: si no está configurada o
+ * no se puede escribir en ella el servicio no arranca, en lugar de guardar en un directorio temporal que el sistema
+ * puede vaciar.
+ */
+@Service
+public class AlmacenArchivosService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AlmacenArchivosService.class);
+
+    private static final Pattern HASH_VALIDO = Pattern.compile("[0-9a-f]{64}");
+    private static final String DIRECTORIO_TEMPORAL = "tmp";
+    private static final String TIPO_POR_DEFECTO = "application/octet-stream";
+
+    private final DocumentoMedicoRepository documentoMedicoRepository;
+    private final Path raiz;
+    private final Path temporales;
+    private final Tika tika = new Tika();
+
+    @Value("${pacientes.archivos.margen-limpieza-minutos:60}")
+    private long margenLimpiezaMinutos;
+
+    public AlmacenArchivosService(DocumentoMedicoRepository documentoMedicoRepository,
+                                  @Value("${pacientes.archivos.directorio}") String directorio) {
+        this.documentoMedicoRepository = documentoMedicoRepository;
+        if (directorio == null || directorio.isBlank()) {
+            throw new IllegalStateException("pacientes.archivos.directorio (PACIENTES_ARCHIVOS_DIR) es obligatorio");
+        }
+        this.raiz = Paths.get(directorio).toAbsolutePath().normalize();
+        this.temporales = raiz.resolve(DIRECTORIO_TEMPORAL);
+        verificarEscritura();
+    }
+
+    /**
+     * Comprobar al arrancar que se pueden crear archivos en el almacén, como hará cada carga
+     */
+    private void verificarEscritura() {
+        try {
+            Files.createDirectories(temporales);
+            Files.delete(Files.createTempFile(temporales, "verificacion-", ".tmp"));
+        } catch (IOException e) {
+            throw new IllegalStateException("No se puede escribir en el almacén de archivos " + raiz, e);
+        }
+        LOGGER.info("Almacén de archivos adjuntos en {}", raiz);
+    }
+
+    /**
+     * Guardar el contenido leído del stream (que no se cierra). Devuelve el hash, el tipo detectado y el tamaño.
+     */
+    public ArchivoAlmacenado guardar(InputStream contenido, String nombreOriginal) throws IOException {
+        Files.createDirectories(temporales);
+        Path temporal = Files.createTempFile(temporales, "carga-", ".tmp");
+        try {
+            MessageDigest digest = nuevoDigest();
+            BufferedInputStream entrada = new BufferedInputStream(contenido);
+            // Tika marca y restablece el stream: los bytes que lee para detectar el tipo también se copian
+            String tipo = tika.detect(entrada, nombreOriginal);
+            long tamano;
+            try (DigestInputStream conHash = new DigestInputStream(entrada, digest) {
+                @Override
+                public void close() {
+                    // El stream de la carga lo cierra quien lo abrió
+                }
+            }) {
+                tamano = Files.copy(conHash, temporal, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+
+            Path destino = ruta(sha256);
+            if (Files.exists(destino)) {
+                // Contenido repetido: se reutiliza el blob y se renueva su fecha para que el barrido no lo tome
+                Files.setLastModifiedTime(destino, FileTime.from(Instant.now()));
+            } else {
+                Files.createDirectories(destino.getParent());
+                mover(temporal, destino);
+            }
+            return new ArchivoAlmacenado(sha256, tipo != null ? tipo : TIPO_POR_DEFECTO, tamano);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Ruta del blob con el hash indicado; lanza IllegalArgumentException si el hash no es un SHA-256 en hexadecimal
+     */
+    public Path ruta(String sha256) {
+        if (sha256 == null || !HASH_VALIDO.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("Hash de archivo inválido: " + sha256);
+        }
+        return raiz.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    /**
+     * Eliminar los blobs sin documentos que los referencien y los temporales de cargas interrumpidas
+     */
+    @Scheduled(cron = "${pacientes.archivos.limpieza-cron:0 15 3 * * *}")
+    public void limpiar() {
+        if (!Files.isDirectory(raiz)) {
+            return;
+        }
+        Instant limite = Instant.now().minus(Duration.ofMinutes(Math.max(0, margenLimpiezaMinutos)));
+        int eliminados = 0;
+        try (Stream<Path> archivos = Files.walk(raiz)) {
+            List<Path> candidatos = archivos
+                .filter(Files::isRegularFile)
+                .filter(archivo -> modificadoAntesDe(archivo, limite))
+                .toList();
+            for (Path archivo : candidatos) {
+                boolean temporal = archivo.startsWith(temporales);
+                String nombre = archivo.getFileName().toString();
+                if (temporal || (HASH_VALIDO.matcher(nombre).matches()
+                        && !documentoMedicoRepository.existsByArchivoSha256(nombre)
+                        // Una carga que reutilizó el blob después del primer filtro renueva su fecha
+                        && modificadoAntesDe(archivo, limite))) {
+                    Files.deleteIfExists(archivo);
+                    eliminados++;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Error limpiando el almacén de archivos: {}", e.getMessage(), e);
+        }
+        if (eliminados > 0) {
+            LOGGER.info("Archivos sin referencias eliminados del almacén: {}", eliminados);
+        }
+    }
+
+    private static void mover(Path temporal, Path destino) throws IOException {
+        try {
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Otra carga del mismo contenido ganó la carrera: el blob ya es el correcto
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                Files.move(temporal, destino);
+            } catch (FileAlreadyExistsException yaExiste) {
+                // Igual que arriba
+            }
+        }
+    }
+
+    private static boolean modificadoAntesDe(Path archivo, Instant limite) {
+        try {
+            return Files.getLastModifiedTime(archivo).toInstant().isBefore(limite);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static MessageDigest nuevoDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Resultado de guardar un archivo: hash del contenido, tipo MIME detectado y tamaño en bytes
+     */
+    public record ArchivoAlmacenado(String sha256, String tipo, long tamano) {
+    }
+}
@@ -0,0 +1,104 @@
+package com.gestioneps.pacientes.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Recorrido común de los backfills en línea de columnas derivadas de datosJson.
+ *
+ * Cada backfill lee lotes de filas pendientes por keyset sobre el id, cada uno en su propia transacción, de modo que
+ * no bloquea la tabla y puede interrumpirse en cualquier momento: al reiniciar solo quedan pendientes las filas sin
+ * marcar con la versión actual. La escritura de cada fila es condicional a que siga pendiente: una fila que la API
+ * guardó entre la lectura del lote y la escritura ya está al día con el JSON nuevo y no se pisa con el leído.
+ */
+@Component
+class BackfillPorLotes {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackfillPorLotes.class);
+
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${pacientes.backfill.habilitado:true}")
+    private boolean habilitado;
+
+    @Value("${pacientes.backfill.tamano-lote:500}")
+    private int tamanoLote;
+
+    BackfillPorLotes(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Lanzar el recorrido en un hilo de fondo, si los backfills están habilitados
+     */
+    void iniciar(String nombreHilo, Runnable recorrido) {
+        if (!habilitado) {
+            return;
+        }
+        Thread hilo = new Thread(recorrido, nombreHilo);
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Página del siguiente lote
+     */
+    Pageable lote() {
+        return PageRequest.of(0, tamanoLote);
+    }
+
+    /**
+     * Procesar lotes hasta que procesarLote devuelva null. Recibe el último id del lote anterior y devuelve el último
+     * id del suyo. Devuelve el número de lotes procesados.
+     */
+    long recorrer(String descripcion, LongFunction<Long> procesarLote) {
+        long lotes = 0;
+        long ultimoId = 0L;
+        try {
+            while (true) {
+                final long desde = ultimoId;
+                Long ultimoDelLote = transactionTemplate.execute(status -> procesarLote.apply(desde));
+                if (ultimoDelLote == null) {
+                    break;
+                }
+                lotes++;
+                ultimoId = ultimoDelLote;
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Backfill {} interrumpido tras el id {}: {}", descripcion, ultimoId, e.getMessage(), e);
+        }
+        if (lotes > 0) {
+            LOGGER.info("Backfill {} completado: {} lotes procesados", descripcion, lotes);
+        }
+        return lotes;
+    }
+
+    /**
+     * Escribir cada fila [id, ...] del lote con la escritura condicional del backfill, que devuelve las filas
+     * afectadas: 0 si la fila ya no estaba pendiente. Devuelve el último id del lote, o null si está vacío.
+     */
+    Long escribirPendientes(List<Object[]> lote, ToIntFunction<Object[]> escribir) {
+        Long id = null;
+        int alDia = 0;
+        for (Object[] fila : lote) {
+            id = (Long) fila[0];
+            if (escribir.applyAsInt(fila) == 0) {
+                alDia++;
+            }
+        }
+        if (alDia > 0) {
+            LOGGER.debug("{} filas del lote hasta el id {} ya estaban al día", alDia, id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,63 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.gestioneps.pacientes.entity.CitaMedica;
+import com.gestioneps.pacientes.repository.AgendaMedicoDiaRepository;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Backfill en línea de las columnas de horario, médico y estado de citas_medicas para citas creadas antes de existir
+ * esas columnas, por lotes con {@link BackfillPorLotes}, marcando las filas con {@link CitaMedica#VERSION_CAMPOS}.
+ * Las agendas ya calculadas de los días que toca cada cita escrita se descartan para que se vuelvan a calcular
+ * incluyéndola.
+ */
+@Service
+public class CitaCamposBackfill {
+
+    private final CitaMedicaRepository citaMedicaRepository;
+    private final AgendaMedicoDiaRepository agendaRepository;
+    private final BackfillPorLotes backfill;
+
+    public CitaCamposBackfill(CitaMedicaRepository citaMedicaRepository,
+                              AgendaMedicoDiaRepository agendaRepository,
+                              BackfillPorLotes backfill) {
+        this.citaMedicaRepository = citaMedicaRepository;
+        this.agendaRepository = agendaRepository;
+        this.backfill = backfill;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void iniciarAlArrancar() {
+        backfill.iniciar("backfill-campos-citas", this::ejecutar);
+    }
+
+    /**
+     * Procesar todos los lotes pendientes. Devuelve el número de lotes procesados.
+     */
+    public long ejecutar() {
+        return backfill.recorrer("de campos de citas", this::procesarLote);
+    }
+
+    private Long procesarLote(long ultimoId) {
+        List<Object[]> lote = citaMedicaRepository.findLotePendienteCampos(
+            ultimoId, CitaMedica.VERSION_CAMPOS, backfill.lote());
+        return backfill.escribirPendientes(lote, fila -> {
+            JsonNode raiz = MedicoConsulta.leer((String) fila[1]);
+            HorarioCita horario = HorarioCita.desde(raiz);
+            int actualizadas = citaMedicaRepository.actualizarCampos((Long) fila[0], horario.inicio(), horario.fin(),
+                horario.medicoClave(), horario.medicoNombre(), CitaMedicaService.estadoDesdeJson(raiz),
+                CitaMedica.VERSION_CAMPOS);
+            // Si la cita se guardó desde la API después de leer el lote, la agenda ya refleja el horario nuevo
+            if (actualizadas == 1 && horario.ocupaAgenda()) {
+                agendaRepository.deleteByMedicoClaveAndFechaBetween(horario.medicoClave(),
+                    horario.inicio().toLocalDate(), horario.fin().toLocalDate());
+            }
+            return actualizadas;
+        });
+    }
+}
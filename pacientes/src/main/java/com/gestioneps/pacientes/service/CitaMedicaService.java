@@ -1,43 +1,93 @@
 package com.gestioneps.pacientes.service;
 
 import com.gestioneps.pacientes.dto.CitaMedicaDTO;
+import com.gestioneps.pacientes.dto.PaginaCursor;
 import com.gestioneps.pacientes.entity.CitaMedica;
 import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.exception.DatosCitaInvalidosException;
+import com.gestioneps.pacientes.exception.EstadoCitaConflictoException;
 import com.gestioneps.pacientes.repository.CitaMedicaRepository;
 import com.gestioneps.pacientes.repository.PacienteRepository;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 @Service
 @Transactional
 public class CitaMedicaService {
 
+    private static final int DIAS_MAXIMOS_AGENDA = 31;
+    private static final int MAXIMO_CITAS_POR_LOTE = 500;
+    private static final String ESTADO_CANCELADO = "CANCELADO";
+    private static final String ESTADO_NO_SE_PRESENTO = "NO_SE_PRESENTO";
+    // Estados que desactivan la cita (cambiarEstado y cambiarEstadoEnLote) y liberan su espacio en la agenda
+    private static final Set<String> DESACTIVAN = Set.of(ESTADO_CANCELADO, ESTADO_NO_SE_PRESENTO);
+
+    // Máquina de estados de la cita: destinos permitidos desde cada estado
+    private static final Map<String, Set<String>> TRANSICIONES = Map.of(
+            "PROGRAMADO", new LinkedHashSet<>(List.of("EN_SALA", ESTADO_NO_SE_PRESENTO, ESTADO_CANCELADO)),
+            "EN_SALA", new LinkedHashSet<>(List.of("ATENDIDO", ESTADO_CANCELADO)));
+
+    // Estados desde los que se puede llegar a cada destino (condición del UPDATE condicional)
+    private static final Map<String, Set<String>> ORIGENES = new HashMap<>();
+
+    static {
+        TRANSICIONES.forEach((origen, destinos) ->
+                destinos.forEach(destino -> ORIGENES.computeIfAbsent(destino, d -> new TreeSet<>()).add(origen)));
+    }
+
     private final CitaMedicaRepository citaMedicaRepository;
     private final PacienteRepository pacienteRepository;
+    private final AgendaMedicaService agendaMedicaService;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public CitaMedicaService(CitaMedicaRepository citaMedicaRepository, PacienteRepository pacienteRepository) {
+    public CitaMedicaService(CitaMedicaRepository citaMedicaRepository, PacienteRepository pacienteRepository,
+                             AgendaMedicaService agendaMedicaService, ApplicationEventPublisher eventPublisher) {
         this.citaMedicaRepository = citaMedicaRepository;
         this.pacienteRepository = pacienteRepository;
+        this.agendaMedicaService = agendaMedicaService;
+        this.eventPublisher = eventPublisher;
     }
 
     public CitaMedicaDTO crearCitaDesdeJson(Long pacienteId, String jsonData) {
+        JsonNode raiz = leerDatos(jsonData);
         Paciente paciente = pacienteRepository.findById(pacienteId)
                 .orElseThrow(() -> new IllegalArgumentException("Paciente no encontrado: " + pacienteId));
 
+        // Ocupar la agenda del médico antes de guardar: rechaza la cita si se cruza con otra
+        HorarioCita horario = HorarioCita.desde(raiz);
+        agendaMedicaService.reservar(horario);
+
         CitaMedica cita = new CitaMedica();
         cita.setPaciente(paciente);
         cita.setDatosJson(jsonData);
         cita.setActiva(true);
+        horario.aplicarA(cita);
+        cita.setEstado(estadoDesdeJson(raiz));
 
         CitaMedica saved = citaMedicaRepository.save(cita);
+        publicarCambio(saved);
         return mapToDTO(saved);
     }
 
@@ -48,72 +98,178 @@ public class CitaMedicaService {
     }
 
     public Page<CitaMedicaDTO> obtenerCitasPorPaciente(Long pacienteId, Pageable pageable) {
-        return citaMedicaRepository.findByPacienteId(pacienteId, pageable)
-                .map(this::mapToDTO);
+        return citaMedicaRepository.findDtoByPacienteId(pacienteId, pageable);
     }
 
     public List<CitaMedicaDTO> obtenerCitasActivasPorPaciente(Long pacienteId) {
-        return citaMedicaRepository.findActiveByPacienteId(pacienteId)
-                .stream()
-                .map(this::mapToDTO)
-                .collect(Collectors.toList());
+        return citaMedicaRepository.findDtoActivasByPacienteId(pacienteId);
     }
 
     public CitaMedicaDTO actualizarCita(Long id, String jsonData) {
+        JsonNode raiz = leerDatos(jsonData);
         CitaMedica cita = citaMedicaRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Cita médica no encontrada: " + id));
 
+        // El estado solo cambia por actualizarEstadoCita, que valida la transición y la versión
+        String estadoActual = obtenerEstadoActual(cita);
+        if (MedicoConsulta.primero(raiz, "estado") != null && !estadoDesdeJson(raiz).equals(estadoActual)) {
+            throw new EstadoCitaConflictoException("El estado de la cita " + id + " es " + estadoActual
+                    + "; para cambiarlo use PATCH /citas/" + id + "/estado");
+        }
+        HorarioCita nuevo = HorarioCita.desde(raiz);
+        if (Boolean.TRUE.equals(cita.getActiva())) {
+            agendaMedicaService.cambiar(HorarioCita.de(cita), nuevo);
+        }
         cita.setDatosJson(jsonData);
+        nuevo.aplicarA(cita);
+        cita.setEstado(estadoActual);
         CitaMedica updated = citaMedicaRepository.save(cita);
+        publicarCambio(updated);
         return mapToDTO(updated);
     }
 
     public void eliminarCita(Long id) {
         CitaMedica cita = citaMedicaRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Cita médica no encontrada: " + id));
+        if (Boolean.TRUE.equals(cita.getActiva())) {
+            agendaMedicaService.liberar(HorarioCita.de(cita));
+        }
         cita.setActiva(false);
         citaMedicaRepository.save(cita);
+        publicarCambio(cita);
     }
 
-    public CitaMedicaDTO actualizarEstadoCita(Long id, String nuevoEstado) {
+    /**
+     * Cambiar el estado de una cita validando la transición. El cambio es un único UPDATE condicional sobre el
+     * estado y la versión leídos (o la versión esperada que envía el cliente): si otra petición cambió la cita
+     * entre tanto, lanza EstadoCitaConflictoException en lugar de sobrescribirla.
+     */
+    public CitaMedicaDTO actualizarEstadoCita(Long id, String nuevoEstado, Long versionEsperada) {
         CitaMedica cita = citaMedicaRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Cita médica no encontrada: " + id));
 
-        // Validar transiciones de estado permitidas
         String estadoActual = obtenerEstadoActual(cita);
-        System.out.println("🔄 Actualizando estado de cita " + id + " de '" + estadoActual + "' a '" + nuevoEstado + "'");
-        validarTransicionEstado(estadoActual, nuevoEstado);
-
-        // Si se cancela, desactivar la cita para liberar el espacio en el calendario
-        if ("CANCELADO".equals(nuevoEstado) || "CANCELADA".equals(nuevoEstado)) {
-            cita.setActiva(false);
+        String estado = normalizarEstado(nuevoEstado);
+        // Una versión vieja es un conflicto aunque la transición ya no sea válida desde el estado nuevo
+        long version = versionEsperada != null ? versionEsperada : cita.getVersion();
+        if (version != cita.getVersion()) {
+            throw conflicto(id, cita.getEstado() != null ? cita.getEstado() : estadoActual, cita.getVersion());
         }
+        validarTransicionEstado(estadoActual, estado);
 
-        // Actualizar el estado en datosJson
-        String datosJsonActualizados = actualizarEstadoEnJson(cita.getDatosJson(), nuevoEstado);
-        cita.setDatosJson(datosJsonActualizados);
+        // Si se desactiva, liberar antes el espacio en la agenda; si el cambio no se aplica, la transacción lo revierte
+        if (DESACTIVAN.contains(estado) && Boolean.TRUE.equals(cita.getActiva())) {
+            agendaMedicaService.liberar(HorarioCita.de(cita));
+        }
 
-        CitaMedica citaActualizada = citaMedicaRepository.save(cita);
-        System.out.println("✅ Estado de cita " + id + " actualizado exitosamente a '" + nuevoEstado + "'");
-        return mapToDTO(citaActualizada);
+        if (citaMedicaRepository.cambiarEstado(id, version, ORIGENES.get(estado), estado, LocalDateTime.now()) == 0) {
+            CitaMedica actual = citaMedicaRepository.findById(id)
+                    .orElseThrow(() -> new IllegalArgumentException("Cita médica no encontrada: " + id));
+            throw conflicto(id, actual.getEstado(), actual.getVersion());
+        }
+        CitaMedica actualizada = citaMedicaRepository.findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Cita médica no encontrada: " + id));
+        if (ESTADO_NO_SE_PRESENTO.equals(estado)) {
+            pacienteRepository.sumarInasistencias(actualizada.getPaciente().getId(), 1, fechaInasistencia(actualizada.getFechaHoraCita()));
+        }
+        publicarCambio(actualizada);
+        return mapToDTO(actualizada);
     }
 
-    private String obtenerEstadoActual(CitaMedica cita) {
-        try {
-            if (cita.getDatosJson() != null) {
-                var data = new ObjectMapper().readTree(cita.getDatosJson());
-                String estadoCrudo = data.get("estado").asText("PROGRAMADO");
+    /**
+     * Cambiar de estado varias citas activas a la vez. Cada cita se cambia solo si su estado actual admite la
+     * transición, en una sola sentencia; devuelve los ids cambiados y los rechazados.
+     */
+    public Map<String, List<Long>> actualizarEstadoCitas(Collection<Long> ids, String nuevoEstado) {
+        if (ids == null || ids.isEmpty()) {
+            throw new IllegalArgumentException("Debe indicar al menos una cita");
+        }
+        if (ids.size() > MAXIMO_CITAS_POR_LOTE) {
+            throw new IllegalArgumentException("No se pueden cambiar más de " + MAXIMO_CITAS_POR_LOTE + " citas a la vez");
+        }
+        String estado = normalizarEstado(nuevoEstado);
+        Set<String> origenes = ORIGENES.get(estado);
+        if (origenes == null) {
+            throw new IllegalArgumentException("Ninguna cita puede pasar al estado " + estado);
+        }
 
-                // Normalizar estado para manejar variaciones (con/sin acentos, mayúsculas/minúsculas)
-                return normalizarEstado(estadoCrudo);
+        Set<Long> solicitadas = new TreeSet<>(ids);
+        List<Long> actualizadas = new ArrayList<>();
+        Map<Long, Integer> inasistencias = new TreeMap<>();
+        Map<Long, LocalDateTime> ultimaInasistencia = new HashMap<>();
+        for (Object[] fila : citaMedicaRepository.cambiarEstadoEnLote(solicitadas, origenes, estado, LocalDateTime.now())) {
+            actualizadas.add(((Number) fila[0]).longValue());
+            if (DESACTIVAN.contains(estado)) {
+                agendaMedicaService.liberar(new HorarioCita(fecha(fila[1]), fecha(fila[2]), (String) fila[3], (String) fila[4]));
+            }
+            if (ESTADO_NO_SE_PRESENTO.equals(estado)) {
+                Long pacienteId = ((Number) fila[5]).longValue();
+                inasistencias.merge(pacienteId, 1, Integer::sum);
+                ultimaInasistencia.merge(pacienteId, fechaInasistencia(fecha(fila[1])), (a, b) -> a.isAfter(b) ? a : b);
             }
-        } catch (Exception e) {
-            // Fallback
         }
-        return "PROGRAMADO";
+        // En orden de paciente para que dos lotes concurrentes no se bloqueen mutuamente
+        inasistencias.forEach((pacienteId, cantidad) ->
+                pacienteRepository.sumarInasistencias(pacienteId, cantidad, ultimaInasistencia.get(pacienteId)));
+        actualizadas.sort(null);
+        if ("EN_SALA".equals(estado)) {
+            citaMedicaRepository.findConPacienteByIdIn(actualizadas).forEach(this::publicarCambio);
+        } else {
+            actualizadas.forEach(citaId -> eventPublisher.publishEvent(new CitaModificadaEvent(citaId, null)));
+        }
+        solicitadas.removeAll(actualizadas);
+        Map<String, List<Long>> resultado = new LinkedHashMap<>();
+        resultado.put("actualizadas", actualizadas);
+        resultado.put("rechazadas", new ArrayList<>(solicitadas));
+        return resultado;
+    }
+
+    /**
+     * Leer el JSON de una cita que se va a guardar. Debe ser un objeto: el cambio de estado reescribe su clave "estado"
+     */
+    private static JsonNode leerDatos(String jsonData) {
+        JsonNode raiz = MedicoConsulta.leer(jsonData);
+        if (raiz == null) {
+            throw new DatosCitaInvalidosException("Los datos de la cita deben ser un objeto JSON");
+        }
+        return raiz;
+    }
+
+    /**
+     * Avisar del cambio a las estructuras en memoria (sala de espera); se aplica tras el commit
+     */
+    private void publicarCambio(CitaMedica cita) {
+        eventPublisher.publishEvent(new CitaModificadaEvent(cita.getId(), SalaEsperaService.enSala(cita)));
+    }
+
+    private static EstadoCitaConflictoException conflicto(Long id, String estado, Long version) {
+        return new EstadoCitaConflictoException("La cita " + id + " fue modificada por otra operación (estado actual "
+                + estado + ", versión " + version + ")");
+    }
+
+    private static LocalDateTime fechaInasistencia(LocalDateTime fechaHoraCita) {
+        return fechaHoraCita != null ? fechaHoraCita : LocalDateTime.now();
     }
 
-    private String normalizarEstado(String estado) {
+    private static LocalDateTime fecha(Object valor) {
+        return valor instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) valor;
+    }
+
+    private String obtenerEstadoActual(CitaMedica cita) {
+        if (cita.getEstado() != null) {
+            return cita.getEstado();
+        }
+        return estadoDesdeJson(MedicoConsulta.leer(cita.getDatosJson()));
+    }
+
+    /**
+     * Estado normalizado de la cita según su JSON; PROGRAMADO si no lo trae
+     */
+    static String estadoDesdeJson(JsonNode raiz) {
+        return normalizarEstado(raiz == null ? null : MedicoConsulta.primero(raiz, "estado"));
+    }
+
+    private static String normalizarEstado(String estado) {
         if (estado == null) return "PROGRAMADO";
 
         // Convertir a mayúsculas y normalizar
@@ -144,67 +300,99 @@ public class CitaMedicaService {
     }
 
     private void validarTransicionEstado(String estadoActual, String nuevoEstado) {
-        System.out.println("🔍 Validando transición: estadoActual='" + estadoActual + "', nuevoEstado='" + nuevoEstado + "'");
-        // Definir transiciones permitidas
-        switch (estadoActual) {
-            case "PROGRAMADO":
-                System.out.println("📋 Estados permitidos desde PROGRAMADO: EN_SALA, NO_SE_PRESENTO, CANCELADO, CANCELADA");
-                if (!nuevoEstado.equals("EN_SALA") && !nuevoEstado.equals("NO_SE_PRESENTO") && !nuevoEstado.equals("CANCELADO") && !nuevoEstado.equals("CANCELADA")) {
-                    System.out.println("❌ Transición no permitida: " + nuevoEstado);
-                    throw new IllegalArgumentException("Desde PROGRAMADO solo se puede cambiar a EN_SALA, NO_SE_PRESENTO o CANCELADO");
-                }
-                break;
-            case "EN_SALA":
-                if (!nuevoEstado.equals("ATENDIDO") && !nuevoEstado.equals("CANCELADO") && !nuevoEstado.equals("CANCELADA")) {
-                    throw new IllegalArgumentException("Desde EN_SALA solo se puede cambiar a ATENDIDO o CANCELADO");
-                }
-                break;
-            case "ATENDIDO":
-            case "NO_SE_PRESENTO":
-            case "CANCELADO":
-                throw new IllegalArgumentException("No se puede cambiar el estado de una cita " + estadoActual);
-            default:
-                throw new IllegalArgumentException("Estado actual no válido: " + estadoActual);
+        Set<String> permitidos = TRANSICIONES.getOrDefault(estadoActual, Set.of());
+        if (permitidos.isEmpty()) {
+            throw new IllegalArgumentException("No se puede cambiar el estado de una cita " + estadoActual);
+        }
+        if (!permitidos.contains(nuevoEstado)) {
+            throw new IllegalArgumentException("Desde " + estadoActual + " solo se puede cambiar a "
+                    + String.join(", ", permitidos));
         }
     }
 
-    private String actualizarEstadoEnJson(String datosJson, String nuevoEstado) {
-        try {
-            var mapper = new ObjectMapper();
-            ObjectNode data;
-
-            if (datosJson != null && !datosJson.trim().isEmpty()) {
-                data = (ObjectNode) mapper.readTree(datosJson);
-            } else {
-                data = mapper.createObjectNode();
-            }
-
-            // Normalizar el estado antes de guardarlo
-            String estadoNormalizado = normalizarEstado(nuevoEstado);
-            data.put("estado", estadoNormalizado);
-            return mapper.writeValueAsString(data);
-        } catch (Exception e) {
-            throw new RuntimeException("Error al actualizar estado en JSON", e);
-        }
+    /**
+     * Horas libres del médico (por id de empleado o nombre) para los próximos días
+     */
+    public Map<LocalDate, List<String>> obtenerDisponibilidad(String medicoId, String medico, LocalDate desde,
+                                                              int dias, Integer duracion) {
+        return agendaMedicaService.obtenerDisponibilidad(HorarioCita.claveMedico(medicoId, medico),
+                desde != null ? desde : LocalDate.now(), dias,
+                duracion != null ? duracion : HorarioCita.DURACION_POR_DEFECTO);
     }
 
     public Page<CitaMedicaDTO> obtenerTodasCitasActivas(Pageable pageable) {
-        return citaMedicaRepository.findAllActive(pageable)
-                .map(this::mapToDTO);
+        return citaMedicaRepository.findDtoActivas(pageable);
+    }
+
+    public PaginaCursor<CitaMedicaDTO> obtenerCitasActivasPorCursor(String cursor, int tamano) {
+        Long desdeId = PaginaCursor.decodificar(cursor);
+        return PaginaCursor.desde(
+                citaMedicaRepository.findDtoActivasAntesDe(desdeId, PageRequest.of(0, tamano)),
+                CitaMedicaDTO::getId,
+                citas -> citas);
     }
 
+    /**
+     * Citas programadas desde hoy, de la más próxima a la más lejana
+     */
     public Page<CitaMedicaDTO> obtenerCitasPendientes(Pageable pageable) {
-        return citaMedicaRepository.findPendingAppointments(pageable)
+        return citaMedicaRepository.findPendingAppointments(LocalDate.now().atStartOfDay(), pageable)
                 .map(this::mapToDTO);
     }
 
+    /**
+     * Agenda de los días [desde, hasta], de todos los médicos o de uno (por id de empleado o nombre),
+     * opcionalmente filtrada por estado
+     */
+    @Transactional(readOnly = true)
+    public List<CitaMedicaDTO> obtenerAgenda(LocalDate desde, LocalDate hasta, String medicoId, String medico, String estado) {
+        if (desde == null || hasta == null || desde.isAfter(hasta)) {
+            throw new IllegalArgumentException("Período inválido: la fecha de inicio debe ser anterior a la fecha de fin");
+        }
+        if (ChronoUnit.DAYS.between(desde, hasta) >= DIAS_MAXIMOS_AGENDA) {
+            throw new IllegalArgumentException("La agenda no puede abarcar más de " + DIAS_MAXIMOS_AGENDA + " días");
+        }
+        LocalDateTime inicio = desde.atStartOfDay();
+        LocalDateTime fin = hasta.plusDays(1).atStartOfDay();
+        String medicoClave = HorarioCita.claveMedico(medicoId, medico);
+        List<CitaMedica> citas;
+        if (medicoClave != null) {
+            citas = citaMedicaRepository.findAgendaMedico(medicoClave, inicio, fin);
+        } else if (estado != null && !estado.isBlank()) {
+            citas = citaMedicaRepository.findByEstado(normalizarEstado(estado), inicio, fin);
+        } else {
+            citas = citaMedicaRepository.findCitasBetweenDates(inicio, fin);
+        }
+        String estadoFiltro = estado != null && !estado.isBlank() ? normalizarEstado(estado) : null;
+        return citas.stream()
+                .filter(cita -> estadoFiltro == null || estadoFiltro.equals(cita.getEstado()))
+                .map(this::mapToDTO)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Pacientes en sala de espera del día, en orden de hora de la cita
+     */
+    @Transactional(readOnly = true)
+    public List<CitaMedicaDTO> obtenerCitasEnSala(LocalDate fecha) {
+        LocalDate dia = fecha != null ? fecha : LocalDate.now();
+        return citaMedicaRepository.findByEstado("EN_SALA", dia.atStartOfDay(), dia.plusDays(1).atStartOfDay())
+                .stream()
+                .map(this::mapToDTO)
+                .collect(Collectors.toList());
+    }
+
     private CitaMedicaDTO mapToDTO(CitaMedica cita) {
         CitaMedicaDTO dto = new CitaMedicaDTO();
         dto.setId(cita.getId());
         dto.setPacienteId(cita.getPaciente().getId());
-        dto.setPacienteNombre(cita.getPaciente().getNombreCompleto());
+        dto.setPacienteNombre(cita.getPaciente().getNombreParaMostrar());
         dto.setDatosJson(cita.getDatosJson());
         dto.setActiva(cita.getActiva());
+        dto.setFechaHoraCita(cita.getFechaHoraCita());
+        dto.setMedicoNombre(cita.getMedicoNombre());
+        dto.setEstado(cita.getEstado());
+        dto.setVersion(cita.getVersion());
         dto.setFechaCreacion(cita.getFechaCreacion());
         dto.setFechaActualizacion(cita.getFechaActualizacion());
         return dto;
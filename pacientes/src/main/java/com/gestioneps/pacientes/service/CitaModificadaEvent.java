@@ -0,0 +1,22 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.dto.PacienteEnSalaDTO;
+
+/**
+ * Evento publicado por CitaMedicaService cuando se crea, edita, elimina o cambia de estado una cita.
+ * Lleva la cita tal como debe verse en la sala de espera (null si no está en sala) para que la cola en
+ * memoria se actualice tras el commit sin volver a consultar la base de datos.
+ */
+public class CitaModificadaEvent {
+
+    private final Long citaId;
+    private final PacienteEnSalaDTO enSala;
+
+    public CitaModificadaEvent(Long citaId, PacienteEnSalaDTO enSala) {
+        this.citaId = citaId;
+        this.enSala = enSala;
+    }
+
+    public Long getCitaId() { return citaId; }
+    public PacienteEnSalaDTO getEnSala() { return enSala; }
+}
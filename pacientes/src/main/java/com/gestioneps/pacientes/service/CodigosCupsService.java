@@ -1,10 +1,12 @@
 package com.gestioneps.pacientes.service;
 
 import com.gestioneps.pacientes.dto.CodigosCupsDTO;
+import com.gestioneps.pacientes.dto.PaginaCursor;
 import com.gestioneps.pacientes.entity.CodigosCups;
 import com.gestioneps.pacientes.repository.CodigosCupsRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -100,6 +102,18 @@ public class CodigosCupsService {
         return entities.map(this::convertirEntidadADTO);
     }
 
+    /**
+     * Obtener códigos CUP por cursor (keyset), sin consulta de conteo
+     */
+    @Transactional(readOnly = true)
+    public PaginaCursor<CodigosCupsDTO> obtenerCodigosCupsPorCursor(String cursor, int tamano) {
+        Long desdeId = PaginaCursor.decodificar(cursor);
+        return PaginaCursor.desde(
+            codigosCupsRepository.findByIdLessThanOrderByIdDesc(desdeId, PageRequest.of(0, tamano)),
+            CodigosCups::getId,
+            codigos -> codigos.stream().map(this::convertirEntidadADTO).toList());
+    }
+
     /**
      * Búsqueda general de códigos CUP
      */
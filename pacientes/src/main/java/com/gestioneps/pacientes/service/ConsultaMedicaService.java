@@ -1,20 +1,24 @@
 package com.gestioneps.pacientes.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.gestioneps.pacientes.dto.ConsultaMedicaDTO;
 import com.gestioneps.pacientes.entity.ConsultaMedica;
+import com.gestioneps.pacientes.entity.DiagnosticoIndexado;
 import com.gestioneps.pacientes.entity.HistoriaClinica;
 import com.gestioneps.pacientes.entity.TipoConsulta;
 import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
 import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 @Transactional
@@ -22,25 +26,36 @@ public class ConsultaMedicaService {
 
     private final ConsultaMedicaRepository consultaMedicaRepository;
     private final HistoriaClinicaRepository historiaClinicaRepository;
+    private final DiagnosticoIndiceService diagnosticoIndiceService;
+    private final EstadisticaConsultaService estadisticaConsultaService;
 
     public ConsultaMedicaService(ConsultaMedicaRepository consultaMedicaRepository,
-                                HistoriaClinicaRepository historiaClinicaRepository) {
+                                HistoriaClinicaRepository historiaClinicaRepository,
+                                DiagnosticoIndiceService diagnosticoIndiceService,
+                                EstadisticaConsultaService estadisticaConsultaService) {
         this.consultaMedicaRepository = consultaMedicaRepository;
         this.historiaClinicaRepository = historiaClinicaRepository;
+        this.diagnosticoIndiceService = diagnosticoIndiceService;
+        this.estadisticaConsultaService = estadisticaConsultaService;
     }
 
     /**
      * Crear nueva consulta médica desde JSON crudo
      */
     public ConsultaMedicaDTO crearConsultaDesdeJson(Long historiaId, String jsonData) {
-        HistoriaClinica historia = historiaClinicaRepository.findById(historiaId)
+        HistoriaClinica historia = historiaClinicaRepository.findByIdParaActualizar(historiaId)
             .orElseThrow(() -> new IllegalArgumentException("Historia clínica no encontrada con ID: " + historiaId));
 
         ConsultaMedica consulta = new ConsultaMedica();
         consulta.setDatosJson(jsonData);
         consulta.setHistoriaClinica(historia);
+        consulta.setVersionDiagnosticos(DiagnosticoIndexado.VERSION_EXTRACCION);
+        asignarCamposExtraidos(consulta, jsonData);
 
         ConsultaMedica consultaGuardada = consultaMedicaRepository.save(consulta);
+        diagnosticoIndiceService.indexarConsulta(historiaId, consultaGuardada.getId(), jsonData);
+        registrarConsultaEnHistoria(historia, consultaGuardada);
+        estadisticaConsultaService.registrar(consultaGuardada, 1);
         return convertirEntidadADto(consultaGuardada);
     }
 
@@ -48,15 +63,20 @@ public class ConsultaMedicaService {
      * Crear nueva consulta médica desde una cita
      */
     public ConsultaMedicaDTO crearConsultaDesdeCita(Long citaId, Long historiaId, String jsonData) {
-        HistoriaClinica historia = historiaClinicaRepository.findById(historiaId)
+        HistoriaClinica historia = historiaClinicaRepository.findByIdParaActualizar(historiaId)
             .orElseThrow(() -> new IllegalArgumentException("Historia clínica no encontrada con ID: " + historiaId));
 
         ConsultaMedica consulta = new ConsultaMedica();
         consulta.setDatosJson(jsonData);
         consulta.setHistoriaClinica(historia);
         consulta.setCitaId(citaId);
+        consulta.setVersionDiagnosticos(DiagnosticoIndexado.VERSION_EXTRACCION);
+        asignarCamposExtraidos(consulta, jsonData);
 
         ConsultaMedica consultaGuardada = consultaMedicaRepository.save(consulta);
+        diagnosticoIndiceService.indexarConsulta(historiaId, consultaGuardada.getId(), jsonData);
+        registrarConsultaEnHistoria(historia, consultaGuardada);
+        estadisticaConsultaService.registrar(consultaGuardada, 1);
         return convertirEntidadADto(consultaGuardada);
     }
 
@@ -75,36 +95,137 @@ public class ConsultaMedicaService {
      */
     @Transactional(readOnly = true)
     public Page<ConsultaMedicaDTO> obtenerConsultasPorHistoria(Long historiaId, Pageable pageable) {
-        HistoriaClinica historia = historiaClinicaRepository.findById(historiaId)
-            .orElseThrow(() -> new IllegalArgumentException("Historia clínica no encontrada con ID: " + historiaId));
-
-        List<ConsultaMedica> consultas = consultaMedicaRepository.findByHistoriaClinicaOrderByFechaCreacionDesc(historia);
+        if (!historiaClinicaRepository.existsById(historiaId)) {
+            throw new IllegalArgumentException("Historia clínica no encontrada con ID: " + historiaId);
+        }
+        return consultaMedicaRepository.findDtoByHistoriaClinicaId(historiaId, pageable);
+    }
 
-        // Aplicar paginación manualmente
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), consultas.size());
+    /**
+     * Obtener consultas de un médico por cédula, registro médico o nombre completo
+     */
+    @Transactional(readOnly = true)
+    public Page<ConsultaMedicaDTO> obtenerConsultasPorMedico(String medico, Pageable pageable) {
+        return consultaMedicaRepository.findDtoByMedicoClaveIn(clavesMedico(medico), pageable);
+    }
 
-        if (start > consultas.size()) {
-            return Page.empty();
-        }
+    /**
+     * Buscar consultas por parte del nombre del médico
+     */
+    @Transactional(readOnly = true)
+    public Page<ConsultaMedicaDTO> buscarPorNombreMedico(String texto, Pageable pageable) {
+        return consultaMedicaRepository.findDtoByMedicoNombre(patronBusqueda(texto), pageable);
+    }
 
-        List<ConsultaMedica> pageContent = consultas.subList(start, end);
-        List<ConsultaMedicaDTO> dtos = pageContent.stream()
-            .map(this::convertirEntidadADto)
-            .collect(Collectors.toList());
+    /**
+     * Buscar consultas por parte del nombre de la especialidad
+     */
+    @Transactional(readOnly = true)
+    public Page<ConsultaMedicaDTO> buscarPorEspecialidad(String texto, Pageable pageable) {
+        return consultaMedicaRepository.findDtoByEspecialidad(patronBusqueda(texto), pageable);
+    }
 
-        return new PageImpl<>(dtos, pageable, consultas.size());
+    /**
+     * Contar las consultas de un médico en un período
+     */
+    @Transactional(readOnly = true)
+    public long contarConsultasPorMedico(String medico, LocalDateTime fechaInicio, LocalDateTime fechaFin) {
+        validarPeriodo(fechaInicio, fechaFin);
+        return consultaMedicaRepository.countConsultasByMedicoAndPeriodo(clavesMedico(medico), fechaInicio, fechaFin);
     }
 
+    /**
+     * Número de consultas por médico en un período, de mayor a menor
+     */
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> obtenerProductividadMedicos(LocalDateTime fechaInicio, LocalDateTime fechaFin) {
+        validarPeriodo(fechaInicio, fechaFin);
+        List<Map<String, Object>> resultado = new ArrayList<>();
+        for (Object[] fila : consultaMedicaRepository.contarPorMedico(fechaInicio, fechaFin)) {
+            Map<String, Object> medico = new LinkedHashMap<>();
+            medico.put("medicoClave", fila[0]);
+            medico.put("medicoNombre", fila[1]);
+            medico.put("totalConsultas", fila[2]);
+            resultado.add(medico);
+        }
+        return resultado;
+    }
 
     /**
      * Eliminar consulta médica
      */
     public void eliminarConsulta(Long id) {
-        if (!consultaMedicaRepository.existsById(id)) {
-            throw new IllegalArgumentException("Consulta médica no encontrada con ID: " + id);
+        ConsultaMedica consulta = consultaMedicaRepository.findById(id)
+            .orElseThrow(() -> new IllegalArgumentException("Consulta médica no encontrada con ID: " + id));
+        Long historiaId = consulta.getHistoriaClinica().getId();
+        HistoriaClinica historia = historiaClinicaRepository.findByIdParaActualizar(historiaId)
+            .orElseThrow(() -> new IllegalArgumentException("Historia clínica no encontrada con ID: " + historiaId));
+
+        diagnosticoIndiceService.eliminarConsulta(id);
+        estadisticaConsultaService.registrar(consulta, -1);
+        consultaMedicaRepository.delete(consulta);
+        recalcularResumenHistoria(historia);
+    }
+
+    /**
+     * Copiar médico, especialidad y próxima cita del JSON a las columnas indexadas
+     */
+    private void asignarCamposExtraidos(ConsultaMedica consulta, String jsonData) {
+        JsonNode raiz = MedicoConsulta.leer(jsonData);
+        MedicoConsulta medico = MedicoConsulta.desde(raiz);
+        consulta.setMedicoClave(medico.clave());
+        consulta.setMedicoNombre(medico.nombre());
+        consulta.setMedicoNombreBusqueda(medico.nombreBusqueda());
+        consulta.setEspecialidad(medico.especialidad());
+        consulta.setEspecialidadBusqueda(medico.especialidadBusqueda());
+        consulta.setProximaCita(RecordatorioSeguimientoService.proximaCita(raiz));
+        consulta.setVersionMedico(ConsultaMedica.VERSION_MEDICO);
+    }
+
+    private static Set<String> clavesMedico(String medico) {
+        Set<String> claves = MedicoConsulta.clavesPosibles(medico);
+        if (claves.isEmpty()) {
+            throw new IllegalArgumentException("Debe indicar el médico");
+        }
+        return claves;
+    }
+
+    private static String patronBusqueda(String texto) {
+        if (texto == null || texto.isBlank()) {
+            throw new IllegalArgumentException("Debe indicar el texto a buscar");
         }
-        consultaMedicaRepository.deleteById(id);
+        // Comodines de LIKE escapados con '!' (ESCAPE '!' en las consultas)
+        return MedicoConsulta.plegar(texto).replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    private static void validarPeriodo(LocalDateTime fechaInicio, LocalDateTime fechaFin) {
+        if (fechaInicio == null || fechaFin == null || fechaInicio.isAfter(fechaFin)) {
+            throw new IllegalArgumentException("Período inválido: la fecha de inicio debe ser anterior a la fecha de fin");
+        }
+    }
+
+    /**
+     * Sumar la consulta al resumen de la historia; la fila de la historia ya está bloqueada
+     */
+    private void registrarConsultaEnHistoria(HistoriaClinica historia, ConsultaMedica consulta) {
+        if (historia.getNumeroConsultas() == null) {
+            recalcularResumenHistoria(historia);
+            return;
+        }
+        historia.setNumeroConsultas(historia.getNumeroConsultas() + 1);
+        LocalDateTime fecha = consulta.getFechaCreacion();
+        if (fecha != null && (historia.getUltimaConsulta() == null || fecha.isAfter(historia.getUltimaConsulta()))) {
+            historia.setUltimaConsulta(fecha);
+        }
+    }
+
+    /**
+     * Recalcular el resumen de la historia con consultas indexadas por historia_clinica_id
+     */
+    private void recalcularResumenHistoria(HistoriaClinica historia) {
+        consultaMedicaRepository.flush();
+        historia.setNumeroConsultas(consultaMedicaRepository.countByHistoriaClinicaId(historia.getId()));
+        historia.setUltimaConsulta(consultaMedicaRepository.findUltimaFechaPorHistoria(historia.getId()));
     }
 
     /**
@@ -116,7 +237,7 @@ public class ConsultaMedicaService {
         dto.setId(consulta.getId());
         dto.setHistoriaClinicaId(consulta.getHistoriaClinica().getId());
         dto.setNumeroHistoria(consulta.getHistoriaClinica().getNumeroHistoria());
-        dto.setPacienteNombre(consulta.getHistoriaClinica().getPaciente().getNombreCompleto());
+        dto.setPacienteNombre(consulta.getHistoriaClinica().getPaciente().getNombreParaMostrar());
         dto.setDatosJson(consulta.getDatosJson());
         dto.setFechaCreacion(consulta.getFechaCreacion());
         dto.setFechaActualizacion(consulta.getFechaActualizacion());
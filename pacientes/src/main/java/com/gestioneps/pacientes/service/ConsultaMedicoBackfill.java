@@ -0,0 +1,51 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.gestioneps.pacientes.entity.ConsultaMedica;
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Backfill en línea de las columnas de médico, especialidad y próxima cita de consultas_medicas para consultas
+ * creadas antes de existir esas columnas, por lotes con {@link BackfillPorLotes}, marcando las filas con
+ * {@link ConsultaMedica#VERSION_MEDICO}.
+ */
+@Service
+public class ConsultaMedicoBackfill {
+
+    private final ConsultaMedicaRepository consultaMedicaRepository;
+    private final BackfillPorLotes backfill;
+
+    public ConsultaMedicoBackfill(ConsultaMedicaRepository consultaMedicaRepository, BackfillPorLotes backfill) {
+        this.consultaMedicaRepository = consultaMedicaRepository;
+        this.backfill = backfill;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void iniciarAlArrancar() {
+        backfill.iniciar("backfill-medico-consultas", this::ejecutar);
+    }
+
+    /**
+     * Procesar todos los lotes pendientes. Devuelve el número de lotes procesados.
+     */
+    public long ejecutar() {
+        return backfill.recorrer("del médico de consultas", this::procesarLote);
+    }
+
+    private Long procesarLote(long ultimoId) {
+        List<Object[]> lote = consultaMedicaRepository.findLotePendienteMedico(
+            ultimoId, ConsultaMedica.VERSION_MEDICO, backfill.lote());
+        return backfill.escribirPendientes(lote, fila -> {
+            JsonNode raiz = MedicoConsulta.leer((String) fila[1]);
+            MedicoConsulta medico = MedicoConsulta.desde(raiz);
+            return consultaMedicaRepository.actualizarMedico((Long) fila[0], medico.clave(), medico.nombre(),
+                medico.nombreBusqueda(), medico.especialidad(), medico.especialidadBusqueda(),
+                RecordatorioSeguimientoService.proximaCita(raiz), ConsultaMedica.VERSION_MEDICO);
+        });
+    }
+}
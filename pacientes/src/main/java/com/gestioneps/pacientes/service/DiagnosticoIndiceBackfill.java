@@ -0,0 +1,77 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.DiagnosticoIndexado;
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Backfill en línea de diagnosticos_indexados para historias y consultas creadas antes del índice.
+ *
+ * Recorre cada tabla con {@link BackfillPorLotes} y marca las filas con {@link DiagnosticoIndexado#VERSION_EXTRACCION},
+ * de modo que al reiniciar solo quedan pendientes las no procesadas o las procesadas con una extracción anterior.
+ * La marca condicional va antes de indexar: si la fila ya no estaba pendiente sus diagnósticos no se reemplazan.
+ */
+@Service
+public class DiagnosticoIndiceBackfill {
+
+    private final HistoriaClinicaRepository historiaClinicaRepository;
+    private final ConsultaMedicaRepository consultaMedicaRepository;
+    private final DiagnosticoIndiceService diagnosticoIndiceService;
+    private final BackfillPorLotes backfill;
+
+    public DiagnosticoIndiceBackfill(HistoriaClinicaRepository historiaClinicaRepository,
+                                     ConsultaMedicaRepository consultaMedicaRepository,
+                                     DiagnosticoIndiceService diagnosticoIndiceService,
+                                     BackfillPorLotes backfill) {
+        this.historiaClinicaRepository = historiaClinicaRepository;
+        this.consultaMedicaRepository = consultaMedicaRepository;
+        this.diagnosticoIndiceService = diagnosticoIndiceService;
+        this.backfill = backfill;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void iniciarAlArrancar() {
+        backfill.iniciar("backfill-diagnosticos", this::ejecutar);
+    }
+
+    /**
+     * Procesar todos los lotes pendientes de historias y consultas. Devuelve el número de lotes procesados.
+     */
+    public long ejecutar() {
+        return backfill.recorrer("de diagnósticos de historias", this::procesarLoteHistorias)
+            + backfill.recorrer("de diagnósticos de consultas", this::procesarLoteConsultas);
+    }
+
+    private Long procesarLoteHistorias(long ultimoId) {
+        List<Object[]> lote = historiaClinicaRepository.findLotePendienteDiagnosticos(
+            ultimoId, DiagnosticoIndexado.VERSION_EXTRACCION, backfill.lote());
+        return backfill.escribirPendientes(lote, fila -> {
+            Long id = (Long) fila[0];
+            int marcadas = historiaClinicaRepository.marcarDiagnosticosIndexados(
+                id, DiagnosticoIndexado.VERSION_EXTRACCION);
+            if (marcadas == 1) {
+                diagnosticoIndiceService.indexarHistoria(id, (String) fila[1]);
+            }
+            return marcadas;
+        });
+    }
+
+    private Long procesarLoteConsultas(long ultimoId) {
+        List<Object[]> lote = consultaMedicaRepository.findLotePendienteDiagnosticos(
+            ultimoId, DiagnosticoIndexado.VERSION_EXTRACCION, backfill.lote());
+        return backfill.escribirPendientes(lote, fila -> {
+            Long id = (Long) fila[0];
+            int marcadas = consultaMedicaRepository.marcarDiagnosticosIndexados(
+                id, DiagnosticoIndexado.VERSION_EXTRACCION);
+            if (marcadas == 1) {
+                diagnosticoIndiceService.indexarConsulta((Long) fila[1], id, (String) fila[2]);
+            }
+            return marcadas;
+        });
+    }
+}
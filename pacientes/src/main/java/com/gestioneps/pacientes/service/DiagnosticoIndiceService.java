@@ -0,0 +1,203 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gestioneps.pacientes.entity.DiagnosticoIndexado;
+import com.gestioneps.pacientes.entity.HistoriaClinica;
+import com.gestioneps.pacientes.repository.DiagnosticoIndexadoRepository;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Índice de diagnósticos de historias clínicas y consultas en la tabla diagnosticos_indexados.
+ *
+ * Extrae del JSON los campos de diagnóstico (diagnosticos, diagnosticoPrincipal, diagnosticosSecundarios,
+ * también dentro de JSON anidado como cadena), separa las entradas por línea o punto y coma y guarda por cada
+ * una el código CIE-10 que contenga y su texto plegado. La búsqueda usa un prefijo sobre el código cuando el
+ * término tiene forma de código CIE-10 y una búsqueda de subcadena sobre el texto en otro caso.
+ */
+@Service
+@Transactional
+public class DiagnosticoIndiceService {
+
+    private static final Set<String> CAMPOS_DIAGNOSTICO = Set.of(
+        "diagnosticos", "diagnosticoPrincipal", "diagnosticosSecundarios");
+    private static final Pattern SEPARADORES_ENTRADA = Pattern.compile("[\\r\\n;]+");
+    private static final Pattern CODIGO_CIE10 = Pattern.compile(
+        "\\b([A-TV-Z][0-9][0-9AB])(?:\\.?([0-9A-TV-Z]{1,4}))?\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TERMINO_CODIGO = Pattern.compile(
+        "[A-TV-Z][0-9][0-9AB](?:\\.?[0-9A-TV-Z]{0,4})?", Pattern.CASE_INSENSITIVE);
+    private static final int PROFUNDIDAD_MAXIMA = 8;
+
+    private final DiagnosticoIndexadoRepository diagnosticoRepository;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public DiagnosticoIndiceService(DiagnosticoIndexadoRepository diagnosticoRepository) {
+        this.diagnosticoRepository = diagnosticoRepository;
+    }
+
+    /**
+     * Reemplazar los diagnósticos tomados del JSON de la historia
+     */
+    public void indexarHistoria(Long historiaId, String datosJson) {
+        diagnosticoRepository.deleteDeHistoria(historiaId);
+        guardar(historiaId, null, datosJson);
+    }
+
+    /**
+     * Reemplazar los diagnósticos tomados del JSON de una consulta
+     */
+    public void indexarConsulta(Long historiaId, Long consultaId, String datosJson) {
+        diagnosticoRepository.deleteDeConsulta(consultaId);
+        guardar(historiaId, consultaId, datosJson);
+    }
+
+    /**
+     * Quitar del índice los diagnósticos de una consulta eliminada
+     */
+    public void eliminarConsulta(Long consultaId) {
+        diagnosticoRepository.deleteDeConsulta(consultaId);
+    }
+
+    /**
+     * Historias con algún diagnóstico que coincide con el término, paginadas en la base de datos
+     */
+    @Transactional(readOnly = true)
+    public Page<HistoriaClinica> buscarHistorias(String termino, Pageable pageable) {
+        if (termino == null || termino.isBlank()) {
+            throw new IllegalArgumentException("El diagnóstico a buscar es obligatorio");
+        }
+        String limpio = termino.trim();
+        if (TERMINO_CODIGO.matcher(limpio).matches()) {
+            return diagnosticoRepository.findHistoriasPorPrefijoCodigo(normalizarCodigo(limpio), pageable);
+        }
+        return diagnosticoRepository.findHistoriasPorTexto(escaparLike(PacienteIndiceBusqueda.plegar(limpio)), pageable);
+    }
+
+    private void guardar(Long historiaId, Long consultaId, String datosJson) {
+        List<DiagnosticoIndexado> filas = new ArrayList<>();
+        for (String entrada : extraerEntradas(datosJson)) {
+            String texto = PacienteIndiceBusqueda.plegar(entrada);
+            Set<String> codigos = extraerCodigos(entrada);
+            if (codigos.isEmpty()) {
+                filas.add(new DiagnosticoIndexado(historiaId, consultaId, null, texto, entrada));
+            }
+            for (String codigo : codigos) {
+                filas.add(new DiagnosticoIndexado(historiaId, consultaId, codigo, texto, entrada));
+            }
+        }
+        if (!filas.isEmpty()) {
+            diagnosticoRepository.saveAll(filas);
+        }
+    }
+
+    /**
+     * Entradas de diagnóstico del JSON, sin repetir y en orden de aparición
+     */
+    List<String> extraerEntradas(String datosJson) {
+        Set<String> entradas = new LinkedHashSet<>();
+        JsonNode raiz = leer(datosJson);
+        if (raiz != null) {
+            recorrer(raiz, false, entradas, 0);
+        }
+        return new ArrayList<>(entradas);
+    }
+
+    private void recorrer(JsonNode nodo, boolean enDiagnostico, Set<String> entradas, int profundidad) {
+        if (profundidad > PROFUNDIDAD_MAXIMA) {
+            return;
+        }
+        if (nodo.isTextual()) {
+            String texto = nodo.asText();
+            JsonNode anidado = pareceJson(texto) ? leer(texto) : null;
+            if (anidado != null) {
+                recorrer(anidado, enDiagnostico, entradas, profundidad + 1);
+            } else if (enDiagnostico) {
+                agregarEntradas(texto, entradas);
+            }
+        } else if (nodo.isArray()) {
+            for (JsonNode elemento : nodo) {
+                recorrer(elemento, enDiagnostico, entradas, profundidad + 1);
+            }
+        } else if (nodo.isObject()) {
+            if (enDiagnostico) {
+                // Objeto de diagnóstico estructurado ({codigo, descripcion, ...}): una sola entrada con sus textos
+                agregarEntradas(unirTextos(nodo), entradas);
+                return;
+            }
+            Iterator<Map.Entry<String, JsonNode>> campos = nodo.fields();
+            while (campos.hasNext()) {
+                Map.Entry<String, JsonNode> campo = campos.next();
+                recorrer(campo.getValue(), CAMPOS_DIAGNOSTICO.contains(campo.getKey()), entradas, profundidad + 1);
+            }
+        }
+    }
+
+    private static void agregarEntradas(String texto, Set<String> entradas) {
+        for (String entrada : SEPARADORES_ENTRADA.split(texto)) {
+            String limpia = entrada.trim();
+            if (!limpia.isEmpty()) {
+                entradas.add(limpia);
+            }
+        }
+    }
+
+    private static String unirTextos(JsonNode objeto) {
+        StringBuilder texto = new StringBuilder();
+        for (JsonNode valor : objeto) {
+            if (valor.isValueNode() && !valor.isNull()) {
+                if (texto.length() > 0) {
+                    texto.append(' ');
+                }
+                texto.append(valor.asText());
+            }
+        }
+        return texto.toString();
+    }
+
+    static Set<String> extraerCodigos(String entrada) {
+        Set<String> codigos = new LinkedHashSet<>();
+        Matcher matcher = CODIGO_CIE10.matcher(entrada);
+        while (matcher.find()) {
+            codigos.add(normalizarCodigo(matcher.group()));
+        }
+        return codigos;
+    }
+
+    static String normalizarCodigo(String codigo) {
+        return codigo.replace(".", "").toUpperCase(Locale.ROOT);
+    }
+
+    private static String escaparLike(String texto) {
+        return texto.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    private static boolean pareceJson(String texto) {
+        String limpio = texto.trim();
+        return limpio.startsWith("{") || limpio.startsWith("[");
+    }
+
+    private JsonNode leer(String json) {
+        if (json == null || json.isBlank()) {
+            return null;
+        }
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+}
@@ -6,16 +6,22 @@ import com.gestioneps.pacientes.entity.DocumentoMedico;
 import com.gestioneps.pacientes.repository.CitaMedicaRepository;
 import com.gestioneps.pacientes.repository.DocumentoMedicoRepository;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
 
 @Service
 @Transactional
@@ -23,11 +29,17 @@ public class DocumentoMedicoService {
 
     private final DocumentoMedicoRepository documentoMedicoRepository;
     private final CitaMedicaRepository citaMedicaRepository;
+    private final AlmacenArchivosService almacenArchivosService;
+    private final TransactionTemplate transactionTemplate;
 
     public DocumentoMedicoService(DocumentoMedicoRepository documentoMedicoRepository,
-                                 CitaMedicaRepository citaMedicaRepository) {
+                                 CitaMedicaRepository citaMedicaRepository,
+                                 AlmacenArchivosService almacenArchivosService,
+                                 PlatformTransactionManager transactionManager) {
         this.documentoMedicoRepository = documentoMedicoRepository;
         this.citaMedicaRepository = citaMedicaRepository;
+        this.almacenArchivosService = almacenArchivosService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     /**
@@ -59,25 +71,10 @@ public class DocumentoMedicoService {
      */
     @Transactional(readOnly = true)
     public Page<DocumentoMedicoDTO> obtenerDocumentosPorCita(Long citaId, Pageable pageable) {
-        CitaMedica cita = citaMedicaRepository.findById(citaId)
-            .orElseThrow(() -> new IllegalArgumentException("Cita médica no encontrada con ID: " + citaId));
-
-        List<DocumentoMedico> documentos = documentoMedicoRepository.findByCitaMedicaOrderByFechaCreacionDesc(cita);
-
-        // Aplicar paginación manualmente
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), documentos.size());
-
-        if (start > documentos.size()) {
-            return Page.empty();
+        if (!citaMedicaRepository.existsById(citaId)) {
+            throw new IllegalArgumentException("Cita médica no encontrada con ID: " + citaId);
         }
-
-        List<DocumentoMedico> pageContent = documentos.subList(start, end);
-        List<DocumentoMedicoDTO> dtos = pageContent.stream()
-            .map(this::convertirEntidadADto)
-            .collect(Collectors.toList());
-
-        return new PageImpl<>(dtos, pageable, documentos.size());
+        return documentoMedicoRepository.findDtoByCitaMedicaId(citaId, pageable);
     }
 
     /**
@@ -105,6 +102,61 @@ public class DocumentoMedicoService {
         documentoMedicoRepository.delete(documento);
     }
 
+    /**
+     * Adjuntar (o reemplazar) el archivo del documento. El contenido se escribe en el almacén fuera de la
+     * transacción y solo el hash y los metadatos se guardan en la base de datos; el archivo anterior, si ya no lo
+     * usa ningún documento, queda para el barrido del almacén.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public DocumentoMedicoDTO adjuntarArchivo(Long id, InputStream contenido, String nombreOriginal) throws IOException {
+        if (!documentoMedicoRepository.existsById(id)) {
+            throw new IllegalArgumentException("Documento médico no encontrado con ID: " + id);
+        }
+        AlmacenArchivosService.ArchivoAlmacenado archivo = almacenArchivosService.guardar(contenido, nombreOriginal);
+        String nombre = nombreArchivo(nombreOriginal, archivo.sha256());
+        return transactionTemplate.execute(status -> {
+            int actualizados = documentoMedicoRepository.actualizarArchivo(id, archivo.sha256(), nombre, archivo.tipo(),
+                archivo.tamano(), LocalDateTime.now());
+            if (actualizados == 0) {
+                throw new IllegalArgumentException("Documento médico no encontrado con ID: " + id);
+            }
+            return documentoMedicoRepository.findById(id)
+                .map(this::convertirEntidadADto)
+                .orElseThrow(() -> new IllegalArgumentException("Documento médico no encontrado con ID: " + id));
+        });
+    }
+
+    /**
+     * Archivo adjunto del documento listo para enviar. Lanza IllegalArgumentException si el documento no existe,
+     * no tiene archivo o el archivo ya no está en el almacén.
+     */
+    @Transactional(readOnly = true)
+    public ArchivoDocumento obtenerArchivo(Long id) {
+        DocumentoMedico documento = documentoMedicoRepository.findById(id)
+            .orElseThrow(() -> new IllegalArgumentException("Documento médico no encontrado con ID: " + id));
+        if (documento.getArchivoSha256() == null) {
+            throw new IllegalArgumentException("El documento " + id + " no tiene archivo adjunto");
+        }
+        Path ruta = almacenArchivosService.ruta(documento.getArchivoSha256());
+        if (!Files.isRegularFile(ruta)) {
+            throw new IllegalArgumentException("El archivo del documento " + id + " no está en el almacén");
+        }
+        return new ArchivoDocumento(ruta, documento.getArchivoSha256(), documento.getArchivoTipo(),
+            documento.getArchivoNombre());
+    }
+
+    private static String nombreArchivo(String nombreOriginal, String sha256) {
+        if (nombreOriginal == null || nombreOriginal.isBlank()) {
+            return sha256;
+        }
+        // Algunos navegadores envían la ruta completa del cliente
+        String nombre = nombreOriginal.substring(Math.max(nombreOriginal.lastIndexOf('/'), nombreOriginal.lastIndexOf('\\')) + 1).trim();
+        if (nombre.isEmpty()) {
+            return sha256;
+        }
+        return nombre.length() > 255 ? nombre.substring(nombre.length() - 255) : nombre;
+    }
+
     /**
      * Convertir entidad a DTO
      */
@@ -114,8 +166,12 @@ public class DocumentoMedicoService {
         dto.setId(documento.getId());
         dto.setCitaMedicaId(documento.getCitaMedica().getId());
         dto.setNumeroHistoria(String.valueOf(documento.getCitaMedica().getId())); // Using cita ID as numeroHistoria
-        dto.setPacienteNombre(documento.getCitaMedica().getPaciente().getNombreCompleto());
+        dto.setPacienteNombre(documento.getCitaMedica().getPaciente().getNombreParaMostrar());
         dto.setJsonData(documento.getJsonData()); // Pasar JSON crudo directamente
+        dto.setArchivoSha256(documento.getArchivoSha256());
+        dto.setArchivoNombre(documento.getArchivoNombre());
+        dto.setArchivoTipo(documento.getArchivoTipo());
+        dto.setArchivoTamano(documento.getArchivoTamano());
         dto.setFechaCreacion(documento.getFechaCreacion());
         dto.setFechaActualizacion(documento.getFechaActualizacion());
 
@@ -137,4 +193,10 @@ public class DocumentoMedicoService {
         documento.setJsonData(convertirDtoAJson(dto));
         return documento;
     }
-}
\ No newline at end of file
+
+    /**
+     * Archivo adjunto en disco con su hash (sirve como ETag), tipo MIME y nombre original
+     */
+    public record ArchivoDocumento(Path ruta, String sha256, String tipo, String nombre) {
+    }
+}
@@ -0,0 +1,250 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.gestioneps.pacientes.entity.ConsultaMedica;
+import com.gestioneps.pacientes.entity.TipoConsulta;
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import com.gestioneps.pacientes.repository.EstadisticaConsultaDiariaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.gestioneps.pacientes.entity.EstadisticaConsultaDiaria.SIN_DATO;
+
+/**
+ * Estadísticas de consultas sobre estadisticas_consultas_diarias.
+ *
+ * Cada consulta creada o eliminada suma o resta uno a la fila de su día, tipo, médico y especialidad dentro de la
+ * misma transacción. La reconstrucción recalcula días completos desde consultas_medicas: al arrancar si la tabla
+ * está vacía, cada noche para los días recientes y a pedido. Un período de un año se responde sumando a lo sumo
+ * unas cuantas filas por día.
+ */
+@Service
+public class EstadisticaConsultaService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EstadisticaConsultaService.class);
+
+    private static final int DIAS_MAXIMOS_RECONSTRUCCION = 366;
+    private static final int LONGITUD_TIPO = 40;
+    private static final int LONGITUD_ESPECIALIDAD = 120;
+    // Espacio de claves de pg_advisory_xact_lock para los días de estas estadísticas
+    private static final long PREFIJO_BLOQUEO = 0x45434400L << 32;
+
+    private final EstadisticaConsultaDiariaRepository estadisticaRepository;
+    private final ConsultaMedicaRepository consultaMedicaRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${pacientes.backfill.habilitado:true}")
+    private boolean habilitado;
+
+    @Value("${pacientes.estadisticas.consultas.dias-reconstruccion:7}")
+    private int diasReconstruccion;
+
+    public EstadisticaConsultaService(EstadisticaConsultaDiariaRepository estadisticaRepository,
+                                      ConsultaMedicaRepository consultaMedicaRepository,
+                                      PlatformTransactionManager transactionManager) {
+        this.estadisticaRepository = estadisticaRepository;
+        this.consultaMedicaRepository = consultaMedicaRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Sumar (delta 1) o restar (delta -1) una consulta en su día; se llama en la transacción que la crea o elimina
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void registrar(ConsultaMedica consulta, long delta) {
+        LocalDateTime fecha = consulta.getFechaCreacion() != null ? consulta.getFechaCreacion() : LocalDateTime.now();
+        LocalDate dia = fecha.toLocalDate();
+        estadisticaRepository.bloquearDiaCompartido(PREFIJO_BLOQUEO | dia.toEpochDay());
+        sumar(dia, Fila.de(consulta.getDatosJson()), delta);
+    }
+
+    /**
+     * Totales del período [desde, hasta] por tipo de consulta, médico, especialidad y día
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Object> obtenerEstadisticas(LocalDate desde, LocalDate hasta) {
+        validarPeriodo(desde, hasta);
+        List<Map<String, Object>> porDia = new ArrayList<>();
+        long total = 0;
+        for (Object[] fila : estadisticaRepository.sumarPorDia(desde, hasta)) {
+            long valor = ((Number) fila[1]).longValue();
+            total += valor;
+            porDia.add(entrada("fecha", fila[0], null, null, valor));
+        }
+        List<Map<String, Object>> porTipo = new ArrayList<>();
+        for (Object[] fila : estadisticaRepository.sumarPorTipo(desde, hasta)) {
+            porTipo.add(entrada("tipoConsulta", fila[0], null, null, ((Number) fila[1]).longValue()));
+        }
+        List<Map<String, Object>> porMedico = new ArrayList<>();
+        for (Object[] fila : estadisticaRepository.sumarPorMedico(desde, hasta)) {
+            porMedico.add(entrada("medicoClave", fila[0], "medicoNombre", fila[1], ((Number) fila[2]).longValue()));
+        }
+        List<Map<String, Object>> porEspecialidad = new ArrayList<>();
+        for (Object[] fila : estadisticaRepository.sumarPorEspecialidad(desde, hasta)) {
+            porEspecialidad.add(entrada("especialidad", fila[0], "especialidadNombre", fila[1], ((Number) fila[2]).longValue()));
+        }
+
+        Map<String, Object> estadisticas = new LinkedHashMap<>();
+        estadisticas.put("desde", desde);
+        estadisticas.put("hasta", hasta);
+        estadisticas.put("totalConsultas", total);
+        estadisticas.put("porTipoConsulta", porTipo);
+        estadisticas.put("porMedico", porMedico);
+        estadisticas.put("porEspecialidad", porEspecialidad);
+        estadisticas.put("porDia", porDia);
+        return estadisticas;
+    }
+
+    /**
+     * Reconstruir los días [desde, hasta] desde consultas_medicas. Devuelve el número de días procesados.
+     */
+    public int reconstruir(LocalDate desde, LocalDate hasta) {
+        validarPeriodo(desde, hasta);
+        if (ChronoUnit.DAYS.between(desde, hasta) >= DIAS_MAXIMOS_RECONSTRUCCION) {
+            throw new IllegalArgumentException("El período a reconstruir no puede superar " + DIAS_MAXIMOS_RECONSTRUCCION + " días");
+        }
+        return reconstruirDias(desde, hasta);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void iniciarAlArrancar() {
+        if (!habilitado) {
+            return;
+        }
+        Thread hilo = new Thread(this::construirSiVacia, "reconstruccion-estadisticas-consultas");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Recalcular los últimos días para corregir cualquier desvío de las actualizaciones incrementales
+     */
+    @Scheduled(cron = "${pacientes.estadisticas.consultas.reconstruccion-cron:0 30 2 * * *}")
+    public void reconstruirRecientes() {
+        LocalDate hoy = LocalDate.now();
+        try {
+            reconstruirDias(hoy.minusDays(Math.max(0, diasReconstruccion - 1L)), hoy);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error reconstruyendo estadísticas recientes de consultas: {}", e.getMessage(), e);
+        }
+    }
+
+    private void construirSiVacia() {
+        try {
+            LocalDateTime primera = consultaMedicaRepository.findPrimeraFechaCreacion();
+            if (primera == null || estadisticaRepository.count() > 0) {
+                return;
+            }
+            int dias = reconstruirDias(primera.toLocalDate(), LocalDate.now());
+            LOGGER.info("Estadísticas diarias de consultas construidas: {} días", dias);
+        } catch (RuntimeException e) {
+            LOGGER.error("Construcción inicial de estadísticas de consultas interrumpida: {}", e.getMessage(), e);
+        }
+    }
+
+    private int reconstruirDias(LocalDate desde, LocalDate hasta) {
+        int dias = 0;
+        for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+            final LocalDate actual = dia;
+            transactionTemplate.executeWithoutResult(status -> reconstruirDia(actual));
+            dias++;
+        }
+        return dias;
+    }
+
+    /**
+     * Borrar, leer y volver a sumar con el día bloqueado en exclusiva. Las transacciones que suman consultas del día
+     * toman el mismo bloqueo compartido, así que la reconstrucción espera a que las que ya sumaron se confirmen (y
+     * las cuenta en la lectura) y las que llegan después suman su uno sobre la fila ya reconstruida.
+     */
+    private void reconstruirDia(LocalDate dia) {
+        estadisticaRepository.bloquearDia(PREFIJO_BLOQUEO | dia.toEpochDay());
+        estadisticaRepository.deleteByFecha(dia);
+        Map<Fila, Long> conteo = new HashMap<>();
+        for (String datosJson : consultaMedicaRepository.findDatosCreadosEntre(dia.atStartOfDay(), dia.plusDays(1).atStartOfDay())) {
+            conteo.merge(Fila.de(datosJson), 1L, Long::sum);
+        }
+        conteo.forEach((fila, total) -> sumar(dia, fila, total));
+    }
+
+    private void sumar(LocalDate dia, Fila fila, long delta) {
+        estadisticaRepository.sumar(dia, fila.tipoConsulta, fila.medicoClave, fila.medicoNombre,
+            fila.especialidad, fila.especialidadNombre, delta);
+    }
+
+    private static Map<String, Object> entrada(String campo, Object valor, String campoNombre, Object nombre, long total) {
+        Map<String, Object> entrada = new LinkedHashMap<>();
+        entrada.put(campo, valor);
+        if (campoNombre != null) {
+            entrada.put(campoNombre, nombre);
+        }
+        entrada.put("total", total);
+        return entrada;
+    }
+
+    private static void validarPeriodo(LocalDate desde, LocalDate hasta) {
+        if (desde == null || hasta == null || desde.isAfter(hasta)) {
+            throw new IllegalArgumentException("Período inválido: la fecha de inicio debe ser anterior a la fecha de fin");
+        }
+    }
+
+    /**
+     * Tipo de consulta como nombre de {@link TipoConsulta} si coincide por nombre o descripción
+     */
+    static String tipoConsulta(JsonNode raiz) {
+        String valor = raiz == null ? null
+            : MedicoConsulta.primero(raiz, "detalleConsulta/tipoConsulta", "informacionConsulta/tipoConsulta", "tipoConsulta");
+        if (valor == null) {
+            return SIN_DATO;
+        }
+        String plegado = MedicoConsulta.plegar(valor);
+        for (TipoConsulta tipo : TipoConsulta.values()) {
+            if (plegado.replace(' ', '_').equalsIgnoreCase(tipo.name())
+                    || plegado.equals(MedicoConsulta.plegar(tipo.getDescripcion()))) {
+                return tipo.name();
+            }
+        }
+        return recortar(plegado.toUpperCase(Locale.ROOT), LONGITUD_TIPO);
+    }
+
+    private static String recortar(String valor, int longitud) {
+        return valor.length() > longitud ? valor.substring(0, longitud) : valor;
+    }
+
+    /**
+     * Claves de agrupación de una consulta, con los nombres a mostrar
+     */
+    private record Fila(String tipoConsulta, String medicoClave, String medicoNombre,
+                        String especialidad, String especialidadNombre) {
+
+        static Fila de(String datosJson) {
+            JsonNode raiz = MedicoConsulta.leer(datosJson);
+            MedicoConsulta medico = MedicoConsulta.desde(raiz);
+            String especialidad = medico.especialidadBusqueda();
+            return new Fila(EstadisticaConsultaService.tipoConsulta(raiz),
+                medico.clave() != null ? medico.clave() : SIN_DATO,
+                medico.nombre(),
+                especialidad != null ? recortar(especialidad, LONGITUD_ESPECIALIDAD) : SIN_DATO,
+                medico.especialidad());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.gestioneps.pacientes.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Lectura de fechas escritas por el frontend en los JSON: fecha y hora local (datetime-local),
+ * fecha y hora con zona (toISOString) o solo fecha.
+ */
+final class FechasJson {
+
+    private FechasJson() {
+    }
+
+    static LocalDateTime parsear(String valor) {
+        if (valor == null || valor.isBlank()) {
+            return null;
+        }
+        String texto = valor.trim();
+        try {
+            return LocalDateTime.parse(texto);
+        } catch (DateTimeParseException e) {
+            // Otros formatos abajo
+        }
+        try {
+            return OffsetDateTime.parse(texto).toLocalDateTime();
+        } catch (DateTimeParseException e) {
+            // Otros formatos abajo
+        }
+        try {
+            return LocalDate.parse(texto).atStartOfDay();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.gestioneps.pacientes.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro de Bloom concurrente sobre cadenas.
+ *
+ * Responde "seguro que no" o "quizás": nunca da falsos negativos para lo que se haya agregado.
+ * Los bits viven en un AtomicLongArray, así que agregar y consultar no necesitan bloqueo.
+ * No admite borrado; para descartar elementos se construye uno nuevo.
+ */
+public final class FiltroBloom {
+
+    private final AtomicLongArray bits;
+    private final long numeroBits;
+    private final int numeroHashes;
+    private final long capacidad;
+    private final AtomicLong elementos = new AtomicLong();
+
+    /**
+     * Dimensionar el filtro para la capacidad esperada y la tasa de falsos positivos deseada
+     */
+    public FiltroBloom(long capacidad, double tasaFalsosPositivos) {
+        if (capacidad <= 0 || tasaFalsosPositivos <= 0 || tasaFalsosPositivos >= 1) {
+            throw new IllegalArgumentException("Capacidad y tasa de falsos positivos inválidas");
+        }
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-capacidad * Math.log(tasaFalsosPositivos) / (ln2 * ln2));
+        long palabras = Math.max(1, (m + 63) / 64);
+        if (palabras > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Filtro demasiado grande para la capacidad: " + capacidad);
+        }
+        this.bits = new AtomicLongArray((int) palabras);
+        this.numeroBits = palabras * 64;
+        this.numeroHashes = Math.max(1, (int) Math.round((double) numeroBits / capacidad * ln2));
+        this.capacidad = capacidad;
+    }
+
+    /**
+     * Agregar el valor. Devuelve true si encendió algún bit, es decir, si el filtro no lo contenía ya; solo esos
+     * cuentan como elementos, así que volver a agregar un valor existente no infla la estimación de ocupación.
+     */
+    public boolean agregar(String valor) {
+        long hash = hash64(valor);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean nuevo = false;
+        for (int i = 1; i <= numeroHashes; i++) {
+            long indice = Math.floorMod(h1 + (long) i * h2, numeroBits);
+            int palabra = (int) (indice >>> 6);
+            long mascara = 1L << indice;
+            long actual = bits.get(palabra);
+            while ((actual & mascara) == 0) {
+                if (bits.compareAndSet(palabra, actual, actual | mascara)) {
+                    nuevo = true;
+                    break;
+                }
+                actual = bits.get(palabra);
+            }
+        }
+        if (nuevo) {
+            elementos.incrementAndGet();
+        }
+        return nuevo;
+    }
+
+    public boolean podriaContener(String valor) {
+        long hash = hash64(valor);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numeroHashes; i++) {
+            long indice = Math.floorMod(h1 + (long) i * h2, numeroBits);
+            if ((bits.get((int) (indice >>> 6)) & (1L << indice)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Elementos distintos agregados. Un valor nuevo cuyos bits ya estaban todos encendidos (un falso positivo)
+     * no se cuenta, así que es una cota inferior. Al superar la capacidad la tasa de falsos positivos crece.
+     */
+    public long getElementos() {
+        return elementos.get();
+    }
+
+    public long getCapacidad() {
+        return capacidad;
+    }
+
+    public long getTamanoBytes() {
+        return numeroBits / 8;
+    }
+
+    /**
+     * FNV-1a de 64 bits sobre UTF-8 con el finalizador de MurmurHash3 para repartir bien ambas mitades
+     */
+    private static long hash64(String valor) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : valor.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
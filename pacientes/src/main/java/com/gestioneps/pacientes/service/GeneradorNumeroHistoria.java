@@ -0,0 +1,101 @@
+package com.gestioneps.pacientes.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Asignador de números de historia clínica (HC000001, HC000002, ...).
+ *
+ * Los números salen de la secuencia historias_clinicas_numero_seq, cuyo incremento es el tamaño de bloque:
+ * cada nextval reserva un bloque completo para esta instancia, que luego lo reparte en memoria. Varias réplicas
+ * nunca reciben el mismo número y la tabla historias_clinicas no se recorre salvo una vez, al crear la secuencia,
+ * para arrancarla después del mayor número existente. Los números no usados de un bloque se pierden al reiniciar,
+ * así que la numeración puede tener huecos pero no repetidos.
+ */
+@Component
+public class GeneradorNumeroHistoria {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeneradorNumeroHistoria.class);
+    private static final String SECUENCIA = "historias_clinicas_numero_seq";
+    private static final String PREFIJO = "HC";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaccionPropia;
+
+    @Value("${pacientes.historias.numero.tamano-bloque:50}")
+    private int tamanoBloque;
+
+    private long incremento;
+    private long siguiente;
+    private long finBloque = -1;
+
+    public GeneradorNumeroHistoria(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        // La creación de la secuencia no debe abortar la transacción de quien pide el número si falla
+        this.transaccionPropia = new TransactionTemplate(transactionManager);
+        this.transaccionPropia.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Siguiente número de historia con formato HC%06d
+     */
+    public String siguienteNumero() {
+        return String.format("%s%06d", PREFIJO, siguienteValor());
+    }
+
+    private synchronized long siguienteValor() {
+        if (siguiente > finBloque) {
+            reservarBloque();
+        }
+        return siguiente++;
+    }
+
+    private void reservarBloque() {
+        if (incremento == 0) {
+            incremento = prepararSecuencia();
+        }
+        Long inicio = jdbcTemplate.queryForObject("SELECT nextval('" + SECUENCIA + "')", Long.class);
+        if (inicio == null) {
+            throw new IllegalStateException("La secuencia " + SECUENCIA + " no devolvió valor");
+        }
+        siguiente = inicio;
+        finBloque = inicio + incremento - 1;
+    }
+
+    /**
+     * Crear la secuencia si no existe y devolver su incremento real, que manda sobre la configuración
+     * cuando la secuencia ya fue creada por otra instancia
+     */
+    private long prepararSecuencia() {
+        Boolean existe = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, SECUENCIA);
+        if (!Boolean.TRUE.equals(existe)) {
+            try {
+                transaccionPropia.executeWithoutResult(status -> crearSecuencia());
+            } catch (DataAccessException e) {
+                // Otra réplica la creó al mismo tiempo; se usa la suya
+                LOGGER.debug("Secuencia {} creada por otra instancia: {}", SECUENCIA, e.getMessage());
+            }
+        }
+        Long incrementoReal = jdbcTemplate.queryForObject(
+            "SELECT increment_by FROM pg_sequences WHERE sequencename = ?", Long.class, SECUENCIA);
+        return incrementoReal == null || incrementoReal < 1 ? 1 : incrementoReal;
+    }
+
+    private void crearSecuencia() {
+        // Única lectura de historias_clinicas: arrancar después del mayor número ya asignado
+        Long inicio = jdbcTemplate.queryForObject(
+            "SELECT COALESCE(MAX(CAST(SUBSTRING(numero_historia, 3) AS bigint)), 0) + 1 " +
+            "FROM historias_clinicas WHERE numero_historia ~ '^HC[0-9]+$'", Long.class);
+        int bloque = Math.max(1, tamanoBloque);
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + SECUENCIA +
+            " START WITH " + inicio + " INCREMENT BY " + bloque);
+        LOGGER.info("Secuencia {} creada desde {} con bloques de {}", SECUENCIA, inicio, bloque);
+    }
+}
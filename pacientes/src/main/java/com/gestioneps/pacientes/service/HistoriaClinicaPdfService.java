@@ -0,0 +1,307 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gestioneps.pacientes.entity.ConsultaMedica;
+import com.gestioneps.pacientes.entity.HistoriaClinica;
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Cell;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.layout.element.Table;
+import com.itextpdf.layout.properties.UnitValue;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Generación de la historia clínica completa en PDF con iText.
+ *
+ * Los PDF se generan en un pool acotado de hilos y se guardan en disco con un nombre derivado (SHA-256) del id de
+ * la historia, su fecha de actualización y los datos del paciente copiados en ella; como registrar o eliminar una
+ * consulta actualiza la historia, una descarga repetida sin cambios se sirve desde el archivo sin volver a generar.
+ * Las consultas se recorren con un cursor del servidor y las páginas se escriben a medida que se completan, así
+ * que la memoria no crece con el tamaño de la historia. Solicitudes simultáneas de la misma versión comparten
+ * la misma generación.
+ */
+@Service
+public class HistoriaClinicaPdfService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoriaClinicaPdfService.class);
+
+    // Subir cuando cambie el diseño del PDF para invalidar los archivos ya generados
+    private static final String VERSION_PLANTILLA = "1";
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final int PROFUNDIDAD_MAXIMA = 8;
+
+    // Los programas de fuente se leen una vez; cada documento crea su PdfFont a partir de ellos
+    private static final FontProgram FUENTE_NORMAL = cargarFuente(StandardFonts.HELVETICA);
+    private static final FontProgram FUENTE_NEGRITA = cargarFuente(StandardFonts.HELVETICA_BOLD);
+
+    private final HistoriaClinicaRepository historiaClinicaRepository;
+    private final ConsultaMedicaRepository consultaMedicaRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate lectura;
+    private final ThreadPoolExecutor generadores;
+    private final Path directorio;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, CompletableFuture<PdfHistoria>> enCurso = new ConcurrentHashMap<>();
+
+    public HistoriaClinicaPdfService(HistoriaClinicaRepository historiaClinicaRepository,
+                                     ConsultaMedicaRepository consultaMedicaRepository,
+                                     EntityManager entityManager,
+                                     PlatformTransactionManager transactionManager,
+                                     @Value("${pacientes.pdf.hilos:2}") int hilos,
+                                     @Value("${pacientes.pdf.cola:50}") int cola,
+                                     @Value("${pacientes.pdf.directorio:${java.io.tmpdir}/pacientes-pdf}") String directorio) {
+        this.historiaClinicaRepository = historiaClinicaRepository;
+        this.consultaMedicaRepository = consultaMedicaRepository;
+        this.entityManager = entityManager;
+        this.lectura = new TransactionTemplate(transactionManager);
+        this.lectura.setReadOnly(true);
+        this.directorio = Paths.get(directorio);
+        AtomicInteger numeroHilo = new AtomicInteger();
+        int tamanoPool = Math.max(1, hilos);
+        this.generadores = new ThreadPoolExecutor(tamanoPool, tamanoPool, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, cola)), tarea -> {
+                Thread hilo = new Thread(tarea, "pdf-historias-" + numeroHilo.incrementAndGet());
+                hilo.setDaemon(true);
+                return hilo;
+            });
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        generadores.shutdown();
+    }
+
+    /**
+     * PDF de la historia: inmediato si la versión actual ya está generada, si no se genera en el pool.
+     * Lanza IllegalArgumentException si la historia no existe e IllegalStateException si la cola está llena.
+     */
+    public CompletableFuture<PdfHistoria> obtenerPdf(Long historiaId) {
+        Version version = lectura.execute(status -> historiaClinicaRepository.findById(historiaId)
+            .map(this::version)
+            .orElseThrow(() -> new IllegalArgumentException("Historia clínica no encontrada con ID: " + historiaId)));
+        Path archivo = directorio.resolve(String.valueOf(historiaId)).resolve(version.clave + ".pdf");
+        PdfHistoria pdf = new PdfHistoria(archivo, version.clave, version.numeroHistoria + ".pdf");
+        if (Files.isRegularFile(archivo)) {
+            return CompletableFuture.completedFuture(pdf);
+        }
+
+        CompletableFuture<PdfHistoria> nuevo = new CompletableFuture<>();
+        CompletableFuture<PdfHistoria> existente = enCurso.putIfAbsent(version.clave, nuevo);
+        if (existente != null) {
+            return existente;
+        }
+        try {
+            generadores.execute(() -> {
+                try {
+                    generarArchivo(historiaId, archivo);
+                    nuevo.complete(pdf);
+                } catch (RuntimeException | IOException e) {
+                    LOGGER.error("Error generando el PDF de la historia {}: {}", historiaId, e.getMessage(), e);
+                    nuevo.completeExceptionally(e);
+                } finally {
+                    enCurso.remove(version.clave, nuevo);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            enCurso.remove(version.clave, nuevo);
+            throw new IllegalStateException("Hay demasiados PDF en generación; intente de nuevo en unos segundos");
+        }
+        return nuevo;
+    }
+
+    private Version version(HistoriaClinica historia) {
+        String origen = VERSION_PLANTILLA + "|" + historia.getId() + "|" + historia.getFechaActualizacion()
+            + "|" + historia.getPacienteNombre() + "|" + historia.getPacienteDocumento();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(origen.getBytes(StandardCharsets.UTF_8));
+            return new Version(HexFormat.of().formatHex(hash), historia.getNumeroHistoria());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Generar en un temporal del mismo directorio y moverlo de forma atómica; luego borrar versiones anteriores
+     */
+    private void generarArchivo(Long historiaId, Path archivo) throws IOException {
+        Path carpeta = archivo.getParent();
+        Files.createDirectories(carpeta);
+        Path temporal = Files.createTempFile(carpeta, "generando-", ".tmp");
+        try {
+            try (OutputStream salida = new BufferedOutputStream(Files.newOutputStream(temporal), 64 * 1024)) {
+                lectura.executeWithoutResult(status -> escribir(historiaId, salida));
+            }
+            Files.move(temporal, archivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+        try (DirectoryStream<Path> anteriores = Files.newDirectoryStream(carpeta, "*.pdf")) {
+            for (Path anterior : anteriores) {
+                if (!anterior.equals(archivo)) {
+                    Files.deleteIfExists(anterior);
+                }
+            }
+        }
+    }
+
+    private void escribir(Long historiaId, OutputStream salida) {
+        HistoriaClinica historia = historiaClinicaRepository.findById(historiaId)
+            .orElseThrow(() -> new IllegalArgumentException("Historia clínica no encontrada con ID: " + historiaId));
+        PdfDocument pdf = new PdfDocument(new PdfWriter(salida));
+        pdf.setCloseWriter(false);
+        try (Document documento = new Document(pdf, PageSize.A4)) {
+            PdfFont normal = PdfFontFactory.createFont(FUENTE_NORMAL, PdfEncodings.WINANSI);
+            PdfFont negrita = PdfFontFactory.createFont(FUENTE_NEGRITA, PdfEncodings.WINANSI);
+            documento.setFont(normal).setFontSize(9);
+
+            documento.add(new Paragraph("Historia clínica " + historia.getNumeroHistoria()).setFont(negrita).setFontSize(14));
+            // Historias aún sin backfill de los datos del paciente los toman del paciente
+            boolean conCopia = historia.getPacienteNombre() != null;
+            documento.add(new Paragraph("Paciente: "
+                + texto(conCopia ? historia.getPacienteNombre() : historia.getPaciente().getNombreCompleto())
+                + "    Documento: "
+                + texto(conCopia ? historia.getPacienteDocumento() : historia.getPaciente().getNumeroDocumento())));
+            documento.add(new Paragraph("Apertura: " + historia.getFechaApertura().format(FORMATO_FECHA)
+                + "    Estado: " + (Boolean.TRUE.equals(historia.getActiva()) ? "Activa" : "Inactiva")));
+            agregarDatos(documento, historia.getDatosJson(), negrita);
+
+            int numero = 0;
+            try (Stream<ConsultaMedica> consultas = consultaMedicaRepository.streamPorHistoria(historiaId)) {
+                Iterator<ConsultaMedica> iterador = consultas.iterator();
+                while (iterador.hasNext()) {
+                    ConsultaMedica consulta = iterador.next();
+                    documento.add(new Paragraph("Consulta " + (++numero) + " - " + consulta.getFechaCreacion().format(FORMATO_FECHA))
+                        .setFont(negrita).setFontSize(11).setMarginTop(12));
+                    agregarDatos(documento, consulta.getDatosJson(), negrita);
+                    entityManager.detach(consulta);
+                }
+            }
+            if (numero == 0) {
+                documento.add(new Paragraph("Sin consultas registradas").setMarginTop(12));
+            }
+        }
+    }
+
+    /**
+     * Tabla de dos columnas (campo, valor) con las hojas del JSON, incluido el JSON anidado como cadena
+     */
+    private void agregarDatos(Document documento, String datosJson, PdfFont negrita) {
+        Table tabla = new Table(UnitValue.createPercentArray(new float[]{35, 65})).useAllAvailableWidth();
+        JsonNode raiz = leer(datosJson);
+        if (raiz == null) {
+            if (datosJson != null && !datosJson.isBlank()) {
+                documento.add(new Paragraph(datosJson));
+            }
+            return;
+        }
+        agregarFilas(tabla, "", raiz, negrita, 0);
+        if (tabla.getNumberOfRows() > 0) {
+            documento.add(tabla);
+        }
+    }
+
+    private void agregarFilas(Table tabla, String ruta, JsonNode nodo, PdfFont negrita, int profundidad) {
+        if (profundidad > PROFUNDIDAD_MAXIMA || nodo == null || nodo.isNull()) {
+            return;
+        }
+        if (nodo.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> campos = nodo.fields();
+            while (campos.hasNext()) {
+                Map.Entry<String, JsonNode> campo = campos.next();
+                agregarFilas(tabla, ruta.isEmpty() ? campo.getKey() : ruta + "." + campo.getKey(),
+                    campo.getValue(), negrita, profundidad + 1);
+            }
+        } else if (nodo.isArray()) {
+            int indice = 0;
+            for (JsonNode elemento : nodo) {
+                agregarFilas(tabla, ruta + "[" + (++indice) + "]", elemento, negrita, profundidad + 1);
+            }
+        } else {
+            String valor = nodo.asText();
+            JsonNode anidado = valor.trim().startsWith("{") || valor.trim().startsWith("[") ? leer(valor) : null;
+            if (anidado != null) {
+                agregarFilas(tabla, ruta, anidado, negrita, profundidad + 1);
+            } else if (!valor.isBlank()) {
+                tabla.addCell(new Cell().add(new Paragraph(ruta).setFont(negrita)));
+                tabla.addCell(new Cell().add(new Paragraph(valor)));
+            }
+        }
+    }
+
+    private JsonNode leer(String json) {
+        if (json == null || json.isBlank()) {
+            return null;
+        }
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private static String texto(String valor) {
+        return valor == null ? "" : valor;
+    }
+
+    private static FontProgram cargarFuente(String nombre) {
+        try {
+            return FontProgramFactory.createFont(nombre);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo cargar la fuente " + nombre, e);
+        }
+    }
+
+    private record Version(String clave, String numeroHistoria) {
+    }
+
+    /**
+     * PDF generado: archivo en disco, clave de contenido (sirve como ETag) y nombre sugerido para la descarga
+     */
+    public record PdfHistoria(Path archivo, String clave, String nombreArchivo) {
+    }
+}
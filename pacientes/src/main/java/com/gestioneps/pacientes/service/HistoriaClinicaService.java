@@ -1,19 +1,22 @@
 package com.gestioneps.pacientes.service;
 
 import com.gestioneps.pacientes.dto.HistoriaClinicaDTO;
+import com.gestioneps.pacientes.dto.PaginaCursor;
+import com.gestioneps.pacientes.entity.DiagnosticoIndexado;
 import com.gestioneps.pacientes.entity.HistoriaClinica;
 import com.gestioneps.pacientes.entity.Paciente;
 import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
 import com.gestioneps.pacientes.repository.PacienteRepository;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.Objects;
 
 @Service
 @Transactional
@@ -21,11 +24,17 @@ public class HistoriaClinicaService {
 
     private final HistoriaClinicaRepository historiaClinicaRepository;
     private final PacienteRepository pacienteRepository;
+    private final DiagnosticoIndiceService diagnosticoIndiceService;
+    private final GeneradorNumeroHistoria generadorNumeroHistoria;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public HistoriaClinicaService(HistoriaClinicaRepository historiaClinicaRepository, PacienteRepository pacienteRepository) {
+    public HistoriaClinicaService(HistoriaClinicaRepository historiaClinicaRepository, PacienteRepository pacienteRepository,
+                                  DiagnosticoIndiceService diagnosticoIndiceService,
+                                  GeneradorNumeroHistoria generadorNumeroHistoria) {
         this.historiaClinicaRepository = historiaClinicaRepository;
         this.pacienteRepository = pacienteRepository;
+        this.diagnosticoIndiceService = diagnosticoIndiceService;
+        this.generadorNumeroHistoria = generadorNumeroHistoria;
     }
 
     // Constantes para mensajes de error
@@ -44,8 +53,8 @@ public class HistoriaClinicaService {
             throw new IllegalArgumentException("El paciente ya tiene una historia clínica asignada");
         }
 
-        // Generar número consecutivo
-        String numeroHistoria = generarNumeroHistoria();
+        // Número consecutivo tomado del bloque reservado por esta instancia
+        String numeroHistoria = generadorNumeroHistoria.siguienteNumero();
 
         HistoriaClinica historia = new HistoriaClinica();
         historia.setNumeroHistoria(numeroHistoria);
@@ -53,8 +62,13 @@ public class HistoriaClinicaService {
         historia.setFechaApertura(LocalDateTime.now());
         historia.setDatosJson(jsonData); // El jsonData ya viene como string completo
         historia.setActiva(true);
+        historia.setNumeroConsultas(0L);
+        historia.setPacienteNombre(paciente.getNombreCompleto());
+        historia.setPacienteDocumento(paciente.getNumeroDocumento());
+        historia.setVersionDiagnosticos(DiagnosticoIndexado.VERSION_EXTRACCION);
 
         HistoriaClinica historiaGuardada = historiaClinicaRepository.save(historia);
+        diagnosticoIndiceService.indexarHistoria(historiaGuardada.getId(), jsonData);
         return convertirEntidadADTO(historiaGuardada);
     }
 
@@ -99,25 +113,8 @@ public class HistoriaClinicaService {
      */
     @Transactional(readOnly = true)
     public Page<HistoriaClinicaDTO> buscarPorDiagnostico(String diagnostico, Pageable pageable) {
-        // Buscar en el campo datos_json
-        List<HistoriaClinica> historias = historiaClinicaRepository.findAll().stream()
-            .filter(h -> h.getDatosJson() != null && h.getDatosJson().contains(diagnostico))
-            .toList();
-
-        // Aplicar paginación manualmente
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), historias.size());
-
-        if (start > historias.size()) {
-            return Page.empty();
-        }
-
-        List<HistoriaClinica> pageContent = historias.subList(start, end);
-        return new PageImpl<>(
-            pageContent.stream().map(this::convertirEntidadADTO).toList(),
-            pageable,
-            historias.size()
-        );
+        // Código CIE-10 (prefijo) o texto del diagnóstico, resuelto sobre diagnosticos_indexados
+        return diagnosticoIndiceService.buscarHistorias(diagnostico, pageable).map(this::convertirEntidadADTO);
     }
 
     /**
@@ -129,28 +126,25 @@ public class HistoriaClinicaService {
         return historias.map(this::convertirEntidadADTO);
     }
 
+    /**
+     * Obtener historias clínicas activas por cursor (keyset), sin consulta de conteo
+     */
+    @Transactional(readOnly = true)
+    public PaginaCursor<HistoriaClinicaDTO> obtenerHistoriasActivasPorCursor(String cursor, int tamano) {
+        Long desdeId = PaginaCursor.decodificar(cursor);
+        return PaginaCursor.desde(
+            historiaClinicaRepository.findByActivaTrueAndIdLessThanOrderByIdDesc(desdeId, PageRequest.of(0, tamano)),
+            HistoriaClinica::getId,
+            historias -> historias.stream().map(this::convertirEntidadADTO).toList());
+    }
+
     /**
      * Obtener historias clínicas por rango de fechas
      */
     @Transactional(readOnly = true)
     public Page<HistoriaClinicaDTO> obtenerHistoriasPorFechas(LocalDateTime fechaInicio, LocalDateTime fechaFin, Pageable pageable) {
-        // Obtener todas las historias en el rango de fechas
-        List<HistoriaClinica> historias = historiaClinicaRepository.findByFechaAperturaBetweenAndActivaTrue(fechaInicio, fechaFin);
-
-        // Aplicar paginación manualmente
-        int start = (int) pageable.getOffset();
-        int end = Math.min((start + pageable.getPageSize()), historias.size());
-
-        if (start > historias.size()) {
-            return Page.empty();
-        }
-
-        List<HistoriaClinica> pageContent = historias.subList(start, end);
-        return new PageImpl<>(
-            pageContent.stream().map(this::convertirEntidadADTO).toList(),
-            pageable,
-            historias.size()
-        );
+        return historiaClinicaRepository.findByFechaAperturaBetweenAndActivaTrue(fechaInicio, fechaFin, pageable)
+            .map(this::convertirEntidadADTO);
     }
 
     /**
@@ -175,16 +169,25 @@ public class HistoriaClinicaService {
     }
 
     /**
-     * Generar número consecutivo para historia clínica
+     * Mantener nombre y documento del paciente copiados en sus historias, dentro de la misma transacción
      */
-    private String generarNumeroHistoria() {
-        // Usamos el método del repositorio que genera el siguiente número de historia
-        Long siguienteNumero = historiaClinicaRepository.generarSiguienteNumeroHistoria();
-        return String.format("HC%06d", siguienteNumero);
+    @EventListener
+    public void alModificarPaciente(PacienteModificadoEvent evento) {
+        PacienteModificadoEvent.Estado anterior = evento.getAnterior();
+        PacienteModificadoEvent.Estado actual = evento.getActual();
+        if (anterior == null || actual == null) {
+            // Un paciente recién creado aún no tiene historias
+            return;
+        }
+        if (!Objects.equals(anterior.getNombreCompleto(), actual.getNombreCompleto())
+            || !Objects.equals(anterior.getNumeroDocumento(), actual.getNumeroDocumento())) {
+            historiaClinicaRepository.actualizarDatosPaciente(
+                evento.getPacienteId(), actual.getNombreCompleto(), actual.getNumeroDocumento());
+        }
     }
 
     /**
-     * Convertir entidad a DTO
+     * Convertir entidad a DTO usando las columnas de resumen, sin inicializar consultas ni paciente
      */
     private HistoriaClinicaDTO convertirEntidadADTO(HistoriaClinica historia) {
         HistoriaClinicaDTO dto = new HistoriaClinicaDTO();
@@ -192,27 +195,37 @@ public class HistoriaClinicaService {
         dto.setId(historia.getId());
         dto.setNumeroHistoria(historia.getNumeroHistoria());
         dto.setPacienteId(historia.getPaciente().getId());
-        dto.setPacienteNombre(historia.getPaciente().getNombreCompleto());
-        dto.setPacienteDocumento(historia.getPaciente().getNumeroDocumento());
+        if (historia.getPacienteNombre() != null) {
+            dto.setPacienteNombre(historia.getPacienteNombre());
+            dto.setPacienteDocumento(historia.getPacienteDocumento());
+        } else {
+            // Historia aún sin backfill de los datos del paciente
+            dto.setPacienteNombre(historia.getPaciente().getNombreCompleto());
+            dto.setPacienteDocumento(historia.getPaciente().getNumeroDocumento());
+        }
         dto.setFechaApertura(historia.getFechaApertura().toString());
         dto.setActiva(historia.getActiva());
         dto.setFechaCreacion(historia.getFechaCreacion().toLocalDate().toString());
         dto.setFechaActualizacion(historia.getFechaActualizacion().toLocalDate().toString());
-        dto.setNumeroConsultas((long) historia.getConsultas().size());
         dto.setNumeroDocumentos(0L);
 
         // Asignar JSON crudo sin procesar (como pacientes)
         dto.setDatosJson(historia.getDatosJson());
 
-        // Set ultimaConsulta to the latest consultation date if exists
-        if (!historia.getConsultas().isEmpty()) {
-            LocalDateTime ultima = historia.getConsultas().stream()
+        LocalDateTime ultima;
+        if (historia.getNumeroConsultas() != null) {
+            dto.setNumeroConsultas(historia.getNumeroConsultas());
+            ultima = historia.getUltimaConsulta();
+        } else {
+            // Historia aún sin backfill del resumen de consultas
+            dto.setNumeroConsultas((long) historia.getConsultas().size());
+            ultima = historia.getConsultas().stream()
                 .map(c -> c.getFechaCreacion())
                 .max(LocalDateTime::compareTo)
                 .orElse(null);
-            if (ultima != null) {
-                dto.setUltimaConsulta(ultima.toLocalDate().toString());
-            }
+        }
+        if (ultima != null) {
+            dto.setUltimaConsulta(ultima.toLocalDate().toString());
         }
 
         return dto;
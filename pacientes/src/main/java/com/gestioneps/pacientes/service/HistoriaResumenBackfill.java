@@ -0,0 +1,51 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Backfill en línea del resumen de consultas (numero_consultas, ultima_consulta) y de los datos del paciente
+ * copiados en historias_clinicas, para historias creadas antes de existir esas columnas.
+ *
+ * Recorre con {@link BackfillPorLotes} las historias con numero_consultas nulo y calcula cada lote con un solo
+ * UPDATE, condicionado a que siga nulo. Las historias de pacientes cuyas columnas de búsqueda siguen pendientes se
+ * saltan y se resumen en el siguiente arranque; si entre tanto ya se resumieron (al registrar una consulta),
+ * {@link PacienteCamposBusquedaBackfill} completa su nombre.
+ */
+@Service
+public class HistoriaResumenBackfill {
+
+    private final HistoriaClinicaRepository historiaClinicaRepository;
+    private final BackfillPorLotes backfill;
+
+    public HistoriaResumenBackfill(HistoriaClinicaRepository historiaClinicaRepository, BackfillPorLotes backfill) {
+        this.historiaClinicaRepository = historiaClinicaRepository;
+        this.backfill = backfill;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void iniciarAlArrancar() {
+        backfill.iniciar("backfill-resumen-historias", this::ejecutar);
+    }
+
+    /**
+     * Procesar todos los lotes pendientes. Devuelve el número de lotes procesados.
+     */
+    public long ejecutar() {
+        return backfill.recorrer("del resumen de historias", this::procesarLote);
+    }
+
+    private Long procesarLote(long ultimoId) {
+        List<Long> ids = historiaClinicaRepository.findLotePendienteResumen(ultimoId, backfill.lote());
+        if (ids.isEmpty()) {
+            return null;
+        }
+        historiaClinicaRepository.calcularResumen(ids, Paciente.VERSION_CAMPOS_BUSQUEDA);
+        return ids.get(ids.size() - 1);
+    }
+}
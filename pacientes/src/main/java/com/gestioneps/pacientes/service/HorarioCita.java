@@ -0,0 +1,86 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.gestioneps.pacientes.entity.CitaMedica;
+
+import java.time.LocalDateTime;
+
+/**
+ * Horario y médico de una cita, tomados del JSON al escribirla.
+ *
+ * El médico se identifica por el id de empleado (medicoId, "EMP:") o, si la cita no lo trae, por su nombre
+ * plegado ("NOM:"). La duración viene en minutos (duracion); sin ella se asume {@link #DURACION_POR_DEFECTO}.
+ */
+public record HorarioCita(LocalDateTime inicio, LocalDateTime fin, String medicoClave, String medicoNombre) {
+
+    static final int DURACION_POR_DEFECTO = 30;
+    private static final int DURACION_MAXIMA = 12 * 60;
+    private static final int LONGITUD_CLAVE = 120;
+
+    public static HorarioCita desdeJson(String datosJson) {
+        return desde(MedicoConsulta.leer(datosJson));
+    }
+
+    static HorarioCita desde(JsonNode raiz) {
+        if (raiz == null) {
+            return new HorarioCita(null, null, null, null);
+        }
+        LocalDateTime inicio = FechasJson.parsear(MedicoConsulta.primero(raiz, "fechaHoraCita"));
+        String nombre = MedicoConsulta.primero(raiz, "medicoAsignado", "medicoTratante");
+        String medicoClave = claveMedico(MedicoConsulta.primero(raiz, "medicoId"), nombre);
+        return new HorarioCita(inicio, inicio == null ? null : inicio.plusMinutes(duracion(raiz)), medicoClave, nombre);
+    }
+
+    /**
+     * Horario guardado en las columnas de la cita; si aún no se extrajo, el de su JSON
+     */
+    static HorarioCita de(CitaMedica cita) {
+        if (cita.getVersionCampos() == null) {
+            return desdeJson(cita.getDatosJson());
+        }
+        return new HorarioCita(cita.getFechaHoraCita(), cita.getFechaHoraFin(), cita.getMedicoClave(), cita.getMedicoNombre());
+    }
+
+    /**
+     * Clave de agenda del médico por id de empleado o, en su defecto, por nombre
+     */
+    public static String claveMedico(String medicoId, String nombre) {
+        String clave = null;
+        if (medicoId != null && !medicoId.isBlank()) {
+            clave = "EMP:" + medicoId.trim();
+        } else if (nombre != null && !nombre.isBlank()) {
+            clave = "NOM:" + MedicoConsulta.plegar(nombre);
+        }
+        return clave != null && clave.length() > LONGITUD_CLAVE ? clave.substring(0, LONGITUD_CLAVE) : clave;
+    }
+
+    /**
+     * Si la cita ocupa agenda: tiene médico y fecha
+     */
+    public boolean ocupaAgenda() {
+        return medicoClave != null && inicio != null && fin != null;
+    }
+
+    void aplicarA(CitaMedica cita) {
+        cita.setFechaHoraCita(inicio);
+        cita.setFechaHoraFin(fin);
+        cita.setMedicoClave(medicoClave);
+        cita.setMedicoNombre(medicoNombre);
+        cita.setVersionCampos(CitaMedica.VERSION_CAMPOS);
+    }
+
+    private static int duracion(JsonNode raiz) {
+        String valor = MedicoConsulta.primero(raiz, "duracion");
+        if (valor != null) {
+            try {
+                int minutos = Integer.parseInt(valor);
+                if (minutos > 0) {
+                    return Math.min(minutos, DURACION_MAXIMA);
+                }
+            } catch (NumberFormatException e) {
+                // Duración por defecto
+            }
+        }
+        return DURACION_POR_DEFECTO;
+    }
+}
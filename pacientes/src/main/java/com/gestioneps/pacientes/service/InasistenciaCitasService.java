@@ -0,0 +1,163 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Barrido periódico de citas vencidas: las citas que siguen PROGRAMADO cuando ya pasó su horario (más un margen)
+ * pasan a NO_SE_PRESENTO, se desactivan y suman una inasistencia al contador del paciente.
+ *
+ * Recorre por keyset sobre el id en lotes acotados, cada uno en su propia transacción. Cada lote toma un bloqueo
+ * consultivo sin esperar (si otra instancia está barriendo, esta se retira hasta el siguiente ciclo) y además
+ * salta las citas bloqueadas, así que un cambio de estado manual en curso nunca se pisa. Las franjas de agenda de
+ * estas citas ya pasaron y no se liberan.
+ *
+ * Si un lote falla se repite cita por cita: la que sigue fallando se registra y se salta, de modo que una fila
+ * problemática no detiene el barrido de las siguientes en cada ciclo.
+ */
+@Service
+public class InasistenciaCitasService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InasistenciaCitasService.class);
+
+    static final String NO_SE_PRESENTO = "NO_SE_PRESENTO";
+
+    // Clave del bloqueo consultivo del barrido, compartida por todas las instancias
+    private static final long CLAVE_BLOQUEO = 0x494E41534953L;
+
+    private final CitaMedicaRepository citaMedicaRepository;
+    private final PacienteRepository pacienteRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${pacientes.inasistencias.habilitado:true}")
+    private boolean habilitado;
+
+    @Value("${pacientes.inasistencias.margen-minutos:60}")
+    private int margenMinutos;
+
+    @Value("${pacientes.inasistencias.tamano-lote:200}")
+    private int tamanoLote;
+
+    public InasistenciaCitasService(CitaMedicaRepository citaMedicaRepository,
+                                    PacienteRepository pacienteRepository,
+                                    PlatformTransactionManager transactionManager) {
+        this.citaMedicaRepository = citaMedicaRepository;
+        this.pacienteRepository = pacienteRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${pacientes.inasistencias.intervalo-ms:600000}",
+               initialDelayString = "${pacientes.inasistencias.intervalo-ms:600000}")
+    public void programar() {
+        if (!habilitado) {
+            return;
+        }
+        try {
+            int marcadas = barrer();
+            if (marcadas > 0) {
+                LOGGER.info("Citas vencidas marcadas como {}: {}", NO_SE_PRESENTO, marcadas);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Error en el barrido de citas vencidas: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Marcar por lotes las citas vencidas. Devuelve el número de citas marcadas por esta instancia.
+     */
+    public int barrer() {
+        LocalDateTime ahora = LocalDateTime.now();
+        LocalDateTime limite = ahora.minusMinutes(margenMinutos);
+        long ultimoId = 0L;
+        int marcadas = 0;
+        while (true) {
+            final long desdeId = ultimoId;
+            List<Object[]> lote;
+            try {
+                lote = transactionTemplate.execute(status -> marcarLote(limite, desdeId, tamanoLote, ahora));
+            } catch (RuntimeException e) {
+                LOGGER.warn("Lote de citas vencidas tras el id {} fallido, se repite cita por cita: {}",
+                    desdeId, e.getMessage());
+                List<Long> ids = citaMedicaRepository.findIdsVencidas(limite, desdeId, PageRequest.of(0, tamanoLote));
+                if (ids.isEmpty()) {
+                    return marcadas;
+                }
+                marcadas += marcarUnaPorUna(ids, limite, ahora);
+                ultimoId = ids.get(ids.size() - 1);
+                continue;
+            }
+            if (lote == null) {
+                LOGGER.debug("Barrido de citas vencidas en curso en otra instancia");
+                return marcadas;
+            }
+            if (lote.isEmpty()) {
+                return marcadas;
+            }
+            for (Object[] fila : lote) {
+                ultimoId = Math.max(ultimoId, ((Number) fila[0]).longValue());
+            }
+            marcadas += lote.size();
+        }
+    }
+
+    /**
+     * Marcar cada cita en su propia transacción, saltando las que fallan. Devuelve el número de citas marcadas.
+     */
+    private int marcarUnaPorUna(List<Long> ids, LocalDateTime limite, LocalDateTime ahora) {
+        int marcadas = 0;
+        for (Long id : ids) {
+            try {
+                // Lote de una cita a partir de la anterior: toma esta si sigue vencida
+                List<Object[]> filas = transactionTemplate.execute(status -> marcarLote(limite, id - 1, 1, ahora));
+                if (filas == null) {
+                    return marcadas;
+                }
+                marcadas += filas.size();
+            } catch (RuntimeException e) {
+                LOGGER.error("No se pudo marcar la cita vencida {} como {}: {}", id, NO_SE_PRESENTO, e.getMessage(), e);
+            }
+        }
+        return marcadas;
+    }
+
+    /**
+     * Un lote en la transacción actual: null si otra instancia tiene el bloqueo del barrido
+     */
+    private List<Object[]> marcarLote(LocalDateTime limite, long desdeId, int tamano, LocalDateTime ahora) {
+        if (!Boolean.TRUE.equals(citaMedicaRepository.intentarBloqueo(CLAVE_BLOQUEO))) {
+            return null;
+        }
+        List<Object[]> filas = citaMedicaRepository.marcarInasistencias(NO_SE_PRESENTO, limite, desdeId, tamano, ahora);
+        // En orden de paciente para no cruzar bloqueos con cambios de estado concurrentes
+        Map<Long, Integer> porPaciente = new TreeMap<>();
+        Map<Long, LocalDateTime> ultima = new HashMap<>();
+        for (Object[] fila : filas) {
+            Long pacienteId = ((Number) fila[1]).longValue();
+            LocalDateTime fecha = aFecha(fila[2]);
+            porPaciente.merge(pacienteId, 1, Integer::sum);
+            ultima.merge(pacienteId, fecha, (a, b) -> a.isAfter(b) ? a : b);
+        }
+        porPaciente.forEach((pacienteId, cantidad) ->
+            pacienteRepository.sumarInasistencias(pacienteId, cantidad, ultima.get(pacienteId)));
+        return filas;
+    }
+
+    private static LocalDateTime aFecha(Object valor) {
+        return valor instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) valor;
+    }
+}
@@ -0,0 +1,113 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Médico y especialidad de una consulta, tomados del JSON al escribirla.
+ *
+ * La clave estable del médico es, en orden, su cédula (firmaDigital.numeroCedula, "DOC:"), su registro médico
+ * (informacionMedico.registroMedico, "RM:") o su nombre plegado ("NOM:") cuando la consulta no trae
+ * identificación. Nombre y especialidad se guardan también plegados para búsquedas por subcadena.
+ */
+public record MedicoConsulta(String clave, String nombre, String especialidad) {
+
+    static final MedicoConsulta VACIO = new MedicoConsulta(null, null, null);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int LONGITUD_CLAVE = 120;
+
+    public static MedicoConsulta desdeJson(String datosJson) {
+        return desde(leer(datosJson));
+    }
+
+    static MedicoConsulta desde(JsonNode raiz) {
+        if (raiz == null) {
+            return VACIO;
+        }
+        String nombre = primero(raiz, "detalleConsulta/medicoTratante", "firmaDigital/nombreMedico",
+            "informacionMedico/medicoResponsable", "medicoTratante");
+        String documento = primero(raiz, "firmaDigital/numeroCedula", "informacionMedico/numeroCedula");
+        String registro = primero(raiz, "informacionMedico/registroMedico", "firmaDigital/registroMedico");
+        String especialidad = primero(raiz, "detalleConsulta/especialidad", "informacionMedico/especialidad",
+            "firmaDigital/especialidad", "especialidad");
+
+        String clave = null;
+        if (documento != null) {
+            clave = "DOC:" + normalizarIdentificacion(documento);
+        } else if (registro != null) {
+            clave = "RM:" + normalizarIdentificacion(registro);
+        } else if (nombre != null) {
+            clave = "NOM:" + plegar(nombre);
+        }
+        if (clave != null && clave.length() > LONGITUD_CLAVE) {
+            clave = clave.substring(0, LONGITUD_CLAVE);
+        }
+        return new MedicoConsulta(clave, nombre, especialidad);
+    }
+
+    /**
+     * Claves con las que puede estar guardado el médico indicado por documento, registro o nombre
+     */
+    public static Set<String> clavesPosibles(String medico) {
+        Set<String> claves = new LinkedHashSet<>();
+        if (medico == null || medico.isBlank()) {
+            return claves;
+        }
+        String identificacion = normalizarIdentificacion(medico);
+        claves.add(recortar("DOC:" + identificacion));
+        claves.add(recortar("RM:" + identificacion));
+        claves.add(recortar("NOM:" + plegar(medico)));
+        return claves;
+    }
+
+    public String nombreBusqueda() {
+        return nombre == null ? null : plegar(nombre);
+    }
+
+    public String especialidadBusqueda() {
+        return especialidad == null ? null : plegar(especialidad);
+    }
+
+    static String plegar(String texto) {
+        return PacienteIndiceBusqueda.plegar(texto.trim()).replaceAll("\\s+", " ");
+    }
+
+    private static String normalizarIdentificacion(String valor) {
+        return valor.replaceAll("[\\s.\\-]", "").toUpperCase(Locale.ROOT);
+    }
+
+    private static String recortar(String clave) {
+        return clave.length() > LONGITUD_CLAVE ? clave.substring(0, LONGITUD_CLAVE) : clave;
+    }
+
+    static String primero(JsonNode raiz, String... rutas) {
+        for (String ruta : rutas) {
+            JsonNode nodo = raiz.at("/" + ruta);
+            if (nodo.isValueNode() && !nodo.isNull()) {
+                String valor = nodo.asText().trim();
+                if (!valor.isEmpty() && !"N/A".equalsIgnoreCase(valor)) {
+                    return valor;
+                }
+            }
+        }
+        return null;
+    }
+
+    static JsonNode leer(String json) {
+        if (json == null || json.isBlank()) {
+            return null;
+        }
+        try {
+            JsonNode nodo = MAPPER.readTree(json);
+            return nodo != null && nodo.isObject() ? nodo : null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.DatosPaciente;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Backfill en línea de las columnas de búsqueda de pacientes (nombre_completo, fecha_nacimiento, eps, ciudad, email)
+ * para filas creadas antes de que existieran, por lotes con {@link BackfillPorLotes}. Quedan pendientes las filas
+ * con version_campos_busqueda nula o anterior a {@link Paciente#VERSION_CAMPOS_BUSQUEDA}.
+ *
+ * Cada lote completa además el nombre y documento copiados en las historias de sus pacientes, que
+ * {@link HistoriaResumenBackfill} pudo dejar vacíos si resumió la historia antes de este backfill.
+ */
+@Service
+public class PacienteCamposBusquedaBackfill {
+
+    private final PacienteRepository pacienteRepository;
+    private final HistoriaClinicaRepository historiaClinicaRepository;
+    private final BackfillPorLotes backfill;
+
+    public PacienteCamposBusquedaBackfill(PacienteRepository pacienteRepository,
+                                          HistoriaClinicaRepository historiaClinicaRepository,
+                                          BackfillPorLotes backfill) {
+        this.pacienteRepository = pacienteRepository;
+        this.historiaClinicaRepository = historiaClinicaRepository;
+        this.backfill = backfill;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void iniciarAlArrancar() {
+        backfill.iniciar("backfill-campos-busqueda", this::ejecutar);
+    }
+
+    /**
+     * Procesar todos los lotes pendientes. Devuelve el número de lotes procesados.
+     */
+    public long ejecutar() {
+        return backfill.recorrer("de campos de búsqueda", this::procesarLote);
+    }
+
+    /**
+     * Procesar un lote a partir de ultimoId. Devuelve el último id procesado o null si no quedan pendientes.
+     */
+    private Long procesarLote(long ultimoId) {
+        List<Object[]> lote = pacienteRepository.findLotePendienteCamposBusqueda(
+            ultimoId, Paciente.VERSION_CAMPOS_BUSQUEDA, backfill.lote());
+        if (lote.isEmpty()) {
+            return null;
+        }
+        Long id = backfill.escribirPendientes(lote, fila -> {
+            DatosPaciente datos = DatosPaciente.desdeJson((String) fila[1]);
+            String nombre = datos.getNombreCompleto();
+            return pacienteRepository.actualizarCamposBusqueda(
+                (Long) fila[0],
+                nombre.isEmpty() ? null : nombre,
+                datos.getFechaNacimiento(),
+                datos.getEps(),
+                datos.getCiudad(),
+                datos.getEmail(),
+                datos.getRegimen(),
+                Paciente.VERSION_CAMPOS_BUSQUEDA);
+        });
+        // También para los pacientes que la API guardó entre tanto: sus columnas ya están al día
+        historiaClinicaRepository.completarDatosPaciente(lote.stream().map(fila -> (Long) fila[0]).toList());
+        return id;
+    }
+}
@@ -0,0 +1,295 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Frente en memoria para las consultas por número de documento.
+ *
+ * Un filtro de Bloom sobre todos los documentos (activos e inactivos) descarta sin ir a la base de datos
+ * los documentos que no existen, que es el caso habitual al crear un paciente. Un LRU acotado
+ * documento→id resuelve la mayoría de búsquedas positivas. Ambos se precargan al arrancar, se
+ * mantienen con {@link PacienteModificadoEvent} y se reconstruyen periódicamente.
+ *
+ * El filtro solo ve al instante los documentos creados en esta instancia, así que su "no" se toma como
+ * definitivo únicamente al crear o cambiar el documento de un paciente, donde la restricción unique de
+ * numero_documento rechaza un duplicado creado en otra instancia. Las búsquedas confirman en la base de datos.
+ */
+@Component
+public class PacienteDocumentoCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PacienteDocumentoCache.class);
+    private static final String METRICA_CONSULTAS = "pacientes.documentos.consultas";
+
+    private final PacienteRepository pacienteRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int capacidadLru;
+    private final long capacidadEsperada;
+    private final double tasaFalsosPositivos;
+    private final int tamanoLote;
+
+    private final Map<String, Long> lru;
+    private volatile FiltroBloom filtro;
+    private final AtomicBoolean reconstruyendo = new AtomicBoolean();
+    private final Set<String> pendientesReconstruccion = new HashSet<>();
+
+    private final Counter negativosFiltro;
+    private final Counter aciertosCache;
+    private final Counter fallosCache;
+    private final Counter falsosPositivos;
+    private final Counter filtroDesactualizado;
+
+    public PacienteDocumentoCache(PacienteRepository pacienteRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${pacientes.documentos.cache.tamano:10000}") int capacidadLru,
+                                  @Value("${pacientes.documentos.filtro.capacidad:200000}") long capacidadEsperada,
+                                  @Value("${pacientes.documentos.filtro.tasa-falsos-positivos:0.01}") double tasaFalsosPositivos,
+                                  @Value("${pacientes.documentos.filtro.tamano-lote:5000}") int tamanoLote) {
+        this.pacienteRepository = pacienteRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.capacidadLru = capacidadLru;
+        this.capacidadEsperada = capacidadEsperada;
+        this.tasaFalsosPositivos = tasaFalsosPositivos;
+        this.tamanoLote = tamanoLote;
+        this.lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > PacienteDocumentoCache.this.capacidadLru;
+            }
+        };
+
+        this.negativosFiltro = contador(meterRegistry, "filtro_negativo", "Documentos descartados por el filtro sin consultar la base de datos");
+        this.aciertosCache = contador(meterRegistry, "cache_acierto", "Documentos resueltos desde el LRU documento→id");
+        this.fallosCache = contador(meterRegistry, "cache_fallo", "Documentos que requirieron consultar la base de datos");
+        this.falsosPositivos = contador(meterRegistry, "falso_positivo", "Documentos que el filtro aceptó pero no existen");
+        this.filtroDesactualizado = contador(meterRegistry, "filtro_desactualizado", "Documentos que el filtro descartó pero existen (creados en otra instancia)");
+        Gauge.builder("pacientes.documentos.filtro.memoria", this, c -> c.filtro != null ? c.filtro.getTamanoBytes() : 0)
+            .description("Tamaño del filtro de Bloom de documentos")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("pacientes.documentos.cache.tamano", this, PacienteDocumentoCache::tamanoLru)
+            .description("Entradas en el LRU documento→id")
+            .register(meterRegistry);
+    }
+
+    private static Counter contador(MeterRegistry registry, String resultado, String descripcion) {
+        return Counter.builder(METRICA_CONSULTAS)
+            .tag("resultado", resultado)
+            .description(descripcion)
+            .register(registry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void precargarAlArrancar() {
+        reconstruirEnSegundoPlano();
+    }
+
+    /**
+     * Incorporar los documentos creados en otras instancias
+     */
+    @Scheduled(fixedDelayString = "${pacientes.documentos.filtro.reconstruccion-ms:3600000}",
+               initialDelayString = "${pacientes.documentos.filtro.reconstruccion-ms:3600000}")
+    public void reconstruirPeriodicamente() {
+        reconstruirEnSegundoPlano();
+    }
+
+    /**
+     * Verificar, antes de crear o cambiar el documento de un paciente, si ya está tomado. Un "no" del filtro es
+     * definitivo aquí: si otra instancia acaba de crear el documento, la restricción unique rechaza la escritura.
+     */
+    public boolean existeParaAlta(String numeroDocumento) {
+        FiltroBloom actual = filtro;
+        if (actual != null && !actual.podriaContener(numeroDocumento)) {
+            negativosFiltro.increment();
+            return false;
+        }
+        if (obtenerDelLru(numeroDocumento) != null) {
+            aciertosCache.increment();
+            return true;
+        }
+        fallosCache.increment();
+        Optional<Long> id = pacienteRepository.findIdByNumeroDocumento(numeroDocumento);
+        id.ifPresentOrElse(valor -> guardarEnLru(numeroDocumento, valor), () -> registrarFalsoPositivo(actual));
+        return id.isPresent();
+    }
+
+    /**
+     * Verificar si existe un paciente (activo o no) con el documento
+     */
+    public boolean existe(String numeroDocumento) {
+        return buscarId(numeroDocumento).isPresent();
+    }
+
+    /**
+     * Resolver el id del paciente con el documento. Sin acierto en el LRU se consulta la base de datos aunque el
+     * filtro lo descarte, porque pudo crearse en otra instancia; en ese caso se agrega al filtro.
+     */
+    public Optional<Long> buscarId(String numeroDocumento) {
+        Long id = obtenerDelLru(numeroDocumento);
+        if (id != null) {
+            aciertosCache.increment();
+            return Optional.of(id);
+        }
+        FiltroBloom actual = filtro;
+        boolean descartado = actual != null && !actual.podriaContener(numeroDocumento);
+        fallosCache.increment();
+        Optional<Long> encontrado = pacienteRepository.findIdByNumeroDocumento(numeroDocumento);
+        if (encontrado.isPresent()) {
+            guardarEnLru(numeroDocumento, encontrado.get());
+            if (descartado) {
+                filtroDesactualizado.increment();
+                actual.agregar(numeroDocumento);
+            }
+        } else if (!descartado) {
+            registrarFalsoPositivo(actual);
+        }
+        return encontrado;
+    }
+
+    /**
+     * Olvidar una entrada del LRU que resultó no corresponder al paciente (p. ej. cambiada en otra instancia)
+     */
+    public void invalidar(String numeroDocumento) {
+        synchronized (lru) {
+            lru.remove(numeroDocumento);
+        }
+    }
+
+    /**
+     * El filtro se actualiza de inmediato, antes del commit: un bit de más solo produce un falso positivo,
+     * mientras que uno de menos permitiría aceptar un documento duplicado.
+     */
+    @EventListener
+    public void registrarDocumento(PacienteModificadoEvent evento) {
+        if (evento.getActual() == null) {
+            return;
+        }
+        String numeroDocumento = evento.getActual().getNumeroDocumento();
+        boolean saturado;
+        synchronized (this) {
+            if (reconstruyendo.get()) {
+                pendientesReconstruccion.add(numeroDocumento);
+            }
+            if (filtro == null) {
+                return;
+            }
+            filtro.agregar(numeroDocumento);
+            saturado = filtro.getElementos() > filtro.getCapacidad();
+        }
+        if (saturado) {
+            reconstruirEnSegundoPlano();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alModificarPaciente(PacienteModificadoEvent evento) {
+        if (evento.getAnterior() != null) {
+            invalidar(evento.getAnterior().getNumeroDocumento());
+        }
+        if (evento.getActual() != null) {
+            guardarEnLru(evento.getActual().getNumeroDocumento(), evento.getPacienteId());
+        }
+    }
+
+    /**
+     * Construir un filtro nuevo con todos los documentos y sustituir el actual. El LRU queda con los más recientes.
+     */
+    public void reconstruirEnSegundoPlano() {
+        synchronized (this) {
+            if (!reconstruyendo.compareAndSet(false, true)) {
+                return;
+            }
+            pendientesReconstruccion.clear();
+        }
+        Thread hilo = new Thread(() -> {
+            try {
+                reconstruir();
+            } finally {
+                synchronized (PacienteDocumentoCache.this) {
+                    reconstruyendo.set(false);
+                    pendientesReconstruccion.clear();
+                }
+            }
+        }, "filtro-documentos-pacientes");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    private void reconstruir() {
+        try {
+            long total = pacienteRepository.count();
+            FiltroBloom nuevo = new FiltroBloom(Math.max(capacidadEsperada, total * 2), tasaFalsosPositivos);
+            long ultimoId = 0L;
+            while (true) {
+                final long desde = ultimoId;
+                List<Object[]> lote = transactionTemplate.execute(status ->
+                    pacienteRepository.findLoteDocumentos(desde, PageRequest.of(0, tamanoLote)));
+                if (lote == null || lote.isEmpty()) {
+                    break;
+                }
+                for (Object[] fila : lote) {
+                    ultimoId = (Long) fila[0];
+                    nuevo.agregar((String) fila[1]);
+                    guardarEnLru((String) fila[1], ultimoId);
+                }
+            }
+            // Documentos registrados mientras se recorría la tabla que el recorrido pudo no ver
+            synchronized (this) {
+                pendientesReconstruccion.forEach(nuevo::agregar);
+                pendientesReconstruccion.clear();
+                filtro = nuevo;
+            }
+            LOGGER.info("Filtro de documentos de pacientes construido: {} documentos, {} bytes",
+                nuevo.getElementos(), nuevo.getTamanoBytes());
+        } catch (RuntimeException e) {
+            LOGGER.error("Error construyendo el filtro de documentos de pacientes: {}", e.getMessage(), e);
+        }
+    }
+
+    private void registrarFalsoPositivo(FiltroBloom actual) {
+        if (actual != null) {
+            falsosPositivos.increment();
+        }
+    }
+
+    private Long obtenerDelLru(String numeroDocumento) {
+        synchronized (lru) {
+            return lru.get(numeroDocumento);
+        }
+    }
+
+    private void guardarEnLru(String numeroDocumento, Long id) {
+        synchronized (lru) {
+            lru.put(numeroDocumento, id);
+        }
+    }
+
+    private double tamanoLru() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Estadísticas de pacientes mantenidas en memoria.
+ *
+ * Se siembran al arrancar con consultas agrupadas, se actualizan con cada {@link PacienteModificadoEvent}
+ * confirmado y se reconcilian periódicamente contra la base de datos, lo que además corrige el paso de
+ * pacientes de un grupo de edad al siguiente al cumplir años. Leerlas no consulta la base de datos.
+ * EPS, régimen y grupo de edad se cuentan solo sobre pacientes activos.
+ */
+@Component
+public class PacienteEstadisticas {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PacienteEstadisticas.class);
+    private static final String SIN_DATO = "SIN_DATO";
+
+    // Cursos de vida usados en salud pública: límite inferior de cada grupo, en años cumplidos
+    private static final int[] EDADES_INICIO = {0, 6, 12, 18, 29, 60};
+    private static final String[] GRUPOS_EDAD = {
+        "PRIMERA_INFANCIA", "INFANCIA", "ADOLESCENCIA", "JUVENTUD", "ADULTEZ", "VEJEZ"
+    };
+
+    private final PacienteRepository pacienteRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private long total;
+    private long activos;
+    private final Map<String, Long> porEps = new HashMap<>();
+    private final Map<String, Long> porRegimen = new HashMap<>();
+    private final Map<String, Long> porGrupoEdad = new HashMap<>();
+    private volatile boolean listo;
+    private LocalDateTime ultimaReconciliacion;
+
+    public PacienteEstadisticas(PacienteRepository pacienteRepository, PlatformTransactionManager transactionManager) {
+        this.pacienteRepository = pacienteRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    public boolean isListo() {
+        return listo;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void sembrarAlArrancar() {
+        reconciliar();
+    }
+
+    /**
+     * Recalcular todo desde la base de datos y reemplazar los contadores
+     */
+    @Scheduled(fixedDelayString = "${pacientes.estadisticas.reconciliacion-ms:900000}",
+               initialDelayString = "${pacientes.estadisticas.reconciliacion-ms:900000}")
+    public void reconciliar() {
+        try {
+            Instantanea instantanea = transactionTemplate.execute(status -> consultarBaseDeDatos());
+            if (instantanea == null) {
+                return;
+            }
+            synchronized (this) {
+                if (listo && (instantanea.total != total || instantanea.activos != activos)) {
+                    LOGGER.info("Reconciliación de estadísticas de pacientes: total {} -> {}, activos {} -> {}",
+                        total, instantanea.total, activos, instantanea.activos);
+                }
+                total = instantanea.total;
+                activos = instantanea.activos;
+                reemplazar(porEps, instantanea.porEps);
+                reemplazar(porRegimen, instantanea.porRegimen);
+                reemplazar(porGrupoEdad, instantanea.porGrupoEdad);
+                ultimaReconciliacion = LocalDateTime.now();
+                listo = true;
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Error reconciliando estadísticas de pacientes: {}", e.getMessage(), e);
+        }
+    }
+
+    private Instantanea consultarBaseDeDatos() {
+        Instantanea instantanea = new Instantanea();
+        instantanea.total = pacienteRepository.count();
+        instantanea.activos = pacienteRepository.countByActivoTrue();
+        for (Object[] fila : pacienteRepository.countPacientesByEps()) {
+            instantanea.porEps.merge(clave((String) fila[0]), ((Number) fila[1]).longValue(), Long::sum);
+        }
+        long conEps = instantanea.porEps.values().stream().mapToLong(Long::longValue).sum();
+        if (instantanea.activos > conEps) {
+            instantanea.porEps.put(SIN_DATO, instantanea.activos - conEps);
+        }
+        for (Object[] fila : pacienteRepository.countPacientesByRegimen()) {
+            instantanea.porRegimen.merge(clave((String) fila[0]), ((Number) fila[1]).longValue(), Long::sum);
+        }
+        for (Object[] fila : pacienteRepository.countPacientesByEdad()) {
+            int edad = ((Number) fila[0]).intValue();
+            instantanea.porGrupoEdad.merge(edad < 0 ? SIN_DATO : grupoPorEdad(edad), ((Number) fila[1]).longValue(), Long::sum);
+        }
+        return instantanea;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void alModificarPaciente(PacienteModificadoEvent evento) {
+        if (!listo) {
+            // Aún no hay contadores; la siembra o la siguiente reconciliación recogen este cambio
+            return;
+        }
+        PacienteModificadoEvent.Estado anterior = evento.getAnterior();
+        PacienteModificadoEvent.Estado actual = evento.getActual();
+        if (anterior == null) {
+            total++;
+        }
+        if (anterior != null && anterior.isActivo()) {
+            activos--;
+            aplicar(anterior, -1);
+        }
+        if (actual != null && actual.isActivo()) {
+            activos++;
+            aplicar(actual, 1);
+        }
+    }
+
+    private void aplicar(PacienteModificadoEvent.Estado estado, long delta) {
+        sumar(porEps, clave(estado.getEps()), delta);
+        sumar(porRegimen, clave(estado.getRegimen()), delta);
+        sumar(porGrupoEdad, grupoPorFecha(estado.getFechaNacimiento()), delta);
+    }
+
+    /**
+     * Copia de los contadores actuales; el costo no depende del número de pacientes
+     */
+    public synchronized PacienteService.EstadisticasPacientes obtener() {
+        return new PacienteService.EstadisticasPacientes(
+            total, activos, total - activos,
+            new LinkedHashMap<>(porEps), new LinkedHashMap<>(porRegimen), ordenarGruposEdad(),
+            ultimaReconciliacion);
+    }
+
+    private Map<String, Long> ordenarGruposEdad() {
+        Map<String, Long> ordenado = new LinkedHashMap<>();
+        for (String grupo : GRUPOS_EDAD) {
+            ordenado.put(grupo, porGrupoEdad.getOrDefault(grupo, 0L));
+        }
+        if (porGrupoEdad.containsKey(SIN_DATO)) {
+            ordenado.put(SIN_DATO, porGrupoEdad.get(SIN_DATO));
+        }
+        return ordenado;
+    }
+
+    static String grupoPorEdad(int edad) {
+        for (int i = EDADES_INICIO.length - 1; i > 0; i--) {
+            if (edad >= EDADES_INICIO[i]) {
+                return GRUPOS_EDAD[i];
+            }
+        }
+        return GRUPOS_EDAD[0];
+    }
+
+    private static String grupoPorFecha(LocalDate fechaNacimiento) {
+        if (fechaNacimiento == null) {
+            return SIN_DATO;
+        }
+        return grupoPorEdad(Math.max(0, Period.between(fechaNacimiento, LocalDate.now()).getYears()));
+    }
+
+    private static String clave(String valor) {
+        return valor == null || valor.isBlank() ? SIN_DATO : valor;
+    }
+
+    private static void sumar(Map<String, Long> contadores, String clave, long delta) {
+        long valor = contadores.getOrDefault(clave, 0L) + delta;
+        if (valor <= 0) {
+            contadores.remove(clave);
+        } else {
+            contadores.put(clave, valor);
+        }
+    }
+
+    private static void reemplazar(Map<String, Long> destino, Map<String, Long> origen) {
+        destino.clear();
+        destino.putAll(origen);
+    }
+
+    private static final class Instantanea {
+        private long total;
+        private long activos;
+        private final Map<String, Long> porEps = new HashMap<>();
+        private final Map<String, Long> porRegimen = new HashMap<>();
+        private final Map<String, Long> porGrupoEdad = new HashMap<>();
+    }
+}
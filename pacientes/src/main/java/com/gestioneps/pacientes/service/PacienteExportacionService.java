@@ -0,0 +1,203 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gestioneps.pacientes.entity.DatosPaciente;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Exportación masiva de pacientes en NDJSON o CSV escribiendo directamente sobre el flujo de salida.
+ *
+ * Las filas se leen con un cursor del servidor (fetch size acotado) y cada paciente se desvincula del
+ * contexto de persistencia después de escribirse, así que la memoria usada no depende del número de filas.
+ * Si el cliente lee despacio, la escritura bloquea y con ella la lectura del cursor.
+ */
+@Service
+public class PacienteExportacionService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PacienteExportacionService.class);
+    private static final int FILAS_POR_VACIADO = 500;
+    private static final String[] COLUMNAS_CSV = {
+        "id", "tipoDocumento", "numeroDocumento", "nombreCompleto", "fechaNacimiento",
+        "eps", "ciudad", "email", "activo", "fechaCreacion", "fechaActualizacion"
+    };
+
+    private final PacienteRepository pacienteRepository;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public PacienteExportacionService(PacienteRepository pacienteRepository, EntityManager entityManager) {
+        this.pacienteRepository = pacienteRepository;
+        this.entityManager = entityManager;
+    }
+
+    public enum Formato {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Formato(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() { return contentType; }
+        public String getExtension() { return extension; }
+
+        public static Formato desde(String valor) {
+            if (valor == null || valor.isBlank()) {
+                return NDJSON;
+            }
+            try {
+                return Formato.valueOf(valor.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Formato de exportación no soportado: " + valor + " (use ndjson o csv)");
+            }
+        }
+    }
+
+    /**
+     * Escribir todos los pacientes (o solo los activos) en el formato pedido. Devuelve el número de filas escritas.
+     */
+    @Transactional(readOnly = true)
+    public long exportar(Formato formato, boolean incluirInactivos, OutputStream salida) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), 64 * 1024);
+        long filas = 0;
+        try (Stream<Paciente> pacientes = pacienteRepository.streamParaExportacion(incluirInactivos)) {
+            if (formato == Formato.CSV) {
+                escribirFilaCsv(writer, COLUMNAS_CSV);
+            }
+            JsonGenerator generator = formato == Formato.NDJSON ? crearGenerador(writer) : null;
+            Iterator<Paciente> iterador = pacientes.iterator();
+            while (iterador.hasNext()) {
+                Paciente paciente = iterador.next();
+                if (generator != null) {
+                    escribirJson(generator, paciente);
+                } else {
+                    escribirCsv(writer, paciente);
+                }
+                entityManager.detach(paciente);
+                if (++filas % FILAS_POR_VACIADO == 0) {
+                    vaciar(generator, writer);
+                }
+            }
+            vaciar(generator, writer);
+        }
+        LOGGER.info("Exportación de pacientes en {} completada: {} filas", formato, filas);
+        return filas;
+    }
+
+    /**
+     * Un objeto por línea; el generador no vacía el writer por su cuenta para no enviar un paquete por fila
+     */
+    private JsonGenerator crearGenerador(Writer writer) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(writer);
+        generator.setRootValueSeparator(null);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return generator;
+    }
+
+    private static void vaciar(JsonGenerator generator, Writer writer) throws IOException {
+        if (generator != null) {
+            generator.flush();
+        }
+        writer.flush();
+    }
+
+    private void escribirJson(JsonGenerator generator, Paciente paciente) throws IOException {
+        DatosPaciente datos = paciente.getDatos();
+        generator.writeStartObject();
+        generator.writeNumberField("id", paciente.getId());
+        generator.writeStringField("tipoDocumento", paciente.getTipoDocumento() != null ? paciente.getTipoDocumento().name() : null);
+        generator.writeStringField("numeroDocumento", paciente.getNumeroDocumento());
+        generator.writeStringField("nombreCompleto", datos.getNombreCompleto());
+        generator.writeStringField("fechaNacimiento", datos.getFechaNacimiento() != null ? datos.getFechaNacimiento().toString() : null);
+        generator.writeStringField("eps", datos.getEps());
+        generator.writeStringField("ciudad", datos.getCiudad());
+        generator.writeStringField("email", datos.getEmail());
+        generator.writeBooleanField("activo", Boolean.TRUE.equals(paciente.getActivo()));
+        generator.writeStringField("fechaCreacion", texto(paciente.getFechaCreacion()));
+        generator.writeStringField("fechaActualizacion", texto(paciente.getFechaActualizacion()));
+        generator.writeFieldName("datos");
+        generator.writeTree(leerDatos(paciente));
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private JsonNode leerDatos(Paciente paciente) {
+        String json = paciente.getDatosJson();
+        if (json == null || json.isBlank()) {
+            return null;
+        }
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("datos_json malformado en paciente {}, se exporta sin datos", paciente.getId());
+            return null;
+        }
+    }
+
+    private void escribirCsv(Writer writer, Paciente paciente) throws IOException {
+        DatosPaciente datos = paciente.getDatos();
+        escribirFilaCsv(writer, new String[] {
+            String.valueOf(paciente.getId()),
+            paciente.getTipoDocumento() != null ? paciente.getTipoDocumento().name() : null,
+            paciente.getNumeroDocumento(),
+            datos.getNombreCompleto(),
+            datos.getFechaNacimiento() != null ? datos.getFechaNacimiento().toString() : null,
+            datos.getEps(),
+            datos.getCiudad(),
+            datos.getEmail(),
+            String.valueOf(Boolean.TRUE.equals(paciente.getActivo())),
+            texto(paciente.getFechaCreacion()),
+            texto(paciente.getFechaActualizacion())
+        });
+    }
+
+    /**
+     * Fila CSV según RFC 4180: comillas solo cuando el valor contiene separador, comillas o saltos de línea
+     */
+    private static void escribirFilaCsv(Writer writer, String[] valores) throws IOException {
+        for (int i = 0; i < valores.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String valor = valores[i];
+            if (valor == null) {
+                continue;
+            }
+            if (valor.indexOf(',') >= 0 || valor.indexOf('"') >= 0 || valor.indexOf('\n') >= 0 || valor.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(valor.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(valor);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    private static String texto(Object valor) {
+        return valor != null ? valor.toString() : null;
+    }
+}
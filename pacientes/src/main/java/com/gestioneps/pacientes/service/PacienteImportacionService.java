@@ -0,0 +1,360 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.gestioneps.pacientes.entity.DatosPaciente;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.entity.TipoDocumento;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Importación masiva de pacientes desde NDJSON o CSV.
+ *
+ * Lee la entrada línea a línea, valida y descarta duplicados en memoria y escribe por lotes: los ids se
+ * reservan de la secuencia de la tabla en una sola consulta por lote y las filas se insertan con un
+ * batch JDBC, sin pasar por el contexto de persistencia. Una fila inválida se reporta y no detiene la carga.
+ */
+@Service
+public class PacienteImportacionService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PacienteImportacionService.class);
+    private static final int MAX_ERRORES_REPORTADOS = 1000;
+
+    private static final String SQL_RESERVAR_IDS =
+        "SELECT nextval(pg_get_serial_sequence('pacientes', 'id')) FROM generate_series(1, ?)";
+    private static final String SQL_DOCUMENTOS_EXISTENTES =
+        "SELECT numero_documento FROM pacientes WHERE numero_documento = ANY (?)";
+    private static final String SQL_INSERTAR =
+        "INSERT INTO pacientes (id, numero_documento, tipo_documento, datos_json, activo, nombre_completo, " +
+        "fecha_nacimiento, eps, ciudad, email, regimen, version_campos_busqueda, fecha_creacion, fecha_actualizacion) " +
+        "VALUES (?, ?, ?, ?, true, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (numero_documento) DO NOTHING";
+
+    // Columnas CSV reconocidas y la sección del JSON del paciente a la que pertenecen
+    private static final Map<String, String> SECCION_POR_COLUMNA = Map.ofEntries(
+        Map.entry("primerNombre", DatosPaciente.INFORMACION_PERSONAL),
+        Map.entry("segundoNombre", DatosPaciente.INFORMACION_PERSONAL),
+        Map.entry("primerApellido", DatosPaciente.INFORMACION_PERSONAL),
+        Map.entry("segundoApellido", DatosPaciente.INFORMACION_PERSONAL),
+        Map.entry("fechaNacimiento", DatosPaciente.INFORMACION_PERSONAL),
+        Map.entry("genero", DatosPaciente.INFORMACION_PERSONAL),
+        Map.entry("estadoCivil", DatosPaciente.INFORMACION_PERSONAL),
+        Map.entry("tipoSangre", DatosPaciente.INFORMACION_PERSONAL),
+        Map.entry("telefono", DatosPaciente.INFORMACION_CONTACTO),
+        Map.entry("email", DatosPaciente.INFORMACION_CONTACTO),
+        Map.entry("direccion", DatosPaciente.INFORMACION_CONTACTO),
+        Map.entry("ciudad", DatosPaciente.INFORMACION_CONTACTO),
+        Map.entry("departamento", DatosPaciente.INFORMACION_CONTACTO),
+        Map.entry("codigoPostal", DatosPaciente.INFORMACION_CONTACTO),
+        Map.entry("eps", DatosPaciente.INFORMACION_MEDICA),
+        Map.entry("regimenAfiliacion", DatosPaciente.INFORMACION_MEDICA),
+        Map.entry("alergias", DatosPaciente.INFORMACION_MEDICA),
+        Map.entry("antecedentesMedicos", DatosPaciente.INFORMACION_MEDICA),
+        Map.entry("medicamentosActuales", DatosPaciente.INFORMACION_MEDICA),
+        Map.entry("observacionesMedicas", DatosPaciente.INFORMACION_MEDICA)
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${pacientes.importacion.tamano-lote:1000}")
+    private int tamanoLote;
+
+    public PacienteImportacionService(JdbcTemplate jdbcTemplate,
+                                      PlatformTransactionManager transactionManager,
+                                      ApplicationEventPublisher eventPublisher) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Importar pacientes desde la entrada. Cada lote se confirma en su propia transacción.
+     */
+    public ResultadoImportacion importar(InputStream entrada, PacienteExportacionService.Formato formato) throws IOException {
+        long inicio = System.nanoTime();
+        ResultadoImportacion resultado = new ResultadoImportacion();
+        Set<String> documentosVistos = new HashSet<>();
+        List<FilaImportacion> lote = new ArrayList<>(tamanoLote);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8), 64 * 1024);
+        String[] encabezados = null;
+        String linea;
+        long numeroLinea = 0;
+        while ((linea = reader.readLine()) != null) {
+            numeroLinea++;
+            if (linea.isBlank()) {
+                continue;
+            }
+            if (formato == PacienteExportacionService.Formato.CSV && encabezados == null) {
+                encabezados = dividirCsv(linea).toArray(new String[0]);
+                continue;
+            }
+            resultado.leidos++;
+            try {
+                ObjectNode datos = formato == PacienteExportacionService.Formato.CSV
+                    ? desdeCsv(encabezados, dividirCsv(linea))
+                    : desdeJson(linea);
+                FilaImportacion fila = validar(numeroLinea, datos);
+                if (!documentosVistos.add(fila.numeroDocumento)) {
+                    resultado.registrarError(numeroLinea, fila.numeroDocumento, "Documento repetido en el archivo");
+                    continue;
+                }
+                lote.add(fila);
+            } catch (IllegalArgumentException e) {
+                resultado.registrarError(numeroLinea, null, e.getMessage());
+            }
+            if (lote.size() >= tamanoLote) {
+                escribirLote(lote, resultado);
+                lote.clear();
+            }
+        }
+        if (!lote.isEmpty()) {
+            escribirLote(lote, resultado);
+        }
+        resultado.duracionMs = (System.nanoTime() - inicio) / 1_000_000;
+        LOGGER.info("Importación de pacientes: {} leídos, {} insertados, {} con error en {} ms",
+            resultado.leidos, resultado.insertados, resultado.conError, resultado.duracionMs);
+        return resultado;
+    }
+
+    private void escribirLote(List<FilaImportacion> lote, ResultadoImportacion resultado) {
+        try {
+            ResultadoImportacion resultadoLote = transactionTemplate.execute(status -> insertarLote(lote));
+            resultado.acumular(resultadoLote);
+        } catch (RuntimeException e) {
+            // Un fallo del lote completo (p. ej. conexión) se reporta por fila y la carga continúa
+            LOGGER.error("Error insertando lote de {} pacientes: {}", lote.size(), e.getMessage());
+            for (FilaImportacion fila : lote) {
+                resultado.registrarError(fila.linea, fila.numeroDocumento, "Error al guardar el lote: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Insertar un lote dentro de la transacción actual. El resultado solo se acumula si la transacción confirma.
+     */
+    private ResultadoImportacion insertarLote(List<FilaImportacion> lote) {
+        ResultadoImportacion resultado = new ResultadoImportacion();
+        String[] documentos = lote.stream().map(f -> f.numeroDocumento).toArray(String[]::new);
+        Set<String> existentes = new HashSet<>(
+            jdbcTemplate.queryForList(SQL_DOCUMENTOS_EXISTENTES, String.class, (Object) documentos));
+
+        List<FilaImportacion> nuevas = new ArrayList<>(lote.size());
+        for (FilaImportacion fila : lote) {
+            if (existentes.contains(fila.numeroDocumento)) {
+                resultado.registrarError(fila.linea, fila.numeroDocumento, "Ya existe un paciente con el documento");
+            } else {
+                nuevas.add(fila);
+            }
+        }
+        if (nuevas.isEmpty()) {
+            return resultado;
+        }
+
+        List<Long> ids = jdbcTemplate.queryForList(SQL_RESERVAR_IDS, Long.class, nuevas.size());
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> parametros = new ArrayList<>(nuevas.size());
+        for (int i = 0; i < nuevas.size(); i++) {
+            FilaImportacion fila = nuevas.get(i);
+            fila.id = ids.get(i);
+            DatosPaciente vista = fila.vista;
+            String nombre = vista.getNombreCompleto();
+            LocalDate fechaNacimiento = vista.getFechaNacimiento();
+            parametros.add(new Object[] {
+                fila.id, fila.numeroDocumento, fila.tipoDocumento.name(), fila.datosJson,
+                nombre.isEmpty() ? null : nombre,
+                fechaNacimiento != null ? Date.valueOf(fechaNacimiento) : null,
+                vista.getEps(), vista.getCiudad(), vista.getEmail(), vista.getRegimen(),
+                Paciente.VERSION_CAMPOS_BUSQUEDA, ahora, ahora
+            });
+        }
+
+        int[] filasAfectadas = jdbcTemplate.batchUpdate(SQL_INSERTAR, parametros);
+        for (int i = 0; i < nuevas.size(); i++) {
+            FilaImportacion fila = nuevas.get(i);
+            if (filasAfectadas[i] == 0) {
+                // Otro proceso insertó el mismo documento entre la verificación y la inserción
+                resultado.registrarError(fila.linea, fila.numeroDocumento, "Ya existe un paciente con el documento");
+                continue;
+            }
+            resultado.insertados++;
+            eventPublisher.publishEvent(new PacienteModificadoEvent(fila.id, null,
+                PacienteModificadoEvent.Estado.de(fila.numeroDocumento, fila.vista, true)));
+        }
+        return resultado;
+    }
+
+    private ObjectNode desdeJson(String linea) {
+        try {
+            JsonNode nodo = objectMapper.readTree(linea);
+            if (nodo instanceof ObjectNode objeto) {
+                return objeto;
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("JSON inválido: " + e.getOriginalMessage());
+        }
+        throw new IllegalArgumentException("Cada línea debe ser un objeto JSON");
+    }
+
+    /**
+     * Armar el mismo JSON que envía el formulario de pacientes a partir de una fila CSV
+     */
+    private ObjectNode desdeCsv(String[] encabezados, List<String> valores) {
+        if (valores.size() != encabezados.length) {
+            throw new IllegalArgumentException("Se esperaban " + encabezados.length + " columnas y hay " + valores.size());
+        }
+        ObjectNode raiz = objectMapper.createObjectNode();
+        for (int i = 0; i < encabezados.length; i++) {
+            String columna = encabezados[i].trim();
+            String valor = valores.get(i).trim();
+            if ("numeroDocumento".equals(columna) || "tipoDocumento".equals(columna)) {
+                raiz.put(columna, valor);
+                continue;
+            }
+            String seccion = SECCION_POR_COLUMNA.get(columna);
+            if (seccion != null && !valor.isEmpty()) {
+                JsonNode existente = raiz.get(seccion);
+                ObjectNode objeto = existente instanceof ObjectNode o ? o : raiz.putObject(seccion);
+                objeto.put(columna, valor);
+            }
+        }
+        return raiz;
+    }
+
+    private FilaImportacion validar(long linea, ObjectNode datos) {
+        String numeroDocumento = datos.path("numeroDocumento").asText("").trim();
+        if (numeroDocumento.isEmpty()) {
+            throw new IllegalArgumentException("El número de documento es obligatorio");
+        }
+        String tipo = datos.path("tipoDocumento").asText("").trim();
+        TipoDocumento tipoDocumento;
+        try {
+            tipoDocumento = TipoDocumento.valueOf(tipo.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Tipo de documento inválido para " + numeroDocumento + ": " + tipo);
+        }
+        String datosJson = datos.toString();
+        return new FilaImportacion(linea, numeroDocumento, tipoDocumento, datosJson, DatosPaciente.desdeJson(datosJson));
+    }
+
+    /**
+     * Dividir una línea CSV (RFC 4180, sin saltos de línea dentro de los campos)
+     */
+    static List<String> dividirCsv(String linea) {
+        List<String> valores = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        boolean entreComillas = false;
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (entreComillas) {
+                if (c == '"' && i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+                    actual.append('"');
+                    i++;
+                } else if (c == '"') {
+                    entreComillas = false;
+                } else {
+                    actual.append(c);
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+            } else if (c == ',') {
+                valores.add(actual.toString());
+                actual.setLength(0);
+            } else {
+                actual.append(c);
+            }
+        }
+        valores.add(actual.toString());
+        return valores;
+    }
+
+    private static final class FilaImportacion {
+        private final long linea;
+        private final String numeroDocumento;
+        private final TipoDocumento tipoDocumento;
+        private final String datosJson;
+        private final DatosPaciente vista;
+        private Long id;
+
+        private FilaImportacion(long linea, String numeroDocumento, TipoDocumento tipoDocumento,
+                                String datosJson, DatosPaciente vista) {
+            this.linea = linea;
+            this.numeroDocumento = numeroDocumento;
+            this.tipoDocumento = tipoDocumento;
+            this.datosJson = datosJson;
+            this.vista = vista;
+        }
+    }
+
+    // Resumen de la importación; los errores se listan hasta MAX_ERRORES_REPORTADOS
+    public static class ResultadoImportacion {
+        private long leidos;
+        private long insertados;
+        private long conError;
+        private long duracionMs;
+        private final List<ErrorImportacion> errores = new ArrayList<>();
+
+        private void registrarError(long linea, String numeroDocumento, String mensaje) {
+            conError++;
+            if (errores.size() < MAX_ERRORES_REPORTADOS) {
+                errores.add(new ErrorImportacion(linea, numeroDocumento, mensaje));
+            }
+        }
+
+        private void acumular(ResultadoImportacion lote) {
+            insertados += lote.insertados;
+            for (ErrorImportacion error : lote.errores) {
+                registrarError(error.linea, error.numeroDocumento, error.mensaje);
+            }
+        }
+
+        public long getLeidos() { return leidos; }
+        public long getInsertados() { return insertados; }
+        public long getConError() { return conError; }
+        public long getDuracionMs() { return duracionMs; }
+        public List<ErrorImportacion> getErrores() { return errores; }
+    }
+
+    public static class ErrorImportacion {
+        private final long linea;
+        private final String numeroDocumento;
+        private final String mensaje;
+
+        public ErrorImportacion(long linea, String numeroDocumento, String mensaje) {
+            this.linea = linea;
+            this.numeroDocumento = numeroDocumento;
+            this.mensaje = mensaje;
+        }
+
+        public long getLinea() { return linea; }
+        public String getNumeroDocumento() { return numeroDocumento; }
+        public String getMensaje() { return mensaje; }
+    }
+}
@@ -0,0 +1,438 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.DatosPaciente;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Índice invertido en memoria para la búsqueda general de pacientes activos.
+ *
+ * Tokeniza nombre completo, número de documento y email, pliega acentos y mayúsculas
+ * ("Núñez" y "nunez" producen el mismo token) y resuelve cada término de la consulta como prefijo
+ * sobre un mapa ordenado de tokens. Todos los términos deben coincidir; el ranking favorece
+ * coincidencias exactas de token sobre coincidencias por prefijo.
+ *
+ * Se construye al arrancar recorriendo la tabla por lotes y se mantiene con {@link PacienteModificadoEvent}
+ * después de cada commit. Como esos eventos solo llegan de esta instancia, una reconciliación periódica relee
+ * los pacientes modificados desde la última fecha de actualización vista (con un margen para transacciones que
+ * confirman tarde). Mientras no está listo, {@link #isListo()} devuelve false y el servicio usa la consulta a
+ * base de datos.
+ */
+@Component
+public class PacienteIndiceBusqueda {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PacienteIndiceBusqueda.class);
+
+    private static final Pattern SEPARADORES = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARCAS_DIACRITICAS = Pattern.compile("\\p{M}+");
+    private static final int MAX_TERMINOS_CONSULTA = 8;
+    private static final int PUNTAJE_EXACTO = 3;
+    private static final int PUNTAJE_PREFIJO = 1;
+    // Entrada de HashSet con su Long encajado, en la estimación de memoria
+    private static final long BYTES_POSTING = 48;
+    private static final LocalDateTime SIN_MODIFICACIONES = LocalDateTime.of(1970, 1, 1, 0, 0);
+    // Mejor puntaje primero; a igual puntaje, menor id primero
+    private static final Comparator<Map.Entry<Long, Integer>> RANKING =
+        Map.Entry.<Long, Integer>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey());
+
+    private final PacienteRepository pacienteRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Timer tiempoReconstruccion;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private TreeMap<String, Set<Long>> postings = new TreeMap<>();
+    private Map<Long, String[]> tokensPorPaciente = new HashMap<>();
+    // Estimación de memoria mantenida con cada cambio, para que la métrica no recorra el índice
+    private volatile long memoriaEstimada;
+    private volatile LocalDateTime ultimaModificacionVista = SIN_MODIFICACIONES;
+    private volatile boolean listo;
+    private volatile boolean reconstruyendo;
+    private final Map<Long, String[]> cambiosDuranteReconstruccion = new HashMap<>();
+
+    @Value("${pacientes.indice-busqueda.tamano-lote:1000}")
+    private int tamanoLote;
+
+    @Value("${pacientes.indice-busqueda.margen-reconciliacion-segundos:300}")
+    private long margenReconciliacionSegundos;
+
+    public PacienteIndiceBusqueda(PacienteRepository pacienteRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry) {
+        this.pacienteRepository = pacienteRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.tiempoReconstruccion = Timer.builder("pacientes.indice.busqueda.reconstruccion")
+            .description("Tiempo de reconstrucción completa del índice de búsqueda de pacientes")
+            .register(meterRegistry);
+        Gauge.builder("pacientes.indice.busqueda.memoria", this, indice -> indice.memoriaEstimada)
+            .description("Memoria estimada ocupada por el índice de búsqueda de pacientes")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("pacientes.indice.busqueda.terminos", this, PacienteIndiceBusqueda::numeroTerminos)
+            .description("Tokens distintos en el índice de búsqueda de pacientes")
+            .register(meterRegistry);
+        Gauge.builder("pacientes.indice.busqueda.pacientes", this, PacienteIndiceBusqueda::numeroPacientes)
+            .description("Pacientes activos indexados")
+            .register(meterRegistry);
+    }
+
+    public boolean isListo() {
+        return listo;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void construirAlArrancar() {
+        Thread hilo = new Thread(this::reconstruir, "indice-busqueda-pacientes");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Reconstruir el índice completo sin bloquear las búsquedas: se construye aparte y se sustituye al final.
+     * Los cambios recibidos durante la reconstrucción se reaplican sobre el índice nuevo.
+     */
+    public void reconstruir() {
+        lock.writeLock().lock();
+        try {
+            reconstruyendo = true;
+            cambiosDuranteReconstruccion.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            // Lo modificado después de esta marca lo relee la reconciliación, aunque la carga ya lo haya visto
+            LocalDateTime marca = transactionTemplate.execute(status -> pacienteRepository.findUltimaFechaActualizacion());
+            TreeMap<String, Set<Long>> nuevosPostings = new TreeMap<>();
+            Map<Long, String[]> nuevosTokens = new HashMap<>();
+            long[] memoria = new long[1];
+            tiempoReconstruccion.record(() -> memoria[0] = cargarDesdeBaseDeDatos(nuevosPostings, nuevosTokens));
+
+            lock.writeLock().lock();
+            try {
+                for (Map.Entry<Long, String[]> cambio : cambiosDuranteReconstruccion.entrySet()) {
+                    memoria[0] += quitar(nuevosPostings, nuevosTokens, cambio.getKey());
+                    if (cambio.getValue() != null) {
+                        memoria[0] += agregar(nuevosPostings, nuevosTokens, cambio.getKey(), cambio.getValue());
+                    }
+                }
+                postings = nuevosPostings;
+                tokensPorPaciente = nuevosTokens;
+                memoriaEstimada = memoria[0];
+                ultimaModificacionVista = marca != null ? marca : SIN_MODIFICACIONES;
+                listo = true;
+            } finally {
+                reconstruyendo = false;
+                cambiosDuranteReconstruccion.clear();
+                lock.writeLock().unlock();
+            }
+            LOGGER.info("Índice de búsqueda de pacientes construido: {} pacientes, {} términos",
+                nuevosTokens.size(), nuevosPostings.size());
+        } catch (RuntimeException e) {
+            reconstruyendo = false;
+            LOGGER.error("Error construyendo el índice de búsqueda de pacientes: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Cargar los pacientes activos en el índice dado; devuelve su memoria estimada
+     */
+    private long cargarDesdeBaseDeDatos(TreeMap<String, Set<Long>> destino, Map<Long, String[]> tokens) {
+        long ultimoId = 0L;
+        long memoria = 0L;
+        while (true) {
+            final long desde = ultimoId;
+            List<Object[]> lote = transactionTemplate.execute(status ->
+                pacienteRepository.findLoteActivosParaIndice(desde, PageRequest.of(0, tamanoLote)));
+            if (lote == null || lote.isEmpty()) {
+                return memoria;
+            }
+            for (Object[] fila : lote) {
+                Long id = (Long) fila[0];
+                DatosPaciente datos = DatosPaciente.desdeJson((String) fila[2]);
+                memoria += agregar(destino, tokens, id, tokenizar((String) fila[1], datos.getNombreCompleto(), datos.getEmail()));
+                ultimoId = id;
+            }
+        }
+    }
+
+    /**
+     * Releer los pacientes modificados desde la última fecha vista, menos el margen, para incorporar los cambios
+     * hechos en otras instancias. Reindexar un paciente sin cambios no altera el índice.
+     */
+    @Scheduled(fixedDelayString = "${pacientes.indice-busqueda.reconciliacion-ms:60000}",
+               initialDelayString = "${pacientes.indice-busqueda.reconciliacion-ms:60000}")
+    public void reconciliar() {
+        if (!listo || reconstruyendo) {
+            return;
+        }
+        try {
+            LocalDateTime fecha = ultimaModificacionVista.minusSeconds(Math.max(0, margenReconciliacionSegundos));
+            LocalDateTime maxima = ultimaModificacionVista;
+            long ultimoId = 0L;
+            int releidos = 0;
+            while (true) {
+                final LocalDateTime desdeFecha = fecha;
+                final long desdeId = ultimoId;
+                List<Object[]> lote = transactionTemplate.execute(status ->
+                    pacienteRepository.findModificadosParaIndice(desdeFecha, desdeId, PageRequest.of(0, tamanoLote)));
+                if (lote == null || lote.isEmpty()) {
+                    break;
+                }
+                for (Object[] fila : lote) {
+                    Long id = (Long) fila[0];
+                    if (Boolean.TRUE.equals(fila[3])) {
+                        DatosPaciente datos = DatosPaciente.desdeJson((String) fila[2]);
+                        indexar(id, (String) fila[1], datos.getNombreCompleto(), datos.getEmail());
+                    } else {
+                        eliminar(id);
+                    }
+                    fecha = (LocalDateTime) fila[4];
+                    ultimoId = id;
+                    if (fecha.isAfter(maxima)) {
+                        maxima = fecha;
+                    }
+                }
+                releidos += lote.size();
+            }
+            ultimaModificacionVista = maxima;
+            LOGGER.debug("Reconciliación del índice de búsqueda: {} pacientes releídos", releidos);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error reconciliando el índice de búsqueda de pacientes: {}", e.getMessage(), e);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alModificarPaciente(PacienteModificadoEvent evento) {
+        PacienteModificadoEvent.Estado actual = evento.getActual();
+        if (actual != null && actual.isActivo()) {
+            indexar(evento.getPacienteId(), actual.getNumeroDocumento(), actual.getNombreCompleto(), actual.getEmail());
+        } else {
+            eliminar(evento.getPacienteId());
+        }
+    }
+
+    public void indexar(Long id, String numeroDocumento, String nombreCompleto, String email) {
+        String[] tokens = tokenizar(numeroDocumento, nombreCompleto, email);
+        lock.writeLock().lock();
+        try {
+            memoriaEstimada += quitar(postings, tokensPorPaciente, id) + agregar(postings, tokensPorPaciente, id, tokens);
+            if (reconstruyendo) {
+                cambiosDuranteReconstruccion.put(id, tokens);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void eliminar(Long id) {
+        lock.writeLock().lock();
+        try {
+            memoriaEstimada += quitar(postings, tokensPorPaciente, id);
+            if (reconstruyendo) {
+                cambiosDuranteReconstruccion.put(id, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Buscar pacientes activos cuyo documento, nombre o email contengan tokens que empiecen por
+     * cada término de la consulta. Devuelve una página de ids ordenada por relevancia.
+     */
+    public Page<Long> buscar(String termino, Pageable pageable) {
+        List<String> terminos = new ArrayList<>(new LinkedHashSet<>(List.of(tokenizar(termino))));
+        if (terminos.isEmpty()) {
+            return Page.empty(pageable);
+        }
+        if (terminos.size() > MAX_TERMINOS_CONSULTA) {
+            terminos = terminos.subList(0, MAX_TERMINOS_CONSULTA);
+        }
+
+        Map<Long, Integer> puntajes = null;
+        lock.readLock().lock();
+        try {
+            for (String consulta : terminos) {
+                Map<Long, Integer> coincidencias = coincidenciasPorPrefijo(consulta, puntajes);
+                if (puntajes == null) {
+                    puntajes = coincidencias;
+                } else {
+                    Map<Long, Integer> acumulado = puntajes;
+                    coincidencias.replaceAll((id, puntaje) -> puntaje + acumulado.get(id));
+                    puntajes = coincidencias;
+                }
+                if (puntajes.isEmpty()) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Solo hace falta ordenar los primeros offset + tamaño: montículo acotado con el peor de ellos en la cabeza
+        int total = puntajes.size();
+        long necesarios = Math.min((long) total, pageable.getOffset() + pageable.getPageSize());
+        if (pageable.getOffset() >= necesarios) {
+            return new PageImpl<>(List.of(), pageable, total);
+        }
+        PriorityQueue<Map.Entry<Long, Integer>> mejores = new PriorityQueue<>((int) necesarios, RANKING.reversed());
+        for (Map.Entry<Long, Integer> entrada : puntajes.entrySet()) {
+            if (mejores.size() < necesarios) {
+                mejores.add(entrada);
+            } else if (RANKING.compare(entrada, mejores.peek()) < 0) {
+                mejores.poll();
+                mejores.add(entrada);
+            }
+        }
+        List<Map.Entry<Long, Integer>> ordenados = new ArrayList<>(mejores);
+        ordenados.sort(RANKING);
+        List<Long> ids = new ArrayList<>(ordenados.size() - (int) pageable.getOffset());
+        for (Map.Entry<Long, Integer> entrada : ordenados.subList((int) pageable.getOffset(), ordenados.size())) {
+            ids.add(entrada.getKey());
+        }
+        return new PageImpl<>(ids, pageable, total);
+    }
+
+    /**
+     * Mejor puntaje por paciente para un término. Si hay candidatos previos, solo se consideran ellos (AND).
+     */
+    private Map<Long, Integer> coincidenciasPorPrefijo(String consulta, Map<Long, Integer> candidatos) {
+        Map<Long, Integer> resultado = new HashMap<>();
+        for (Map.Entry<String, Set<Long>> entrada : postings.subMap(consulta, true, consulta + Character.MAX_VALUE, true).entrySet()) {
+            int puntaje = entrada.getKey().equals(consulta) ? PUNTAJE_EXACTO : PUNTAJE_PREFIJO;
+            for (Long id : entrada.getValue()) {
+                if (candidatos == null || candidatos.containsKey(id)) {
+                    resultado.merge(id, puntaje, Math::max);
+                }
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Agregar los tokens del paciente; devuelve la memoria estimada que suman al índice
+     */
+    private static long agregar(TreeMap<String, Set<Long>> destino, Map<Long, String[]> tokens, Long id, String[] nuevos) {
+        long bytes = bytesPaciente(nuevos);
+        for (String token : nuevos) {
+            Set<Long> ids = destino.get(token);
+            if (ids == null) {
+                ids = new HashSet<>();
+                destino.put(token, ids);
+                bytes += bytesTermino(token);
+            }
+            if (ids.add(id)) {
+                bytes += BYTES_POSTING;
+            }
+        }
+        tokens.put(id, nuevos);
+        return bytes;
+    }
+
+    /**
+     * Quitar los tokens del paciente; devuelve la memoria estimada liberada, en negativo
+     */
+    private static long quitar(TreeMap<String, Set<Long>> destino, Map<Long, String[]> tokens, Long id) {
+        String[] anteriores = tokens.remove(id);
+        if (anteriores == null) {
+            return 0L;
+        }
+        long bytes = -bytesPaciente(anteriores);
+        for (String token : anteriores) {
+            Set<Long> ids = destino.get(token);
+            if (ids != null && ids.remove(id)) {
+                bytes -= BYTES_POSTING;
+                if (ids.isEmpty()) {
+                    destino.remove(token);
+                    bytes -= bytesTermino(token);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // Estimaciones aproximadas del tamaño en heap (cabeceras de objeto, entradas de mapa y cadenas Latin-1)
+    private static long bytesTermino(String token) {
+        // Entrada del TreeMap + String + HashSet vacío
+        return 40 + 40 + token.length() + 64;
+    }
+
+    private static long bytesPaciente(String[] tokens) {
+        // Entrada del HashMap + Long + arreglo de referencias (las cadenas se comparten con los postings)
+        return 48 + 16 + 16 + tokens.length * 4L;
+    }
+
+    /**
+     * Normalizar y dividir en tokens: minúsculas, sin acentos ni diacríticos, separando por cualquier
+     * carácter que no sea letra o dígito. Los tokens se devuelven sin duplicados.
+     */
+    static String[] tokenizar(String... textos) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String texto : textos) {
+            if (texto == null || texto.isBlank()) {
+                continue;
+            }
+            for (String token : SEPARADORES.split(plegar(texto))) {
+                if (!token.isEmpty()) {
+                    tokens.add(token);
+                }
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    static String plegar(String texto) {
+        String sinMarcas = MARCAS_DIACRITICAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        return sinMarcas.toLowerCase(Locale.ROOT);
+    }
+
+    private double numeroTerminos() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private double numeroPacientes() {
+        lock.readLock().lock();
+        try {
+            return tokensPorPaciente.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.DatosPaciente;
+import com.gestioneps.pacientes.entity.Paciente;
+
+import java.time.LocalDate;
+
+/**
+ * Evento publicado por PacienteService cuando se crea, actualiza, desactiva o reactiva un paciente.
+ * Lleva el estado anterior (null en la creación) y el actual para que las estructuras en memoria
+ * se mantengan de forma incremental tras el commit.
+ */
+public class PacienteModificadoEvent {
+
+    private final Long pacienteId;
+    private final Estado anterior;
+    private final Estado actual;
+
+    public PacienteModificadoEvent(Long pacienteId, Estado anterior, Estado actual) {
+        this.pacienteId = pacienteId;
+        this.anterior = anterior;
+        this.actual = actual;
+    }
+
+    public Long getPacienteId() { return pacienteId; }
+    public Estado getAnterior() { return anterior; }
+    public Estado getActual() { return actual; }
+
+    /**
+     * Instantánea inmutable de los campos del paciente que usan los índices en memoria
+     */
+    public static class Estado {
+        private final String numeroDocumento;
+        private final String nombreCompleto;
+        private final String email;
+        private final String eps;
+        private final String regimen;
+        private final LocalDate fechaNacimiento;
+        private final boolean activo;
+
+        public Estado(String numeroDocumento, String nombreCompleto, String email,
+                      String eps, String regimen, LocalDate fechaNacimiento, boolean activo) {
+            this.numeroDocumento = numeroDocumento;
+            this.nombreCompleto = nombreCompleto;
+            this.email = email;
+            this.eps = eps;
+            this.regimen = regimen;
+            this.fechaNacimiento = fechaNacimiento;
+            this.activo = activo;
+        }
+
+        public static Estado de(Paciente paciente) {
+            return de(paciente.getNumeroDocumento(), paciente.getDatos(), Boolean.TRUE.equals(paciente.getActivo()));
+        }
+
+        public static Estado de(String numeroDocumento, DatosPaciente datos, boolean activo) {
+            return new Estado(
+                numeroDocumento,
+                datos.getNombreCompleto(),
+                datos.getEmail(),
+                datos.getEps(),
+                datos.getRegimen(),
+                datos.getFechaNacimiento(),
+                activo);
+        }
+
+        public String getNumeroDocumento() { return numeroDocumento; }
+        public String getNombreCompleto() { return nombreCompleto; }
+        public String getEmail() { return email; }
+        public String getEps() { return eps; }
+        public String getRegimen() { return regimen; }
+        public LocalDate getFechaNacimiento() { return fechaNacimiento; }
+        public boolean isActivo() { return activo; }
+    }
+}
@@ -1,17 +1,30 @@
 package com.gestioneps.pacientes.service;
 
 import com.gestioneps.pacientes.dto.PacienteDTO;
+import com.gestioneps.pacientes.dto.PaginaCursor;
 import com.gestioneps.pacientes.entity.*;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
 import com.gestioneps.pacientes.repository.PacienteRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @Transactional
@@ -20,6 +33,24 @@ public class PacienteService {
     @Autowired
     private PacienteRepository pacienteRepository;
 
+    @Autowired
+    private HistoriaClinicaRepository historiaClinicaRepository;
+
+    @Autowired
+    private CitaMedicaRepository citaMedicaRepository;
+
+    @Autowired
+    private PacienteIndiceBusqueda indiceBusqueda;
+
+    @Autowired
+    private PacienteDocumentoCache documentoCache;
+
+    @Autowired
+    private PacienteEstadisticas estadisticas;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     /**
      * Crear un nuevo paciente desde JSON crudo
      */
@@ -34,7 +65,7 @@ public class PacienteService {
             TipoDocumento tipoDocumento = TipoDocumento.valueOf(tipoDocumentoStr);
 
             // Validar que no exista un paciente con el mismo documento
-            if (pacienteRepository.existsByNumeroDocumento(numeroDocumento)) {
+            if (documentoCache.existeParaAlta(numeroDocumento)) {
                 throw new IllegalArgumentException("Ya existe un paciente con el documento: " + numeroDocumento);
             }
 
@@ -45,6 +76,8 @@ public class PacienteService {
             paciente.setActivo(true);
 
             Paciente pacienteGuardado = pacienteRepository.save(paciente);
+            eventPublisher.publishEvent(new PacienteModificadoEvent(
+                pacienteGuardado.getId(), null, PacienteModificadoEvent.Estado.de(pacienteGuardado)));
             return convertirEntidadADTO(pacienteGuardado);
         } catch (Exception e) {
             throw new IllegalArgumentException("Error al procesar el JSON: " + e.getMessage());
@@ -60,11 +93,12 @@ public class PacienteService {
 
         // Verificar si el documento cambió y si ya existe otro paciente con ese documento
         if (!pacienteExistente.getNumeroDocumento().equals(numeroDocumento)) {
-            if (pacienteRepository.existsByNumeroDocumento(numeroDocumento)) {
+            if (documentoCache.existeParaAlta(numeroDocumento)) {
                 throw new IllegalArgumentException("Ya existe otro paciente con el documento: " + numeroDocumento);
             }
         }
 
+        PacienteModificadoEvent.Estado anterior = PacienteModificadoEvent.Estado.de(pacienteExistente);
         pacienteExistente.setNumeroDocumento(numeroDocumento);
         pacienteExistente.setTipoDocumento(tipoDocumento);
         pacienteExistente.setDatosJson(datosJson);
@@ -73,6 +107,8 @@ public class PacienteService {
         }
 
         Paciente pacienteActualizado = pacienteRepository.save(pacienteExistente);
+        eventPublisher.publishEvent(new PacienteModificadoEvent(
+            id, anterior, PacienteModificadoEvent.Estado.de(pacienteActualizado)));
         return convertirEntidadADTO(pacienteActualizado);
     }
 
@@ -92,9 +128,16 @@ public class PacienteService {
      */
     @Transactional(readOnly = true)
     public PacienteDTO obtenerPacientePorDocumento(String numeroDocumento) {
-        Paciente paciente = pacienteRepository.findByNumeroDocumento(numeroDocumento)
+        Optional<Long> id = documentoCache.buscarId(numeroDocumento);
+        Optional<Paciente> paciente = id.flatMap(pacienteRepository::findById)
+            .filter(encontrado -> numeroDocumento.equals(encontrado.getNumeroDocumento()));
+        if (id.isPresent() && paciente.isEmpty()) {
+            // El id en memoria pudo quedar obsoleto si el documento cambió en otra instancia
+            documentoCache.invalidar(numeroDocumento);
+            paciente = pacienteRepository.findByNumeroDocumento(numeroDocumento);
+        }
+        return paciente.map(this::convertirEntidadADTO)
             .orElseThrow(() -> new IllegalArgumentException("Paciente no encontrado con documento: " + numeroDocumento));
-        return convertirEntidadADTO(paciente);
     }
 
     /**
@@ -103,7 +146,30 @@ public class PacienteService {
     @Transactional(readOnly = true)
     public Page<PacienteDTO> buscarPacientesPorNombre(String nombre, Pageable pageable) {
         Page<Paciente> pacientes = pacienteRepository.findByNombreContainingIgnoreCase(nombre, pageable);
-        return pacientes.map(this::convertirEntidadADTO);
+        return convertirPagina(pacientes);
+    }
+
+    /**
+     * Búsqueda general de pacientes activos por documento, nombre o email.
+     * Usa el índice en memoria (prefijos, sin acentos, ordenado por relevancia) y recurre a la
+     * consulta a base de datos mientras el índice se está construyendo.
+     */
+    @Transactional(readOnly = true)
+    public Page<PacienteDTO> buscarPacientes(String termino, Pageable pageable) {
+        if (!indiceBusqueda.isListo()) {
+            return convertirPagina(pacienteRepository.buscarPacientes(termino.trim(), pageable));
+        }
+        Page<Long> ids = indiceBusqueda.buscar(termino, pageable);
+        Map<Long, Paciente> porId = pacienteRepository.findAllById(ids.getContent()).stream()
+            .collect(Collectors.toMap(Paciente::getId, Function.identity()));
+        List<Paciente> pacientes = new ArrayList<>(ids.getNumberOfElements());
+        for (Long id : ids.getContent()) {
+            Paciente paciente = porId.get(id);
+            if (paciente != null) {
+                pacientes.add(paciente);
+            }
+        }
+        return new PageImpl<>(convertirLista(pacientes), pageable, ids.getTotalElements());
     }
 
     /**
@@ -112,7 +178,19 @@ public class PacienteService {
     @Transactional(readOnly = true)
     public Page<PacienteDTO> obtenerPacientesActivos(Pageable pageable) {
         Page<Paciente> pacientes = pacienteRepository.findByActivoTrue(pageable);
-        return pacientes.map(this::convertirEntidadADTO);
+        return convertirPagina(pacientes);
+    }
+
+    /**
+     * Obtener pacientes activos por cursor (keyset), sin consulta de conteo
+     */
+    @Transactional(readOnly = true)
+    public PaginaCursor<PacienteDTO> obtenerPacientesActivosPorCursor(String cursor, int tamano) {
+        Long desdeId = PaginaCursor.decodificar(cursor);
+        return PaginaCursor.desde(
+            pacienteRepository.findByActivoTrueAndIdLessThanOrderByIdDesc(desdeId, PageRequest.of(0, tamano)),
+            Paciente::getId,
+            this::convertirLista);
     }
 
     /**
@@ -121,7 +199,7 @@ public class PacienteService {
     @Transactional(readOnly = true)
     public Page<PacienteDTO> buscarPacientesPorEPS(String eps, Pageable pageable) {
         Page<Paciente> pacientes = pacienteRepository.findByEpsContainingIgnoreCase(eps, pageable);
-        return pacientes.map(this::convertirEntidadADTO);
+        return convertirPagina(pacientes);
     }
 
     /**
@@ -129,8 +207,12 @@ public class PacienteService {
      */
     @Transactional(readOnly = true)
     public Page<PacienteDTO> buscarPacientesPorEdad(int edadMinima, int edadMaxima, Pageable pageable) {
-        Page<Paciente> pacientes = pacienteRepository.findByEdadBetween(edadMinima, edadMaxima, pageable);
-        return pacientes.map(this::convertirEntidadADTO);
+        // Tener entre edadMinima y edadMaxima años equivale a nacer en (hoy - (edadMaxima + 1) años, hoy - edadMinima años]
+        LocalDate hoy = LocalDate.now();
+        LocalDate fechaDesde = hoy.minusYears(edadMaxima + 1L).plusDays(1);
+        LocalDate fechaHasta = hoy.minusYears(edadMinima);
+        Page<Paciente> pacientes = pacienteRepository.findByFechaNacimientoBetween(fechaDesde, fechaHasta, pageable);
+        return convertirPagina(pacientes);
     }
 
     /**
@@ -140,8 +222,10 @@ public class PacienteService {
         Paciente paciente = pacienteRepository.findById(id)
             .orElseThrow(() -> new IllegalArgumentException("Paciente no encontrado con ID: " + id));
         
+        PacienteModificadoEvent.Estado anterior = PacienteModificadoEvent.Estado.de(paciente);
         paciente.setActivo(false);
         pacienteRepository.save(paciente);
+        eventPublisher.publishEvent(new PacienteModificadoEvent(id, anterior, PacienteModificadoEvent.Estado.de(paciente)));
     }
 
     /**
@@ -151,8 +235,10 @@ public class PacienteService {
         Paciente paciente = pacienteRepository.findById(id)
             .orElseThrow(() -> new IllegalArgumentException("Paciente no encontrado con ID: " + id));
         
+        PacienteModificadoEvent.Estado anterior = PacienteModificadoEvent.Estado.de(paciente);
         paciente.setActivo(true);
         pacienteRepository.save(paciente);
+        eventPublisher.publishEvent(new PacienteModificadoEvent(id, anterior, PacienteModificadoEvent.Estado.de(paciente)));
     }
 
     /**
@@ -160,7 +246,7 @@ public class PacienteService {
      */
     @Transactional(readOnly = true)
     public boolean existePacientePorDocumento(String numeroDocumento) {
-        return pacienteRepository.existsByNumeroDocumento(numeroDocumento);
+        return documentoCache.existe(numeroDocumento);
     }
 
     /**
@@ -168,11 +254,16 @@ public class PacienteService {
      */
     @Transactional(readOnly = true)
     public EstadisticasPacientes obtenerEstadisticas() {
+        if (estadisticas.isListo()) {
+            return estadisticas.obtener();
+        }
+        // Mientras se siembran los contadores en memoria
         long totalPacientes = pacienteRepository.count();
         long pacientesActivos = pacienteRepository.countByActivoTrue();
         long pacientesInactivos = totalPacientes - pacientesActivos;
 
-        return new EstadisticasPacientes(totalPacientes, pacientesActivos, pacientesInactivos);
+        return new EstadisticasPacientes(totalPacientes, pacientesActivos, pacientesInactivos,
+            Map.of(), Map.of(), Map.of(), null);
     }
 
     // Métodos de conversión
@@ -193,6 +284,39 @@ public class PacienteService {
     }
 
     private PacienteDTO convertirEntidadADTO(Paciente paciente) {
+        return convertirLista(List.of(paciente)).get(0);
+    }
+
+    private Page<PacienteDTO> convertirPagina(Page<Paciente> pacientes) {
+        return new PageImpl<>(convertirLista(pacientes.getContent()), pacientes.getPageable(), pacientes.getTotalElements());
+    }
+
+    /**
+     * Convertir varios pacientes resolviendo los conteos de historias y citas con una consulta agrupada
+     * por tipo, en lugar de inicializar las colecciones perezosas de cada paciente
+     */
+    private List<PacienteDTO> convertirLista(List<Paciente> pacientes) {
+        if (pacientes.isEmpty()) {
+            return List.of();
+        }
+        List<Long> ids = pacientes.stream().map(Paciente::getId).toList();
+        Map<Long, Long> historiasPorPaciente = agruparConteos(historiaClinicaRepository.contarPorPacientes(ids));
+        Map<Long, Long> citasPorPaciente = agruparConteos(citaMedicaRepository.contarActivasPorPacientes(ids));
+
+        List<PacienteDTO> dtos = new ArrayList<>(pacientes.size());
+        for (Paciente paciente : pacientes) {
+            dtos.add(convertirEntidadADTO(paciente,
+                historiasPorPaciente.getOrDefault(paciente.getId(), 0L),
+                citasPorPaciente.getOrDefault(paciente.getId(), 0L)));
+        }
+        return dtos;
+    }
+
+    private static Map<Long, Long> agruparConteos(List<Object[]> filas) {
+        return filas.stream().collect(Collectors.toMap(fila -> (Long) fila[0], fila -> (Long) fila[1]));
+    }
+
+    private PacienteDTO convertirEntidadADTO(Paciente paciente, long numeroHistoriasClinicas, long numeroCitasActivas) {
         PacienteDTO dto = new PacienteDTO();
 
         dto.setId(paciente.getId());
@@ -209,7 +333,9 @@ public class PacienteService {
         // Campos calculados
         dto.setNombreCompleto(paciente.getNombreCompleto());
         dto.setEdad(paciente.getEdad());
-        dto.setNumeroHistoriasClinicas((long) paciente.getHistoriasClinicas().size());
+        dto.setNumeroHistoriasClinicas(numeroHistoriasClinicas);
+        dto.setNumeroCitasActivas(numeroCitasActivas);
+        dto.setNumeroInasistencias(paciente.getInasistencias());
 
         return dto;
     }
@@ -219,15 +345,29 @@ public class PacienteService {
         private final long totalPacientes;
         private final long pacientesActivos;
         private final long pacientesInactivos;
-
-        public EstadisticasPacientes(long totalPacientes, long pacientesActivos, long pacientesInactivos) {
+        private final Map<String, Long> pacientesPorEps;
+        private final Map<String, Long> pacientesPorRegimen;
+        private final Map<String, Long> pacientesPorGrupoEdad;
+        private final LocalDateTime ultimaReconciliacion;
+
+        public EstadisticasPacientes(long totalPacientes, long pacientesActivos, long pacientesInactivos,
+                                     Map<String, Long> pacientesPorEps, Map<String, Long> pacientesPorRegimen,
+                                     Map<String, Long> pacientesPorGrupoEdad, LocalDateTime ultimaReconciliacion) {
             this.totalPacientes = totalPacientes;
             this.pacientesActivos = pacientesActivos;
             this.pacientesInactivos = pacientesInactivos;
+            this.pacientesPorEps = pacientesPorEps;
+            this.pacientesPorRegimen = pacientesPorRegimen;
+            this.pacientesPorGrupoEdad = pacientesPorGrupoEdad;
+            this.ultimaReconciliacion = ultimaReconciliacion;
         }
 
         public long getTotalPacientes() { return totalPacientes; }
         public long getPacientesActivos() { return pacientesActivos; }
         public long getPacientesInactivos() { return pacientesInactivos; }
+        public Map<String, Long> getPacientesPorEps() { return pacientesPorEps; }
+        public Map<String, Long> getPacientesPorRegimen() { return pacientesPorRegimen; }
+        public Map<String, Long> getPacientesPorGrupoEdad() { return pacientesPorGrupoEdad; }
+        public LocalDateTime getUltimaReconciliacion() { return ultimaReconciliacion; }
     }
 }
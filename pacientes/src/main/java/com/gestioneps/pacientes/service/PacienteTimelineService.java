@@ -0,0 +1,198 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.dto.EventoTimelineDTO;
+import com.gestioneps.pacientes.dto.EventoTimelineDTO.Tipo;
+import com.gestioneps.pacientes.dto.PaginaCursor;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import com.gestioneps.pacientes.repository.DocumentoMedicoRepository;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Línea de tiempo de un paciente: historias, consultas, citas y documentos en un solo flujo cronológico.
+ *
+ * Las cuatro consultas se lanzan en paralelo en hilos virtuales, cada una en su propia transacción de solo
+ * lectura, y el número de consultas simultáneas se limita con un semáforo para no agotar el pool de conexiones.
+ * La paginación es por cursor sobre (fecha, tipo, id): cada origen devuelve a lo sumo una página desde la
+ * posición del cursor y se mezclan en memoria, así que el costo de una página no depende del historial completo.
+ * Las citas se ubican por su fecha y hora (fecha_hora_cita), o por su fecha de creación si no la tienen.
+ */
+@Service
+public class PacienteTimelineService {
+
+    public static final String PACIENTE_NO_ENCONTRADO = "Paciente no encontrado con ID: ";
+
+    private static final int TAMANO_MAXIMO = 100;
+    private static final String PREFIJO_CURSOR = "t:";
+    private static final LocalDateTime FECHA_INICIAL = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
+    // Más reciente primero; a igual fecha, por tipo y luego por id descendente
+    private static final Comparator<EventoTimelineDTO> ORDEN = Comparator
+        .comparing(EventoTimelineDTO::getFecha, Comparator.reverseOrder())
+        .thenComparing(EventoTimelineDTO::getTipo)
+        .thenComparing(EventoTimelineDTO::getId, Comparator.reverseOrder());
+
+    private final PacienteRepository pacienteRepository;
+    private final HistoriaClinicaRepository historiaClinicaRepository;
+    private final ConsultaMedicaRepository consultaMedicaRepository;
+    private final CitaMedicaRepository citaMedicaRepository;
+    private final DocumentoMedicoRepository documentoMedicoRepository;
+    private final TransactionTemplate lectura;
+    private final ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permisos;
+
+    public PacienteTimelineService(PacienteRepository pacienteRepository,
+                                   HistoriaClinicaRepository historiaClinicaRepository,
+                                   ConsultaMedicaRepository consultaMedicaRepository,
+                                   CitaMedicaRepository citaMedicaRepository,
+                                   DocumentoMedicoRepository documentoMedicoRepository,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${pacientes.timeline.consultas-concurrentes:6}") int consultasConcurrentes) {
+        this.pacienteRepository = pacienteRepository;
+        this.historiaClinicaRepository = historiaClinicaRepository;
+        this.consultaMedicaRepository = consultaMedicaRepository;
+        this.citaMedicaRepository = citaMedicaRepository;
+        this.documentoMedicoRepository = documentoMedicoRepository;
+        this.lectura = new TransactionTemplate(transactionManager);
+        this.lectura.setReadOnly(true);
+        this.permisos = new Semaphore(Math.max(1, consultasConcurrentes), true);
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        ejecutor.shutdown();
+    }
+
+    /**
+     * Página de la línea de tiempo del paciente a partir del cursor (sin cursor, desde el evento más reciente)
+     */
+    public PaginaCursor<EventoTimelineDTO> obtenerTimeline(Long pacienteId, String cursor, int tamano) {
+        if (!pacienteRepository.existsById(pacienteId)) {
+            throw new IllegalArgumentException(PACIENTE_NO_ENCONTRADO + pacienteId);
+        }
+        Posicion desde = Posicion.decodificar(cursor);
+        int limite = Math.max(1, Math.min(tamano, TAMANO_MAXIMO));
+        // Un elemento extra por origen para saber si hay página siguiente
+        Pageable pagina = PageRequest.of(0, limite + 1);
+
+        List<CompletableFuture<List<EventoTimelineDTO>>> consultas = List.of(
+            enParalelo(() -> historiaClinicaRepository.findParaTimeline(
+                    pacienteId, desde.fecha, desde.idLimite(Tipo.HISTORIA), pagina).stream()
+                .map(h -> new EventoTimelineDTO(Tipo.HISTORIA, h.getId(), h.getFechaApertura(), h.getId(), null, h.getDatosJson()))
+                .toList()),
+            enParalelo(() -> consultaMedicaRepository.findParaTimeline(
+                    pacienteId, desde.fecha, desde.idLimite(Tipo.CONSULTA), pagina).stream()
+                .map(c -> new EventoTimelineDTO(Tipo.CONSULTA, c.getId(), c.getFechaCreacion(),
+                    c.getHistoriaClinica().getId(), c.getCitaId(), c.getDatosJson()))
+                .toList()),
+            enParalelo(() -> citaMedicaRepository.findParaTimeline(
+                    pacienteId, desde.fecha, desde.idLimite(Tipo.CITA), pagina).stream()
+                .map(c -> new EventoTimelineDTO(Tipo.CITA, c.getId(),
+                    c.getFechaHoraCita() != null ? c.getFechaHoraCita() : c.getFechaCreacion(), null, c.getId(), c.getDatosJson()))
+                .toList()),
+            enParalelo(() -> documentoMedicoRepository.findParaTimeline(
+                    pacienteId, desde.fecha, desde.idLimite(Tipo.DOCUMENTO), pagina).stream()
+                .map(d -> new EventoTimelineDTO(Tipo.DOCUMENTO, d.getId(), d.getFechaCreacion(), null,
+                    d.getCitaMedica().getId(), d.getJsonData()))
+                .toList()));
+
+        List<EventoTimelineDTO> eventos = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<EventoTimelineDTO>> consulta : consultas) {
+                eventos.addAll(consulta.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
+        }
+        eventos.sort(ORDEN);
+
+        boolean haySiguiente = eventos.size() > limite;
+        List<EventoTimelineDTO> contenido = haySiguiente ? new ArrayList<>(eventos.subList(0, limite)) : eventos;
+        String siguiente = haySiguiente ? Posicion.de(contenido.get(contenido.size() - 1)).codificar() : null;
+        return new PaginaCursor<>(contenido, siguiente, limite);
+    }
+
+    private CompletableFuture<List<EventoTimelineDTO>> enParalelo(Supplier<List<EventoTimelineDTO>> consulta) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                permisos.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Consulta de línea de tiempo interrumpida", e);
+            }
+            try {
+                return lectura.execute(status -> consulta.get());
+            } finally {
+                permisos.release();
+            }
+        }, ejecutor);
+    }
+
+    /**
+     * Posición del último evento devuelto; los eventos siguientes son los posteriores en {@link #ORDEN}
+     */
+    private record Posicion(LocalDateTime fecha, Tipo tipo, Long id) {
+
+        static Posicion de(EventoTimelineDTO evento) {
+            return new Posicion(evento.getFecha(), evento.getTipo(), evento.getId());
+        }
+
+        /**
+         * Límite de id para un origen en la misma fecha del cursor: los tipos que van después en el orden
+         * entran completos, los que van antes ya se devolvieron y el del cursor sigue desde su id
+         */
+        Long idLimite(Tipo origen) {
+            if (tipo == null || origen.ordinal() > tipo.ordinal()) {
+                return Long.MAX_VALUE;
+            }
+            return origen == tipo ? id : Long.MIN_VALUE;
+        }
+
+        String codificar() {
+            String valor = PREFIJO_CURSOR + fecha + "|" + tipo + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(valor.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Posicion decodificar(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return new Posicion(FECHA_INICIAL, null, null);
+            }
+            try {
+                String valor = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+                String[] partes = valor.startsWith(PREFIJO_CURSOR)
+                    ? valor.substring(PREFIJO_CURSOR.length()).split("\\|")
+                    : new String[0];
+                if (partes.length != 3) {
+                    throw new IllegalArgumentException("Cursor inválido");
+                }
+                return new Posicion(LocalDateTime.parse(partes[0]), Tipo.valueOf(partes[1]), Long.parseLong(partes[2]));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Cursor inválido: " + cursor);
+            }
+        }
+    }
+}
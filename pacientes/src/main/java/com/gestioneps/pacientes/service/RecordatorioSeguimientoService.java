@@ -0,0 +1,246 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recordatorios por correo de la próxima cita indicada en el seguimiento de las consultas.
+ *
+ * Cada ciclo recorre por keyset (proxima_cita, id) las consultas con próxima cita dentro de la anticipación
+ * configurada, reclamando lotes pequeños con FOR UPDATE SKIP LOCKED y un plazo de reclamo, de modo que varias
+ * instancias no toman la misma consulta. Los correos se envían en un pool acotado (si la cola se llena, el ciclo
+ * envía él mismo y así se frena) con reintentos; el recordatorio se cierra una sola vez con un UPDATE condicionado.
+ * Si una instancia cae entre el envío y el cierre, el recordatorio se reenvía cuando vence el plazo.
+ */
+@Service
+public class RecordatorioSeguimientoService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordatorioSeguimientoService.class);
+
+    static final String ENVIADO = "ENVIADO";
+    static final String SIN_EMAIL = "SIN_EMAIL";
+
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy 'a las' HH:mm");
+    private static final long ESPERA_BASE_MS = 1000L;
+
+    private final ConsultaMedicaRepository consultaMedicaRepository;
+    private final JavaMailSender mailSender;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor enviadores;
+
+    @Value("${pacientes.recordatorios.habilitado:false}")
+    private boolean habilitado;
+
+    @Value("${pacientes.recordatorios.anticipacion-horas:48}")
+    private int anticipacionHoras;
+
+    @Value("${pacientes.recordatorios.tamano-lote:50}")
+    private int tamanoLote;
+
+    @Value("${pacientes.recordatorios.reintentos:3}")
+    private int reintentos;
+
+    @Value("${pacientes.recordatorios.max-intentos:5}")
+    private int maxIntentos;
+
+    @Value("${pacientes.recordatorios.plazo-reclamo-minutos:10}")
+    private int plazoReclamoMinutos;
+
+    @Value("${pacientes.recordatorios.remitente:${spring.mail.username:}}")
+    private String remitente;
+
+    public RecordatorioSeguimientoService(ConsultaMedicaRepository consultaMedicaRepository,
+                                          JavaMailSender mailSender,
+                                          PlatformTransactionManager transactionManager,
+                                          @Value("${pacientes.recordatorios.hilos:4}") int hilos,
+                                          @Value("${pacientes.recordatorios.cola:100}") int cola) {
+        this.consultaMedicaRepository = consultaMedicaRepository;
+        this.mailSender = mailSender;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        AtomicInteger numeroHilo = new AtomicInteger();
+        int tamanoPool = Math.max(1, hilos);
+        this.enviadores = new ThreadPoolExecutor(tamanoPool, tamanoPool, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, cola)), tarea -> {
+                Thread hilo = new Thread(tarea, "recordatorios-" + numeroHilo.incrementAndGet());
+                hilo.setDaemon(true);
+                return hilo;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        // Lo que quede en cola se retoma en otro ciclo cuando vence el plazo de reclamo
+        enviadores.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${pacientes.recordatorios.intervalo-ms:300000}",
+               initialDelayString = "${pacientes.recordatorios.intervalo-ms:300000}")
+    public void programar() {
+        if (!habilitado) {
+            return;
+        }
+        try {
+            int encolados = despachar();
+            if (encolados > 0) {
+                LOGGER.info("Recordatorios de próxima cita encolados: {}", encolados);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Error despachando recordatorios de próxima cita: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reclamar por lotes los recordatorios pendientes y encolar su envío. Devuelve el número de recordatorios encolados.
+     */
+    public int despachar() {
+        LocalDateTime ahora = LocalDateTime.now();
+        LocalDateTime hasta = ahora.plusHours(anticipacionHoras);
+        LocalDateTime reclamadoHasta = ahora.plusMinutes(plazoReclamoMinutos);
+        LocalDateTime ultimaFecha = ahora.minusSeconds(1);
+        long ultimoId = 0L;
+        int encolados = 0;
+        while (true) {
+            final LocalDateTime desdeFecha = ultimaFecha;
+            final long desdeId = ultimoId;
+            List<Object[]> reclamados = transactionTemplate.execute(status -> consultaMedicaRepository.reclamarRecordatorios(
+                ahora, hasta, desdeFecha, desdeId, ahora, reclamadoHasta, maxIntentos, tamanoLote));
+            if (reclamados == null || reclamados.isEmpty()) {
+                return encolados;
+            }
+            List<Long> ids = new ArrayList<>(reclamados.size());
+            for (Object[] fila : reclamados) {
+                Long id = ((Number) fila[0]).longValue();
+                LocalDateTime fecha = aFecha(fila[1]);
+                ids.add(id);
+                if (fecha.isAfter(ultimaFecha) || (fecha.isEqual(ultimaFecha) && id > ultimoId)) {
+                    ultimaFecha = fecha;
+                    ultimoId = id;
+                }
+            }
+            List<Object[]> datos = transactionTemplate.execute(status -> consultaMedicaRepository.findDatosRecordatorio(ids));
+            for (Object[] fila : datos) {
+                Recordatorio recordatorio = new Recordatorio((Long) fila[0], (LocalDateTime) fila[1], (String) fila[2],
+                    (String) fila[3], (String) fila[4], (String) fila[5]);
+                enviadores.execute(() -> enviar(recordatorio));
+                encolados++;
+            }
+        }
+    }
+
+    private void enviar(Recordatorio recordatorio) {
+        if (recordatorio.email == null || recordatorio.email.isBlank()) {
+            cerrarRecordatorio(recordatorio.consultaId, SIN_EMAIL);
+            return;
+        }
+        SimpleMailMessage mensaje = construirMensaje(recordatorio);
+        for (int intento = 1; ; intento++) {
+            try {
+                mailSender.send(mensaje);
+                cerrarRecordatorio(recordatorio.consultaId, ENVIADO);
+                return;
+            } catch (MailSendException e) {
+                if (intento >= reintentos || !esperar(intento)) {
+                    LOGGER.warn("No se pudo enviar el recordatorio de la consulta {} tras {} intentos: {}",
+                        recordatorio.consultaId, intento, e.getMessage());
+                    liberar(recordatorio.consultaId);
+                    return;
+                }
+            } catch (MailException e) {
+                LOGGER.warn("Recordatorio de la consulta {} no enviado: {}", recordatorio.consultaId, e.getMessage());
+                liberar(recordatorio.consultaId);
+                return;
+            }
+        }
+    }
+
+    SimpleMailMessage construirMensaje(Recordatorio recordatorio) {
+        StringBuilder texto = new StringBuilder()
+            .append("Hola ").append(recordatorio.paciente != null ? recordatorio.paciente : "").append(",\n\n")
+            .append("Le recordamos que tiene una cita de control el ").append(FORMATO_FECHA.format(recordatorio.proximaCita));
+        if (recordatorio.medico != null) {
+            texto.append(" con ").append(recordatorio.medico);
+        }
+        if (recordatorio.especialidad != null) {
+            texto.append(" (").append(recordatorio.especialidad).append(")");
+        }
+        texto.append(".\n\nSi no puede asistir, comuníquese con nosotros para reprogramarla.\n");
+
+        SimpleMailMessage mensaje = new SimpleMailMessage();
+        if (remitente != null && !remitente.isBlank()) {
+            mensaje.setFrom(remitente);
+        }
+        mensaje.setTo(recordatorio.email);
+        mensaje.setSubject("Recordatorio de cita de control");
+        mensaje.setText(texto.toString());
+        return mensaje;
+    }
+
+    private void cerrarRecordatorio(Long consultaId, String estado) {
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                consultaMedicaRepository.cerrarRecordatorio(consultaId, estado, LocalDateTime.now()));
+        } catch (RuntimeException e) {
+            LOGGER.error("No se pudo marcar el recordatorio de la consulta {} como {}: {}", consultaId, estado, e.getMessage(), e);
+        }
+    }
+
+    private void liberar(Long consultaId) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> consultaMedicaRepository.liberarRecordatorio(consultaId));
+        } catch (RuntimeException e) {
+            // El plazo de reclamo vence solo
+            LOGGER.warn("No se pudo liberar el recordatorio de la consulta {}: {}", consultaId, e.getMessage());
+        }
+    }
+
+    private static boolean esperar(int intento) {
+        try {
+            Thread.sleep(ESPERA_BASE_MS << (intento - 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static LocalDateTime aFecha(Object valor) {
+        if (valor instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        return (LocalDateTime) valor;
+    }
+
+    /**
+     * Próxima cita del seguimiento de una consulta
+     */
+    static LocalDateTime proximaCita(JsonNode raiz) {
+        return raiz == null ? null : FechasJson.parsear(
+            MedicoConsulta.primero(raiz, "seguimiento/proximaCita", "detalleConsulta/proximaCita", "proximaCita"));
+    }
+
+    record Recordatorio(Long consultaId, LocalDateTime proximaCita, String medico, String especialidad,
+                        String paciente, String email) {
+    }
+}
@@ -0,0 +1,284 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.dto.PacienteEnSalaDTO;
+import com.gestioneps.pacientes.entity.CitaMedica;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cola en memoria de la sala de espera (citas EN_SALA del día) que se envía por Server-Sent Events a las
+ * pantallas de recepción y de consultorio.
+ *
+ * Cada pantalla recibe al conectarse la cola completa ("snapshot") y después solo los cambios ("entra", "sale"),
+ * filtrados por médico si lo pidió. La cola se mantiene con {@link CitaModificadaEvent} tras el commit y se
+ * reconcilia cada cierto tiempo con la base de datos, lo que también la vacía al cambiar de día y recoge los
+ * cambios hechos por otras instancias. Cada suscriptor tiene un buffer acotado que se vacía en su propio hilo
+ * virtual: si una pantalla lenta lo llena, se descartan sus eventos pendientes y se le envía la cola completa.
+ */
+@Service
+public class SalaEsperaService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SalaEsperaService.class);
+    private static final String ESTADO_EN_SALA = "EN_SALA";
+
+    private static final Comparator<PacienteEnSalaDTO> ORDEN = Comparator
+        .comparing(PacienteEnSalaDTO::getFechaHoraCita, Comparator.nullsLast(Comparator.naturalOrder()))
+        .thenComparing(PacienteEnSalaDTO::getCitaId);
+
+    private final CitaMedicaRepository citaMedicaRepository;
+    private final TransactionTemplate lectura;
+    private final long tiempoConexionMs;
+    private final int tamanoBuffer;
+    private final int maximoSuscriptores;
+
+    private final Map<Long, PacienteEnSalaDTO> enSala = new HashMap<>();
+    // Citas cambiadas por eventos desde que empezó la última reconciliación: la lectura no las pisa
+    private final Map<Long, Long> cambiosRecientes = new HashMap<>();
+    private long secuencia;
+
+    private final List<Suscriptor> suscriptores = new CopyOnWriteArrayList<>();
+    private final ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicBoolean reconciliando = new AtomicBoolean(false);
+
+    public SalaEsperaService(CitaMedicaRepository citaMedicaRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${pacientes.sala-espera.tiempo-conexion-ms:1800000}") long tiempoConexionMs,
+                             @Value("${pacientes.sala-espera.tamano-buffer:100}") int tamanoBuffer,
+                             @Value("${pacientes.sala-espera.maximo-suscriptores:1000}") int maximoSuscriptores) {
+        this.citaMedicaRepository = citaMedicaRepository;
+        this.lectura = new TransactionTemplate(transactionManager);
+        this.lectura.setReadOnly(true);
+        this.tiempoConexionMs = tiempoConexionMs;
+        this.tamanoBuffer = Math.max(2, tamanoBuffer);
+        this.maximoSuscriptores = maximoSuscriptores;
+    }
+
+    /**
+     * La cita tal como se ve en la sala de espera, o null si no está en sala hoy
+     */
+    static PacienteEnSalaDTO enSala(CitaMedica cita) {
+        if (!Boolean.TRUE.equals(cita.getActiva()) || !ESTADO_EN_SALA.equals(cita.getEstado())
+                || cita.getFechaHoraCita() == null || !cita.getFechaHoraCita().toLocalDate().equals(LocalDate.now())) {
+            return null;
+        }
+        return new PacienteEnSalaDTO(cita.getId(), cita.getPaciente().getId(), cita.getPaciente().getNombreParaMostrar(),
+            cita.getMedicoClave(), cita.getMedicoNombre(), cita.getFechaHoraCita(), cita.getFechaActualizacion());
+    }
+
+    /**
+     * Conectar una pantalla a la sala de espera, de todos los médicos o de uno (por id de empleado o nombre)
+     */
+    public SseEmitter suscribir(String medicoId, String medico) {
+        if (suscriptores.size() >= maximoSuscriptores) {
+            throw new IllegalStateException("Se alcanzó el máximo de pantallas conectadas a la sala de espera");
+        }
+        Suscriptor suscriptor = new Suscriptor(new SseEmitter(tiempoConexionMs), HorarioCita.claveMedico(medicoId, medico),
+            new ArrayBlockingQueue<>(tamanoBuffer));
+        suscriptor.emisor.onCompletion(() -> suscriptores.remove(suscriptor));
+        suscriptor.emisor.onTimeout(suscriptor.emisor::complete);
+        suscriptor.emisor.onError(error -> suscriptores.remove(suscriptor));
+        synchronized (this) {
+            suscriptor.cola.offer(snapshot(suscriptor));
+            suscriptores.add(suscriptor);
+        }
+        programarEnvio(suscriptor);
+        return suscriptor.emisor;
+    }
+
+    /**
+     * Cola actual, de todos los médicos o de uno
+     */
+    public synchronized List<PacienteEnSalaDTO> obtenerCola(String medicoClave) {
+        return enSala.values().stream()
+            .filter(paciente -> medicoClave == null || medicoClave.equals(paciente.getMedicoClave()))
+            .sorted(ORDEN)
+            .toList();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alModificarCita(CitaModificadaEvent evento) {
+        synchronized (this) {
+            cambiosRecientes.put(evento.getCitaId(), ++secuencia);
+            aplicar(evento.getCitaId(), evento.getEnSala());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargarAlArrancar() {
+        reconciliar();
+    }
+
+    /**
+     * Releer la sala de espera del día y enviar las diferencias con la cola en memoria
+     */
+    @Scheduled(fixedDelayString = "${pacientes.sala-espera.reconciliacion-ms:60000}",
+               initialDelayString = "${pacientes.sala-espera.reconciliacion-ms:60000}")
+    public void reconciliar() {
+        if (!reconciliando.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long inicio;
+            synchronized (this) {
+                inicio = secuencia;
+            }
+            LocalDate hoy = LocalDate.now();
+            List<PacienteEnSalaDTO> leidos = lectura.execute(status -> citaMedicaRepository
+                .findByEstado(ESTADO_EN_SALA, hoy.atStartOfDay(), hoy.plusDays(1).atStartOfDay()).stream()
+                .map(SalaEsperaService::enSala)
+                .filter(Objects::nonNull)
+                .toList());
+            if (leidos == null) {
+                return;
+            }
+            synchronized (this) {
+                Map<Long, PacienteEnSalaDTO> actuales = new HashMap<>();
+                leidos.forEach(paciente -> actuales.put(paciente.getCitaId(), paciente));
+                for (Long citaId : new ArrayList<>(enSala.keySet())) {
+                    if (!actuales.containsKey(citaId) && cambiosRecientes.getOrDefault(citaId, 0L) <= inicio) {
+                        aplicar(citaId, null);
+                    }
+                }
+                for (PacienteEnSalaDTO paciente : actuales.values()) {
+                    if (cambiosRecientes.getOrDefault(paciente.getCitaId(), 0L) <= inicio
+                            && !igual(enSala.get(paciente.getCitaId()), paciente)) {
+                        aplicar(paciente.getCitaId(), paciente);
+                    }
+                }
+                cambiosRecientes.clear();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("No se pudo reconciliar la sala de espera: {}", e.getMessage());
+        } finally {
+            reconciliando.set(false);
+        }
+    }
+
+    /**
+     * Comentario periódico para que proxies y navegadores no cierren las conexiones inactivas
+     */
+    @Scheduled(fixedDelayString = "${pacientes.sala-espera.heartbeat-ms:15000}")
+    public void enviarHeartbeat() {
+        for (Suscriptor suscriptor : suscriptores) {
+            if (suscriptor.cola.offer(SseEmitter.event().comment("ping"))) {
+                programarEnvio(suscriptor);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        suscriptores.forEach(suscriptor -> suscriptor.emisor.complete());
+        ejecutor.shutdown();
+    }
+
+    /**
+     * Aplicar un cambio a la cola y encolarlo a los suscriptores interesados; se llama con el monitor tomado
+     */
+    private void aplicar(Long citaId, PacienteEnSalaDTO actual) {
+        PacienteEnSalaDTO anterior = actual != null ? enSala.put(citaId, actual) : enSala.remove(citaId);
+        if (anterior == null && actual == null) {
+            return;
+        }
+        for (Suscriptor suscriptor : suscriptores) {
+            boolean antes = anterior != null && suscriptor.interesa(anterior);
+            boolean ahora = actual != null && suscriptor.interesa(actual);
+            if (ahora) {
+                encolar(suscriptor, SseEmitter.event().name("entra").data(actual, MediaType.APPLICATION_JSON));
+            } else if (antes) {
+                encolar(suscriptor, SseEmitter.event().name("sale").data(Map.of("citaId", citaId), MediaType.APPLICATION_JSON));
+            }
+        }
+    }
+
+    private static boolean igual(PacienteEnSalaDTO a, PacienteEnSalaDTO b) {
+        return a != null && b != null
+            && Objects.equals(a.getPacienteNombre(), b.getPacienteNombre())
+            && Objects.equals(a.getMedicoClave(), b.getMedicoClave())
+            && Objects.equals(a.getMedicoNombre(), b.getMedicoNombre())
+            && Objects.equals(a.getFechaHoraCita(), b.getFechaHoraCita())
+            && Objects.equals(a.getEnSalaDesde(), b.getEnSalaDesde());
+    }
+
+    private void encolar(Suscriptor suscriptor, SseEmitter.SseEventBuilder evento) {
+        if (!suscriptor.cola.offer(evento)) {
+            // Pantalla atrasada: se descarta lo pendiente y se le reenvía la cola completa
+            suscriptor.cola.clear();
+            suscriptor.cola.offer(snapshot(suscriptor));
+        }
+        programarEnvio(suscriptor);
+    }
+
+    private SseEmitter.SseEventBuilder snapshot(Suscriptor suscriptor) {
+        return SseEmitter.event().name("snapshot").data(obtenerCola(suscriptor.medicoClave), MediaType.APPLICATION_JSON);
+    }
+
+    /**
+     * Vaciar el buffer del suscriptor en un hilo virtual; a lo sumo un envío en curso por suscriptor
+     */
+    private void programarEnvio(Suscriptor suscriptor) {
+        if (!suscriptor.enviando.compareAndSet(false, true)) {
+            return;
+        }
+        ejecutor.execute(() -> {
+            try {
+                do {
+                    SseEmitter.SseEventBuilder evento;
+                    while ((evento = suscriptor.cola.poll()) != null) {
+                        suscriptor.emisor.send(evento);
+                    }
+                    suscriptor.enviando.set(false);
+                } while (!suscriptor.cola.isEmpty() && suscriptor.enviando.compareAndSet(false, true));
+            } catch (IOException | IllegalStateException e) {
+                suscriptores.remove(suscriptor);
+                suscriptor.cola.clear();
+                suscriptor.emisor.completeWithError(e);
+            }
+        });
+    }
+
+    private static final class Suscriptor {
+
+        private final SseEmitter emisor;
+        private final String medicoClave;
+        private final BlockingQueue<SseEmitter.SseEventBuilder> cola;
+        private final AtomicBoolean enviando = new AtomicBoolean(false);
+
+        Suscriptor(SseEmitter emisor, String medicoClave, BlockingQueue<SseEmitter.SseEventBuilder> cola) {
+            this.emisor = emisor;
+            this.medicoClave = medicoClave;
+            this.cola = cola;
+        }
+
+        boolean interesa(PacienteEnSalaDTO paciente) {
+            return medicoClave == null || medicoClave.equals(paciente.getMedicoClave());
+        }
+    }
+}
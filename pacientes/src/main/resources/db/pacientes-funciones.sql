@@ -0,0 +1,19 @@
+-- Funciones que usan las sentencias nativas del servicio. Se ejecuta antes de pacientes-indices.sql.
+-- Los cuerpos van entre comillas simples y no entre $$ para que el separador de sentencias de spring.sql.init
+-- no los corte en cada punto y coma.
+
+-- JSON de una cita con la clave "estado" reemplazada. Si el JSON guardado no es un objeto o no se puede leer lo
+-- devuelve sin cambios: el cambio de estado se aplica igual a la columna en lugar de fallar toda la sentencia.
+CREATE OR REPLACE FUNCTION cita_json_con_estado(datos text, estado text) RETURNS text
+LANGUAGE plpgsql IMMUTABLE AS '
+DECLARE
+    documento jsonb;
+BEGIN
+    documento := CAST(datos AS jsonb);
+    IF jsonb_typeof(documento) <> ''object'' THEN
+        RETURN datos;
+    END IF;
+    RETURN CAST(jsonb_set(documento, ''{estado}'', to_jsonb(estado)) AS text);
+EXCEPTION WHEN invalid_text_representation THEN
+    RETURN datos;
+END';
@@ -0,0 +1,22 @@
+-- Índices de búsqueda sobre las columnas materializadas de pacientes.
+-- Se ejecuta después de que Hibernate actualiza el esquema (spring.jpa.defer-datasource-initialization=true).
+-- CONCURRENTLY evita bloquear escrituras mientras se construyen los índices en tablas existentes.
+-- Un error detiene el arranque; si una construcción concurrente falla deja el índice INVALID, que IF NOT EXISTS
+-- saltaría en el siguiente arranque: IndicesInvalidosVerificador lo detecta y lo reconstruye.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_pacientes_nombre_completo_trgm ON pacientes USING gin (lower(nombre_completo) gin_trgm_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_pacientes_eps_trgm ON pacientes USING gin (lower(eps) gin_trgm_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_pacientes_ciudad_trgm ON pacientes USING gin (lower(ciudad) gin_trgm_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_pacientes_email_trgm ON pacientes USING gin (lower(email) gin_trgm_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_pacientes_numero_documento_trgm ON pacientes USING gin (lower(numero_documento) gin_trgm_ops);
+
+-- Búsqueda de historias por diagnóstico: prefijo de código CIE-10 y subcadena del texto plegado
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_diagnosticos_codigo_prefijo ON diagnosticos_indexados (codigo text_pattern_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_diagnosticos_texto_trgm ON diagnosticos_indexados USING gin (texto gin_trgm_ops);
+
+-- Búsqueda de consultas por nombre de médico y especialidad (columnas plegadas al escribir)
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_consultas_medico_nombre_trgm ON consultas_medicas USING gin (medico_nombre_busqueda gin_trgm_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_consultas_especialidad_trgm ON consultas_medicas USING gin (especialidad_busqueda gin_trgm_ops);
+
+-- Recordatorios de próxima cita pendientes, en el orden en que los recorre el despachador
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_consultas_recordatorio_pendiente ON consultas_medicas (proxima_cita, id) WHERE recordatorio_estado IS NULL;
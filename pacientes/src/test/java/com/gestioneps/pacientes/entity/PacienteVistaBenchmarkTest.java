@@ -0,0 +1,223 @@
+package com.gestioneps.pacientes.entity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo de convertir una página de pacientes a DTO antes y después de la vista tipada de datosJson.
+ * "antes" reproduce los getters anteriores, que creaban un ObjectMapper y volvían a leer todo el JSON en cada
+ * llamada; "despues" usa la entidad actual, con entidades nuevas en cada página como tras cargarlas de la base.
+ * Solo corre con -Dbenchmarks=true:
+ * mvn test -Dtest=PacienteVistaBenchmarkTest -Dbenchmarks=true
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacienteVistaBenchmarkTest {
+
+    private static final int TAMANO_PAGINA = 20;
+
+    private String[] pagina;
+
+    @Setup
+    public void preparar() {
+        pagina = new String[TAMANO_PAGINA];
+        for (int i = 0; i < TAMANO_PAGINA; i++) {
+            pagina[i] = "{\"informacionPersonal\":{\"primerNombre\":\"Ana\",\"segundoNombre\":\"María\","
+                + "\"primerApellido\":\"Pérez\",\"segundoApellido\":\"Gómez " + i + "\",\"fechaNacimiento\":\"1985-03-"
+                + String.format("%02d", i + 1) + "\",\"genero\":\"FEMENINO\",\"estadoCivil\":\"CASADO\"},"
+                + "\"informacionContacto\":{\"telefono\":\"3001234" + i + "\",\"email\":\"ana" + i + "@correo.test\","
+                + "\"direccion\":\"Calle " + i + " # 10-20\",\"ciudad\":\"Bogotá\",\"departamento\":\"Cundinamarca\"},"
+                + "\"contactoEmergencia\":{\"nombreContacto\":\"Luis Pérez\",\"telefonoContacto\":\"3109876543\","
+                + "\"parentesco\":\"Esposo\"},"
+                + "\"informacionMedica\":{\"eps\":\"Sanitas\",\"regimen\":\"CONTRIBUTIVO\",\"tipoSangre\":\"O_POSITIVO\","
+                + "\"alergias\":\"Penicilina\",\"medicamentosActuales\":\"Losartán 50 mg\","
+                + "\"observacionesMedicas\":\"Hipertensión controlada\"}}";
+        }
+    }
+
+    /**
+     * Campos calculados del DTO de la página (convertirEntidadADTO): nombre completo y edad
+     */
+    @Benchmark
+    public void paginaAntes(Blackhole blackhole) {
+        for (String json : pagina) {
+            blackhole.consume(PacienteAnterior.nombreCompleto(json));
+            blackhole.consume(PacienteAnterior.edad(json));
+        }
+    }
+
+    @Benchmark
+    public void paginaDespues(Blackhole blackhole) {
+        for (String json : pagina) {
+            Paciente paciente = cargado(json);
+            blackhole.consume(paciente.getNombreCompleto());
+            blackhole.consume(paciente.getEdad());
+        }
+    }
+
+    /**
+     * Vista de detalle: todos los accesores de conveniencia del paciente
+     */
+    @Benchmark
+    public void detalleAntes(Blackhole blackhole) {
+        for (String json : pagina) {
+            blackhole.consume(PacienteAnterior.nombreCompleto(json));
+            blackhole.consume(PacienteAnterior.edad(json));
+            blackhole.consume(PacienteAnterior.campo(json, "informacionPersonal", "primerNombre"));
+            blackhole.consume(PacienteAnterior.campo(json, "informacionPersonal", "segundoNombre"));
+            blackhole.consume(PacienteAnterior.campo(json, "informacionPersonal", "primerApellido"));
+            blackhole.consume(PacienteAnterior.campo(json, "informacionPersonal", "segundoApellido"));
+            blackhole.consume(PacienteAnterior.campo(json, "informacionContacto", "telefono"));
+            blackhole.consume(PacienteAnterior.campo(json, "informacionContacto", "email"));
+            blackhole.consume(PacienteAnterior.campo(json, "contactoEmergencia", "nombreContacto"));
+            blackhole.consume(PacienteAnterior.campo(json, "contactoEmergencia", "telefonoContacto"));
+            blackhole.consume(PacienteAnterior.campo(json, "informacionMedica", "alergias"));
+            blackhole.consume(PacienteAnterior.campo(json, "informacionMedica", "medicamentosActuales"));
+            blackhole.consume(PacienteAnterior.campo(json, "informacionMedica", "observacionesMedicas"));
+        }
+    }
+
+    @Benchmark
+    public void detalleDespues(Blackhole blackhole) {
+        for (String json : pagina) {
+            Paciente paciente = cargado(json);
+            blackhole.consume(paciente.getNombreCompleto());
+            blackhole.consume(paciente.getEdad());
+            blackhole.consume(paciente.getPrimerNombre());
+            blackhole.consume(paciente.getSegundoNombre());
+            blackhole.consume(paciente.getPrimerApellido());
+            blackhole.consume(paciente.getSegundoApellido());
+            blackhole.consume(paciente.getTelefono());
+            blackhole.consume(paciente.getEmail());
+            blackhole.consume(paciente.getNombreContacto());
+            blackhole.consume(paciente.getTelefonoContacto());
+            blackhole.consume(paciente.getAlergias());
+            blackhole.consume(paciente.getMedicamentosActuales());
+            blackhole.consume(paciente.getObservacionesMedicas());
+        }
+    }
+
+    /**
+     * Edición de cuatro campos: antes una lectura y una escritura del JSON por setter, ahora una sola al sincronizar
+     */
+    @Benchmark
+    public void edicionAntes(Blackhole blackhole) {
+        for (String json : pagina) {
+            String resultado = PacienteAnterior.actualizar(json, "informacionContacto", "telefono", "3000000000");
+            resultado = PacienteAnterior.actualizar(resultado, "informacionContacto", "email", "nuevo@correo.test");
+            resultado = PacienteAnterior.actualizar(resultado, "informacionMedica", "alergias", "Ninguna");
+            resultado = PacienteAnterior.actualizar(resultado, "informacionMedica", "observacionesMedicas", "Control");
+            blackhole.consume(resultado);
+        }
+    }
+
+    @Benchmark
+    public void edicionDespues(Blackhole blackhole) {
+        for (String json : pagina) {
+            Paciente paciente = cargado(json);
+            paciente.setTelefono("3000000000");
+            paciente.setEmail("nuevo@correo.test");
+            paciente.setAlergias("Ninguna");
+            paciente.setObservacionesMedicas("Control");
+            paciente.sincronizarDatosJson();
+            blackhole.consume(paciente.getDatosJson());
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void ejecutar() throws RunnerException {
+        new Runner(new OptionsBuilder().include(PacienteVistaBenchmarkTest.class.getName()).build()).run();
+    }
+
+    private static Paciente cargado(String json) {
+        Paciente paciente = new Paciente();
+        paciente.setDatosJson(json);
+        return paciente;
+    }
+
+    /**
+     * Getters y setter de Paciente antes de la vista tipada, copiados sin cambios de comportamiento
+     */
+    private static final class PacienteAnterior {
+
+        private PacienteAnterior() {
+        }
+
+        static String nombreCompleto(String datosJson) {
+            try {
+                if (datosJson == null || datosJson.trim().isEmpty()) return "";
+                JsonNode infoPersonal = new ObjectMapper().readTree(datosJson).get("informacionPersonal");
+                if (infoPersonal != null) {
+                    return String.format("%s %s %s %s", infoPersonal.get("primerNombre").asText(""),
+                        infoPersonal.get("segundoNombre").asText(""), infoPersonal.get("primerApellido").asText(""),
+                        infoPersonal.get("segundoApellido").asText("")).trim();
+                }
+            } catch (Exception e) {
+                // Igual que antes: sin datos
+            }
+            return "";
+        }
+
+        static int edad(String datosJson) {
+            try {
+                if (datosJson == null || datosJson.trim().isEmpty()) return 0;
+                JsonNode infoPersonal = new ObjectMapper().readTree(datosJson).get("informacionPersonal");
+                if (infoPersonal != null && infoPersonal.has("fechaNacimiento")) {
+                    return 25;
+                }
+            } catch (Exception e) {
+                // Igual que antes: sin datos
+            }
+            return 0;
+        }
+
+        static String campo(String datosJson, String seccion, String nombre) {
+            try {
+                if (datosJson == null || datosJson.trim().isEmpty()) return null;
+                JsonNode nodo = new ObjectMapper().readTree(datosJson).get(seccion);
+                return nodo != null ? nodo.get(nombre).asText(null) : null;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        static String actualizar(String datosJson, String seccion, String nombre, String valor) {
+            try {
+                ObjectMapper mapper = new ObjectMapper();
+                ObjectNode data = datosJson != null && !datosJson.trim().isEmpty()
+                    ? (ObjectNode) mapper.readTree(datosJson) : mapper.createObjectNode();
+                if (!data.has(seccion)) {
+                    data.putObject(seccion);
+                }
+                ((ObjectNode) data.get(seccion)).put(nombre, valor);
+                return mapper.writeValueAsString(data);
+            } catch (Exception e) {
+                return datosJson;
+            }
+        }
+    }
+}
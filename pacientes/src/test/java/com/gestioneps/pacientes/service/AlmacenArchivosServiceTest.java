@@ -0,0 +1,48 @@
+package com.gestioneps.pacientes.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * El almacén de adjuntos exige una raíz configurada y escribible desde el arranque
+ */
+class AlmacenArchivosServiceTest {
+
+    @Test
+    void sinDirectorioNoArranca() {
+        assertThrows(IllegalStateException.class, () -> new AlmacenArchivosService(null, " "));
+    }
+
+    @Test
+    void unDirectorioNoEscribibleNoArranca() throws Exception {
+        // Bajo un archivo regular no se pueden crear directorios, ni siquiera con permisos de administrador
+        Path archivo = Files.createTempFile("almacen-", ".txt");
+        try {
+            assertThrows(IllegalStateException.class,
+                () -> new AlmacenArchivosService(null, archivo.resolve("archivos").toString()));
+        } finally {
+            Files.delete(archivo);
+        }
+    }
+
+    @Test
+    void guardaEnElDirectorioConfigurado() throws Exception {
+        Path raiz = Files.createTempDirectory("almacen-");
+        AlmacenArchivosService almacen = new AlmacenArchivosService(null, raiz.toString());
+
+        AlmacenArchivosService.ArchivoAlmacenado archivo = almacen.guardar(
+            new ByteArrayInputStream("contenido".getBytes(StandardCharsets.UTF_8)), "nota.txt");
+
+        Path blob = almacen.ruta(archivo.sha256());
+        assertTrue(blob.startsWith(raiz));
+        assertEquals("contenido", Files.readString(blob));
+    }
+}
@@ -0,0 +1,83 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.CitaMedica;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * La escritura del backfill de citas no pisa el horario ni el médico que la API guardó después de leer el lote
+ */
+@SpringBootTest
+class CitaCamposBackfillTest {
+
+    @Autowired
+    private CitaMedicaRepository citaMedicaRepository;
+
+    @Autowired
+    private PacienteRepository pacienteRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void escribeLasFilasPendientes() {
+        Long id = pendiente(nuevaCita());
+
+        int filas = escribirDesdeJsonLeido(id, "medico backfill");
+
+        assertEquals(1, filas);
+        assertEquals("medico backfill", medicoClave(id));
+    }
+
+    @Test
+    void noPisaUnaEscrituraPosteriorALaLecturaDelLote() {
+        Long id = pendiente(nuevaCita());
+
+        // El backfill ya leyó el JSON anterior; antes de que escriba, la cita se guarda desde la API
+        CitaMedica cita = citaMedicaRepository.findById(id).orElseThrow();
+        cita.setMedicoClave("medico nuevo");
+        cita.setVersionCampos(CitaMedica.VERSION_CAMPOS);
+        citaMedicaRepository.save(cita);
+
+        int filas = escribirDesdeJsonLeido(id, "medico anterior");
+
+        assertEquals(0, filas);
+        assertEquals("medico nuevo", medicoClave(id));
+    }
+
+    private Long nuevaCita() {
+        Paciente paciente = pacienteRepository.save(DatosPrueba.paciente());
+        return citaMedicaRepository.save(DatosPrueba.cita(paciente, LocalDateTime.now().plusDays(1))).getId();
+    }
+
+    private Long pendiente(Long id) {
+        jdbcTemplate.update("UPDATE citas_medicas SET version_campos = NULL WHERE id = ?", id);
+        return id;
+    }
+
+    private int escribirDesdeJsonLeido(Long id, String medicoClave) {
+        LocalDateTime inicio = LocalDateTime.now().plusDays(2);
+        Integer filas = new TransactionTemplate(transactionManager).execute(status ->
+            citaMedicaRepository.actualizarCampos(id, inicio, inicio.plusMinutes(30), medicoClave, medicoClave,
+                "PROGRAMADO", CitaMedica.VERSION_CAMPOS));
+        return filas;
+    }
+
+    private String medicoClave(Long id) {
+        return jdbcTemplate.queryForObject("SELECT medico_clave FROM citas_medicas WHERE id = ?", String.class, id);
+    }
+}
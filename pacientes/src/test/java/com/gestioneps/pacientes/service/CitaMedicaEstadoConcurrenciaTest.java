@@ -0,0 +1,149 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gestioneps.pacientes.dto.CitaMedicaDTO;
+import com.gestioneps.pacientes.entity.CitaMedica;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.exception.DatosCitaInvalidosException;
+import com.gestioneps.pacientes.exception.EstadoCitaConflictoException;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Cambio de estado de una cita por compare-and-set con muchos hilos compitiendo por la misma transición, y con
+ * JSON guardados que no son un objeto
+ */
+@SpringBootTest
+class CitaMedicaEstadoConcurrenciaTest {
+
+    private static final int HILOS = 16;
+
+    @Autowired
+    private CitaMedicaService citaMedicaService;
+
+    @Autowired
+    private CitaMedicaRepository citaMedicaRepository;
+
+    @Autowired
+    private PacienteRepository pacienteRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Paciente paciente;
+
+    private Long citaId;
+
+    @BeforeEach
+    void crearCita() {
+        FuncionesPostgresH2.registrar(jdbcTemplate);
+        paciente = pacienteRepository.save(DatosPrueba.paciente());
+        citaId = citaMedicaRepository.save(DatosPrueba.cita(paciente, LocalDateTime.now().plusHours(1))).getId();
+    }
+
+    @Test
+    void soloUnHiloAplicaLaTransicionYLosDemasRecibenConflicto() throws Exception {
+        long version = citaMedicaRepository.findById(citaId).orElseThrow().getVersion();
+
+        ExecutorService pool = Executors.newFixedThreadPool(HILOS);
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<Object>> intentos = new ArrayList<>();
+        try {
+            for (int i = 0; i < HILOS; i++) {
+                intentos.add(pool.submit(() -> {
+                    salida.await();
+                    try {
+                        return citaMedicaService.actualizarEstadoCita(citaId, "EN_SALA", version);
+                    } catch (EstadoCitaConflictoException e) {
+                        return e;
+                    }
+                }));
+            }
+            salida.countDown();
+
+            int ganadores = 0;
+            int conflictos = 0;
+            for (Future<Object> intento : intentos) {
+                // Cualquier otra excepción sale por get() y hace fallar la prueba
+                Object resultado = intento.get(60, TimeUnit.SECONDS);
+                if (resultado instanceof CitaMedicaDTO) {
+                    ganadores++;
+                } else {
+                    conflictos++;
+                }
+            }
+            assertEquals(1, ganadores, "Más de un hilo aplicó la misma transición");
+            assertEquals(HILOS - 1, conflictos);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        CitaMedica cita = citaMedicaRepository.findById(citaId).orElseThrow();
+        assertEquals("EN_SALA", cita.getEstado());
+        assertEquals(version + 1, cita.getVersion().longValue(), "La versión debe subir una sola vez");
+        assertEquals("EN_SALA", new ObjectMapper().readTree(cita.getDatosJson()).path("estado").asText());
+    }
+
+    @Test
+    void unaVersionViejaEsConflictoAunqueLaTransicionYaNoSeaValida() {
+        long version = citaMedicaRepository.findById(citaId).orElseThrow().getVersion();
+        citaMedicaService.actualizarEstadoCita(citaId, "EN_SALA", version);
+
+        assertThrows(EstadoCitaConflictoException.class,
+            () -> citaMedicaService.actualizarEstadoCita(citaId, "EN_SALA", version));
+    }
+
+    @Test
+    void unJsonGuardadoQueNoEsObjetoNoImpideElCambioDeEstado() {
+        Long otraId = citaMedicaRepository.save(DatosPrueba.cita(paciente, LocalDateTime.now().plusHours(2))).getId();
+        jdbcTemplate.update("UPDATE citas_medicas SET datos_json = ? WHERE id = ?", "[\"no es un objeto\"]", citaId);
+        jdbcTemplate.update("UPDATE citas_medicas SET datos_json = ? WHERE id = ?", "{estado: sin comillas}", otraId);
+
+        citaMedicaService.actualizarEstadoCita(citaId, "EN_SALA", null);
+        citaMedicaService.actualizarEstadoCita(otraId, "EN_SALA", null);
+
+        CitaMedica cita = citaMedicaRepository.findById(citaId).orElseThrow();
+        CitaMedica otra = citaMedicaRepository.findById(otraId).orElseThrow();
+        assertEquals("EN_SALA", cita.getEstado());
+        assertEquals("[\"no es un objeto\"]", cita.getDatosJson());
+        assertEquals("EN_SALA", otra.getEstado());
+        assertEquals("{estado: sin comillas}", otra.getDatosJson());
+    }
+
+    @Test
+    void noSePresentoDesactivaLaCitaYSumaLaInasistencia() {
+        citaMedicaService.actualizarEstadoCita(citaId, "NO_SE_PRESENTO", null);
+
+        CitaMedica cita = citaMedicaRepository.findById(citaId).orElseThrow();
+        assertEquals("NO_SE_PRESENTO", cita.getEstado());
+        assertFalse(cita.getActiva(), "Una cita marcada como NO_SE_PRESENTO no debe seguir activa");
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT inasistencias FROM pacientes WHERE id = ?",
+            Integer.class, paciente.getId()).intValue());
+    }
+
+    @Test
+    void rechazaDatosQueNoSonUnObjetoJson() {
+        assertThrows(DatosCitaInvalidosException.class,
+            () -> citaMedicaService.crearCitaDesdeJson(paciente.getId(), "[]"));
+        assertThrows(DatosCitaInvalidosException.class,
+            () -> citaMedicaService.actualizarCita(citaId, "no es json"));
+    }
+}
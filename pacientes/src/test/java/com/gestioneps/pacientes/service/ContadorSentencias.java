@@ -0,0 +1,51 @@
+package com.gestioneps.pacientes.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Cuenta las sentencias SQL que prepara Hibernate durante una acción, a partir de sus estadísticas
+ * (hibernate.generate_statistics en la configuración de pruebas)
+ */
+final class ContadorSentencias {
+
+    private static final long REPOSO_MS = 500;
+    private static final long ESPERA_MAXIMA_MS = 30_000;
+
+    private final Statistics estadisticas;
+
+    ContadorSentencias(EntityManagerFactory entityManagerFactory) {
+        this.estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    Statistics estadisticas() {
+        return estadisticas;
+    }
+
+    /**
+     * Esperar a que terminen las cargas en segundo plano del arranque (índice de búsqueda, filtro de documentos,
+     * contadores): las estadísticas son globales y contarían sus sentencias
+     */
+    void esperarReposo() throws InterruptedException {
+        long limite = System.currentTimeMillis() + ESPERA_MAXIMA_MS;
+        long anterior = -1;
+        while (System.currentTimeMillis() < limite) {
+            long actual = estadisticas.getPrepareStatementCount();
+            if (actual == anterior) {
+                return;
+            }
+            anterior = actual;
+            Thread.sleep(REPOSO_MS);
+        }
+    }
+
+    /**
+     * Sentencias preparadas mientras corre la acción
+     */
+    long contar(Runnable accion) {
+        estadisticas.clear();
+        accion.run();
+        return estadisticas.getPrepareStatementCount();
+    }
+}
@@ -0,0 +1,78 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.CitaMedica;
+import com.gestioneps.pacientes.entity.ConsultaMedica;
+import com.gestioneps.pacientes.entity.DocumentoMedico;
+import com.gestioneps.pacientes.entity.HistoriaClinica;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.entity.TipoDocumento;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Entidades sin guardar para armar los datos de las pruebas; los documentos no se repiten entre pruebas
+ */
+final class DatosPrueba {
+
+    private static final AtomicLong DOCUMENTOS = new AtomicLong(90_000_000L);
+    private static final AtomicLong HISTORIAS = new AtomicLong(900_000L);
+
+    private DatosPrueba() {
+    }
+
+    static Paciente paciente() {
+        long documento = DOCUMENTOS.incrementAndGet();
+        Paciente paciente = new Paciente();
+        paciente.setNumeroDocumento(String.valueOf(documento));
+        paciente.setTipoDocumento(TipoDocumento.CC);
+        paciente.setDatosJson("{\"informacionPersonal\":{\"primerNombre\":\"Paciente\",\"primerApellido\":\"Prueba "
+            + documento + "\",\"fechaNacimiento\":\"1980-05-17\"},\"informacionContacto\":{\"email\":\"p" + documento
+            + "@correo.test\",\"ciudad\":\"Bogotá\"},\"informacionMedica\":{\"eps\":\"Sanitas\"}}");
+        return paciente;
+    }
+
+    static HistoriaClinica historia(Paciente paciente) {
+        HistoriaClinica historia = new HistoriaClinica();
+        historia.setNumeroHistoria("HC" + HISTORIAS.incrementAndGet());
+        historia.setPaciente(paciente);
+        historia.setFechaApertura(LocalDateTime.now());
+        historia.setDatosJson("{\"motivoApertura\":\"Prueba\"}");
+        // Como al crearla por el servicio: resumen y datos del paciente ya copiados en la historia
+        historia.setPacienteNombre(paciente.getNombreCompleto());
+        historia.setPacienteDocumento(paciente.getNumeroDocumento());
+        historia.setNumeroConsultas(0L);
+        return historia;
+    }
+
+    static CitaMedica cita(Paciente paciente, LocalDateTime fechaHora) {
+        CitaMedica cita = new CitaMedica();
+        cita.setPaciente(paciente);
+        cita.setDatosJson("{\"estado\":\"PROGRAMADO\",\"fechaHora\":\"" + fechaHora + "\",\"medico\":\"Medico Prueba\"}");
+        cita.setFechaHoraCita(fechaHora);
+        cita.setFechaHoraFin(fechaHora.plusMinutes(30));
+        cita.setMedicoClave("medico prueba");
+        cita.setMedicoNombre("Medico Prueba");
+        cita.setEstado("PROGRAMADO");
+        cita.setVersionCampos(CitaMedica.VERSION_CAMPOS);
+        return cita;
+    }
+
+    static ConsultaMedica consulta(HistoriaClinica historia) {
+        ConsultaMedica consulta = new ConsultaMedica();
+        consulta.setHistoriaClinica(historia);
+        consulta.setDatosJson("{\"informacionConsulta\":{\"tipoConsulta\":\"CONTROL\"},"
+            + "\"informacionMedico\":{\"nombreMedico\":\"Medico Prueba\",\"especialidad\":\"Medicina general\"}}");
+        consulta.setMedicoClave("medico prueba");
+        consulta.setMedicoNombre("Medico Prueba");
+        consulta.setEspecialidad("Medicina general");
+        return consulta;
+    }
+
+    static DocumentoMedico documento(CitaMedica cita) {
+        DocumentoMedico documento = new DocumentoMedico();
+        documento.setCitaMedica(cita);
+        documento.setJsonData("{\"tipoDocumento\":\"ORDEN_MEDICA\",\"descripcion\":\"Prueba\"}");
+        return documento;
+    }
+}
@@ -0,0 +1,38 @@
+package com.gestioneps.pacientes.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Funciones de db/pacientes-funciones.sql que usan las sentencias nativas de cambio de estado de citas, registradas
+ * como alias de H2 para ejecutarlas en las pruebas, donde spring.sql.init no corre.
+ */
+public final class FuncionesPostgresH2 {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private FuncionesPostgresH2() {
+    }
+
+    static void registrar(JdbcTemplate jdbcTemplate) {
+        String clase = FuncionesPostgresH2.class.getName();
+        jdbcTemplate.execute("CREATE ALIAS IF NOT EXISTS cita_json_con_estado FOR \"" + clase + ".citaJsonConEstado\"");
+    }
+
+    public static String citaJsonConEstado(String datos, String estado) throws JsonProcessingException {
+        JsonNode raiz;
+        try {
+            raiz = datos == null ? null : MAPPER.readTree(datos);
+        } catch (JsonProcessingException e) {
+            return datos;
+        }
+        if (!(raiz instanceof ObjectNode objeto)) {
+            return datos;
+        }
+        objeto.put("estado", estado);
+        return MAPPER.writeValueAsString(objeto);
+    }
+}
@@ -0,0 +1,184 @@
+package com.gestioneps.pacientes.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Prueba de carga del asignador de números de historia: varias réplicas, cada una con varios hilos, piden números
+ * a la vez contra una misma secuencia simulada en memoria.
+ */
+class GeneradorNumeroHistoriaTest {
+
+    private static final int BLOQUE = 50;
+    private static final Pattern FORMATO = Pattern.compile("HC(\\d{6})");
+
+    @Test
+    void replicasConcurrentesNoRepitenNumerosNiDejanHuecosMayoresAlBloque() throws Exception {
+        int replicas = 4;
+        int hilosPorReplica = 8;
+        int numerosPorHilo = 2000;
+        SecuenciaEnMemoria secuencia = new SecuenciaEnMemoria(true, 0);
+
+        List<GeneradorNumeroHistoria> generadores = new ArrayList<>();
+        for (int i = 0; i < replicas; i++) {
+            generadores.add(nuevoGenerador(secuencia));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(replicas * hilosPorReplica);
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<List<Long>>> tareas = new ArrayList<>();
+        try {
+            for (GeneradorNumeroHistoria generador : generadores) {
+                for (int h = 0; h < hilosPorReplica; h++) {
+                    tareas.add(pool.submit(() -> {
+                        salida.await();
+                        List<Long> numeros = new ArrayList<>(numerosPorHilo);
+                        for (int n = 0; n < numerosPorHilo; n++) {
+                            numeros.add(valor(generador.siguienteNumero()));
+                        }
+                        return numeros;
+                    }));
+                }
+            }
+            salida.countDown();
+
+            List<Long> asignados = new ArrayList<>();
+            for (Future<List<Long>> tarea : tareas) {
+                asignados.addAll(tarea.get(60, TimeUnit.SECONDS));
+            }
+
+            Set<Long> unicos = new HashSet<>(asignados);
+            assertEquals(asignados.size(), unicos.size(), "Se asignó algún número de historia más de una vez");
+
+            // Los únicos huecos son la parte sin usar del último bloque de cada réplica
+            long maximo = unicos.stream().mapToLong(Long::longValue).max().orElseThrow();
+            long huecos = maximo - unicos.size();
+            assertTrue(huecos <= (long) replicas * (BLOQUE - 1),
+                "Huecos en la numeración (" + huecos + ") mayores que un bloque por réplica");
+            assertTrue(unicos.stream().allMatch(numero -> numero >= 1), "Número fuera del rango de la secuencia");
+
+            // Cada réplica reserva un bloque por cada BLOQUE números, no uno por número
+            long bloquesEsperados = (long) Math.ceil((double) asignados.size() / BLOQUE) + replicas;
+            assertTrue(secuencia.llamadasNextval() <= bloquesEsperados,
+                "Se pidieron " + secuencia.llamadasNextval() + " bloques a la secuencia");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void laSecuenciaSeCreaUnaVezDespuesDelMayorNumeroExistente() {
+        SecuenciaEnMemoria secuencia = new SecuenciaEnMemoria(false, 1234);
+        GeneradorNumeroHistoria generador = nuevoGenerador(secuencia);
+
+        assertEquals("HC001235", generador.siguienteNumero());
+        assertEquals("HC001236", generador.siguienteNumero());
+        assertEquals(1, secuencia.sentenciasCreacion().size());
+        assertTrue(secuencia.sentenciasCreacion().get(0).contains("START WITH 1235 INCREMENT BY " + BLOQUE));
+
+        // Una segunda réplica usa la secuencia existente y recibe el bloque siguiente
+        GeneradorNumeroHistoria otraReplica = nuevoGenerador(secuencia);
+        assertEquals("HC" + String.format("%06d", 1235 + BLOQUE), otraReplica.siguienteNumero());
+        assertEquals(1, secuencia.sentenciasCreacion().size());
+    }
+
+    private static GeneradorNumeroHistoria nuevoGenerador(JdbcTemplate jdbcTemplate) {
+        GeneradorNumeroHistoria generador = new GeneradorNumeroHistoria(jdbcTemplate, mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(generador, "tamanoBloque", BLOQUE);
+        return generador;
+    }
+
+    private static long valor(String numero) {
+        Matcher matcher = FORMATO.matcher(numero);
+        assertTrue(matcher.matches(), "Formato de número inválido: " + numero);
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Secuencia de PostgreSQL simulada: responde las consultas que hace el generador y reparte valores con el
+     * incremento con que se creó, de forma atómica como nextval.
+     */
+    private static final class SecuenciaEnMemoria extends JdbcTemplate {
+
+        private static final Pattern CREACION = Pattern.compile("START WITH (\\d+) INCREMENT BY (\\d+)");
+
+        private final long mayorExistente;
+        private final AtomicLong proximo = new AtomicLong(1);
+        private final AtomicLong nextval = new AtomicLong();
+        private final List<String> creaciones = new CopyOnWriteArrayList<>();
+        private volatile boolean existe;
+        private volatile long incremento = BLOQUE;
+
+        SecuenciaEnMemoria(boolean existe, long mayorExistente) {
+            this.existe = existe;
+            this.mayorExistente = mayorExistente;
+        }
+
+        long llamadasNextval() {
+            return nextval.get();
+        }
+
+        List<String> sentenciasCreacion() {
+            return creaciones;
+        }
+
+        @Override
+        public <T> T queryForObject(String sql, Class<T> requiredType) {
+            return queryForObject(sql, requiredType, new Object[0]);
+        }
+
+        @Override
+        public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+            Object resultado;
+            if (sql.contains("to_regclass")) {
+                resultado = existe;
+            } else if (sql.contains("pg_sequences")) {
+                resultado = incremento;
+            } else if (sql.contains("nextval")) {
+                // Ceder el procesador como lo haría la ida y vuelta a la base de datos
+                Thread.yield();
+                nextval.incrementAndGet();
+                resultado = proximo.getAndAdd(incremento);
+            } else if (sql.contains("MAX(")) {
+                resultado = mayorExistente + 1;
+            } else {
+                throw new IllegalStateException("Consulta no esperada: " + sql);
+            }
+            return requiredType.cast(resultado);
+        }
+
+        @Override
+        public synchronized void execute(String sql) {
+            Matcher matcher = CREACION.matcher(sql);
+            if (!sql.startsWith("CREATE SEQUENCE IF NOT EXISTS") || !matcher.find()) {
+                throw new IllegalStateException("Sentencia no esperada: " + sql);
+            }
+            creaciones.add(sql);
+            if (!existe) {
+                proximo.set(Long.parseLong(matcher.group(1)));
+                incremento = Long.parseLong(matcher.group(2));
+                existe = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.ConsultaMedica;
+import com.gestioneps.pacientes.entity.HistoriaClinica;
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Throughput del PDF de historias clínicas con 10, 100 y 1000 consultas: generación completa (cada invocación
+ * cambia la fecha de actualización, así que la clave de contenido es nueva) y descarga repetida servida desde el
+ * archivo ya generado. Los repositorios se simulan para medir el render y el disco, no la base de datos.
+ * Solo corre con -Dbenchmarks=true:
+ * mvn test -Dtest=HistoriaClinicaPdfBenchmarkTest -Dbenchmarks=true
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HistoriaClinicaPdfBenchmarkTest {
+
+    private static final long GENERADA = 1L;
+    private static final long CACHEADA = 2L;
+
+    @Param({"10", "100", "1000"})
+    public int consultas;
+
+    private Path directorio;
+    private HistoriaClinicaPdfService servicio;
+    private Map<Long, HistoriaClinica> historias;
+    private long versiones;
+
+    @Setup
+    public void preparar() throws IOException {
+        directorio = Files.createTempDirectory("pdf-benchmark");
+        historias = Map.of(GENERADA, historia(GENERADA), CACHEADA, historia(CACHEADA));
+        List<ConsultaMedica> lista = new ArrayList<>(consultas);
+        for (int i = 0; i < consultas; i++) {
+            lista.add(consulta(i));
+        }
+
+        // stubOnly: sin registrar invocaciones, que crecerían durante toda la medición
+        HistoriaClinicaRepository historiaClinicaRepository = mock(HistoriaClinicaRepository.class, withSettings().stubOnly());
+        when(historiaClinicaRepository.findById(any()))
+            .thenAnswer(invocacion -> Optional.ofNullable(historias.get(invocacion.<Long>getArgument(0))));
+        ConsultaMedicaRepository consultaMedicaRepository = mock(ConsultaMedicaRepository.class, withSettings().stubOnly());
+        when(consultaMedicaRepository.streamPorHistoria(any())).thenAnswer(invocacion -> lista.stream());
+
+        servicio = new HistoriaClinicaPdfService(historiaClinicaRepository, consultaMedicaRepository,
+            mock(EntityManager.class, withSettings().stubOnly()),
+            mock(PlatformTransactionManager.class, withSettings().stubOnly()), 2, 50, directorio.toString());
+        servicio.obtenerPdf(CACHEADA).join();
+    }
+
+    @TearDown
+    public void cerrar() throws IOException {
+        servicio.cerrar();
+        FileSystemUtils.deleteRecursively(directorio);
+    }
+
+    @Benchmark
+    public HistoriaClinicaPdfService.PdfHistoria generar() {
+        historias.get(GENERADA).setFechaActualizacion(LocalDateTime.of(2024, 1, 1, 0, 0).plusNanos(++versiones));
+        return servicio.obtenerPdf(GENERADA).join();
+    }
+
+    @Benchmark
+    public HistoriaClinicaPdfService.PdfHistoria cacheada() {
+        return servicio.obtenerPdf(CACHEADA).join();
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void ejecutar() throws RunnerException {
+        new Runner(new OptionsBuilder().include(HistoriaClinicaPdfBenchmarkTest.class.getName()).build()).run();
+    }
+
+    private static HistoriaClinica historia(long id) {
+        HistoriaClinica historia = new HistoriaClinica();
+        historia.setId(id);
+        historia.setNumeroHistoria("HC" + id);
+        historia.setFechaApertura(LocalDateTime.of(2020, 2, 3, 8, 30));
+        historia.setFechaActualizacion(LocalDateTime.of(2024, 1, 1, 0, 0));
+        historia.setActiva(true);
+        historia.setPacienteNombre("Ana María Pérez Gómez");
+        historia.setPacienteDocumento("52123456");
+        historia.setDatosJson("{\"motivoApertura\":\"Control de hipertensión\",\"antecedentes\":{\"personales\":"
+            + "\"Hipertensión arterial\",\"familiares\":\"Diabetes tipo 2\",\"alergias\":[\"Penicilina\"]}}");
+        return historia;
+    }
+
+    private static ConsultaMedica consulta(int numero) {
+        ConsultaMedica consulta = new ConsultaMedica();
+        consulta.setId(numero + 1L);
+        consulta.setFechaCreacion(LocalDateTime.of(2020, 2, 3, 8, 30).plusDays(numero));
+        consulta.setDatosJson("{\"informacionConsulta\":{\"tipoConsulta\":\"CONTROL\",\"motivoConsulta\":\"Control "
+            + numero + "\",\"enfermedadActual\":\"Paciente asintomática, adherente al tratamiento\"},"
+            + "\"informacionMedico\":{\"nombreMedico\":\"Dra. Ruiz\",\"especialidad\":\"Medicina interna\"},"
+            + "\"examenClinico\":{\"signosVitales\":{\"presionArterial\":\"130/85\",\"frecuenciaCardiaca\":72,"
+            + "\"temperatura\":36.5,\"peso\":68.2},\"hallazgos\":\"Sin hallazgos patológicos\"},"
+            + "\"diagnosticoTratamiento\":{\"diagnosticos\":[{\"codigo\":\"I10\",\"descripcion\":\"Hipertensión esencial\"}],"
+            + "\"tratamiento\":\"Losartán 50 mg cada 12 horas\",\"recomendaciones\":\"Dieta baja en sodio\"}}");
+        return consulta;
+    }
+}
@@ -0,0 +1,80 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.HistoriaClinica;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * El resumen de una historia no copia un nombre de paciente nulo mientras el backfill de columnas de búsqueda
+ * no haya llegado a ese paciente
+ */
+@SpringBootTest
+class HistoriaResumenBackfillTest {
+
+    @Autowired
+    private HistoriaClinicaRepository historiaClinicaRepository;
+
+    @Autowired
+    private PacienteRepository pacienteRepository;
+
+    @Autowired
+    private PacienteCamposBusquedaBackfill pacienteCamposBusquedaBackfill;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void esperaAQueElPacienteTengaNombreCompleto() {
+        Paciente paciente = pacienteRepository.save(DatosPrueba.paciente());
+        Long historiaId = historiaClinicaRepository.save(DatosPrueba.historia(paciente)).getId();
+        // Datos anteriores a las columnas: paciente sin columnas de búsqueda e historia sin resumen
+        jdbcTemplate.update("UPDATE pacientes SET nombre_completo = NULL, version_campos_busqueda = NULL WHERE id = ?",
+            paciente.getId());
+        jdbcTemplate.update("UPDATE historias_clinicas SET numero_consultas = NULL, paciente_nombre = NULL, "
+            + "paciente_documento = NULL WHERE id = ?", historiaId);
+
+        assertEquals(0, calcularResumen(historiaId), "La historia no debe resumirse con el paciente pendiente");
+
+        pacienteCamposBusquedaBackfill.ejecutar();
+
+        assertEquals(1, calcularResumen(historiaId));
+        HistoriaClinica historia = historiaClinicaRepository.findById(historiaId).orElseThrow();
+        assertEquals(paciente.getNombreCompleto(), historia.getPacienteNombre());
+        assertEquals(0L, historia.getNumeroConsultas().longValue());
+    }
+
+    @Test
+    void elBackfillDePacientesCompletaHistoriasYaResumidasSinNombre() {
+        Paciente paciente = pacienteRepository.save(DatosPrueba.paciente());
+        Long historiaId = historiaClinicaRepository.save(DatosPrueba.historia(paciente)).getId();
+        // Historia resumida (por ejemplo al registrar una consulta) antes de que el paciente tuviera nombre_completo
+        jdbcTemplate.update("UPDATE pacientes SET nombre_completo = NULL, version_campos_busqueda = NULL WHERE id = ?",
+            paciente.getId());
+        jdbcTemplate.update("UPDATE historias_clinicas SET paciente_nombre = NULL WHERE id = ?", historiaId);
+
+        pacienteCamposBusquedaBackfill.ejecutar();
+
+        assertEquals(paciente.getNombreCompleto(),
+            historiaClinicaRepository.findById(historiaId).orElseThrow().getPacienteNombre());
+    }
+
+    private int calcularResumen(Long historiaId) {
+        Integer filas = new TransactionTemplate(transactionManager).execute(status ->
+            historiaClinicaRepository.calcularResumen(List.of(historiaId), Paciente.VERSION_CAMPOS_BUSQUEDA));
+        return filas;
+    }
+}
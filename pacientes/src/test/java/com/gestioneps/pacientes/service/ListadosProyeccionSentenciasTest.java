@@ -0,0 +1,134 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.dto.CitaMedicaDTO;
+import com.gestioneps.pacientes.dto.ConsultaMedicaDTO;
+import com.gestioneps.pacientes.dto.DocumentoMedicoDTO;
+import com.gestioneps.pacientes.entity.CitaMedica;
+import com.gestioneps.pacientes.entity.HistoriaClinica;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import com.gestioneps.pacientes.repository.DocumentoMedicoRepository;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Los listados de citas, consultas y documentos traen la fila y el nombre del paciente en la misma sentencia:
+ * una página cuesta la consulta, el conteo y, donde aplica, la verificación de que el padre existe, sin cargar
+ * entidades ni asociaciones perezosas
+ */
+@SpringBootTest
+class ListadosProyeccionSentenciasTest {
+
+    private static final int FILAS = 15;
+    private static final int TAMANO_PAGINA = 10;
+
+    @Autowired
+    private CitaMedicaService citaMedicaService;
+
+    @Autowired
+    private ConsultaMedicaService consultaMedicaService;
+
+    @Autowired
+    private DocumentoMedicoService documentoMedicoService;
+
+    @Autowired
+    private PacienteRepository pacienteRepository;
+
+    @Autowired
+    private HistoriaClinicaRepository historiaClinicaRepository;
+
+    @Autowired
+    private CitaMedicaRepository citaMedicaRepository;
+
+    @Autowired
+    private ConsultaMedicaRepository consultaMedicaRepository;
+
+    @Autowired
+    private DocumentoMedicoRepository documentoMedicoRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private ContadorSentencias contador;
+    private Paciente paciente;
+    private HistoriaClinica historia;
+    private CitaMedica cita;
+
+    @BeforeEach
+    void crearDatos() throws InterruptedException {
+        contador = new ContadorSentencias(entityManagerFactory);
+        paciente = pacienteRepository.save(DatosPrueba.paciente());
+        historia = historiaClinicaRepository.save(DatosPrueba.historia(paciente));
+        for (int i = 0; i < FILAS; i++) {
+            cita = citaMedicaRepository.save(DatosPrueba.cita(paciente, LocalDateTime.now().plusDays(i + 1L)));
+            consultaMedicaRepository.save(DatosPrueba.consulta(historia));
+        }
+        for (int i = 0; i < FILAS; i++) {
+            documentoMedicoRepository.save(DatosPrueba.documento(cita));
+        }
+        contador.esperarReposo();
+    }
+
+    @Test
+    void citasDelPaciente() {
+        AtomicReference<Page<CitaMedicaDTO>> pagina = new AtomicReference<>();
+        long sentencias = contador.contar(() ->
+            pagina.set(citaMedicaService.obtenerCitasPorPaciente(paciente.getId(), PageRequest.of(0, TAMANO_PAGINA))));
+
+        assertSentencias(sentencias, 2);
+        assertEquals(TAMANO_PAGINA, pagina.get().getNumberOfElements());
+        assertEquals(FILAS, pagina.get().getTotalElements());
+        pagina.get().forEach(dto -> assertEquals(paciente.getNombreCompleto(), dto.getPacienteNombre()));
+    }
+
+    @Test
+    void citasActivas() {
+        long paginada = contador.contar(() -> citaMedicaService.obtenerTodasCitasActivas(PageRequest.of(0, TAMANO_PAGINA)));
+        assertSentencias(paginada, 2);
+
+        long porCursor = contador.contar(() -> citaMedicaService.obtenerCitasActivasPorCursor(null, TAMANO_PAGINA));
+        assertSentencias(porCursor, 1);
+    }
+
+    @Test
+    void consultasDeLaHistoria() {
+        AtomicReference<Page<ConsultaMedicaDTO>> pagina = new AtomicReference<>();
+        long sentencias = contador.contar(() ->
+            pagina.set(consultaMedicaService.obtenerConsultasPorHistoria(historia.getId(), PageRequest.of(0, TAMANO_PAGINA))));
+
+        assertSentencias(sentencias, 3);
+        assertEquals(TAMANO_PAGINA, pagina.get().getNumberOfElements());
+        pagina.get().forEach(dto -> assertEquals(paciente.getNombreCompleto(), dto.getPacienteNombre()));
+    }
+
+    @Test
+    void documentosDeLaCita() {
+        AtomicReference<Page<DocumentoMedicoDTO>> pagina = new AtomicReference<>();
+        long sentencias = contador.contar(() ->
+            pagina.set(documentoMedicoService.obtenerDocumentosPorCita(cita.getId(), PageRequest.of(0, TAMANO_PAGINA))));
+
+        assertSentencias(sentencias, 3);
+        assertEquals(TAMANO_PAGINA, pagina.get().getNumberOfElements());
+        pagina.get().forEach(dto -> assertEquals(paciente.getNombreCompleto(), dto.getPacienteNombre()));
+    }
+
+    private void assertSentencias(long sentencias, int maximo) {
+        assertTrue(sentencias <= maximo, "El listado ejecutó " + sentencias + " sentencias; el máximo es " + maximo);
+        assertEquals(0, contador.estadisticas().getEntityLoadCount(), "El listado cargó entidades en lugar de proyectar");
+        assertEquals(0, contador.estadisticas().getEntityFetchCount(), "El listado recorrió una asociación perezosa");
+    }
+}
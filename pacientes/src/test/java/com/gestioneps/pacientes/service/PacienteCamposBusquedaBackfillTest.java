@@ -0,0 +1,69 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * La escritura del backfill no pisa las columnas de búsqueda que la API recalculó después de leer el lote
+ */
+@SpringBootTest
+class PacienteCamposBusquedaBackfillTest {
+
+    @Autowired
+    private PacienteRepository pacienteRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void escribeLasFilasPendientes() {
+        Long id = pendiente(pacienteRepository.save(DatosPrueba.paciente()).getId());
+
+        int filas = escribirDesdeJsonLeido(id, "Nombre Backfill");
+
+        assertEquals(1, filas);
+        assertEquals("Nombre Backfill", nombreCompleto(id));
+    }
+
+    @Test
+    void noPisaUnaEscrituraPosteriorALaLecturaDelLote() {
+        Long id = pendiente(pacienteRepository.save(DatosPrueba.paciente()).getId());
+
+        // El backfill ya leyó el JSON anterior; antes de que escriba, el paciente se guarda desde la API
+        Paciente paciente = pacienteRepository.findById(id).orElseThrow();
+        paciente.setDatosJson("{\"informacionPersonal\":{\"primerNombre\":\"Nombre\",\"primerApellido\":\"Nuevo\"}}");
+        pacienteRepository.save(paciente);
+
+        int filas = escribirDesdeJsonLeido(id, "Nombre Anterior");
+
+        assertEquals(0, filas);
+        assertEquals("Nombre Nuevo", nombreCompleto(id));
+    }
+
+    private Long pendiente(Long id) {
+        jdbcTemplate.update("UPDATE pacientes SET version_campos_busqueda = NULL WHERE id = ?", id);
+        return id;
+    }
+
+    private int escribirDesdeJsonLeido(Long id, String nombre) {
+        Integer filas = new TransactionTemplate(transactionManager).execute(status ->
+            pacienteRepository.actualizarCamposBusqueda(id, nombre, null, null, null, null, null,
+                Paciente.VERSION_CAMPOS_BUSQUEDA));
+        return filas;
+    }
+
+    private String nombreCompleto(Long id) {
+        return jdbcTemplate.queryForObject("SELECT nombre_completo FROM pacientes WHERE id = ?", String.class, id);
+    }
+}
@@ -0,0 +1,98 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.dto.PacienteDTO;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Una página de pacientes resuelve los conteos de historias y citas con consultas agrupadas, así que su costo en
+ * sentencias no depende de cuántos pacientes trae
+ */
+@SpringBootTest
+class PacienteListadoSentenciasTest {
+
+    private static final int PACIENTES = 25;
+    private static final int SENTENCIAS_POR_PAGINA = 4;
+
+    @Autowired
+    private PacienteService pacienteService;
+
+    @Autowired
+    private PacienteRepository pacienteRepository;
+
+    @Autowired
+    private HistoriaClinicaRepository historiaClinicaRepository;
+
+    @Autowired
+    private CitaMedicaRepository citaMedicaRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private ContadorSentencias contador;
+    private final Set<Long> creados = new HashSet<>();
+
+    @BeforeEach
+    void crearPacientes() throws InterruptedException {
+        contador = new ContadorSentencias(entityManagerFactory);
+        for (int i = 0; i < PACIENTES; i++) {
+            Paciente paciente = pacienteRepository.save(DatosPrueba.paciente());
+            historiaClinicaRepository.save(DatosPrueba.historia(paciente));
+            historiaClinicaRepository.save(DatosPrueba.historia(paciente));
+            citaMedicaRepository.save(DatosPrueba.cita(paciente, LocalDateTime.now().plusDays(1)));
+            creados.add(paciente.getId());
+        }
+        contador.esperarReposo();
+    }
+
+    @Test
+    void laPaginaDePacientesCuestaLasMismasSentenciasConCincoQueConVeinte() {
+        PageRequest cinco = PageRequest.of(0, 5, Sort.by(Sort.Direction.DESC, "id"));
+        PageRequest veinte = PageRequest.of(0, 20, Sort.by(Sort.Direction.DESC, "id"));
+
+        long sentenciasCinco = contador.contar(() -> pacienteService.obtenerPacientesActivos(cinco));
+        AtomicReference<Page<PacienteDTO>> pagina = new AtomicReference<>();
+        long sentenciasVeinte = contador.contar(() -> pagina.set(pacienteService.obtenerPacientesActivos(veinte)));
+
+        assertEquals(sentenciasCinco, sentenciasVeinte, "El número de sentencias crece con el tamaño de la página");
+        assertTrue(sentenciasVeinte <= SENTENCIAS_POR_PAGINA,
+            "Una página de 20 pacientes ejecutó " + sentenciasVeinte + " sentencias");
+        assertEquals(0, contador.estadisticas().getCollectionFetchCount(), "Se inicializó una colección perezosa");
+
+        assertEquals(20, pagina.get().getNumberOfElements());
+        for (PacienteDTO dto : pagina.get().getContent()) {
+            if (creados.contains(dto.getId())) {
+                assertEquals(2L, dto.getNumeroHistoriasClinicas().longValue());
+                assertEquals(1L, dto.getNumeroCitasActivas().longValue());
+            }
+        }
+    }
+
+    @Test
+    void laBusquedaPorNombreTambienAgrupaLosConteos() {
+        PageRequest pagina = PageRequest.of(0, 20);
+
+        long sentencias = contador.contar(() -> pacienteService.buscarPacientesPorNombre("Paciente", pagina));
+
+        assertTrue(sentencias <= SENTENCIAS_POR_PAGINA, "La búsqueda por nombre ejecutó " + sentencias + " sentencias");
+        assertEquals(0, contador.estadisticas().getCollectionFetchCount(), "Se inicializó una colección perezosa");
+    }
+}
@@ -0,0 +1,143 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.dto.ConsultaMedicaDTO;
+import com.gestioneps.pacientes.dto.DocumentoMedicoDTO;
+import com.gestioneps.pacientes.dto.HistoriaClinicaDTO;
+import com.gestioneps.pacientes.entity.CitaMedica;
+import com.gestioneps.pacientes.entity.HistoriaClinica;
+import com.gestioneps.pacientes.entity.Paciente;
+import com.gestioneps.pacientes.repository.CitaMedicaRepository;
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import com.gestioneps.pacientes.repository.DocumentoMedicoRepository;
+import com.gestioneps.pacientes.repository.HistoriaClinicaRepository;
+import com.gestioneps.pacientes.repository.PacienteRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Los listados por rango de fechas, por historia y por cita paginan en la base de datos: pedir una página lee
+ * solo las filas de esa página (más la fila del conteo), no todo el historial del paciente
+ */
+@SpringBootTest
+class PaginacionEnBaseDeDatosTest {
+
+    private static final int FILAS = 120;
+    private static final int TAMANO_PAGINA = 10;
+
+    @Autowired
+    private HistoriaClinicaService historiaClinicaService;
+
+    @Autowired
+    private ConsultaMedicaService consultaMedicaService;
+
+    @Autowired
+    private DocumentoMedicoService documentoMedicoService;
+
+    @Autowired
+    private PacienteRepository pacienteRepository;
+
+    @Autowired
+    private HistoriaClinicaRepository historiaClinicaRepository;
+
+    @Autowired
+    private CitaMedicaRepository citaMedicaRepository;
+
+    @Autowired
+    private ConsultaMedicaRepository consultaMedicaRepository;
+
+    @Autowired
+    private DocumentoMedicoRepository documentoMedicoRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private ContadorSentencias contador;
+    private Paciente paciente;
+
+    @BeforeEach
+    void crearPaciente() {
+        contador = new ContadorSentencias(entityManagerFactory);
+        paciente = pacienteRepository.save(DatosPrueba.paciente());
+    }
+
+    @Test
+    void historiasPorRangoDeFechas() throws InterruptedException {
+        // Un rango propio de esta prueba, con más historias que una página
+        LocalDateTime desde = LocalDateTime.of(2001, 1, 1, 0, 0);
+        for (int i = 0; i < FILAS; i++) {
+            HistoriaClinica historia = DatosPrueba.historia(paciente);
+            historia.setFechaApertura(desde.plusHours(i));
+            historiaClinicaRepository.save(historia);
+        }
+        contador.esperarReposo();
+
+        AtomicReference<Page<HistoriaClinicaDTO>> pagina = new AtomicReference<>();
+        contador.contar(() -> pagina.set(historiaClinicaService.obtenerHistoriasPorFechas(
+            desde, desde.plusYears(1), PageRequest.of(2, TAMANO_PAGINA))));
+
+        assertEquals(TAMANO_PAGINA, pagina.get().getNumberOfElements());
+        assertTrue(pagina.get().getTotalElements() >= FILAS);
+        assertTrue(contador.estadisticas().getEntityLoadCount() <= TAMANO_PAGINA,
+            "Se cargaron " + contador.estadisticas().getEntityLoadCount() + " historias para una página de " + TAMANO_PAGINA);
+        assertSoloUnaPagina();
+    }
+
+    @Test
+    void consultasDeUnaHistoriaLarga() throws InterruptedException {
+        HistoriaClinica historia = historiaClinicaRepository.save(DatosPrueba.historia(paciente));
+        for (int i = 0; i < FILAS; i++) {
+            consultaMedicaRepository.save(DatosPrueba.consulta(historia));
+        }
+        contador.esperarReposo();
+
+        AtomicReference<Page<ConsultaMedicaDTO>> pagina = new AtomicReference<>();
+        contador.contar(() -> pagina.set(
+            consultaMedicaService.obtenerConsultasPorHistoria(historia.getId(), PageRequest.of(3, TAMANO_PAGINA))));
+
+        assertEquals(TAMANO_PAGINA, pagina.get().getNumberOfElements());
+        assertEquals(FILAS, pagina.get().getTotalElements());
+        assertSoloUnaPagina();
+    }
+
+    @Test
+    void documentosDeUnaCita() throws InterruptedException {
+        CitaMedica cita = citaMedicaRepository.save(DatosPrueba.cita(paciente, LocalDateTime.now().plusDays(1)));
+        for (int i = 0; i < FILAS; i++) {
+            documentoMedicoRepository.save(DatosPrueba.documento(cita));
+        }
+        contador.esperarReposo();
+
+        AtomicReference<Page<DocumentoMedicoDTO>> pagina = new AtomicReference<>();
+        contador.contar(() -> pagina.set(
+            documentoMedicoService.obtenerDocumentosPorCita(cita.getId(), PageRequest.of(1, TAMANO_PAGINA))));
+
+        assertEquals(TAMANO_PAGINA, pagina.get().getNumberOfElements());
+        assertEquals(FILAS, pagina.get().getTotalElements());
+        assertSoloUnaPagina();
+    }
+
+    /**
+     * Filas devueltas por todas las consultas del listado: la página, el conteo y la verificación de existencia
+     */
+    private void assertSoloUnaPagina() {
+        Statistics estadisticas = contador.estadisticas();
+        long filas = 0;
+        for (String consulta : estadisticas.getQueries()) {
+            filas += estadisticas.getQueryStatistics(consulta).getExecutionRowCount();
+        }
+        assertTrue(filas <= TAMANO_PAGINA + 2,
+            "El listado leyó " + filas + " filas para una página de " + TAMANO_PAGINA + " (total " + FILAS + ")");
+    }
+}
@@ -0,0 +1,139 @@
+package com.gestioneps.pacientes.service;
+
+import com.gestioneps.pacientes.repository.ConsultaMedicaRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Envío de recordatorios contra un servidor SMTP en la misma JVM: reintentos ante rechazos temporales, cierre
+ * único del recordatorio y liberación del reclamo cuando el envío no prospera. El reclamo y el cierre en la base
+ * de datos se simulan sobre el repositorio.
+ */
+class RecordatorioSeguimientoServiceTest {
+
+    private static final long CONSULTA = 41L;
+    private static final long ESPERA_MS = 10_000;
+    private static final LocalDateTime PROXIMA_CITA = LocalDateTime.now().plusDays(1).withHour(10).withMinute(0);
+
+    private ServidorSmtpPrueba servidor;
+    private ConsultaMedicaRepository consultaMedicaRepository;
+    private RecordatorioSeguimientoService servicio;
+
+    @BeforeEach
+    void iniciar() throws IOException {
+        servidor = new ServidorSmtpPrueba();
+
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost(servidor.host());
+        mailSender.setPort(servidor.puerto());
+        Properties propiedades = new Properties();
+        propiedades.put("mail.smtp.connectiontimeout", "5000");
+        propiedades.put("mail.smtp.timeout", "5000");
+        mailSender.setJavaMailProperties(propiedades);
+
+        consultaMedicaRepository = mock(ConsultaMedicaRepository.class);
+        servicio = new RecordatorioSeguimientoService(consultaMedicaRepository, mailSender,
+            mock(PlatformTransactionManager.class), 2, 10);
+        ReflectionTestUtils.setField(servicio, "anticipacionHoras", 48);
+        ReflectionTestUtils.setField(servicio, "tamanoLote", 50);
+        ReflectionTestUtils.setField(servicio, "reintentos", 3);
+        ReflectionTestUtils.setField(servicio, "maxIntentos", 5);
+        ReflectionTestUtils.setField(servicio, "plazoReclamoMinutos", 10);
+        ReflectionTestUtils.setField(servicio, "remitente", "citas@eps.test");
+    }
+
+    @AfterEach
+    void detener() throws IOException {
+        servicio.cerrar();
+        servidor.close();
+    }
+
+    @Test
+    void reintentaTrasUnRechazoTemporalYCierraElRecordatorioUnaSolaVez() throws Exception {
+        reclamar(datos("ana@correo.test"));
+        servidor.rechazarTemporalmente(1);
+
+        assertEquals(1, servicio.despachar());
+
+        verify(consultaMedicaRepository, timeout(ESPERA_MS)).cerrarRecordatorio(eq(CONSULTA), eq("ENVIADO"), any());
+        verify(consultaMedicaRepository, never()).liberarRecordatorio(anyLong());
+        assertEquals(2, servidor.transacciones(), "Debe haber un intento rechazado y un reintento");
+        assertEquals(1, servidor.entregados().size());
+
+        ServidorSmtpPrueba.Mensaje mensaje = servidor.entregados().get(0);
+        assertEquals(List.of("ana@correo.test"), mensaje.destinatarios());
+        assertEquals("Recordatorio de cita de control", mensaje.asunto());
+        assertTrue(mensaje.texto().contains("Ana Pérez"), mensaje.texto());
+        assertTrue(mensaje.texto().contains("con Dra. Ruiz (Cardiología)"), mensaje.texto());
+    }
+
+    @Test
+    void liberaElReclamoSiElServidorSigueRechazando() {
+        reclamar(datos("ana@correo.test"));
+        servidor.rechazarTemporalmente(Integer.MAX_VALUE);
+        ReflectionTestUtils.setField(servicio, "reintentos", 2);
+
+        assertEquals(1, servicio.despachar());
+
+        verify(consultaMedicaRepository, timeout(ESPERA_MS)).liberarRecordatorio(CONSULTA);
+        verify(consultaMedicaRepository, never()).cerrarRecordatorio(anyLong(), any(), any());
+        assertEquals(2, servidor.transacciones());
+        assertTrue(servidor.entregados().isEmpty());
+    }
+
+    @Test
+    void sinEmailSeCierraSinContactarAlServidor() {
+        reclamar(datos(null));
+
+        assertEquals(1, servicio.despachar());
+
+        verify(consultaMedicaRepository, timeout(ESPERA_MS)).cerrarRecordatorio(eq(CONSULTA), eq("SIN_EMAIL"), any());
+        assertEquals(0, servidor.conexiones());
+    }
+
+    @Test
+    void sinReclamosNoSeEnviaNada() {
+        when(consultaMedicaRepository.reclamarRecordatorios(any(), any(), any(), anyLong(), any(), any(), anyInt(), anyInt()))
+            .thenReturn(List.of());
+
+        assertEquals(0, servicio.despachar());
+
+        verify(consultaMedicaRepository, never()).findDatosRecordatorio(any());
+        assertEquals(0, servidor.conexiones());
+    }
+
+    /**
+     * El primer lote reclamado trae la consulta; el siguiente viene vacío, como cuando ya no quedan pendientes
+     */
+    private void reclamar(Object[] datos) {
+        List<Object[]> lote = List.<Object[]>of(new Object[]{CONSULTA, PROXIMA_CITA});
+        when(consultaMedicaRepository.reclamarRecordatorios(any(), any(), any(), anyLong(), any(), any(), anyInt(), anyInt()))
+            .thenReturn(lote, List.of());
+        when(consultaMedicaRepository.findDatosRecordatorio(any())).thenReturn(List.<Object[]>of(datos));
+    }
+
+    private static Object[] datos(String email) {
+        return new Object[]{CONSULTA, PROXIMA_CITA, "Dra. Ruiz", "Cardiología", "Ana Pérez", email};
+    }
+}
@@ -0,0 +1,189 @@
+package com.gestioneps.pacientes.service;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeMessage;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor SMTP mínimo en la misma JVM para las pruebas de envío de correo. Acepta cualquier remitente y
+ * destinatario, guarda los mensajes entregados y puede rechazar temporalmente (451) las siguientes transacciones
+ * para probar los reintentos.
+ */
+final class ServidorSmtpPrueba implements AutoCloseable {
+
+    private final ServerSocket socket;
+    private final ExecutorService sesiones = Executors.newCachedThreadPool(tarea -> {
+        Thread hilo = new Thread(tarea, "smtp-prueba-sesion");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+    private final List<Mensaje> entregados = new CopyOnWriteArrayList<>();
+    private final AtomicInteger rechazosPendientes = new AtomicInteger();
+    private final AtomicInteger transacciones = new AtomicInteger();
+    private final AtomicInteger conexiones = new AtomicInteger();
+
+    ServidorSmtpPrueba() throws IOException {
+        socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread aceptador = new Thread(this::aceptar, "smtp-prueba");
+        aceptador.setDaemon(true);
+        aceptador.start();
+    }
+
+    String host() {
+        return socket.getInetAddress().getHostAddress();
+    }
+
+    int puerto() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Responder 451 al final de DATA en las próximas transacciones
+     */
+    void rechazarTemporalmente(int veces) {
+        rechazosPendientes.set(veces);
+    }
+
+    List<Mensaje> entregados() {
+        return entregados;
+    }
+
+    /**
+     * Transacciones que llegaron hasta el final de DATA, entregadas o rechazadas
+     */
+    int transacciones() {
+        return transacciones.get();
+    }
+
+    int conexiones() {
+        return conexiones.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        sesiones.shutdownNow();
+    }
+
+    private void aceptar() {
+        while (!socket.isClosed()) {
+            try {
+                Socket cliente = socket.accept();
+                conexiones.incrementAndGet();
+                sesiones.execute(() -> atender(cliente));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void atender(Socket cliente) {
+        // ISO-8859-1 conserva los bytes tal cual llegan, también en cuerpos de 8 bits
+        try (cliente;
+             BufferedReader entrada = new BufferedReader(new InputStreamReader(cliente.getInputStream(), StandardCharsets.ISO_8859_1));
+             Writer salida = new OutputStreamWriter(cliente.getOutputStream(), StandardCharsets.ISO_8859_1)) {
+            responder(salida, "220 localhost SMTP de prueba");
+            List<String> destinatarios = new ArrayList<>();
+            String linea;
+            while ((linea = entrada.readLine()) != null) {
+                String comando = linea.length() > 4 ? linea.substring(0, 4) : linea;
+                switch (comando.toUpperCase(Locale.ROOT)) {
+                    case "EHLO", "HELO" -> responder(salida, "250 localhost");
+                    case "MAIL" -> {
+                        destinatarios.clear();
+                        responder(salida, "250 OK");
+                    }
+                    case "RCPT" -> {
+                        destinatarios.add(direccion(linea));
+                        responder(salida, "250 OK");
+                    }
+                    case "DATA" -> {
+                        responder(salida, "354 Termine con <CRLF>.<CRLF>");
+                        StringBuilder contenido = new StringBuilder();
+                        while ((linea = entrada.readLine()) != null && !linea.equals(".")) {
+                            contenido.append(linea.startsWith(".") ? linea.substring(1) : linea).append("\r\n");
+                        }
+                        transacciones.incrementAndGet();
+                        if (rechazosPendientes.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                            responder(salida, "451 4.3.0 Falla temporal de prueba");
+                        } else {
+                            entregados.add(new Mensaje(List.copyOf(destinatarios), contenido.toString()));
+                            responder(salida, "250 OK");
+                        }
+                    }
+                    case "RSET" -> {
+                        destinatarios.clear();
+                        responder(salida, "250 OK");
+                    }
+                    case "NOOP" -> responder(salida, "250 OK");
+                    case "QUIT" -> {
+                        responder(salida, "221 Hasta luego");
+                        return;
+                    }
+                    default -> responder(salida, "502 Comando no implementado");
+                }
+            }
+        } catch (IOException e) {
+            // El cliente cerró la conexión
+        }
+    }
+
+    private static void responder(Writer salida, String respuesta) throws IOException {
+        salida.write(respuesta + "\r\n");
+        salida.flush();
+    }
+
+    private static String direccion(String linea) {
+        int inicio = linea.indexOf('<');
+        int fin = linea.indexOf('>');
+        return inicio >= 0 && fin > inicio ? linea.substring(inicio + 1, fin) : linea.substring(linea.indexOf(':') + 1).trim();
+    }
+
+    /**
+     * Mensaje entregado: destinatarios del sobre y contenido MIME tal como llegó
+     */
+    record Mensaje(List<String> destinatarios, String contenido) {
+
+        MimeMessage mime() throws MessagingException {
+            return new MimeMessage(Session.getInstance(new Properties()),
+                new ByteArrayInputStream(contenido.getBytes(StandardCharsets.ISO_8859_1)));
+        }
+
+        String asunto() throws MessagingException {
+            return mime().getSubject();
+        }
+
+        /**
+         * Cuerpo de texto decodificado (quoted-printable o base64) con el juego de caracteres declarado
+         */
+        String texto() throws MessagingException, IOException {
+            MimeMessage mime = mime();
+            String charset = new ContentType(mime.getContentType()).getParameter("charset");
+            try (InputStream cuerpo = mime.getInputStream()) {
+                return new String(cuerpo.readAllBytes(), charset != null ? Charset.forName(charset) : StandardCharsets.UTF_8);
+            }
+        }
+    }
+}